@@ -0,0 +1,513 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of the links going out of and coming into object
+ * revisions.
+ * 
+ * For each (link type, source id, source revision) which has been read,
+ * the cache keeps the outgoing link revisions and the destination
+ * revisions. For each (link type, destination id, destination revision),
+ * it keeps the incoming link revisions and the source revisions, which is
+ * the reverse index used by getIncomingLinks. Entries are loaded lazily and
+ * the least recently used entries are evicted when the cache is full.
+ * 
+ * Only entries already in the cache are read in constant time. The service
+ * has no reverse link query returning link revisions, so a miss on incoming
+ * links costs 1 + N queries for N incoming links: getLinkSrcRev, then
+ * getLinkRev for each source. A miss on outgoing links costs two queries.
+ * 
+ * Modifications must be made through this cache to keep it coherent.
+ * Invalidation is per object: adding a link invalidates all entries of its
+ * source and destination objects, deleting a link invalidates the entries
+ * containing it, deleting an object or creating one of its revisions
+ * invalidates its entries and the entries linked to it. Nothing is cached
+ * once a transaction has modified links until it ends.
+ */
+public class AdjacencyCache {
+
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	private ModelVersionDBService m_db;
+	private int m_maxSize;
+
+	private Map<AdjacencyKey, Adjacency> m_entries;
+
+	/*
+	 * object id -> cached entries of this object
+	 */
+	private Map<UUID, Set<AdjacencyKey>> m_objectKeys = new HashMap<UUID, Set<AdjacencyKey>>();
+
+	/*
+	 * object id -> cached entries which contain a link to or from this object
+	 */
+	private Map<UUID, Set<AdjacencyKey>> m_referenceKeys = new HashMap<UUID, Set<AdjacencyKey>>();
+
+	/*
+	 * link id -> cached entries which contain this link
+	 */
+	private Map<UUID, Set<AdjacencyKey>> m_linkKeys = new HashMap<UUID, Set<AdjacencyKey>>();
+
+	private boolean m_inTransaction;
+	private boolean m_txModified;
+
+	/*
+	 * incremented on each modification so that entries read concurrently
+	 * with a modification are not cached
+	 */
+	private long m_generation;
+
+	private AtomicLong m_hits = new AtomicLong();
+	private AtomicLong m_misses = new AtomicLong();
+	private AtomicLong m_queries = new AtomicLong();
+
+	public AdjacencyCache(ModelVersionDBService db) {
+		this(db, DEFAULT_MAX_SIZE);
+	}
+
+	public AdjacencyCache(ModelVersionDBService db, int maxSize) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Cache size must be positive.");
+
+		m_db = db;
+		m_maxSize = maxSize;
+		m_entries = new LinkedHashMap<AdjacencyKey, Adjacency>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<AdjacencyKey, Adjacency> eldest) {
+				if (size() <= m_maxSize)
+					return false;
+
+				forgetEntry(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Same as ModelVersionDBService.getOutgoingLinks(UUID, UUID, int).
+	 * The returned list cannot be modified.
+	 */
+	public List<Revision> getOutgoingLinks(UUID linkType, UUID srcId, int srcRev) throws ModelVersionDBException {
+		if (!isCacheable(linkType, srcId, srcRev)) {
+			m_queries.incrementAndGet();
+			return m_db.getOutgoingLinks(linkType, srcId, srcRev);
+		}
+
+		return getAdjacency(linkType, srcId, srcRev, false)._links;
+	}
+
+	/**
+	 * Same as ModelVersionDBService.getLinkDestRev(UUID, UUID, int).
+	 * The returned list cannot be modified.
+	 */
+	public List<Revision> getLinkDestRev(UUID linkType, UUID srcId, int srcRev) throws ModelVersionDBException {
+		if (!isCacheable(linkType, srcId, srcRev)) {
+			m_queries.incrementAndGet();
+			return m_db.getLinkDestRev(linkType, srcId, srcRev);
+		}
+
+		return getAdjacency(linkType, srcId, srcRev, false)._ends;
+	}
+
+	/**
+	 * Same as ModelVersionDBService.getLinkNumber(UUID, UUID, int).
+	 */
+	public int getLinkNumber(UUID linkType, UUID srcId, int srcRev) throws ModelVersionDBException {
+		if (!isCacheable(linkType, srcId, srcRev)) {
+			m_queries.incrementAndGet();
+			return m_db.getLinkNumber(linkType, srcId, srcRev);
+		}
+
+		return getAdjacency(linkType, srcId, srcRev, false)._ends.size();
+	}
+
+	/**
+	 * Returns the revisions of the links of the specified type whose
+	 * destination is the specified object revision.
+	 * The returned list cannot be modified.
+	 * 
+	 * A miss costs 1 + N queries for N incoming links, a hit costs none.
+	 */
+	public List<Revision> getIncomingLinks(UUID linkType, UUID destId, int destRev) throws ModelVersionDBException {
+		if (!isCacheable(linkType, destId, destRev)) {
+			m_queries.incrementAndGet();
+			return loadIncomingLinks(linkType, destId, destRev, m_db.getLinkSrcRev(linkType, destId, destRev));
+		}
+
+		return getAdjacency(linkType, destId, destRev, true)._links;
+	}
+
+	/**
+	 * Same as ModelVersionDBService.getLinkSrcRev(UUID, UUID, int).
+	 * The returned list cannot be modified.
+	 * 
+	 * A miss loads the whole incoming entry and costs 1 + N queries for N
+	 * incoming links, a hit costs none.
+	 */
+	public List<Revision> getLinkSrcRev(UUID linkType, UUID destId, int destRev) throws ModelVersionDBException {
+		if (!isCacheable(linkType, destId, destRev)) {
+			m_queries.incrementAndGet();
+			return m_db.getLinkSrcRev(linkType, destId, destRev);
+		}
+
+		return getAdjacency(linkType, destId, destRev, true)._ends;
+	}
+
+	/*
+	 * Modification methods
+	 */
+
+	public Revision addLink(UUID linkType, UUID srcId, int srcRev, UUID destId, int destRev, 
+			Map<String, Object> stateMap) throws ModelVersionDBException {
+		modify();
+		try {
+			return m_db.addLink(linkType, srcId, srcRev, destId, destRev, stateMap);
+		} finally {
+			// the link may be visible from several revisions of its ends
+			invalidateObject(srcId);
+			invalidateObject(destId);
+		}
+	}
+
+	public void deleteLink(UUID linkId) throws ModelVersionDBException {
+		modify();
+		try {
+			m_db.deleteLink(linkId);
+		} finally {
+			invalidateLink(linkId);
+		}
+	}
+
+	public void deleteObject(UUID objId) throws ModelVersionDBException {
+		modify();
+		try {
+			m_db.deleteObject(objId);
+		} finally {
+			invalidateObject(objId);
+			invalidateReferences(objId);
+		}
+	}
+
+	public int createNewObjectRevision(UUID objId, int rev) throws ModelVersionDBException {
+		modify();
+		try {
+			return m_db.createNewObjectRevision(objId, rev);
+		} finally {
+			invalidateObject(objId);
+			invalidateReferences(objId);
+		}
+	}
+
+	public void setLinkSrcVersionSpecific(UUID linkType, boolean versionSpecific) throws ModelVersionDBException {
+		modify();
+		try {
+			m_db.setLinkSrcVersionSpecific(linkType, versionSpecific);
+		} finally {
+			invalidateAll();
+		}
+	}
+
+	public void setLinkDestVersionSpecific(UUID linkType, boolean versionSpecific) throws ModelVersionDBException {
+		modify();
+		try {
+			m_db.setLinkDestVersionSpecific(linkType, versionSpecific);
+		} finally {
+			invalidateAll();
+		}
+	}
+
+	public void clear() throws ModelVersionDBException {
+		modify();
+		try {
+			m_db.clear();
+		} finally {
+			invalidateAll();
+		}
+	}
+
+	/*
+	 * Transaction methods
+	 */
+
+	public void beginTransaction() throws ModelVersionDBException, TransactionException {
+		m_db.beginTransaction();
+		synchronized (this) {
+			m_inTransaction = true;
+			m_txModified = false;
+		}
+	}
+
+	public void commitTransaction() throws ModelVersionDBException, TransactionException {
+		try {
+			m_db.commitTransaction();
+		} finally {
+			endTransaction();
+		}
+	}
+
+	/**
+	 * Entries modified in the transaction have been invalidated and no entry
+	 * has been cached since, so the cache is still coherent after rollback.
+	 */
+	public void rollbackTransaction() throws ModelVersionDBException, TransactionException {
+		try {
+			m_db.rollbackTransaction();
+		} finally {
+			endTransaction();
+		}
+	}
+
+	private synchronized void endTransaction() {
+		m_generation++;
+		m_inTransaction = false;
+		m_txModified = false;
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	public long getHitCount() {
+		return m_hits.get();
+	}
+
+	public long getMissCount() {
+		return m_misses.get();
+	}
+
+	/**
+	 * Returns the number of database queries made by the read methods. A
+	 * miss on outgoing links costs two queries, a miss on incoming links
+	 * costs one query plus one per incoming link.
+	 */
+	public long getQueryCount() {
+		return m_queries.get();
+	}
+
+	/**
+	 * Returns the ratio of reads served from the cache, 0 if nothing has
+	 * been read.
+	 */
+	public double getHitRatio() {
+		long hits = m_hits.get();
+		long total = hits + m_misses.get();
+
+		return (total == 0) ? 0 : (double) hits / total;
+	}
+
+	public synchronized int size() {
+		return m_entries.size();
+	}
+
+	public int getMaxSize() {
+		return m_maxSize;
+	}
+
+	public void resetStatistics() {
+		m_hits.set(0);
+		m_misses.set(0);
+		m_queries.set(0);
+	}
+
+	/*
+	 * Private methods
+	 */
+
+	private boolean isCacheable(UUID linkType, UUID objId, int rev) {
+		// LAST is resolved and errors are reported by the database
+		return (linkType != null) && (objId != null) && (rev >= 0);
+	}
+
+	private Adjacency getAdjacency(UUID linkType, UUID objId, int rev, boolean incoming) 
+			throws ModelVersionDBException {
+		AdjacencyKey key = new AdjacencyKey(linkType, objId, rev, incoming);
+		long generation;
+		synchronized (this) {
+			Adjacency adjacency = m_entries.get(key);
+			if (adjacency != null) {
+				m_hits.incrementAndGet();
+				return adjacency;
+			}
+			generation = m_generation;
+		}
+
+		m_misses.incrementAndGet();
+		Adjacency adjacency;
+		if (incoming) {
+			m_queries.incrementAndGet();
+			List<Revision> srcRevs = m_db.getLinkSrcRev(linkType, objId, rev);
+			adjacency = new Adjacency(loadIncomingLinks(linkType, objId, rev, srcRevs), srcRevs);
+		} else {
+			m_queries.addAndGet(2);
+			adjacency = new Adjacency(m_db.getOutgoingLinks(linkType, objId, rev), 
+					m_db.getLinkDestRev(linkType, objId, rev));
+		}
+		synchronized (this) {
+			if ((generation == m_generation) && !m_txModified && !m_entries.containsKey(key)) {
+				m_entries.put(key, adjacency);
+				addKey(m_objectKeys, objId, key);
+				for (Revision link : adjacency._links)
+					addKey(m_linkKeys, link.getId(), key);
+				for (Revision end : adjacency._ends)
+					addKey(m_referenceKeys, end.getId(), key);
+			}
+		}
+
+		return adjacency;
+	}
+
+	private List<Revision> loadIncomingLinks(UUID linkType, UUID destId, int destRev, List<Revision> srcRevs) 
+			throws ModelVersionDBException {
+		List<Revision> links = new ArrayList<Revision>(srcRevs.size());
+		m_queries.addAndGet(srcRevs.size());
+		for (Revision srcRev : srcRevs)
+			links.add(m_db.getLinkRev(linkType, srcRev.getId(), srcRev.getRev(), destId, destRev));
+
+		return Collections.unmodifiableList(links);
+	}
+
+	private synchronized void modify() {
+		m_generation++;
+		if (m_inTransaction)
+			m_txModified = true;
+	}
+
+	private synchronized void invalidateObject(UUID objId) {
+		m_generation++;
+		invalidate(m_objectKeys.get(objId));
+	}
+
+	private synchronized void invalidateReferences(UUID objId) {
+		m_generation++;
+		invalidate(m_referenceKeys.get(objId));
+	}
+
+	private synchronized void invalidateLink(UUID linkId) {
+		m_generation++;
+		invalidate(m_linkKeys.get(linkId));
+	}
+
+	private synchronized void invalidateAll() {
+		m_generation++;
+		m_entries.clear();
+		m_objectKeys.clear();
+		m_referenceKeys.clear();
+		m_linkKeys.clear();
+	}
+
+	private void invalidate(Set<AdjacencyKey> keys) {
+		if (keys == null)
+			return;
+
+		for (AdjacencyKey key : keys.toArray(new AdjacencyKey[keys.size()])) {
+			Adjacency adjacency = m_entries.remove(key);
+			if (adjacency != null)
+				forgetEntry(key, adjacency);
+		}
+	}
+
+	private void forgetEntry(AdjacencyKey key, Adjacency adjacency) {
+		removeKey(m_objectKeys, key._objId, key);
+		for (Revision link : adjacency._links)
+			removeKey(m_linkKeys, link.getId(), key);
+		for (Revision end : adjacency._ends)
+			removeKey(m_referenceKeys, end.getId(), key);
+	}
+
+	private static void addKey(Map<UUID, Set<AdjacencyKey>> keyMap, UUID id, AdjacencyKey key) {
+		Set<AdjacencyKey> keys = keyMap.get(id);
+		if (keys == null) {
+			keys = new HashSet<AdjacencyKey>();
+			keyMap.put(id, keys);
+		}
+		keys.add(key);
+	}
+
+	private static void removeKey(Map<UUID, Set<AdjacencyKey>> keyMap, UUID id, AdjacencyKey key) {
+		Set<AdjacencyKey> keys = keyMap.get(id);
+		if (keys == null)
+			return;
+
+		keys.remove(key);
+		if (keys.isEmpty())
+			keyMap.remove(id);
+	}
+
+	private static class AdjacencyKey {
+
+		private UUID _linkType;
+		private UUID _objId;
+		private int _rev;
+		private boolean _incoming;
+
+		private AdjacencyKey(UUID linkType, UUID objId, int rev, boolean incoming) {
+			_linkType = linkType;
+			_objId = objId;
+			_rev = rev;
+			_incoming = incoming;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((_linkType.hashCode() * 31 + _objId.hashCode()) * 31 + _rev) * 2 + (_incoming ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof AdjacencyKey))
+				return false;
+
+			AdjacencyKey key = (AdjacencyKey) obj;
+			return (_rev == key._rev) && (_incoming == key._incoming) && _objId.equals(key._objId) && 
+				_linkType.equals(key._linkType);
+		}
+	}
+
+	private static class Adjacency {
+
+		private List<Revision> _links;
+
+		/*
+		 * destination revisions of outgoing links, source revisions of
+		 * incoming links
+		 */
+		private List<Revision> _ends;
+
+		private Adjacency(List<Revision> links, List<Revision> ends) {
+			_links = Collections.unmodifiableList(links);
+			_ends = Collections.unmodifiableList(ends);
+		}
+	}
+}
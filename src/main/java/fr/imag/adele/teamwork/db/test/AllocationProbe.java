@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * Measures the bytes allocated by the current thread between start and stop.
+ * 
+ * Uses the per thread allocation counter of the HotSpot ThreadMXBean when the
+ * running JVM provides it. Otherwise, falls back to the variation of the used
+ * heap, which is only meaningful if no garbage collection occurred in between.
+ */
+public class AllocationProbe {
+
+	private static final Object THREAD_BEAN = ManagementFactory.getThreadMXBean();
+	private static final Method ALLOCATED_BYTES_METHOD = getAllocatedBytesMethod();
+
+	private long _start;
+
+	public static boolean isThreadCounterSupported() {
+		return ALLOCATED_BYTES_METHOD != null;
+	}
+
+	public void start() {
+		_start = getAllocatedBytes();
+	}
+
+	/**
+	 * Returns the bytes allocated since the last call to start.
+	 */
+	public long stop() {
+		return Math.max(0, getAllocatedBytes() - _start);
+	}
+
+	private static long getAllocatedBytes() {
+		if (ALLOCATED_BYTES_METHOD != null) {
+			try {
+				return ((Long) ALLOCATED_BYTES_METHOD.invoke(THREAD_BEAN, 
+						Thread.currentThread().getId())).longValue();
+			} catch (Exception e) {
+				// use heap usage
+			}
+		}
+
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static Method getAllocatedBytesMethod() {
+		try {
+			Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+			if (!beanClass.isInstance(THREAD_BEAN))
+				return null;
+
+			Method method = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+			method.invoke(THREAD_BEAN, Thread.currentThread().getId());
+			return method;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,435 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous facade of ModelVersionDBService.
+ *
+ * Calls return a Future immediately so that a caller can issue several
+ * requests and wait for all of them. Each session, a service instance with
+ * its own connection, has a pipeline: a thread which executes the requests
+ * sent to the session one after the other. Requests about one object are
+ * sent to the pipeline of the object id, so that requests about different
+ * objects run in parallel on different connections while the requests about
+ * the same object are executed in the order they were issued.
+ * 
+ * Requests about several ids, such as addLink, wait for the requests issued
+ * before them on the pipelines of each of their ids, and requests about a
+ * type, such as getObjectRevs, wait for the requests issued before them on
+ * all pipelines: they stop these pipelines while they run. So a request sees
+ * the writes issued before it about the ids it involves. Requests about
+ * unrelated ids are not ordered.
+ *
+ * Each pipeline accepts at most <code>queueCapacity</code> pending requests;
+ * when it is full, the calling thread waits for a request to complete.
+ * Errors are thrown by Future.get as the cause of an ExecutionException.
+ * Transactions are not supported: sessions must not be in a transaction.
+ */
+public class AsyncModelVersionDB {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+	private static final UUID[] ALL_PIPELINES = new UUID[0];
+
+	private ModelVersionDBService[] m_sessions;
+	private ExecutorService[] m_pipelines;
+	private Semaphore[] m_capacities;
+	private int m_queueCapacity;
+
+	/*
+	 * held while the parts of a request spanning several pipelines are
+	 * queued, so that they are queued in the same order on every pipeline
+	 */
+	private Object m_spanningLock = new Object();
+
+	private AtomicLong m_requestCount = new AtomicLong();
+	private AtomicLong m_waitCount = new AtomicLong();
+
+	public AsyncModelVersionDB(ModelVersionDBService... sessions) {
+		this(DEFAULT_QUEUE_CAPACITY, sessions);
+	}
+
+	/**
+	 * Creates a pipeline for each session. Sessions must be distinct instances
+	 * connected to the same database and must not be used directly anymore.
+	 */
+	public AsyncModelVersionDB(int queueCapacity, ModelVersionDBService... sessions) {
+		if (queueCapacity <= 0)
+			throw new IllegalArgumentException("Queue capacity must be positive.");
+		if ((sessions == null) || (sessions.length == 0))
+			throw new IllegalArgumentException("At least one session is required.");
+		for (int i = 0; i < sessions.length; i++) {
+			if (sessions[i] == null)
+				throw new IllegalArgumentException("Session cannot be null.");
+			for (int j = 0; j < i; j++) {
+				if (sessions[j] == sessions[i])
+					throw new IllegalArgumentException("Sessions must be distinct instances.");
+			}
+		}
+
+		m_queueCapacity = queueCapacity;
+		m_sessions = sessions.clone();
+		m_pipelines = new ExecutorService[sessions.length];
+		m_capacities = new Semaphore[sessions.length];
+		for (int i = 0; i < sessions.length; i++) {
+			m_pipelines[i] = Executors.newSingleThreadExecutor();
+			m_capacities[i] = new Semaphore(queueCapacity);
+		}
+	}
+
+	public int getSessionCount() {
+		return m_sessions.length;
+	}
+
+	public int getQueueCapacity() {
+		return m_queueCapacity;
+	}
+
+	/*
+	 * Reads
+	 */
+
+	public Future<Boolean> objExists(final UUID objId) {
+		return submit(objId, new Request<Boolean>() {
+			Boolean call(ModelVersionDBService session) throws ModelVersionDBException {
+				return session.objExists(objId);
+			}
+		});
+	}
+
+	public Future<Boolean> objExists(final UUID objId, final int rev) {
+		return submit(objId, new Request<Boolean>() {
+			Boolean call(ModelVersionDBService session) throws ModelVersionDBException {
+				return session.objExists(objId, rev);
+			}
+		});
+	}
+
+	public Future<Map<String, Object>> getObjectState(final UUID objId, final int rev) {
+		return submit(objId, new Request<Map<String, Object>>() {
+			Map<String, Object> call(ModelVersionDBService session) throws ModelVersionDBException {
+				return session.getObjectState(objId, rev);
+			}
+		});
+	}
+
+	public Future<Object> getObjectValue(final UUID objId, final int rev, final String attr) {
+		return submit(objId, new Request<Object>() {
+			Object call(ModelVersionDBService session) throws ModelVersionDBException {
+				return session.getObjectValue(objId, rev, attr);
+			}
+		});
+	}
+
+	public Future<List<Revision>> getObjectRevs(final UUID typeId, final Map<String, Object> stateMap,
+			final boolean allRevs) {
+		return submit(ALL_PIPELINES, new Request<List<Revision>>() {
+			List<Revision> call(ModelVersionDBService session) throws ModelVersionDBException {
+				return session.getObjectRevs(typeId, stateMap, allRevs);
+			}
+		});
+	}
+
+	public Future<List<Revision>> getObjectRevs(final UUID typeId, final String attr, final Object value,
+			final boolean allRevs) {
+		return submit(ALL_PIPELINES, new Request<List<Revision>>() {
+			List<Revision> call(ModelVersionDBService session) throws ModelVersionDBException {
+				return session.getObjectRevs(typeId, attr, value, allRevs);
+			}
+		});
+	}
+
+	public Future<List<Revision>> getOutgoingLinks(final UUID typeId, final UUID srcId, final int srcRev) {
+		return submit(srcId, new Request<List<Revision>>() {
+			List<Revision> call(ModelVersionDBService session) throws ModelVersionDBException {
+				return session.getOutgoingLinks(typeId, srcId, srcRev);
+			}
+		});
+	}
+
+	public Future<List<Revision>> getOutgoingLinks(final UUID srcId, final int srcRev, final UUID destId) {
+		return submit(srcId, new Request<List<Revision>>() {
+			List<Revision> call(ModelVersionDBService session) throws ModelVersionDBException {
+				return session.getOutgoingLinks(srcId, srcRev, destId);
+			}
+		});
+	}
+
+	/*
+	 * Writes
+	 */
+
+	public Future<Integer> createObject(final UUID objId, final UUID typeId, final Map<String, Object> stateMap,
+			final boolean isType) {
+		return submit(objId, new Request<Integer>() {
+			Integer call(ModelVersionDBService session) throws ModelVersionDBException {
+				return session.createObject(objId, typeId, stateMap, isType);
+			}
+		});
+	}
+
+	public Future<Integer> createNewObjectRevision(final UUID objId, final int fromRev) {
+		return submit(objId, new Request<Integer>() {
+			Integer call(ModelVersionDBService session) throws ModelVersionDBException {
+				return session.createNewObjectRevision(objId, fromRev);
+			}
+		});
+	}
+
+	public Future<Object> setObjectState(final UUID objId, final int rev, final Map<String, Object> stateMap) {
+		return submit(objId, new Request<Object>() {
+			Object call(ModelVersionDBService session) throws ModelVersionDBException {
+				session.setObjectState(objId, rev, stateMap);
+				return null;
+			}
+		});
+	}
+
+	public Future<Object> setObjectValue(final UUID objId, final int rev, final String attr, final Object value) {
+		return submit(objId, new Request<Object>() {
+			Object call(ModelVersionDBService session) throws ModelVersionDBException {
+				session.setObjectValue(objId, rev, attr, value);
+				return null;
+			}
+		});
+	}
+
+	public Future<Object> deleteObject(final UUID objId) {
+		return submit(objId, new Request<Object>() {
+			Object call(ModelVersionDBService session) throws ModelVersionDBException {
+				session.deleteObject(objId);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Adds a link once the requests issued before about its source and its
+	 * destination are completed.
+	 */
+	public Future<Revision> addLink(final UUID typeId, final UUID srcId, final int srcRev, final UUID destId,
+			final int destRev, final Map<String, Object> stateMap) {
+		return submit(new UUID[] { srcId, destId }, new Request<Revision>() {
+			Revision call(ModelVersionDBService session) throws ModelVersionDBException {
+				return session.addLink(typeId, srcId, srcRev, destId, destRev, stateMap);
+			}
+		});
+	}
+
+	/**
+	 * Stops accepting requests and waits at most <code>timeout</code>
+	 * milliseconds for the pending ones to complete.
+	 *
+	 * @return false if requests were still running after the timeout
+	 */
+	public boolean shutdown(long timeout) throws InterruptedException {
+		for (ExecutorService pipeline : m_pipelines)
+			pipeline.shutdown();
+
+		long deadline = System.currentTimeMillis() + timeout;
+		for (ExecutorService pipeline : m_pipelines) {
+			long wait = Math.max(0, deadline - System.currentTimeMillis());
+			if (!pipeline.awaitTermination(wait, TimeUnit.MILLISECONDS))
+				return false;
+		}
+
+		return true;
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	/**
+	 * Returns the number of requests issued and not completed yet. A request
+	 * about several pipelines is counted once per pipeline.
+	 */
+	public int getPendingCount() {
+		int count = 0;
+		for (Semaphore capacity : m_capacities)
+			count += m_queueCapacity - capacity.availablePermits();
+
+		return count;
+	}
+
+	public long getRequestCount() {
+		return m_requestCount.get();
+	}
+
+	/**
+	 * Returns the number of requests which had to wait for a full pipeline.
+	 */
+	public long getWaitCount() {
+		return m_waitCount.get();
+	}
+
+	public void resetStatistics() {
+		m_requestCount.set(0);
+		m_waitCount.set(0);
+	}
+
+	/*
+	 * Private methods
+	 */
+
+	private <T> Future<T> submit(UUID key, Request<T> request) {
+		m_requestCount.incrementAndGet();
+
+		return submit(getPipeline(key), request);
+	}
+
+	/**
+	 * Runs a request on the pipeline of the first key once the other
+	 * pipelines have completed the requests queued before it. The other
+	 * pipelines wait until the request is completed.
+	 */
+	private <T> Future<T> submit(UUID[] keys, final Request<T> request) {
+		m_requestCount.incrementAndGet();
+		int[] idxs = getPipelines(keys);
+		if (idxs.length == 1)
+			return submit(idxs[0], request);
+
+		final CountDownLatch reached = new CountDownLatch(idxs.length - 1);
+		final CountDownLatch completed = new CountDownLatch(1);
+		synchronized (m_spanningLock) {
+			boolean submitted = false;
+			try {
+				for (int i = 1; i < idxs.length; i++) {
+					submit(idxs[i], new Request<Object>() {
+						Object call(ModelVersionDBService session) throws InterruptedException {
+							reached.countDown();
+							completed.await();
+							return null;
+						}
+					});
+				}
+				Future<T> future = submit(idxs[0], new Request<T>() {
+					T call(ModelVersionDBService session) throws Exception {
+						try {
+							reached.await();
+							return request.call(session);
+						} finally {
+							completed.countDown();
+						}
+					}
+				});
+				submitted = true;
+
+				return future;
+			} finally {
+				// releases the pipelines already waiting
+				if (!submitted)
+					completed.countDown();
+			}
+		}
+	}
+
+	private <T> Future<T> submit(final int idx, final Request<T> request) {
+		Semaphore capacity = m_capacities[idx];
+		if (!capacity.tryAcquire()) {
+			m_waitCount.incrementAndGet();
+			capacity.acquireUninterruptibly();
+		}
+
+		boolean submitted = false;
+		try {
+			Future<T> future = m_pipelines[idx].submit(new Callable<T>() {
+				public T call() throws Exception {
+					try {
+						return request.call(m_sessions[idx]);
+					} finally {
+						m_capacities[idx].release();
+					}
+				}
+			});
+			submitted = true;
+
+			return future;
+		} finally {
+			if (!submitted)
+				capacity.release();
+		}
+	}
+
+	/**
+	 * Returns the distinct pipelines of the keys in the order of the keys,
+	 * all pipelines if keys is ALL_PIPELINES.
+	 */
+	private int[] getPipelines(UUID[] keys) {
+		if (keys == ALL_PIPELINES) {
+			int[] idxs = new int[m_sessions.length];
+			for (int i = 0; i < idxs.length; i++)
+				idxs[i] = i;
+
+			return idxs;
+		}
+
+		int[] idxs = new int[keys.length];
+		int count = 0;
+		for (UUID key : keys) {
+			int idx = getPipeline(key);
+			boolean found = false;
+			for (int i = 0; (i < count) && !found; i++)
+				found = (idxs[i] == idx);
+			if (!found)
+				idxs[count++] = idx;
+		}
+		if (count == idxs.length)
+			return idxs;
+
+		int[] result = new int[count];
+		System.arraycopy(idxs, 0, result, 0, count);
+
+		return result;
+	}
+
+	private int getPipeline(UUID key) {
+		if ((key == null) || (m_sessions.length == 1))
+			return 0;
+
+		long hash = key.getMostSignificantBits() ^ key.getLeastSignificantBits();
+		int h = (int) (hash ^ (hash >>> 32));
+
+		return (h & Integer.MAX_VALUE) % m_sessions.length;
+	}
+
+	/**
+	 * Call made by a pipeline on its session.
+	 */
+	private static abstract class Request<T> {
+
+		abstract T call(ModelVersionDBService session) throws Exception;
+	}
+}
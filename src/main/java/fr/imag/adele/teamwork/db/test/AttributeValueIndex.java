@@ -0,0 +1,592 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Opt-in secondary indexes on object attribute values.
+ * 
+ * An index is created per (object type, attribute) with
+ * {@link #createIndex(UUID, String)}. Lookups done with
+ * {@link #getObjectRevs(UUID, String, Object, boolean)} on an indexed
+ * attribute are answered by a probe of the index instead of a scan of all
+ * revisions of the type. Other lookups are delegated to the database.
+ * 
+ * Indexes are only kept up to date for the modifications done through this
+ * class. String, Integer, Long, Boolean, UUID and Date values are indexed as
+ * is, other Serializable values are indexed by their serialized form.
+ */
+public class AttributeValueIndex {
+
+	private static final Object NULL_VALUE = new Object();
+
+	private ModelVersionDBService m_db;
+
+	/*
+	 * type id -> attribute name -> index
+	 */
+	private Map<UUID, Map<String, Index>> m_indexes = new HashMap<UUID, Map<String, Index>>();
+
+	/*
+	 * type of objects of indexed types
+	 */
+	private Map<UUID, UUID> m_objectTypes = new HashMap<UUID, UUID>();
+
+	/*
+	 * objects modified in current transaction
+	 */
+	private Set<UUID> m_txObjects;
+
+	public AttributeValueIndex(ModelVersionDBService db) {
+		m_db = db;
+	}
+
+	/**
+	 * Creates an index on values of attribute <code>attr</code> of objects
+	 * of type <code>typeId</code> and fills it with existing revisions.
+	 */
+	public synchronized void createIndex(UUID typeId, String attr) throws ModelVersionDBException {
+		if (typeId == null)
+			throw new IllegalArgumentException("Type id cannot be null.");
+		if (attr == null)
+			throw new IllegalArgumentException("Attribute name cannot be null.");
+		if (hasIndex(typeId, attr))
+			return;
+
+		Index index = new Index();
+		for (UUID objId : m_db.getObjects(typeId)) {
+			m_objectTypes.put(objId, typeId);
+			for (int rev : m_db.getObjectRevNbs(objId)) {
+				Map<String, Object> state = m_db.getObjectState(objId, rev);
+				if (state.containsKey(attr))
+					index.put(objId, rev, state.get(attr));
+			}
+		}
+
+		Map<String, Index> typeIndexes = m_indexes.get(typeId);
+		if (typeIndexes == null) {
+			typeIndexes = new HashMap<String, Index>();
+			m_indexes.put(typeId, typeIndexes);
+		}
+		typeIndexes.put(attr, index);
+	}
+
+	public synchronized void dropIndex(UUID typeId, String attr) {
+		Map<String, Index> typeIndexes = m_indexes.get(typeId);
+		if (typeIndexes == null)
+			return;
+
+		typeIndexes.remove(attr);
+		if (typeIndexes.isEmpty()) {
+			m_indexes.remove(typeId);
+			m_objectTypes.values().removeAll(Arrays.asList(typeId));
+		}
+	}
+
+	public synchronized boolean hasIndex(UUID typeId, String attr) {
+		return getIndex(typeId, attr) != null;
+	}
+
+	/**
+	 * Returns the number of indexed revisions whose attribute has the
+	 * specified value or -1 if the value cannot be looked up in an index.
+	 */
+	public synchronized int getRevisionCount(UUID typeId, String attr, Object value) {
+		Index index = getIndex(typeId, attr);
+		if ((index == null) || !index.accept(value))
+			return -1;
+
+		return index.count(value);
+	}
+
+	/**
+	 * Returns the number of indexed revisions of the specified attribute or
+	 * -1 if it is not indexed.
+	 */
+	public synchronized int getRevisionCount(UUID typeId, String attr) {
+		Index index = getIndex(typeId, attr);
+		if (index == null)
+			return -1;
+
+		return index.size();
+	}
+
+	/**
+	 * Returns the number of distinct values of the specified attribute or
+	 * -1 if it is not indexed.
+	 */
+	public synchronized int getDistinctValueCount(UUID typeId, String attr) {
+		Index index = getIndex(typeId, attr);
+		if (index == null)
+			return -1;
+
+		return index.distinctValues();
+	}
+
+	/**
+	 * Returns true if the indexed attribute of the specified object
+	 * revision has the specified value.
+	 */
+	public synchronized boolean hasValue(UUID typeId, String attr, UUID objId, int rev, Object value) {
+		Index index = getIndex(typeId, attr);
+		if (index == null)
+			throw new IllegalArgumentException("Attribute " + attr + " of type " + typeId + " is not indexed.");
+
+		return index.hasValue(objId, rev, value);
+	}
+
+	/**
+	 * Same as ModelVersionDBService.getObjectRevs(UUID, String, Object, boolean).
+	 */
+	public synchronized List<Revision> getObjectRevs(UUID typeId, String attr, Object value, 
+			boolean lastOnly) throws ModelVersionDBException {
+		if (typeId == null)
+			throw new IllegalArgumentException("Type id cannot be null.");
+
+		Index index = getIndex(typeId, attr);
+		if ((index == null) || !index.accept(value))
+			return m_db.getObjectRevs(typeId, attr, value, lastOnly);
+
+		return index.lookup(typeId, value, lastOnly);
+	}
+
+	/*
+	 * Modification methods
+	 */
+
+	public synchronized int createObject(UUID objId, UUID typeId, Map<String, Object> stateMap, 
+			boolean isType) throws ModelVersionDBException {
+		int rev = m_db.createObject(objId, typeId, stateMap, isType);
+
+		Map<String, Index> typeIndexes = m_indexes.get(typeId);
+		if (typeIndexes == null)
+			return rev;
+
+		m_objectTypes.put(objId, typeId);
+		touch(objId);
+		if (stateMap != null) {
+			for (Map.Entry<String, Object> entry : stateMap.entrySet()) {
+				Index index = typeIndexes.get(entry.getKey());
+				if (index != null)
+					index.put(objId, rev, entry.getValue());
+			}
+		}
+
+		return rev;
+	}
+
+	public synchronized int createNewObjectRevision(UUID objId, int rev) throws ModelVersionDBException {
+		UUID typeId = m_objectTypes.get(objId);
+		if (typeId == null)
+			return m_db.createNewObjectRevision(objId, rev);
+
+		int fromRev = rev;
+		if (fromRev == ModelVersionDBService.LAST)
+			fromRev = m_db.getLastObjectRevNb(objId);
+		int newRev = m_db.createNewObjectRevision(objId, rev);
+
+		touch(objId);
+		for (Index index : m_indexes.get(typeId).values()) 
+			index.copy(objId, fromRev, newRev);
+
+		return newRev;
+	}
+
+	public synchronized void setObjectValue(UUID objId, int rev, String attr, Object value) 
+			throws ModelVersionDBException {
+		m_db.setObjectValue(objId, rev, attr, value);
+
+		UUID typeId = m_objectTypes.get(objId);
+		Index index = getIndex(typeId, attr);
+		if (index != null) {
+			touch(objId);
+			updateIndex(index, objId, typeId, rev, attr, value);
+		}
+	}
+
+	public synchronized void setObjectState(UUID objId, int rev, Map<String, Object> stateMap) 
+			throws ModelVersionDBException {
+		m_db.setObjectState(objId, rev, stateMap);
+
+		UUID typeId = m_objectTypes.get(objId);
+		if ((typeId == null) || (stateMap == null))
+			return;
+
+		touch(objId);
+		for (Map.Entry<String, Object> entry : stateMap.entrySet()) {
+			Index index = getIndex(typeId, entry.getKey());
+			if (index != null)
+				updateIndex(index, objId, typeId, rev, entry.getKey(), entry.getValue());
+		}
+	}
+
+	public synchronized void deleteObject(UUID objId) throws ModelVersionDBException {
+		m_db.deleteObject(objId);
+
+		UUID typeId = m_objectTypes.get(objId);
+		if (typeId == null)
+			return;
+
+		touch(objId);
+		for (Index index : m_indexes.get(typeId).values())
+			index.removeObject(objId);
+		m_objectTypes.remove(objId);
+	}
+
+	public synchronized void clear() throws ModelVersionDBException {
+		m_db.clear();
+
+		m_objectTypes.clear();
+		for (Map<String, Index> typeIndexes : m_indexes.values()) {
+			for (Index index : typeIndexes.values())
+				index.clear();
+		}
+	}
+
+	/*
+	 * Transaction methods
+	 */
+
+	public synchronized void beginTransaction() throws ModelVersionDBException, TransactionException {
+		m_db.beginTransaction();
+		m_txObjects = new HashSet<UUID>();
+	}
+
+	public synchronized void commitTransaction() throws ModelVersionDBException, TransactionException {
+		m_db.commitTransaction();
+		m_txObjects = null;
+	}
+
+	/**
+	 * Rollbacks current transaction and reloads index entries of the objects
+	 * modified in this transaction.
+	 */
+	public synchronized void rollbackTransaction() throws ModelVersionDBException, TransactionException {
+		m_db.rollbackTransaction();
+
+		Set<UUID> txObjects = m_txObjects;
+		m_txObjects = null;
+		if (txObjects == null)
+			return;
+
+		for (UUID objId : txObjects) {
+			UUID typeId = m_objectTypes.remove(objId);
+			if (typeId != null) {
+				for (Index index : m_indexes.get(typeId).values())
+					index.removeObject(objId);
+			}
+			if (m_db.objExists(objId))
+				reload(objId);
+		}
+	}
+
+	private void reload(UUID objId) throws ModelVersionDBException {
+		UUID typeId = m_db.getObjectType(objId);
+		Map<String, Index> typeIndexes = m_indexes.get(typeId);
+		if (typeIndexes == null)
+			return;
+
+		m_objectTypes.put(objId, typeId);
+		for (int rev : m_db.getObjectRevNbs(objId)) {
+			Map<String, Object> state = m_db.getObjectState(objId, rev);
+			for (Map.Entry<String, Index> entry : typeIndexes.entrySet()) {
+				if (state.containsKey(entry.getKey()))
+					entry.getValue().put(objId, rev, state.get(entry.getKey()));
+			}
+		}
+	}
+
+	private void updateIndex(Index index, UUID objId, UUID typeId, int rev, String attr, 
+			Object value) throws ModelVersionDBException {
+		if ((rev != ModelVersionDBService.ALL) && m_db.isObjectAttVersionSpecific(typeId, attr)) {
+			// only the specified revision has been modified
+			if (rev == ModelVersionDBService.LAST)
+				rev = m_db.getLastObjectRevNb(objId);
+			index.put(objId, rev, value);
+			return;
+		}
+
+		// value is shared by all revisions or has been set for all of them
+		for (int objRev : m_db.getObjectRevNbs(objId))
+			index.put(objId, objRev, value);
+	}
+
+	private void touch(UUID objId) {
+		if (m_txObjects != null)
+			m_txObjects.add(objId);
+	}
+
+	private Index getIndex(UUID typeId, String attr) {
+		if (typeId == null)
+			return null;
+
+		Map<String, Index> typeIndexes = m_indexes.get(typeId);
+		if (typeIndexes == null)
+			return null;
+
+		return typeIndexes.get(attr);
+	}
+
+	/**
+	 * Returns the key used to index the specified value.
+	 */
+	static Object getValueKey(Object value) {
+		if (value == null)
+			return NULL_VALUE;
+		if (value instanceof Date)
+			return new Long(((Date) value).getTime());
+		if ((value instanceof String) || (value instanceof Integer) || (value instanceof Long) ||
+				(value instanceof Boolean) || (value instanceof UUID))
+			return value;
+		if (value instanceof Serializable)
+			return new SerializedValue((Serializable) value);
+
+		return value;
+	}
+
+	/**
+	 * Returns the kind of values which can be stored with the specified value
+	 * in the same attribute.
+	 */
+	static Class<?> getValueKind(Object value) {
+		if (value instanceof Date)
+			return Date.class;
+		if ((value instanceof String) || (value instanceof Integer) || (value instanceof Long) ||
+				(value instanceof Boolean) || (value instanceof UUID))
+			return value.getClass();
+
+		return Serializable.class;
+	}
+
+	/**
+	 * Index of the values of one attribute.
+	 */
+	private static class Index {
+
+		/*
+		 * value key -> object id -> revisions
+		 */
+		private Map<Object, Map<UUID, SortedSet<Integer>>> _revsByValue = 
+			new HashMap<Object, Map<UUID, SortedSet<Integer>>>();
+
+		/*
+		 * object id -> revision -> value key
+		 */
+		private Map<UUID, Map<Integer, Object>> _valuesByObject = new HashMap<UUID, Map<Integer, Object>>();
+
+		/*
+		 * value key -> number of revisions
+		 */
+		private Map<Object, Integer> _countByValue = new HashMap<Object, Integer>();
+
+		private int _size;
+
+		private Class<?> _valueKind;
+
+		public boolean accept(Object value) {
+			return (value == null) || (_valueKind == null) || (_valueKind == getValueKind(value));
+		}
+
+		public void put(UUID objId, int rev, Object value) {
+			if ((value != null) && (_valueKind == null))
+				_valueKind = getValueKind(value);
+			putKey(objId, rev, getValueKey(value));
+		}
+
+		public void copy(UUID objId, int fromRev, int toRev) {
+			Map<Integer, Object> objValues = _valuesByObject.get(objId);
+			if (objValues == null)
+				return;
+
+			Object key = objValues.get(fromRev);
+			if (key != null)
+				putKey(objId, toRev, key);
+		}
+
+		private void putKey(UUID objId, int rev, Object key) {
+			remove(objId, rev);
+
+			Map<Integer, Object> objValues = _valuesByObject.get(objId);
+			if (objValues == null) {
+				objValues = new HashMap<Integer, Object>();
+				_valuesByObject.put(objId, objValues);
+			}
+			objValues.put(rev, key);
+
+			Map<UUID, SortedSet<Integer>> objRevs = _revsByValue.get(key);
+			if (objRevs == null) {
+				objRevs = new HashMap<UUID, SortedSet<Integer>>();
+				_revsByValue.put(key, objRevs);
+			}
+			SortedSet<Integer> revs = objRevs.get(objId);
+			if (revs == null) {
+				revs = new TreeSet<Integer>();
+				objRevs.put(objId, revs);
+			}
+			revs.add(rev);
+
+			Integer count = _countByValue.get(key);
+			_countByValue.put(key, (count == null) ? 1 : count + 1);
+			_size++;
+		}
+
+		private void remove(UUID objId, int rev) {
+			Map<Integer, Object> objValues = _valuesByObject.get(objId);
+			if (objValues == null)
+				return;
+
+			Object key = objValues.remove(rev);
+			if (key == null)
+				return;
+
+			Map<UUID, SortedSet<Integer>> objRevs = _revsByValue.get(key);
+			SortedSet<Integer> revs = objRevs.get(objId);
+			revs.remove(rev);
+			_size--;
+			int count = _countByValue.get(key) - 1;
+			if (count == 0)
+				_countByValue.remove(key);
+			else
+				_countByValue.put(key, count);
+			if (revs.isEmpty()) {
+				objRevs.remove(objId);
+				if (objRevs.isEmpty())
+					_revsByValue.remove(key);
+			}
+		}
+
+		public void removeObject(UUID objId) {
+			Map<Integer, Object> objValues = _valuesByObject.get(objId);
+			if (objValues == null)
+				return;
+
+			for (Integer rev : new ArrayList<Integer>(objValues.keySet()))
+				remove(objId, rev);
+			_valuesByObject.remove(objId);
+		}
+
+		public int count(Object value) {
+			Integer count = _countByValue.get(getValueKey(value));
+
+			return (count == null) ? 0 : count;
+		}
+
+		public int size() {
+			return _size;
+		}
+
+		public int distinctValues() {
+			return _revsByValue.size();
+		}
+
+		public boolean hasValue(UUID objId, int rev, Object value) {
+			Map<Integer, Object> objValues = _valuesByObject.get(objId);
+			if (objValues == null)
+				return false;
+
+			Object key = objValues.get(rev);
+
+			return (key != null) && key.equals(getValueKey(value));
+		}
+
+		public void clear() {
+			_revsByValue.clear();
+			_valuesByObject.clear();
+			_countByValue.clear();
+			_size = 0;
+			_valueKind = null;
+		}
+
+		public List<Revision> lookup(UUID typeId, Object value, boolean lastOnly) {
+			List<Revision> result = new ArrayList<Revision>();
+			Map<UUID, SortedSet<Integer>> objRevs = _revsByValue.get(getValueKey(value));
+			if (objRevs == null)
+				return result;
+
+			for (Map.Entry<UUID, SortedSet<Integer>> entry : objRevs.entrySet()) {
+				UUID objId = entry.getKey();
+				if (lastOnly) {
+					result.add(new Revision(objId, typeId, entry.getValue().last()));
+					continue;
+				}
+
+				for (int rev : entry.getValue())
+					result.add(new Revision(objId, typeId, rev));
+			}
+
+			return result;
+		}
+	}
+
+	/**
+	 * Serialized form of a value used as index key.
+	 */
+	private static class SerializedValue {
+
+		private byte[] _bytes;
+		private int _hash;
+
+		public SerializedValue(Serializable value) {
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				ObjectOutputStream out = new ObjectOutputStream(bytes);
+				out.writeObject(value);
+				out.close();
+				_bytes = bytes.toByteArray();
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Cannot serialize value " + value + ": " + e.getMessage());
+			}
+			_hash = Arrays.hashCode(_bytes);
+		}
+
+		@Override
+		public int hashCode() {
+			return _hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof SerializedValue))
+				return false;
+
+			SerializedValue value = (SerializedValue) obj;
+
+			return (_hash == value._hash) && Arrays.equals(_bytes, value._bytes);
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Batch variants of ModelVersionDBService methods.
+ * 
+ * Each batch is executed in a single transaction so that the database only
+ * commits once per batch. If a transaction is already running, the batch
+ * is executed in it and it is up to the caller to commit it.
+ */
+public class BatchOperations {
+
+	private BatchOperations() {
+		// static methods only
+	}
+
+	/**
+	 * Creates all specified objects and returns their revision numbers in
+	 * the same order. If one creation fails, none of the objects is created.
+	 */
+	public static int[] createObjects(ModelVersionDBService db, List<ObjectCreation> objects) 
+			throws ModelVersionDBException, TransactionException {
+		if (objects == null)
+			throw new IllegalArgumentException("Object list cannot be null.");
+		for (ObjectCreation object : objects) {
+			if (object == null)
+				throw new IllegalArgumentException("Object cannot be null.");
+		}
+
+		int[] revs = new int[objects.size()];
+		boolean ownTransaction = beginTransaction(db);
+		boolean succeed = false;
+		try {
+			int i = 0;
+			for (ObjectCreation object : objects) {
+				revs[i++] = db.createObject(object.getId(), object.getTypeId(), 
+						object.getStateMap(), object.isType());
+			}
+			succeed = true;
+		} finally {
+			endTransaction(db, ownTransaction, succeed);
+		}
+
+		return revs;
+	}
+
+	/**
+	 * Adds all specified links and returns their revisions in the same order.
+	 * Each link is added as by addLink, so the source and destination version
+	 * specific settings of its type apply. If one addition fails, none of the
+	 * links is added.
+	 */
+	public static List<Revision> addLinks(ModelVersionDBService db, List<LinkCreation> links) 
+			throws ModelVersionDBException, TransactionException {
+		if (links == null)
+			throw new IllegalArgumentException("Link list cannot be null.");
+		for (LinkCreation link : links) {
+			if (link == null)
+				throw new IllegalArgumentException("Link cannot be null.");
+		}
+
+		List<Revision> revs = new ArrayList<Revision>(links.size());
+		boolean ownTransaction = beginTransaction(db);
+		boolean succeed = false;
+		try {
+			for (LinkCreation link : links) {
+				revs.add(db.addLink(link.getTypeId(), link.getSrcId(), link.getSrcRev(), 
+						link.getDestId(), link.getDestRev(), link.getStateMap()));
+			}
+			succeed = true;
+		} finally {
+			endTransaction(db, ownTransaction, succeed);
+		}
+
+		return revs;
+	}
+
+	/**
+	 * Returns the state of each specified object revision. Revisions may use
+	 * <code>ModelVersionDBService.LAST</code>: the last revision number of
+	 * each object is only retrieved once. Revisions appearing several times
+	 * are only loaded once.
+	 * 
+	 * This is not a batched fetch: the service has no query returning the
+	 * states of several revisions, so each distinct revision still costs one
+	 * getObjectState. Only the queries for repeated revisions and repeated
+	 * LAST lookups are saved.
+	 * 
+	 * The returned map is keyed by the given revisions and iterates in the
+	 * same order.
+	 */
+	public static Map<Revision, Map<String, Object>> getObjectStates(ModelVersionDBService db, 
+			Collection<Revision> revisions) throws ModelVersionDBException {
+		if (revisions == null)
+			throw new IllegalArgumentException("Revision collection cannot be null.");
+
+		Map<Revision, Map<String, Object>> states = new LinkedHashMap<Revision, Map<String, Object>>();
+		Map<RevisionKey, Map<String, Object>> loadedStates = new HashMap<RevisionKey, Map<String, Object>>();
+		Map<UUID, Integer> lastRevs = new HashMap<UUID, Integer>();
+		for (Revision revision : revisions) {
+			if (revision == null)
+				throw new IllegalArgumentException("Revision cannot be null.");
+
+			UUID objId = revision.getId();
+			int rev = revision.getRev();
+			if (rev == ModelVersionDBService.LAST) {
+				Integer lastRev = lastRevs.get(objId);
+				if (lastRev == null) {
+					lastRev = db.getLastObjectRevNb(objId);
+					lastRevs.put(objId, lastRev);
+				}
+				rev = lastRev;
+			}
+
+			RevisionKey key = new RevisionKey(objId, rev);
+			Map<String, Object> state = loadedStates.get(key);
+			if (state == null) {
+				state = db.getObjectState(objId, rev);
+				loadedStates.put(key, state);
+			}
+			states.put(revision, state);
+		}
+
+		return states;
+	}
+
+	/**
+	 * Returns the revision numbers of each specified object in a single
+	 * primitive buffer, in the order of the given collection.
+	 * 
+	 * The service has no query returning the revision numbers of several
+	 * objects, so this issues one getObjectRevNbs per object and copies each
+	 * returned array into the buffer. It neither saves round trips nor
+	 * allocation; it only keeps the result in three arrays instead of one
+	 * array per object.
+	 */
+	public static RevisionNumberBuffer getObjectRevNbs(ModelVersionDBService db, 
+			Collection<UUID> objIds) throws ModelVersionDBException {
+		if (objIds == null)
+			throw new IllegalArgumentException("Object id collection cannot be null.");
+
+		RevisionNumberBuffer buffer = new RevisionNumberBuffer(objIds.size(), objIds.size() * 4);
+		for (UUID objId : objIds)
+			buffer.add(objId, db.getObjectRevNbs(objId));
+
+		return buffer;
+	}
+
+	/**
+	 * Returns the revision numbers of each specified link in a single
+	 * primitive buffer, in the order of the given collection.
+	 */
+	public static RevisionNumberBuffer getLinkRevNbs(ModelVersionDBService db, 
+			Collection<UUID> linkIds) throws ModelVersionDBException {
+		if (linkIds == null)
+			throw new IllegalArgumentException("Link id collection cannot be null.");
+
+		RevisionNumberBuffer buffer = new RevisionNumberBuffer(linkIds.size(), linkIds.size() * 4);
+		for (UUID linkId : linkIds)
+			buffer.add(linkId, db.getLinkRevNbs(linkId));
+
+		return buffer;
+	}
+
+	/**
+	 * Returns the ids of the objects of the specified type packed as pairs of
+	 * longs: most significant bits then least significant bits.
+	 */
+	public static long[] getObjectIds(ModelVersionDBService db, UUID typeId) 
+			throws ModelVersionDBException {
+		Set<UUID> objIds = db.getObjects(typeId);
+		long[] ids = new long[objIds.size() * 2];
+		int i = 0;
+		for (UUID objId : objIds) {
+			ids[i++] = objId.getMostSignificantBits();
+			ids[i++] = objId.getLeastSignificantBits();
+		}
+
+		return ids;
+	}
+
+	private static boolean beginTransaction(ModelVersionDBService db) 
+			throws ModelVersionDBException, TransactionException {
+		if (db.hasTransaction())
+			return false;
+
+		db.beginTransaction();
+		return true;
+	}
+
+	private static void endTransaction(ModelVersionDBService db, boolean ownTransaction, 
+			boolean succeed) throws ModelVersionDBException, TransactionException {
+		if (!ownTransaction)
+			return;
+
+		if (succeed)
+			db.commitTransaction();
+		else
+			db.rollbackTransaction();
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.util.Arrays;
+
+/**
+ * Records the duration of each operation of a benchmark and computes
+ * throughput and latency percentiles.
+ */
+public class BenchmarkStats {
+
+	private String _name;
+	private long[] _samples;
+	private int _count;
+	private long _totalNanos;
+	private long _startTime;
+
+	public BenchmarkStats(String name) {
+		this(name, 1024);
+	}
+
+	public BenchmarkStats(String name, int expectedOps) {
+		_name = name;
+		_samples = new long[Math.max(expectedOps, 16)];
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	public void start() {
+		_startTime = System.nanoTime();
+	}
+
+	public long stop() {
+		long duration = System.nanoTime() - _startTime;
+		add(duration);
+
+		return duration;
+	}
+
+	public void add(long nanos) {
+		if (_count == _samples.length) {
+			long[] samples = new long[_samples.length * 2];
+			System.arraycopy(_samples, 0, samples, 0, _count);
+			_samples = samples;
+		}
+		_samples[_count++] = nanos;
+		_totalNanos += nanos;
+	}
+
+	public int getCount() {
+		return _count;
+	}
+
+	public long getTotalNanos() {
+		return _totalNanos;
+	}
+
+	public double getOpsPerSecond() {
+		if (_totalNanos == 0)
+			return 0;
+
+		return _count * 1000000000.0 / _totalNanos;
+	}
+
+	public long getMeanNanos() {
+		if (_count == 0)
+			return 0;
+
+		return _totalNanos / _count;
+	}
+
+	/**
+	 * Returns the duration in nanoseconds under which the given percentage
+	 * of the operations completed.
+	 */
+	public long getPercentile(double percent) {
+		if (_count == 0)
+			return 0;
+
+		long[] sorted = new long[_count];
+		System.arraycopy(_samples, 0, sorted, 0, _count);
+		Arrays.sort(sorted);
+
+		int idx = (int) Math.ceil(percent / 100.0 * _count) - 1;
+		if (idx < 0)
+			idx = 0;
+		if (idx >= _count)
+			idx = _count - 1;
+
+		return sorted[idx];
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-60s %8d ops %12.1f ops/s   p50 %10.1f us   p99 %10.1f us",
+				_name, _count, getOpsPerSecond(),
+				getPercentile(50) / 1000.0, getPercentile(99) / 1000.0);
+	}
+}
@@ -0,0 +1,389 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact encoding of attribute values.
+ * 
+ * Each value starts with a one byte tag. Integers and longs are written as
+ * zig-zag variable length numbers, strings as UTF-8 bytes, dates as their
+ * time in milliseconds and UUIDs as two longs. User types can be registered
+ * with an identifier and a TypeCodec. Other serializable values are written
+ * with Java serialization.
+ */
+public class BinaryValueCodec implements ValueCodec {
+
+	/*
+	 * Value tags
+	 */
+	private static final int NULL_TAG = 0;
+	private static final int STRING_TAG = 1;
+	private static final int INTEGER_TAG = 2;
+	private static final int LONG_TAG = 3;
+	private static final int TRUE_TAG = 4;
+	private static final int FALSE_TAG = 5;
+	private static final int SHORT_TAG = 6;
+	private static final int BYTE_TAG = 7;
+	private static final int CHARACTER_TAG = 8;
+	private static final int FLOAT_TAG = 9;
+	private static final int DOUBLE_TAG = 10;
+	private static final int DATE_TAG = 11;
+	private static final int UUID_TAG = 12;
+	private static final int BYTE_ARRAY_TAG = 13;
+	private static final int USER_TYPE_TAG = 14;
+	private static final int SERIALIZED_TAG = 15;
+
+	private static final String CHARSET = "UTF-8";
+
+	private Map<Class<?>, UserType<?>> m_typesByClass = new ConcurrentHashMap<Class<?>, UserType<?>>();
+	private Map<Integer, UserType<?>> m_typesById = new ConcurrentHashMap<Integer, UserType<?>>();
+
+	private SerializationValueCodec m_serialization = new SerializationValueCodec();
+
+	/**
+	 * Registers the encoding of a user type. Values whose class is exactly
+	 * <code>type</code> are written with <code>codec</code>. The identifier
+	 * is stored in the encoding, it must not change once values have been
+	 * stored.
+	 */
+	public synchronized <T> void register(int id, Class<T> type, TypeCodec<T> codec) {
+		if ((type == null) || (codec == null))
+			throw new IllegalArgumentException("Type and codec cannot be null.");
+		if (id < 0)
+			throw new IllegalArgumentException("Type identifier cannot be negative.");
+		if (getBuiltInTag(type) != SERIALIZED_TAG)
+			throw new IllegalArgumentException("Type " + type.getName() + " has a built-in encoding.");
+		if (m_typesById.containsKey(id))
+			throw new IllegalArgumentException("Type identifier " + id + " is already registered.");
+		if (m_typesByClass.containsKey(type))
+			throw new IllegalArgumentException("Type " + type.getName() + " is already registered.");
+
+		UserType<T> userType = new UserType<T>(id, codec);
+		m_typesById.put(id, userType);
+		m_typesByClass.put(type, userType);
+	}
+
+	public boolean isRegistered(Class<?> type) {
+		return m_typesByClass.containsKey(type);
+	}
+
+	public byte[] encode(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeValue(value, out);
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+
+	public Object decode(byte[] bytes) throws IOException {
+		ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+		Object value = readValue(new DataInputStream(in));
+		if (in.available() != 0)
+			throw new IOException("Unexpected bytes after encoded value.");
+
+		return value;
+	}
+
+	/**
+	 * Returns the encoding of a state map. Null values are kept.
+	 */
+	public byte[] encodeState(Map<String, Object> stateMap) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeVarInt(out, stateMap.size());
+		for (Map.Entry<String, Object> entry : stateMap.entrySet()) {
+			writeString(out, entry.getKey());
+			writeValue(entry.getValue(), out);
+		}
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+
+	public Map<String, Object> decodeState(byte[] bytes) throws IOException {
+		ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+		DataInputStream dataIn = new DataInputStream(in);
+		int size = readVarInt(dataIn);
+		Map<String, Object> stateMap = new HashMap<String, Object>();
+		for (int i = 0; i < size; i++) {
+			String attr = readString(dataIn);
+			stateMap.put(attr, readValue(dataIn));
+		}
+		if (in.available() != 0)
+			throw new IOException("Unexpected bytes after encoded state.");
+
+		return stateMap;
+	}
+
+	/*
+	 * Value encoding
+	 */
+
+	@SuppressWarnings("unchecked")
+	public void writeValue(Object value, DataOutput out) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL_TAG);
+			return;
+		}
+
+		int tag = getBuiltInTag(value.getClass());
+		if (tag == SERIALIZED_TAG) {
+			UserType<Object> userType = (UserType<Object>) m_typesByClass.get(value.getClass());
+			if (userType != null) {
+				out.writeByte(USER_TYPE_TAG);
+				writeVarInt(out, userType._id);
+				userType._codec.write(value, out);
+				return;
+			}
+			if (!(value instanceof Serializable))
+				throw new IllegalArgumentException("Value " + value + " of type " + 
+						value.getClass().getName() + " cannot be encoded.");
+		}
+
+		if ((tag == TRUE_TAG) && !((Boolean) value).booleanValue())
+			tag = FALSE_TAG;
+
+		out.writeByte(tag);
+		switch (tag) {
+		case STRING_TAG:
+			writeString(out, (String) value);
+			break;
+		case INTEGER_TAG:
+			writeVarInt(out, zigZag(((Integer) value).intValue()));
+			break;
+		case LONG_TAG:
+			writeVarLong(out, zigZag(((Long) value).longValue()));
+			break;
+		case TRUE_TAG:
+		case FALSE_TAG:
+			break;
+		case SHORT_TAG:
+			out.writeShort(((Short) value).shortValue());
+			break;
+		case BYTE_TAG:
+			out.writeByte(((Byte) value).byteValue());
+			break;
+		case CHARACTER_TAG:
+			out.writeChar(((Character) value).charValue());
+			break;
+		case FLOAT_TAG:
+			out.writeFloat(((Float) value).floatValue());
+			break;
+		case DOUBLE_TAG:
+			out.writeDouble(((Double) value).doubleValue());
+			break;
+		case DATE_TAG:
+			writeVarLong(out, zigZag(((Date) value).getTime()));
+			break;
+		case UUID_TAG:
+			out.writeLong(((UUID) value).getMostSignificantBits());
+			out.writeLong(((UUID) value).getLeastSignificantBits());
+			break;
+		case BYTE_ARRAY_TAG:
+			writeBytes(out, (byte[]) value);
+			break;
+		default:
+			writeBytes(out, m_serialization.encode(value));
+		}
+	}
+
+	public Object readValue(DataInput in) throws IOException {
+		int tag = in.readUnsignedByte();
+		switch (tag) {
+		case NULL_TAG:
+			return null;
+		case STRING_TAG:
+			return readString(in);
+		case INTEGER_TAG:
+			return new Integer(unZigZag(readVarInt(in)));
+		case LONG_TAG:
+			return new Long(unZigZag(readVarLong(in)));
+		case TRUE_TAG:
+			return Boolean.TRUE;
+		case FALSE_TAG:
+			return Boolean.FALSE;
+		case SHORT_TAG:
+			return new Short(in.readShort());
+		case BYTE_TAG:
+			return new Byte(in.readByte());
+		case CHARACTER_TAG:
+			return new Character(in.readChar());
+		case FLOAT_TAG:
+			return new Float(in.readFloat());
+		case DOUBLE_TAG:
+			return new Double(in.readDouble());
+		case DATE_TAG:
+			return new Date(unZigZag(readVarLong(in)));
+		case UUID_TAG:
+			return new UUID(in.readLong(), in.readLong());
+		case BYTE_ARRAY_TAG:
+			return readBytes(in);
+		case USER_TYPE_TAG:
+			int id = readVarInt(in);
+			UserType<?> userType = m_typesById.get(id);
+			if (userType == null)
+				throw new IOException("Unknown user type identifier " + id);
+			return userType._codec.read(in);
+		case SERIALIZED_TAG:
+			return m_serialization.decode(readBytes(in));
+		default:
+			throw new IOException("Unknown value tag " + tag);
+		}
+	}
+
+	/*
+	 * Private methods
+	 */
+
+	private static int getBuiltInTag(Class<?> type) {
+		if (type == String.class)
+			return STRING_TAG;
+		if (type == Integer.class)
+			return INTEGER_TAG;
+		if (type == Long.class)
+			return LONG_TAG;
+		if (type == Boolean.class)
+			return TRUE_TAG;
+		if (type == Short.class)
+			return SHORT_TAG;
+		if (type == Byte.class)
+			return BYTE_TAG;
+		if (type == Character.class)
+			return CHARACTER_TAG;
+		if (type == Float.class)
+			return FLOAT_TAG;
+		if (type == Double.class)
+			return DOUBLE_TAG;
+		if (type == Date.class)
+			return DATE_TAG;
+		if (type == UUID.class)
+			return UUID_TAG;
+		if (type == byte[].class)
+			return BYTE_ARRAY_TAG;
+
+		// subclasses such as java.sql.Timestamp keep their type
+		return SERIALIZED_TAG;
+	}
+
+	private static void writeString(DataOutput out, String value) throws IOException {
+		writeBytes(out, value.getBytes(CHARSET));
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		return new String(readBytes(in), CHARSET);
+	}
+
+	private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInput in) throws IOException {
+		int length = readVarInt(in);
+		if (length < 0)
+			throw new IOException("Invalid length " + length);
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+
+		return bytes;
+	}
+
+	private static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unZigZag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed variable length number.");
+	}
+
+	private static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed variable length number.");
+	}
+
+	private static class UserType<T> {
+
+		private int _id;
+		private TypeCodec<T> _codec;
+
+		private UserType(int id, TypeCodec<T> codec) {
+			_id = id;
+			_codec = codec;
+		}
+	}
+}
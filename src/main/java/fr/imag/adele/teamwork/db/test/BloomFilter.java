@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.util.UUID;
+
+/**
+ * Bloom filter of ids.
+ * 
+ * mightContain returns false only if the id has never been added, and may
+ * return true for ids which have not been added with a probability which
+ * depends on the number of added ids. Ids cannot be removed. Not thread safe.
+ */
+public class BloomFilter {
+
+	private long[] _bits;
+	private int _bitCount;
+	private int _hashCount;
+	private int _capacity;
+	private int _insertedCount;
+
+	/**
+	 * Creates a filter sized so that the false positive probability is
+	 * <code>fpp</code> once <code>capacity</code> ids have been added.
+	 */
+	public BloomFilter(int capacity, double fpp) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive.");
+		if ((fpp <= 0) || (fpp >= 1))
+			throw new IllegalArgumentException("False positive probability must be in ]0, 1[.");
+
+		long bitCount = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+		bitCount = Math.max(64, Math.min(bitCount, Integer.MAX_VALUE - 63));
+		_bitCount = (int) (((bitCount + 63) / 64) * 64);
+		_hashCount = Math.max(1, (int) Math.round((double) _bitCount / capacity * Math.log(2)));
+		_bits = new long[_bitCount / 64];
+		_capacity = capacity;
+	}
+
+	public void add(UUID id) {
+		long hash1 = mix(id.getMostSignificantBits() ^ mix(id.getLeastSignificantBits()));
+		long hash2 = mix(hash1 ^ id.getLeastSignificantBits()) | 1;
+		for (int i = 0; i < _hashCount; i++) {
+			int bit = index(hash1 + i * hash2);
+			_bits[bit >>> 6] |= 1L << bit;
+		}
+		_insertedCount++;
+	}
+
+	public boolean mightContain(UUID id) {
+		long hash1 = mix(id.getMostSignificantBits() ^ mix(id.getLeastSignificantBits()));
+		long hash2 = mix(hash1 ^ id.getLeastSignificantBits()) | 1;
+		for (int i = 0; i < _hashCount; i++) {
+			int bit = index(hash1 + i * hash2);
+			if ((_bits[bit >>> 6] & (1L << bit)) == 0)
+				return false;
+		}
+
+		return true;
+	}
+
+	public void clear() {
+		for (int i = 0; i < _bits.length; i++)
+			_bits[i] = 0;
+		_insertedCount = 0;
+	}
+
+	public int getCapacity() {
+		return _capacity;
+	}
+
+	/**
+	 * Returns the number of calls to add since the last clear, including
+	 * ids added several times.
+	 */
+	public int getInsertedCount() {
+		return _insertedCount;
+	}
+
+	public int getBitCount() {
+		return _bitCount;
+	}
+
+	public int getHashCount() {
+		return _hashCount;
+	}
+
+	public long getMemoryBytes() {
+		return _bits.length * 8L;
+	}
+
+	/**
+	 * Returns the false positive probability for the ids added so far.
+	 */
+	public double getExpectedFalsePositiveRate() {
+		return Math.pow(1 - Math.exp(-(double) _hashCount * _insertedCount / _bitCount), _hashCount);
+	}
+
+	private int index(long hash) {
+		return (int) ((hash >>> 1) % _bitCount);
+	}
+
+	/*
+	 * finalizer of MurmurHash3
+	 */
+	private static long mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+/**
+ * Times the ModelVersionDBService.clear() calls made by the tests so that
+ * the cost of resetting the database can be followed.
+ */
+public class ClearTimer {
+
+	private static int _clearCount;
+	private static long _totalNanos;
+	private static long _maxNanos;
+
+	private ClearTimer() {
+		// static methods only
+	}
+
+	/**
+	 * Clears the database and returns the duration of the call in
+	 * nanoseconds.
+	 */
+	public static long clear(ModelVersionDBService db) throws ModelVersionDBException {
+		long start = System.nanoTime();
+		db.clear();
+		long duration = System.nanoTime() - start;
+
+		synchronized (ClearTimer.class) {
+			_clearCount++;
+			_totalNanos += duration;
+			if (duration > _maxNanos)
+				_maxNanos = duration;
+		}
+
+		return duration;
+	}
+
+	public static synchronized int getClearCount() {
+		return _clearCount;
+	}
+
+	public static synchronized long getTotalNanos() {
+		return _totalNanos;
+	}
+
+	public static synchronized long getMaxNanos() {
+		return _maxNanos;
+	}
+
+	public static synchronized void resetStatistics() {
+		_clearCount = 0;
+		_totalNanos = 0;
+		_maxNanos = 0;
+	}
+
+	public static synchronized String getStatistics() {
+		return String.format("%d clear calls, total %.1f ms, max %.1f ms", 
+				_clearCount, _totalNanos / 1000000.0, _maxNanos / 1000000.0);
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.util.List;
+
+/**
+ * Outcome and phase durations of a commit done by a
+ * TwoPhaseCommitCoordinator.
+ */
+public class CommitResult {
+
+	private String _txId;
+	private long _prepareNanos;
+	private long _logNanos;
+	private long _commitNanos;
+	private List<String> _inDoubtParticipants;
+
+	public CommitResult(String txId, long prepareNanos, long logNanos, long commitNanos, 
+			List<String> inDoubtParticipants) {
+		_txId = txId;
+		_prepareNanos = prepareNanos;
+		_logNanos = logNanos;
+		_commitNanos = commitNanos;
+		_inDoubtParticipants = inDoubtParticipants;
+	}
+
+	public String getTransactionId() {
+		return _txId;
+	}
+
+	/**
+	 * Returns the duration of the prepare phase.
+	 */
+	public long getPrepareNanos() {
+		return _prepareNanos;
+	}
+
+	/**
+	 * Returns the duration of the forced write of the commit decision.
+	 */
+	public long getLogNanos() {
+		return _logNanos;
+	}
+
+	/**
+	 * Returns the duration of the commit phase.
+	 */
+	public long getCommitNanos() {
+		return _commitNanos;
+	}
+
+	public long getTotalNanos() {
+		return _prepareNanos + _logNanos + _commitNanos;
+	}
+
+	/**
+	 * Returns the participants which failed to commit. They are still
+	 * recorded as in doubt by the recovery log.
+	 */
+	public List<String> getInDoubtParticipants() {
+		return _inDoubtParticipants;
+	}
+
+	public boolean isComplete() {
+		return _inDoubtParticipants.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s prepare %.1f us, log %.1f us, commit %.1f us%s", _txId, 
+				_prepareNanos / 1000.0, _logNanos / 1000.0, _commitNanos / 1000.0,
+				isComplete() ? "" : ", in doubt " + _inDoubtParticipants);
+	}
+}
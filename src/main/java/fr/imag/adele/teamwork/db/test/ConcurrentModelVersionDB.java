@@ -0,0 +1,388 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Makes ModelVersionDBService instances usable by concurrent threads.
+ *
+ * A ModelVersionDBService has a single connection and a single transaction,
+ * so it cannot be shared by threads. This class keeps a pool of service
+ * instances, called sessions, connected to the same database and returns a
+ * service whose calls are made on a free session:
+ * <ul>
+ * <li>beginTransaction binds a session to the calling thread until the
+ * thread commits or rolls back, so that transactions belong to threads and
+ * hasTransaction only returns true in the thread which began it,</li>
+ * <li>calls which create or modify an object or a link lock the ids they
+ * modify with StripedLocks, so that revision numbers are allocated by one
+ * thread at a time for a given object while unrelated objects are written in
+ * parallel. In a transaction, locks are kept until the transaction ends,</li>
+ * <li>setConnectionURL and clear wait for the running calls and
+ * transactions and are applied to every session.</li>
+ * </ul>
+ * Ids are locked before a session is taken, so calls waiting for an id do
+ * not hold a session. Transactions which lock the same ids in different
+ * orders can deadlock: a call which cannot lock an id within the timeout
+ * gets a ModelVersionDBException, and a thread in a transaction should then
+ * roll back.
+ */
+public class ConcurrentModelVersionDB implements InvocationHandler {
+
+	public static final long DEFAULT_TIMEOUT = 10000;
+
+	/*
+	 * method name -> index of the arguments which are ids to lock
+	 */
+	private static final Map<String, int[]> LOCKED_ARGS = new HashMap<String, int[]>();
+	static {
+		LOCKED_ARGS.put("createObject", new int[] { 0 });
+		LOCKED_ARGS.put("createNewObjectRevision", new int[] { 0 });
+		LOCKED_ARGS.put("setObjectValue", new int[] { 0 });
+		LOCKED_ARGS.put("setObjectState", new int[] { 0 });
+		LOCKED_ARGS.put("deleteObject", new int[] { 0 });
+		LOCKED_ARGS.put("setObjectAttVersionSpecific", new int[] { 0 });
+		LOCKED_ARGS.put("addLink", new int[] { 1, 3 });
+		LOCKED_ARGS.put("setLinkState", new int[] { 0 });
+		LOCKED_ARGS.put("deleteLink", new int[] { 0 });
+		LOCKED_ARGS.put("setLinkSrcVersionSpecific", new int[] { 0 });
+		LOCKED_ARGS.put("setLinkDestVersionSpecific", new int[] { 0 });
+	}
+
+	private ModelVersionDBService m_service;
+	private List<ModelVersionDBService> m_sessions;
+	private StripedLocks m_locks;
+	private volatile long m_timeout = DEFAULT_TIMEOUT;
+
+	/*
+	 * free sessions, most recently used first
+	 */
+	private LinkedList<ModelVersionDBService> m_idle = new LinkedList<ModelVersionDBService>();
+
+	/*
+	 * read lock held by calls and transactions, write lock held by the
+	 * calls applied to all sessions
+	 */
+	private ReentrantReadWriteLock m_sessionsLock = new ReentrantReadWriteLock();
+
+	private ThreadLocal<Transaction> m_transaction = new ThreadLocal<Transaction>();
+
+	private int m_waitCount;
+
+	/**
+	 * Creates a pool of the specified sessions which must be distinct
+	 * instances. Sessions are expected to be connected to the same database
+	 * and not to be used directly anymore.
+	 */
+	public ConcurrentModelVersionDB(ModelVersionDBService... sessions) {
+		this(StripedLocks.DEFAULT_STRIPE_COUNT, sessions);
+	}
+
+	public ConcurrentModelVersionDB(int stripeCount, ModelVersionDBService... sessions) {
+		if ((sessions == null) || (sessions.length == 0))
+			throw new IllegalArgumentException("At least one session is required.");
+
+		m_sessions = new ArrayList<ModelVersionDBService>();
+		for (ModelVersionDBService session : sessions) {
+			if (session == null)
+				throw new IllegalArgumentException("Session cannot be null.");
+			for (ModelVersionDBService other : m_sessions) {
+				if (other == session)
+					throw new IllegalArgumentException("Sessions must be distinct instances.");
+			}
+			m_sessions.add(session);
+		}
+		m_idle.addAll(m_sessions);
+		m_locks = new StripedLocks(stripeCount);
+
+		m_service = (ModelVersionDBService) Proxy.newProxyInstance(ModelVersionDBService.class.getClassLoader(),
+				new Class<?>[] { ModelVersionDBService.class }, this);
+	}
+
+	/**
+	 * Returns the thread safe service.
+	 */
+	public ModelVersionDBService getService() {
+		return m_service;
+	}
+
+	public int getSessionCount() {
+		return m_sessions.size();
+	}
+
+	public StripedLocks getLocks() {
+		return m_locks;
+	}
+
+	/**
+	 * Sets the time in milliseconds a call waits for a session or for an id
+	 * locked by a transaction before it fails.
+	 */
+	public void setTimeout(long timeout) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("Timeout cannot be negative.");
+
+		m_timeout = timeout;
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	public synchronized int getIdleSessionCount() {
+		return m_idle.size();
+	}
+
+	/**
+	 * Returns the number of calls which had to wait for a free session.
+	 */
+	public synchronized int getWaitCount() {
+		return m_waitCount;
+	}
+
+	public synchronized void resetStatistics() {
+		m_waitCount = 0;
+		m_locks.resetStatistics();
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (method.getDeclaringClass() == Object.class)
+			return invokeObjectMethod(proxy, method, args);
+
+		String name = method.getName();
+		if (name.equals("beginTransaction"))
+			return beginTransaction(method);
+		if (name.equals("commitTransaction") || name.equals("rollbackTransaction"))
+			return endTransaction(method);
+		if (name.equals("hasTransaction"))
+			return (m_transaction.get() != null);
+		if (name.startsWith("setConnectionURL") || name.equals("clear"))
+			return invokeOnAll(method, args);
+
+		Transaction transaction = m_transaction.get();
+		if (transaction != null)
+			return invokeInTransaction(transaction, method, args);
+
+		UUID[] ids = getLockedIds(method, args);
+		m_sessionsLock.readLock().lock();
+		try {
+			lock(ids);
+			try {
+				ModelVersionDBService session = acquireSession();
+				try {
+					return invoke(session, method, args);
+				} finally {
+					releaseSession(session);
+				}
+			} finally {
+				m_locks.unlock(ids);
+			}
+		} finally {
+			m_sessionsLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Private methods
+	 */
+
+	private Object beginTransaction(Method method) throws Throwable {
+		Transaction transaction = m_transaction.get();
+		if (transaction != null) {
+			// the service reports nested transactions
+			return invoke(transaction._session, method, null);
+		}
+
+		// a transaction keeps the read lock until it ends
+		m_sessionsLock.readLock().lock();
+		ModelVersionDBService session = null;
+		boolean succeed = false;
+		try {
+			session = acquireSession();
+			invoke(session, method, null);
+			m_transaction.set(new Transaction(session));
+			succeed = true;
+
+			return null;
+		} finally {
+			if (!succeed) {
+				if (session != null)
+					releaseSession(session);
+				m_sessionsLock.readLock().unlock();
+			}
+		}
+	}
+
+	private Object endTransaction(Method method) throws Throwable {
+		Transaction transaction = m_transaction.get();
+		if (transaction == null) {
+			// the service reports there is no transaction to end
+			ModelVersionDBService session = acquireSession();
+			try {
+				return invoke(session, method, null);
+			} finally {
+				releaseSession(session);
+			}
+		}
+
+		try {
+			return invoke(transaction._session, method, null);
+		} finally {
+			// a failed commit may leave the transaction running
+			if (!transaction._session.hasTransaction()) {
+				m_transaction.set(null);
+				for (int i = transaction._lockedIds.size() - 1; i >= 0; i--)
+					m_locks.unlock(transaction._lockedIds.get(i));
+				releaseSession(transaction._session);
+				m_sessionsLock.readLock().unlock();
+			}
+		}
+	}
+
+	private Object invokeInTransaction(Transaction transaction, Method method, Object[] args) throws Throwable {
+		UUID[] ids = getLockedIds(method, args);
+		if (ids.length != 0) {
+			lock(ids);
+			transaction._lockedIds.add(ids);
+		}
+
+		return invoke(transaction._session, method, args);
+	}
+
+	private void lock(UUID[] ids) throws ModelVersionDBException {
+		if (ids.length == 0)
+			return;
+
+		boolean locked;
+		try {
+			locked = m_locks.tryLock(m_timeout, ids);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ModelVersionDBException("Interrupted while locking " + ids[0] + ".");
+		}
+		if (!locked)
+			throw new ModelVersionDBException("Cannot lock " + ids[0] + " after " + m_timeout + " ms.");
+	}
+
+	private Object invokeOnAll(Method method, Object[] args) throws Throwable {
+		Transaction transaction = m_transaction.get();
+		if (transaction != null) {
+			if (method.getName().equals("clear"))
+				return invoke(transaction._session, method, args);
+
+			throw new TransactionException("Cannot change the connection while a transaction is running.");
+		}
+
+		m_sessionsLock.writeLock().lock();
+		try {
+			if (method.getName().equals("clear"))
+				return invoke(m_sessions.get(0), method, args);
+
+			for (ModelVersionDBService session : m_sessions)
+				invoke(session, method, args);
+
+			return null;
+		} finally {
+			m_sessionsLock.writeLock().unlock();
+		}
+	}
+
+	private synchronized ModelVersionDBService acquireSession() throws ModelVersionDBException {
+		if (m_idle.isEmpty()) {
+			m_waitCount++;
+			long deadline = System.currentTimeMillis() + m_timeout;
+			while (m_idle.isEmpty()) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0)
+					throw new ModelVersionDBException("No free session after " + m_timeout + " ms.");
+				try {
+					wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ModelVersionDBException("Interrupted while waiting for a free session.");
+				}
+			}
+		}
+
+		return m_idle.removeFirst();
+	}
+
+	private synchronized void releaseSession(ModelVersionDBService session) {
+		m_idle.addFirst(session);
+		notify();
+	}
+
+	private static UUID[] getLockedIds(Method method, Object[] args) {
+		int[] idx = LOCKED_ARGS.get(method.getName());
+		if (idx == null)
+			return new UUID[0];
+
+		UUID[] ids = new UUID[idx.length];
+		for (int i = 0; i < idx.length; i++)
+			ids[i] = (UUID) args[idx[i]];
+
+		return ids;
+	}
+
+	private static Object invoke(ModelVersionDBService session, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(session, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+		String name = method.getName();
+		if (name.equals("equals"))
+			return (proxy == args[0]);
+		if (name.equals("hashCode"))
+			return System.identityHashCode(proxy);
+
+		return "ConcurrentModelVersionDB" + m_sessions;
+	}
+
+	/**
+	 * Session and ids locked by a running transaction.
+	 */
+	private static class Transaction {
+
+		private ModelVersionDBService _session;
+		private List<UUID[]> _lockedIds = new ArrayList<UUID[]>();
+
+		private Transaction(ModelVersionDBService session) {
+			_session = session;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.ModelVersionDBException;
+
+import java.util.UUID;
+
+/**
+ * Thrown by OptimisticUpdater when an object revision has been modified
+ * since its stamp was read.
+ */
+public class ConcurrentUpdateException extends ModelVersionDBException {
+
+	private static final long serialVersionUID = 1L;
+
+	private UUID _objId;
+	private int _rev;
+	private long _expectedStamp;
+	private long _actualStamp;
+
+	public ConcurrentUpdateException(UUID objId, int rev, long expectedStamp, long actualStamp) {
+		super("Revision " + rev + " of object " + objId + " has been modified: expected stamp " + 
+				expectedStamp + ", found " + actualStamp + ".");
+		_objId = objId;
+		_rev = rev;
+		_expectedStamp = expectedStamp;
+		_actualStamp = actualStamp;
+	}
+
+	public UUID getObjectId() {
+		return _objId;
+	}
+
+	public int getRevision() {
+		return _rev;
+	}
+
+	public long getExpectedStamp() {
+		return _expectedStamp;
+	}
+
+	/**
+	 * Returns the stamp found when the update failed. The revision may have
+	 * been modified again since.
+	 */
+	public long getActualStamp() {
+		return _actualStamp;
+	}
+}
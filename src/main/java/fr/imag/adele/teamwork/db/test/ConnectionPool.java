@@ -0,0 +1,406 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * Pool of JDBC connections to one database with one login.
+ * 
+ * Released connections are kept idle and given back by the next
+ * getConnection call, so that switching back to a database does not open
+ * a new physical connection. Idle connections are validated before they are
+ * reused and are closed when they have been idle for longer than the idle
+ * timeout, keeping at least <code>minSize</code> open connections.
+ */
+public class ConnectionPool {
+
+	public static final int DEFAULT_MIN_SIZE = 0;
+	public static final int DEFAULT_MAX_SIZE = 10;
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+	public static final long DEFAULT_CHECKOUT_TIMEOUT = 5000;
+
+	private String _url;
+	private String _login;
+	private String _password;
+
+	private int _minSize;
+	private int _maxSize;
+	private long _idleTimeout;
+	private String _validationQuery;
+
+	/*
+	 * most recently released connection first
+	 */
+	private LinkedList<IdleConnection> _idle = new LinkedList<IdleConnection>();
+	private int _activeCount;
+	private boolean _closed;
+
+	private int _createdCount;
+	private int _reusedCount;
+	private int _discardedCount;
+
+	public ConnectionPool(String url, String login, String password) {
+		this(url, login, password, DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT, null);
+	}
+
+	/**
+	 * Creates a pool which contains at most <code>maxSize</code> connections.
+	 * 
+	 * @param idleTimeout     time in milliseconds after which an idle
+	 *                        connection is closed
+	 * @param validationQuery query executed to check an idle connection before
+	 *                        it is reused, null to only check it is not closed
+	 */
+	public ConnectionPool(String url, String login, String password, int minSize, int maxSize, 
+			long idleTimeout, String validationQuery) {
+		if (url == null)
+			throw new IllegalArgumentException("Connection URL cannot be null.");
+		if ((minSize < 0) || (maxSize <= 0) || (minSize > maxSize))
+			throw new IllegalArgumentException("Invalid pool size: min=" + minSize + " max=" + maxSize);
+		if (idleTimeout < 0)
+			throw new IllegalArgumentException("Idle timeout cannot be negative.");
+
+		_url = url;
+		_login = login;
+		_password = password;
+		_minSize = minSize;
+		_maxSize = maxSize;
+		_idleTimeout = idleTimeout;
+		_validationQuery = validationQuery;
+	}
+
+	public String getURL() {
+		return _url;
+	}
+
+	public String getLogin() {
+		return _login;
+	}
+
+	String getPassword() {
+		return _password;
+	}
+
+	public int getMinSize() {
+		return _minSize;
+	}
+
+	public int getMaxSize() {
+		return _maxSize;
+	}
+
+	/**
+	 * Opens connections until the pool contains <code>minSize</code>
+	 * connections.
+	 */
+	public void fill() throws SQLException {
+		while (true) {
+			synchronized (this) {
+				checkOpen();
+				if (_idle.size() + _activeCount >= _minSize)
+					return;
+
+				// reserve the slot while connecting
+				_activeCount++;
+			}
+
+			Connection conn = null;
+			try {
+				conn = openConnection();
+			} finally {
+				synchronized (this) {
+					_activeCount--;
+					if ((conn != null) && !_closed) {
+						_idle.addLast(new IdleConnection(conn));
+						conn = null;
+					}
+					notifyAll();
+				}
+				if (conn != null)
+					closeQuietly(conn);
+			}
+		}
+	}
+
+	public Connection getConnection() throws SQLException {
+		return getConnection(DEFAULT_CHECKOUT_TIMEOUT);
+	}
+
+	/**
+	 * Returns an idle connection or opens a new one if the pool is not full.
+	 * Waits at most <code>timeout</code> milliseconds for a connection to be
+	 * released when the pool is full.
+	 * 
+	 * The connection must be given back with releaseConnection.
+	 */
+	public Connection getConnection(long timeout) throws SQLException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			IdleConnection idle = null;
+			synchronized (this) {
+				checkOpen();
+				while (_idle.isEmpty() && (_activeCount >= _maxSize)) {
+					long wait = deadline - System.currentTimeMillis();
+					if (wait <= 0)
+						throw new SQLException("No connection available in pool " + this + " after " + timeout + " ms.");
+					try {
+						wait(wait);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a connection of pool " + this);
+					}
+					checkOpen();
+				}
+
+				_activeCount++;
+				if (!_idle.isEmpty())
+					idle = _idle.removeFirst();
+			}
+
+			if (idle == null)
+				return open();
+
+			if (isValid(idle._conn)) {
+				synchronized (this) {
+					_reusedCount++;
+				}
+				return idle._conn;
+			}
+
+			// broken connection, try again
+			discard(idle._conn);
+		}
+	}
+
+	/**
+	 * Gives back a connection returned by getConnection. The connection is
+	 * closed if it is broken or if the pool has been closed.
+	 */
+	public void releaseConnection(Connection conn) {
+		if (conn == null)
+			throw new IllegalArgumentException("Connection cannot be null.");
+
+		boolean valid;
+		try {
+			valid = !conn.isClosed();
+			if (valid && !conn.getAutoCommit()) {
+				conn.rollback();
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			valid = false;
+		}
+
+		synchronized (this) {
+			if (valid && !_closed) {
+				_activeCount--;
+				_idle.addFirst(new IdleConnection(conn));
+				notifyAll();
+				conn = null;
+			}
+		}
+		if (conn != null)
+			discard(conn);
+
+		evictIdle();
+	}
+
+	/**
+	 * Closes the connections which have been idle for longer than the idle
+	 * timeout while keeping at least <code>minSize</code> connections.
+	 * 
+	 * @return the number of closed connections
+	 */
+	public int evictIdle() {
+		List<Connection> evicted = new ArrayList<Connection>();
+		synchronized (this) {
+			long limit = System.currentTimeMillis() - _idleTimeout;
+
+			// the least recently used connections are at the end
+			ListIterator<IdleConnection> it = _idle.listIterator(_idle.size());
+			while (it.hasPrevious() && (_idle.size() + _activeCount > _minSize)) {
+				IdleConnection idle = it.previous();
+				if (idle._releaseTime > limit)
+					break;
+
+				it.remove();
+				evicted.add(idle._conn);
+			}
+			_discardedCount += evicted.size();
+		}
+
+		for (Connection conn : evicted)
+			closeQuietly(conn);
+
+		return evicted.size();
+	}
+
+	/**
+	 * Closes the idle connections. Connections which are in use are closed
+	 * when they are released.
+	 */
+	public void close() {
+		List<IdleConnection> idles;
+		synchronized (this) {
+			_closed = true;
+			idles = new ArrayList<IdleConnection>(_idle);
+			_idle.clear();
+			notifyAll();
+		}
+
+		for (IdleConnection idle : idles)
+			closeQuietly(idle._conn);
+	}
+
+	public synchronized boolean isClosed() {
+		return _closed;
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	public synchronized int getIdleCount() {
+		return _idle.size();
+	}
+
+	public synchronized int getActiveCount() {
+		return _activeCount;
+	}
+
+	/**
+	 * Returns the number of physical connections opened by this pool.
+	 */
+	public synchronized int getCreatedCount() {
+		return _createdCount;
+	}
+
+	/**
+	 * Returns the number of getConnection calls served by an idle connection.
+	 */
+	public synchronized int getReusedCount() {
+		return _reusedCount;
+	}
+
+	/**
+	 * Returns the number of connections closed because they were broken or
+	 * idle for too long.
+	 */
+	public synchronized int getDiscardedCount() {
+		return _discardedCount;
+	}
+
+	@Override
+	public String toString() {
+		return _url + " (" + _login + ")";
+	}
+
+	/*
+	 * Private methods
+	 */
+
+	private Connection open() throws SQLException {
+		boolean succeed = false;
+		try {
+			Connection conn = openConnection();
+			succeed = true;
+
+			return conn;
+		} finally {
+			if (!succeed) {
+				synchronized (this) {
+					_activeCount--;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	private Connection openConnection() throws SQLException {
+		Connection conn = DriverManager.getConnection(_url, _login, _password);
+		synchronized (this) {
+			_createdCount++;
+		}
+
+		return conn;
+	}
+
+	private boolean isValid(Connection conn) {
+		try {
+			if (conn.isClosed())
+				return false;
+			if (_validationQuery == null)
+				return true;
+
+			Statement stmt = conn.createStatement();
+			try {
+				stmt.execute(_validationQuery);
+			} finally {
+				stmt.close();
+			}
+
+			return true;
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void discard(Connection conn) {
+		synchronized (this) {
+			_activeCount--;
+			_discardedCount++;
+			notifyAll();
+		}
+		closeQuietly(conn);
+	}
+
+	private void checkOpen() throws SQLException {
+		if (_closed)
+			throw new SQLException("Connection pool " + this + " is closed.");
+	}
+
+	private static void closeQuietly(Connection conn) {
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			// ignore it
+		}
+	}
+
+	private static class IdleConnection {
+
+		private Connection _conn;
+		private long _releaseTime;
+
+		private IdleConnection(Connection conn) {
+			_conn = conn;
+			_releaseTime = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps one ConnectionPool per (url, login) so that switching between
+ * databases reuses the connections opened before.
+ * 
+ * Pool sizes, idle timeout and validation query are applied to the pools
+ * created after they are set.
+ */
+public class ConnectionPoolManager {
+
+	private Map<PoolKey, ConnectionPool> m_pools = new HashMap<PoolKey, ConnectionPool>();
+
+	/*
+	 * connection in use -> pool which owns it
+	 */
+	private Map<Connection, ConnectionPool> m_owners = new IdentityHashMap<Connection, ConnectionPool>();
+
+	private int m_minSize = ConnectionPool.DEFAULT_MIN_SIZE;
+	private int m_maxSize = ConnectionPool.DEFAULT_MAX_SIZE;
+	private long m_idleTimeout = ConnectionPool.DEFAULT_IDLE_TIMEOUT;
+	private String m_validationQuery;
+
+	public synchronized void setPoolSize(int minSize, int maxSize) {
+		if ((minSize < 0) || (maxSize <= 0) || (minSize > maxSize))
+			throw new IllegalArgumentException("Invalid pool size: min=" + minSize + " max=" + maxSize);
+
+		m_minSize = minSize;
+		m_maxSize = maxSize;
+	}
+
+	public synchronized void setIdleTimeout(long idleTimeout) {
+		if (idleTimeout < 0)
+			throw new IllegalArgumentException("Idle timeout cannot be negative.");
+
+		m_idleTimeout = idleTimeout;
+	}
+
+	public synchronized void setValidationQuery(String validationQuery) {
+		m_validationQuery = validationQuery;
+	}
+
+	/**
+	 * Returns a connection to the specified database. 
+	 * The connection must be given back with releaseConnection.
+	 */
+	public Connection getConnection(String url, String login, String password) throws SQLException {
+		ConnectionPool pool = getOrCreatePool(url, login, password);
+		Connection conn = pool.getConnection();
+		synchronized (this) {
+			m_owners.put(conn, pool);
+		}
+
+		return conn;
+	}
+
+	public void releaseConnection(Connection conn) {
+		ConnectionPool pool;
+		synchronized (this) {
+			pool = m_owners.remove(conn);
+		}
+		if (pool == null)
+			throw new IllegalArgumentException("Connection " + conn + " has not been returned by this manager.");
+
+		pool.releaseConnection(conn);
+	}
+
+	/**
+	 * Returns the pool of connections to the specified database or null if
+	 * no connection to this database has been requested.
+	 */
+	public synchronized ConnectionPool getPool(String url, String login) {
+		if (url == null)
+			return null;
+
+		return m_pools.get(new PoolKey(url, login));
+	}
+
+	public synchronized int getPoolNumber() {
+		return m_pools.size();
+	}
+
+	/**
+	 * Closes the idle connections of all pools which have been idle for
+	 * longer than the idle timeout.
+	 * 
+	 * @return the number of closed connections
+	 */
+	public int evictIdle() {
+		int evicted = 0;
+		for (ConnectionPool pool : getPools())
+			evicted += pool.evictIdle();
+
+		return evicted;
+	}
+
+	/**
+	 * Closes all pools.
+	 */
+	public void close() {
+		List<ConnectionPool> pools;
+		synchronized (this) {
+			pools = new ArrayList<ConnectionPool>(m_pools.values());
+			m_pools.clear();
+		}
+
+		for (ConnectionPool pool : pools)
+			pool.close();
+	}
+
+	/*
+	 * Private methods
+	 */
+
+	private ConnectionPool getOrCreatePool(String url, String login, String password) throws SQLException {
+		if (url == null)
+			throw new IllegalArgumentException("Connection URL cannot be null.");
+
+		ConnectionPool oldPool = null;
+		ConnectionPool pool;
+		synchronized (this) {
+			PoolKey key = new PoolKey(url, login);
+			pool = m_pools.get(key);
+			if ((pool != null) && !equals(password, pool.getPassword())) {
+				// credentials have changed, connections are not reused
+				oldPool = pool;
+				pool = null;
+			}
+			if (pool == null) {
+				pool = new ConnectionPool(url, login, password, m_minSize, m_maxSize, 
+						m_idleTimeout, m_validationQuery);
+				m_pools.put(key, pool);
+			}
+		}
+
+		if (oldPool != null)
+			oldPool.close();
+		pool.fill();
+
+		return pool;
+	}
+
+	private synchronized List<ConnectionPool> getPools() {
+		return new ArrayList<ConnectionPool>(m_pools.values());
+	}
+
+	private static boolean equals(Object obj1, Object obj2) {
+		return (obj1 == null) ? (obj2 == null) : obj1.equals(obj2);
+	}
+
+	private static class PoolKey {
+
+		private String _url;
+		private String _login;
+
+		private PoolKey(String url, String login) {
+			_url = url;
+			_login = login;
+		}
+
+		@Override
+		public int hashCode() {
+			return _url.hashCode() * 31 + ((_login == null) ? 0 : _login.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof PoolKey))
+				return false;
+
+			PoolKey key = (PoolKey) obj;
+			return _url.equals(key._url) && ConnectionPoolManager.equals(_login, key._login);
+		}
+	}
+}
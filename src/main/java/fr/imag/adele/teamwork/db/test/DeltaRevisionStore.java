@@ -0,0 +1,307 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Stores the states of object revisions as deltas.
+ * 
+ * A revision only stores the attributes whose value differs from its parent
+ * revision and the attributes which have been removed. A state is rebuilt by
+ * applying the deltas from the nearest full snapshot. A full snapshot is
+ * stored every <code>snapshotInterval</code> revisions of a chain so that
+ * reading a state never applies more than <code>snapshotInterval</code>
+ * deltas.
+ */
+public class DeltaRevisionStore {
+
+	public static final int DEFAULT_SNAPSHOT_INTERVAL = 16;
+
+	private int m_snapshotInterval;
+
+	/*
+	 * object id -> revision number -> stored revision
+	 */
+	private Map<UUID, Map<Integer, StoredRevision>> m_objects = new HashMap<UUID, Map<Integer, StoredRevision>>();
+
+	private int m_revisionCount;
+	private long m_storedValueCount;
+	private long m_fullValueCount;
+
+	public DeltaRevisionStore() {
+		this(DEFAULT_SNAPSHOT_INTERVAL);
+	}
+
+	/**
+	 * @param snapshotInterval maximum number of deltas applied to read a
+	 *                         state, 1 stores full states only
+	 */
+	public DeltaRevisionStore(int snapshotInterval) {
+		if (snapshotInterval <= 0)
+			throw new IllegalArgumentException("Snapshot interval must be positive.");
+
+		m_snapshotInterval = snapshotInterval;
+	}
+
+	public int getSnapshotInterval() {
+		return m_snapshotInterval;
+	}
+
+	/**
+	 * Records the state of a new object revision.
+	 * 
+	 * @param parentRev revision this revision has been created from, a
+	 *                  negative number for the first revision of an object
+	 */
+	public synchronized void addRevision(UUID objId, int rev, int parentRev, Map<String, Object> state) {
+		if (objId == null)
+			throw new IllegalArgumentException("Object id cannot be null.");
+
+		Map<Integer, StoredRevision> revs = m_objects.get(objId);
+		if ((revs != null) && revs.containsKey(rev))
+			throw new IllegalArgumentException("Revision " + rev + " of object " + objId + " already exists.");
+
+		if (state == null)
+			state = new HashMap<String, Object>();
+
+		StoredRevision parent = null;
+		if (parentRev >= 0) {
+			parent = (revs == null) ? null : revs.get(parentRev);
+			if (parent == null)
+				throw new IllegalArgumentException("Revision " + parentRev + " of object " + objId + " does not exist.");
+		}
+
+		if ((parent != null) && (parent._depth + 1 >= m_snapshotInterval))
+			parent = null;
+
+		if (revs == null) {
+			revs = new HashMap<Integer, StoredRevision>();
+			m_objects.put(objId, revs);
+		}
+		put(revs, rev, encode(revs, parentRev, parent, state));
+	}
+
+	/**
+	 * Replaces the state of an existing revision, as setObjectState or a
+	 * version specific setObjectValue does on the service. The revisions
+	 * stored as deltas of this revision are first materialized and stored
+	 * again as deltas of its new state, so that their states do not change.
+	 */
+	public synchronized void setState(UUID objId, int rev, Map<String, Object> state) {
+		Map<Integer, StoredRevision> revs = m_objects.get(objId);
+		StoredRevision stored = (revs == null) ? null : revs.get(rev);
+		if (stored == null)
+			throw new IllegalArgumentException("Revision " + rev + " of object " + objId + " does not exist.");
+
+		if (state == null)
+			state = new HashMap<String, Object>();
+
+		// children read through this revision
+		Map<Integer, Map<String, Object>> childStates = new HashMap<Integer, Map<String, Object>>();
+		for (Map.Entry<Integer, StoredRevision> entry : revs.entrySet()) {
+			StoredRevision child = entry.getValue();
+			if ((child._depth > 0) && (child._parentRev == rev))
+				childStates.put(entry.getKey(), resolve(revs, child));
+		}
+
+		StoredRevision parent = (stored._depth == 0) ? null : revs.get(stored._parentRev);
+		stored = encode(revs, stored._parentRev, parent, state);
+		put(revs, rev, stored);
+		for (Map.Entry<Integer, Map<String, Object>> entry : childStates.entrySet())
+			put(revs, entry.getKey(), encode(revs, rev, stored, entry.getValue()));
+	}
+
+	/**
+	 * Returns a copy of the state of the specified object revision.
+	 */
+	public synchronized Map<String, Object> getState(UUID objId, int rev) {
+		Map<Integer, StoredRevision> revs = m_objects.get(objId);
+		StoredRevision stored = (revs == null) ? null : revs.get(rev);
+		if (stored == null)
+			throw new IllegalArgumentException("Revision " + rev + " of object " + objId + " does not exist.");
+
+		return resolve(revs, stored);
+	}
+
+	public synchronized boolean contains(UUID objId, int rev) {
+		Map<Integer, StoredRevision> revs = m_objects.get(objId);
+
+		return (revs != null) && revs.containsKey(rev);
+	}
+
+	/**
+	 * Returns the number of deltas applied to read the specified revision.
+	 */
+	public synchronized int getReadDepth(UUID objId, int rev) {
+		Map<Integer, StoredRevision> revs = m_objects.get(objId);
+		StoredRevision stored = (revs == null) ? null : revs.get(rev);
+		if (stored == null)
+			throw new IllegalArgumentException("Revision " + rev + " of object " + objId + " does not exist.");
+
+		return stored._depth;
+	}
+
+	public synchronized void removeObject(UUID objId) {
+		Map<Integer, StoredRevision> revs = m_objects.remove(objId);
+		if (revs == null)
+			return;
+
+		for (StoredRevision stored : revs.values()) {
+			m_revisionCount--;
+			m_storedValueCount -= stored.getValueCount();
+			m_fullValueCount -= stored._stateSize;
+		}
+	}
+
+	public synchronized void clear() {
+		m_objects.clear();
+		m_revisionCount = 0;
+		m_storedValueCount = 0;
+		m_fullValueCount = 0;
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	public synchronized int getRevisionCount() {
+		return m_revisionCount;
+	}
+
+	/**
+	 * Returns the number of attribute values and removal markers stored.
+	 */
+	public synchronized long getStoredValueCount() {
+		return m_storedValueCount;
+	}
+
+	/**
+	 * Returns the number of attribute values which would be stored if each
+	 * revision stored its full state.
+	 */
+	public synchronized long getFullValueCount() {
+		return m_fullValueCount;
+	}
+
+	/*
+	 * Private methods
+	 */
+
+	/**
+	 * Returns a revision storing <code>state</code> as a delta of
+	 * <code>parent</code>, or as a snapshot if parent is null.
+	 */
+	private static StoredRevision encode(Map<Integer, StoredRevision> revs, int parentRev, StoredRevision parent,
+			Map<String, Object> state) {
+		StoredRevision stored;
+		if (parent == null) {
+			stored = new StoredRevision(parentRev, 0, new HashMap<String, Object>(state), null);
+		} else {
+			Map<String, Object> parentState = resolve(revs, parent);
+			Map<String, Object> changed = new HashMap<String, Object>();
+			for (Map.Entry<String, Object> entry : state.entrySet()) {
+				String attr = entry.getKey();
+				Object value = entry.getValue();
+				if (!parentState.containsKey(attr) || !equals(parentState.get(attr), value))
+					changed.put(attr, value);
+			}
+			Set<String> removed = null;
+			for (String attr : parentState.keySet()) {
+				if (!state.containsKey(attr)) {
+					if (removed == null)
+						removed = new HashSet<String>();
+					removed.add(attr);
+				}
+			}
+			stored = new StoredRevision(parentRev, parent._depth + 1, changed, removed);
+		}
+		stored._stateSize = state.size();
+
+		return stored;
+	}
+
+	private void put(Map<Integer, StoredRevision> revs, int rev, StoredRevision stored) {
+		StoredRevision old = revs.put(rev, stored);
+		if (old == null) {
+			m_revisionCount++;
+		} else {
+			m_storedValueCount -= old.getValueCount();
+			m_fullValueCount -= old._stateSize;
+		}
+		m_storedValueCount += stored.getValueCount();
+		m_fullValueCount += stored._stateSize;
+	}
+
+	private static Map<String, Object> resolve(Map<Integer, StoredRevision> revs, StoredRevision stored) {
+		List<StoredRevision> chain = new ArrayList<StoredRevision>(stored._depth + 1);
+		chain.add(stored);
+		while (stored._depth > 0) {
+			stored = revs.get(stored._parentRev);
+			chain.add(stored);
+		}
+
+		// the last element is a snapshot
+		Map<String, Object> state = new HashMap<String, Object>(chain.get(chain.size() - 1)._values);
+		for (int i = chain.size() - 2; i >= 0; i--) {
+			StoredRevision delta = chain.get(i);
+			if (delta._removed != null)
+				state.keySet().removeAll(delta._removed);
+			state.putAll(delta._values);
+		}
+
+		return state;
+	}
+
+	private static boolean equals(Object obj1, Object obj2) {
+		return (obj1 == null) ? (obj2 == null) : obj1.equals(obj2);
+	}
+
+	private static class StoredRevision {
+
+		private int _parentRev;
+
+		/*
+		 * number of deltas between this revision and its snapshot
+		 */
+		private int _depth;
+		private Map<String, Object> _values;
+		private Set<String> _removed;
+		private int _stateSize;
+
+		private StoredRevision(int parentRev, int depth, Map<String, Object> values, Set<String> removed) {
+			_parentRev = parentRev;
+			_depth = depth;
+			_values = values;
+			_removed = removed;
+		}
+
+		private int getValueCount() {
+			return _values.size() + ((_removed == null) ? 0 : _removed.size());
+		}
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers objExists and linkExists for ids which have never been created
+ * without querying the database.
+ * 
+ * Object ids and link ids are kept in two Bloom filters. The filters are
+ * built from the database on creation and when the connection URL is
+ * changed through this class, are updated on createObject and addLink and
+ * are emptied on clear. Deleted ids stay in the filters, so that they only
+ * cost a database probe. Likewise, ids created in a transaction which is
+ * rolled back stay in the filters. When more ids than the capacity have
+ * been added, the filters are rebuilt with a doubled capacity. A rebuild
+ * loads new filters aside while the current ones keep answering, and the
+ * ids created meanwhile are added to the new filters before they replace
+ * the current ones.
+ * 
+ * Checks with invalid arguments, such as a null id or the ALL revision,
+ * are always forwarded to the database so that they fail the same way.
+ * Objects and links must be created through this filter, or it must be
+ * rebuilt, otherwise it will report them as not existing.
+ */
+public class ExistenceFilter {
+
+	public static final int DEFAULT_CAPACITY = 10000;
+	public static final double DEFAULT_FPP = 0.01;
+
+	private ModelVersionDBService m_db;
+	private double m_fpp;
+
+	private BloomFilter m_objects;
+	private BloomFilter m_links;
+
+	// ids created during a rebuild, null when no rebuild is running
+	private List<UUID> m_rebuildObjects;
+	private List<UUID> m_rebuildLinks;
+	private Object m_rebuildLock = new Object();
+
+	private AtomicLong m_negatives = new AtomicLong();
+	private AtomicLong m_revisionNegatives = new AtomicLong();
+	private AtomicLong m_probes = new AtomicLong();
+	private AtomicLong m_revisionProbes = new AtomicLong();
+	private AtomicLong m_falsePositives = new AtomicLong();
+	private int m_rebuildCount;
+
+	public ExistenceFilter(ModelVersionDBService db) throws ModelVersionDBException {
+		this(db, DEFAULT_CAPACITY, DEFAULT_FPP);
+	}
+
+	public ExistenceFilter(ModelVersionDBService db, int capacity, double fpp) 
+			throws ModelVersionDBException {
+		if (db == null)
+			throw new IllegalArgumentException("Database service cannot be null.");
+
+		m_db = db;
+		m_fpp = fpp;
+		m_objects = new BloomFilter(capacity, fpp);
+		m_links = new BloomFilter(capacity, fpp);
+		rebuild();
+	}
+
+	/*
+	 * Existence checks
+	 */
+
+	public boolean objExists(UUID objId) throws ModelVersionDBException {
+		if ((objId != null) && !objMightExist(objId, false))
+			return false;
+
+		return checkProbe(m_db.objExists(objId));
+	}
+
+	public boolean objExists(UUID objId, int rev) throws ModelVersionDBException {
+		if ((objId != null) && (rev != ModelVersionDBService.ALL) && !objMightExist(objId, true))
+			return false;
+
+		m_revisionProbes.incrementAndGet();
+		return m_db.objExists(objId, rev);
+	}
+
+	public boolean linkExists(UUID linkId) throws ModelVersionDBException {
+		if ((linkId != null) && !linkMightExist(linkId, false))
+			return false;
+
+		return checkProbe(m_db.linkExists(linkId));
+	}
+
+	public boolean linkExists(UUID linkId, int rev) throws ModelVersionDBException {
+		if ((linkId != null) && (rev != ModelVersionDBService.ALL) && !linkMightExist(linkId, true))
+			return false;
+
+		m_revisionProbes.incrementAndGet();
+		return m_db.linkExists(linkId, rev);
+	}
+
+	/*
+	 * Modifications
+	 */
+
+	public int createObject(UUID objId, UUID typeId, Map<String, Object> stateMap, boolean isType) 
+			throws ModelVersionDBException {
+		int rev = m_db.createObject(objId, typeId, stateMap, isType);
+		synchronized (this) {
+			m_objects.add(objId);
+			if (m_rebuildObjects != null)
+				m_rebuildObjects.add(objId);
+		}
+		checkCapacity();
+
+		return rev;
+	}
+
+	public Revision addLink(UUID linkTypeId, UUID srcId, int srcRev, UUID destId, int destRev, 
+			Map<String, Object> stateMap) throws ModelVersionDBException {
+		Revision linkRev = m_db.addLink(linkTypeId, srcId, srcRev, destId, destRev, stateMap);
+		synchronized (this) {
+			m_links.add(linkRev.getId());
+			if (m_rebuildLinks != null)
+				m_rebuildLinks.add(linkRev.getId());
+		}
+		checkCapacity();
+
+		return linkRev;
+	}
+
+	public void clear() throws ModelVersionDBException {
+		m_db.clear();
+		synchronized (this) {
+			m_objects.clear();
+			m_links.clear();
+		}
+	}
+
+	public void setConnectionURL(String url) throws ModelVersionDBException, DBConnectionException, 
+			TransactionException {
+		m_db.setConnectionURL(url);
+		rebuild();
+	}
+
+	public void setConnectionURL(String url, String login, String password) 
+			throws ModelVersionDBException, DBConnectionException, TransactionException {
+		m_db.setConnectionURL(url, login, password);
+		rebuild();
+	}
+
+	/**
+	 * Reloads the filters from the ids in the database. The current filters
+	 * answer the checks until the new ones are loaded.
+	 */
+	public void rebuild() throws ModelVersionDBException {
+		synchronized (m_rebuildLock) {
+			int objCapacity;
+			int linkCapacity;
+			synchronized (this) {
+				m_rebuildObjects = new ArrayList<UUID>();
+				m_rebuildLinks = new ArrayList<UUID>();
+				objCapacity = m_objects.getCapacity();
+				linkCapacity = m_links.getCapacity();
+			}
+
+			BloomFilter objects;
+			BloomFilter links;
+			try {
+				Set<UUID> objIds = m_db.getObjects();
+				objects = new BloomFilter(getCapacity(objCapacity, objIds.size()), m_fpp);
+				for (UUID objId : objIds)
+					objects.add(objId);
+
+				Set<UUID> linkIds = m_db.getLinks();
+				links = new BloomFilter(getCapacity(linkCapacity, linkIds.size()), m_fpp);
+				for (UUID linkId : linkIds)
+					links.add(linkId);
+			} catch (ModelVersionDBException e) {
+				synchronized (this) {
+					m_rebuildObjects = null;
+					m_rebuildLinks = null;
+				}
+				throw e;
+			}
+
+			synchronized (this) {
+				for (UUID objId : m_rebuildObjects)
+					objects.add(objId);
+				for (UUID linkId : m_rebuildLinks)
+					links.add(linkId);
+				m_objects = objects;
+				m_links = links;
+				m_rebuildObjects = null;
+				m_rebuildLinks = null;
+
+				m_rebuildCount++;
+			}
+		}
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	/**
+	 * Returns the number of checks answered without querying the database.
+	 */
+	public long getNegativeCount() {
+		return m_negatives.get();
+	}
+
+	/**
+	 * Returns the number of checks which queried the database.
+	 */
+	public long getProbeCount() {
+		return m_probes.get() + m_revisionProbes.get();
+	}
+
+	/**
+	 * Returns the number of checks of a revision which queried the database.
+	 * They are not classified as false positives: a missing revision does
+	 * not tell whether its id exists.
+	 */
+	public long getRevisionProbeCount() {
+		return m_revisionProbes.get();
+	}
+
+	/**
+	 * Returns the number of database probes of objExists(UUID) and
+	 * linkExists(UUID) for ids which did not exist.
+	 */
+	public long getFalsePositiveCount() {
+		return m_falsePositives.get();
+	}
+
+	/**
+	 * Returns the ratio of checks of ids, without revision, for not existing
+	 * ids which queried the database.
+	 */
+	public double getFalsePositiveRate() {
+		long falsePositives = m_falsePositives.get();
+		long total = falsePositives + m_negatives.get() - m_revisionNegatives.get();
+		if (total == 0)
+			return 0;
+
+		return (double) falsePositives / total;
+	}
+
+	public synchronized double getExpectedFalsePositiveRate() {
+		return Math.max(m_objects.getExpectedFalsePositiveRate(), m_links.getExpectedFalsePositiveRate());
+	}
+
+	public synchronized long getMemoryBytes() {
+		return m_objects.getMemoryBytes() + m_links.getMemoryBytes();
+	}
+
+	public synchronized int getRebuildCount() {
+		return m_rebuildCount;
+	}
+
+	public void resetStatistics() {
+		m_negatives.set(0);
+		m_revisionNegatives.set(0);
+		m_probes.set(0);
+		m_revisionProbes.set(0);
+		m_falsePositives.set(0);
+	}
+
+	private synchronized boolean objMightExist(UUID objId, boolean revision) {
+		if (m_objects.mightContain(objId))
+			return true;
+
+		countNegative(revision);
+		return false;
+	}
+
+	private synchronized boolean linkMightExist(UUID linkId, boolean revision) {
+		if (m_links.mightContain(linkId))
+			return true;
+
+		countNegative(revision);
+		return false;
+	}
+
+	private void countNegative(boolean revision) {
+		m_negatives.incrementAndGet();
+		if (revision)
+			m_revisionNegatives.incrementAndGet();
+	}
+
+	private boolean checkProbe(boolean exists) {
+		m_probes.incrementAndGet();
+		if (!exists)
+			m_falsePositives.incrementAndGet();
+
+		return exists;
+	}
+
+	private void checkCapacity() throws ModelVersionDBException {
+		boolean full;
+		synchronized (this) {
+			full = (m_objects.getInsertedCount() > m_objects.getCapacity()) || 
+					(m_links.getInsertedCount() > m_links.getCapacity());
+		}
+		if (full)
+			rebuild();
+	}
+
+	private static int getCapacity(int capacity, int idCount) {
+		while (capacity < idCount)
+			capacity *= 2;
+
+		return capacity;
+	}
+}
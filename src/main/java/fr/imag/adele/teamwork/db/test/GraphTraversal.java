@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Computes the object revisions reachable from an object revision through
+ * links of given types.
+ * 
+ * The traversal can be breadth first or depth first and bounded in depth.
+ * Links can be followed to the destination revision they reference or to
+ * the last revision of their destination. When an AdjacencyCache is given,
+ * the links of each revision are read from it, so that repeated traversals
+ * over the same part of the graph do not query the database again.
+ * 
+ * Revisions are expanded one at a time: each expanded revision costs one
+ * getLinkDestRev query per link type, or two queries on an adjacency cache
+ * miss. The frontier is not fetched in batches.
+ */
+public class GraphTraversal {
+
+	public static final int BREADTH_FIRST = 0;
+	public static final int DEPTH_FIRST = 1;
+
+	public static final int UNLIMITED_DEPTH = -1;
+
+	private ModelVersionDBService m_db;
+	private AdjacencyCache m_cache;
+
+	private int m_lastQueryCount;
+
+	public GraphTraversal(ModelVersionDBService db) {
+		this(db, null);
+	}
+
+	public GraphTraversal(ModelVersionDBService db, AdjacencyCache cache) {
+		m_db = db;
+		m_cache = cache;
+	}
+
+	/**
+	 * Returns the object revisions reachable from the specified revision in
+	 * the order they have been reached. The start revision is not part of the
+	 * result.
+	 * 
+	 * @param rev       start revision, may be ModelVersionDBService.LAST
+	 * @param linkTypes types of the links to follow
+	 * @param maxDepth  maximum number of links between the start revision and
+	 *                  a reached revision, UNLIMITED_DEPTH for no limit
+	 * @param order     BREADTH_FIRST or DEPTH_FIRST
+	 * @param lastRevs  if true, links are followed to the last revision of
+	 *                  their destination
+	 */
+	public List<Revision> getReachableRevs(UUID objId, int rev, Collection<UUID> linkTypes, int maxDepth, 
+			int order, boolean lastRevs) throws ModelVersionDBException {
+		if (objId == null)
+			throw new IllegalArgumentException("Object id cannot be null.");
+		if ((linkTypes == null) || linkTypes.isEmpty())
+			throw new IllegalArgumentException("Link types cannot be empty.");
+		if ((maxDepth < 0) && (maxDepth != UNLIMITED_DEPTH))
+			throw new IllegalArgumentException("Invalid maximum depth " + maxDepth);
+		if ((order != BREADTH_FIRST) && (order != DEPTH_FIRST))
+			throw new IllegalArgumentException("Invalid traversal order " + order);
+
+		m_lastQueryCount = 0;
+		if (rev == ModelVersionDBService.LAST) {
+			rev = m_db.getLastObjectRevNb(objId);
+			m_lastQueryCount++;
+		}
+		if (!m_db.objExists(objId, rev))
+			throw new IllegalArgumentException("Revision " + rev + " of object " + objId + " does not exist.");
+		m_lastQueryCount++;
+
+		Map<UUID, Integer> lastRevNbs = new HashMap<UUID, Integer>();
+
+		// shortest depth at which each revision has been reached
+		Map<RevisionKey, Integer> depths = new HashMap<RevisionKey, Integer>();
+		RevisionKey startKey = new RevisionKey(objId, rev);
+		depths.put(startKey, 0);
+		Map<RevisionKey, Revision> reached = new LinkedHashMap<RevisionKey, Revision>();
+
+		LinkedList<Step> pending = new LinkedList<Step>();
+		pending.add(new Step(objId, rev, 0));
+		while (!pending.isEmpty()) {
+			Step step = (order == BREADTH_FIRST) ? pending.removeFirst() : pending.removeLast();
+			if (depths.get(new RevisionKey(step._objId, step._rev)) < step._depth)
+				continue;
+			if ((maxDepth != UNLIMITED_DEPTH) && (step._depth >= maxDepth))
+				continue;
+
+			int depth = step._depth + 1;
+			List<Step> nextSteps = new ArrayList<Step>();
+			for (UUID linkType : linkTypes) {
+				for (Revision destRev : getLinkDestRev(linkType, step._objId, step._rev)) {
+					UUID destId = destRev.getId();
+					int destRevNb = destRev.getRev();
+					if (lastRevs) {
+						Integer lastRevNb = lastRevNbs.get(destId);
+						if (lastRevNb == null) {
+							lastRevNb = m_db.getLastObjectRevNb(destId);
+							m_lastQueryCount++;
+							lastRevNbs.put(destId, lastRevNb);
+						}
+						destRevNb = lastRevNb;
+					}
+
+					RevisionKey key = new RevisionKey(destId, destRevNb);
+					Integer knownDepth = depths.get(key);
+					if ((knownDepth != null) && (knownDepth <= depth))
+						continue;
+
+					depths.put(key, depth);
+					if (!key.equals(startKey) && !reached.containsKey(key))
+						reached.put(key, new Revision(destId, destRev.getTypeId(), destRevNb));
+					nextSteps.add(new Step(destId, destRevNb, depth));
+				}
+			}
+
+			if (order == BREADTH_FIRST) {
+				pending.addAll(nextSteps);
+			} else {
+				// first destination is expanded first
+				for (int i = nextSteps.size() - 1; i >= 0; i--)
+					pending.addLast(nextSteps.get(i));
+			}
+		}
+
+		return new ArrayList<Revision>(reached.values());
+	}
+
+	/**
+	 * Returns the number of database queries made by the last traversal,
+	 * including the queries made by the adjacency cache on misses. Lookups
+	 * answered by the cache are not counted. If the cache is used by other
+	 * threads during the traversal, their queries are counted too.
+	 */
+	public int getLastQueryCount() {
+		return m_lastQueryCount;
+	}
+
+	private List<Revision> getLinkDestRev(UUID linkType, UUID srcId, int srcRev) throws ModelVersionDBException {
+		if (m_cache == null) {
+			m_lastQueryCount++;
+			return m_db.getLinkDestRev(linkType, srcId, srcRev);
+		}
+
+		long queries = m_cache.getQueryCount();
+		List<Revision> destRevs = m_cache.getLinkDestRev(linkType, srcId, srcRev);
+		m_lastQueryCount += (int) (m_cache.getQueryCount() - queries);
+
+		return destRevs;
+	}
+
+	private static class Step {
+
+		private UUID _objId;
+		private int _rev;
+		private int _depth;
+
+		private Step(UUID objId, int rev, int depth) {
+			_objId = objId;
+			_rev = rev;
+			_depth = depth;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Transaction participant doing its work on a JDBC connection.
+ * 
+ * The connection is switched to manual commit on creation. JDBC has no
+ * prepare step outside of XA, so prepare only checks that the connection is
+ * open and still usable by executing the validation query in the
+ * transaction: nothing is durably prepared. If the connection is lost or
+ * the process crashes after the commit decision, the database discards the
+ * uncommitted work and a later commit has nothing to commit.
+ */
+public class JDBCParticipant implements TransactionParticipant {
+
+	private String _name;
+	private Connection _conn;
+	private String _validationQuery;
+
+	public JDBCParticipant(String name, Connection conn) throws SQLException {
+		this(name, conn, null);
+	}
+
+	/**
+	 * @param validationQuery query executed by prepare, null to only check
+	 *                        the connection is not closed
+	 */
+	public JDBCParticipant(String name, Connection conn, String validationQuery) throws SQLException {
+		if ((name == null) || (conn == null))
+			throw new IllegalArgumentException("Name and connection cannot be null.");
+		if ((name.length() == 0) || (name.indexOf(' ') >= 0) || (name.indexOf('\n') >= 0))
+			throw new IllegalArgumentException("Invalid participant name " + name);
+
+		_name = name;
+		_conn = conn;
+		_validationQuery = validationQuery;
+		_conn.setAutoCommit(false);
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	public Connection getConnection() {
+		return _conn;
+	}
+
+	public void prepare() throws SQLException {
+		if (_conn.isClosed())
+			throw new SQLException("Connection of " + _name + " is closed.");
+
+		if (_validationQuery != null) {
+			Statement stmt = _conn.createStatement();
+			try {
+				stmt.execute(_validationQuery);
+			} finally {
+				stmt.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns false: the work only lives in the open connection.
+	 */
+	public boolean isPrepareDurable() {
+		return false;
+	}
+
+	public void commit() throws SQLException {
+		_conn.commit();
+	}
+
+	public void rollback() throws SQLException {
+		_conn.rollback();
+	}
+
+	@Override
+	public String toString() {
+		return _name;
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Parameters of one link creation in a batch.
+ * 
+ * @see BatchOperations#addLinks(fr.imag.adele.teamwork.db.ModelVersionDBService, java.util.List)
+ */
+public class LinkCreation {
+
+	private UUID _typeId;
+	private UUID _srcId;
+	private int _srcRev;
+	private UUID _destId;
+	private int _destRev;
+	private Map<String, Object> _stateMap;
+
+	public LinkCreation(UUID typeId, UUID srcId, int srcRev, UUID destId, int destRev, 
+			Map<String, Object> stateMap) {
+		_typeId = typeId;
+		_srcId = srcId;
+		_srcRev = srcRev;
+		_destId = destId;
+		_destRev = destRev;
+		_stateMap = stateMap;
+	}
+
+	public UUID getTypeId() {
+		return _typeId;
+	}
+
+	public UUID getSrcId() {
+		return _srcId;
+	}
+
+	public int getSrcRev() {
+		return _srcRev;
+	}
+
+	public UUID getDestId() {
+		return _destId;
+	}
+
+	public int getDestRev() {
+		return _destRev;
+	}
+
+	public Map<String, Object> getStateMap() {
+		return _stateMap;
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import org.hsqldb.Server;
+import org.osgi.framework.ServiceReference;
+import org.apache.felix.ipojo.junit4osgi.OSGiTestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Base class of ModelVersionDBService benchmarks.
+ *
+ * Each benchmark runs against its own embedded HSQLDB server. Benchmarks are
+ * only added to the test suite when the system property
+ * <code>modelversiondb.benchmark</code> is set to true. Sizes can be
+ * overridden with comma separated values in the
+ * <code>modelversiondb.bench.*</code> system properties.
+ */
+public abstract class ModelVersionDBBenchmark extends OSGiTestCase {
+
+	public static final String BENCHMARK_PROPERTY = "modelversiondb.benchmark";
+
+	/*
+	 * Benchmark parameters
+	 */
+	protected static final int[] OBJECT_COUNTS = getParams("modelversiondb.bench.objects", 100, 1000);
+	protected static final int[] ATTR_COUNTS = getParams("modelversiondb.bench.attributes", 1, 10);
+	protected static final int[] REV_DEPTHS = getParams("modelversiondb.bench.revisions", 1, 10);
+
+	private static final int WARM_UP_OPS = 200;
+
+	/*
+	 * Embedded database used by benchmarks
+	 */
+	private static final String BENCH_DB_NAME = "BenchModelDB";
+	private static final int BENCH_DB_PORT = 9010;
+
+	protected static final UUID objTypeId = UUID.randomUUID();
+	protected static final UUID linkTypeId = UUID.randomUUID();
+
+	protected ModelVersionDBService m_db;
+	private ServiceReference m_sr;
+	private Server m_server;
+
+	public void setUp() throws Exception {
+		m_server = createHSQLServer(BENCH_DB_NAME, BENCH_DB_PORT);
+
+		m_sr = context.getServiceReference(ModelVersionDBService.class.getName());
+		assertNotNull("ModelVersionDBService is not available.", m_sr);
+		m_db = (ModelVersionDBService) context.getService(m_sr);
+		m_db.setConnectionURL(getHSQLServerURL(BENCH_DB_NAME, BENCH_DB_PORT));
+		m_db.clear();
+
+		warmUp();
+	}
+
+	public void tearDown() throws Exception {
+		try {
+			if ((m_db != null) && m_db.isConnected())
+				m_db.clear();
+		} finally {
+			if (m_sr != null)
+				context.ungetService(m_sr);
+			m_db = null;
+			m_sr = null;
+
+			if (m_server != null)
+				m_server.stop();
+			m_server = null;
+		}
+	}
+
+	/**
+	 * Runs the most common calls so that measures do not include class
+	 * loading and JIT compilation.
+	 */
+	protected void warmUp() throws Exception {
+		Map<String, Object> stateMap = newStateMap(5, 0);
+		for (int i = 0; i < WARM_UP_OPS; i++) {
+			UUID objId = UUID.randomUUID();
+			int rev = m_db.createObject(objId, objTypeId, stateMap, false);
+			m_db.setObjectValue(objId, rev, "attr0", "warm up");
+			m_db.getObjectState(objId, rev);
+			m_db.objExists(objId);
+		}
+		m_db.clear();
+	}
+
+	/**
+	 * Returns a state map with <code>attrCount</code> string attributes
+	 * whose values depend on <code>seed</code>.
+	 */
+	protected static Map<String, Object> newStateMap(int attrCount, int seed) {
+		Map<String, Object> stateMap = new HashMap<String, Object>();
+		for (int i = 0; i < attrCount; i++)
+			stateMap.put("attr" + i, "value" + seed + "_" + i);
+
+		return stateMap;
+	}
+
+	/**
+	 * Creates <code>count</code> objects of type <code>objTypeId</code> and
+	 * returns their first revision.
+	 */
+	protected Revision[] createObjects(int count, int attrCount) throws ModelVersionDBException {
+		Revision[] objRevs = new Revision[count];
+		for (int i = 0; i < count; i++) {
+			UUID objId = UUID.randomUUID();
+			int rev = m_db.createObject(objId, objTypeId, newStateMap(attrCount, i), false);
+			objRevs[i] = new Revision(objId, objTypeId, rev);
+		}
+
+		return objRevs;
+	}
+
+	/**
+	 * Returns <code>count</code> distinct services connected to the
+	 * benchmark database: the OSGi service followed by new instances of its
+	 * implementation class.
+	 * 
+	 * @throws ModelVersionDBException if the implementation cannot be
+	 *         instantiated outside of its container
+	 */
+	protected ModelVersionDBService[] newSessions(int count) throws ModelVersionDBException {
+		List<ModelVersionDBService> sessions = new ArrayList<ModelVersionDBService>();
+		sessions.add(m_db);
+		while (sessions.size() < count) {
+			try {
+				ModelVersionDBService session = m_db.getClass().newInstance();
+				session.setConnectionURL(getHSQLServerURL(BENCH_DB_NAME, BENCH_DB_PORT));
+				sessions.add(session);
+			} catch (Exception e) {
+				throw new ModelVersionDBException("Cannot create session " + (sessions.size() + 1) + " of " 
+						+ count + ": " + e);
+			}
+		}
+
+		return sessions.toArray(new ModelVersionDBService[sessions.size()]);
+	}
+
+	protected void report(BenchmarkStats stats) {
+		System.out.println("[benchmark] " + stats);
+	}
+
+	/**
+	 * Reports the durations of two ways of doing the same work.
+	 */
+	protected void reportSpeedup(String name, long baseNanos, long nanos) {
+		System.out.println(String.format("[benchmark] %-60s %12.1f ms -> %12.1f ms   speedup x%.2f",
+				name, baseNanos / 1000000.0, nanos / 1000000.0, 
+				(nanos == 0) ? 0.0 : (double) baseNanos / nanos));
+	}
+
+	/**
+	 * Returns the heap used after a garbage collection.
+	 */
+	protected static long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	protected static int[] getParams(String property, int... defaultValues) {
+		String value = System.getProperty(property);
+		if ((value == null) || (value.trim().length() == 0))
+			return defaultValues;
+
+		String[] values = value.split(",");
+		int[] params = new int[values.length];
+		for (int i = 0; i < values.length; i++)
+			params[i] = Integer.parseInt(values[i].trim());
+
+		return params;
+	}
+
+	protected String getHSQLServerURL(String dbName, int port) {
+		return "jdbc:hsqldb:mem:" + dbName;
+	}
+
+	protected Server createHSQLServer(String dbName, int port) {
+		Server server = new Server();
+		server.putPropertiesFromString("database.0=mem:" + dbName + ";sql.enforce_strict_size=true");
+		server.setLogWriter(null);
+		server.setErrWriter(null);
+		server.setPort(port);
+		server.start();
+
+		return server;
+	}
+}
@@ -0,0 +1,1337 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import org.hsqldb.Server;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the ModelVersionDBService calls exercised by
+ * ModelVersionDBTestCase.
+ */
+public class ModelVersionDBBenchmarkCase extends ModelVersionDBBenchmark {
+
+	/**
+	 * Heap used while streaming ids with a UUIDCursor compared to the heap
+	 * used by a materialized Set of the same ids.
+	 */
+	public void testCursorFootprint() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		int rowCount = getParams("modelversiondb.bench.cursorrows", 5000000)[0];
+		Connection conn = DriverManager.getConnection(getHSQLServerURL("CursorBenchDB", 9013), "sa", "");
+		try {
+			Statement stmt = conn.createStatement();
+			stmt.execute("CREATE TABLE BENCH_IDS (ID VARCHAR(36))");
+			stmt.close();
+			PreparedStatement insert = conn.prepareStatement("INSERT INTO BENCH_IDS VALUES (?)");
+			for (int i = 0; i < rowCount; i++) {
+				insert.setString(1, UUID.randomUUID().toString());
+				insert.addBatch();
+				if (i % 10000 == 9999)
+					insert.executeBatch();
+			}
+			insert.executeBatch();
+			insert.close();
+
+			long baseHeap = getUsedHeap();
+			long peakHeap = baseHeap;
+			long start = System.nanoTime();
+			UUIDCursor cursor = new UUIDCursor(conn, "SELECT ID FROM BENCH_IDS");
+			try {
+				while (cursor.hasNext()) {
+					cursor.next();
+					if (cursor.getRowCount() % (rowCount / 10 + 1) == 0)
+						peakHeap = Math.max(peakHeap, getUsedHeap());
+				}
+			} finally {
+				cursor.close();
+			}
+			long cursorNanos = System.nanoTime() - start;
+
+			baseHeap = getUsedHeap();
+			start = System.nanoTime();
+			Set<UUID> ids = new HashSet<UUID>();
+			cursor = new UUIDCursor(conn, "SELECT ID FROM BENCH_IDS");
+			while (cursor.hasNext())
+				ids.add(cursor.next());
+			long setNanos = System.nanoTime() - start;
+			long setHeap = getUsedHeap() - baseHeap;
+
+			System.out.println(String.format("[benchmark] %-60s %12.1f ms   heap growth %8.1f MB", 
+					"cursor rows=" + rowCount, cursorNanos / 1000000.0, (peakHeap - baseHeap) / 1048576.0));
+			System.out.println(String.format("[benchmark] %-60s %12.1f ms   heap growth %8.1f MB", 
+					"materialized set rows=" + ids.size(), setNanos / 1000000.0, setHeap / 1048576.0));
+		} finally {
+			Statement stmt = conn.createStatement();
+			stmt.execute("SHUTDOWN");
+			stmt.close();
+			conn.close();
+		}
+	}
+
+	public void testConnectionSwitch() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		String benchURL = m_db.getConnectionURL();
+		String[] urls = new String[] { getHSQLServerURL("SwitchDB1", 9011), getHSQLServerURL("SwitchDB2", 9012) };
+		int switchCount = OBJECT_COUNTS[0];
+
+		BenchmarkStats serviceStats = new BenchmarkStats("setConnectionURL switches=" + switchCount, switchCount);
+		try {
+			for (int i = 0; i < switchCount; i++) {
+				serviceStats.start();
+				m_db.setConnectionURL(urls[i % 2], "sa", "");
+				serviceStats.stop();
+			}
+		} finally {
+			m_db.setConnectionURL(benchURL);
+		}
+		report(serviceStats);
+
+		BenchmarkStats directStats = new BenchmarkStats("DriverManager.getConnection switches=" + switchCount, switchCount);
+		for (int i = 0; i < switchCount; i++) {
+			directStats.start();
+			Connection conn = DriverManager.getConnection(urls[i % 2], "sa", "");
+			directStats.stop();
+			conn.close();
+		}
+		report(directStats);
+
+		ConnectionPoolManager manager = new ConnectionPoolManager();
+		BenchmarkStats poolStats = new BenchmarkStats("ConnectionPoolManager.getConnection switches=" + switchCount, switchCount);
+		try {
+			for (int i = 0; i < switchCount; i++) {
+				poolStats.start();
+				Connection conn = manager.getConnection(urls[i % 2], "sa", "");
+				poolStats.stop();
+				manager.releaseConnection(conn);
+			}
+		} finally {
+			manager.close();
+		}
+		report(poolStats);
+	}
+
+	/**
+	 * Compares the id layouts on an indexed HSQLDB table: heap used by the
+	 * table and its index, and latency of an objExists like lookup.
+	 */
+	public void testUUIDLayout() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		String[] layoutNames = new String[] { "VARCHAR(36)", "BINARY(16)", "2 x BIGINT" };
+		Connection conn = DriverManager.getConnection(getHSQLServerURL("LayoutBenchDB", 9013), "sa", "");
+		try {
+			Statement stmt = conn.createStatement();
+			for (int objectCount : OBJECT_COUNTS) {
+				List<UUID> ids = new ArrayList<UUID>();
+				for (int i = 0; i < objectCount; i++)
+					ids.add(UUID.randomUUID());
+
+				for (int layout = UUIDLayout.STRING; layout <= UUIDLayout.LONG_PAIR; layout++) {
+					String params = " layout=" + layoutNames[layout] + " objects=" + objectCount;
+					long heapBefore = getUsedHeap();
+					stmt.execute("CREATE TABLE LAYOUT_BENCH (" + 
+							UUIDLayout.getColumnDefinition("ID", layout, UUIDLayout.HSQLDB) + ", REV INTEGER)");
+					stmt.execute(UUIDLayout.getCreateIndex("LAYOUT_BENCH_IDX", "LAYOUT_BENCH", "ID", layout));
+
+					PreparedStatement insert = conn.prepareStatement("INSERT INTO LAYOUT_BENCH VALUES (" + 
+							((layout == UUIDLayout.LONG_PAIR) ? "?, ?, ?)" : "?, ?)"));
+					for (UUID id : ids) {
+						insert.setInt(UUIDLayout.setId(insert, 1, id, layout), 1);
+						insert.addBatch();
+					}
+					insert.executeBatch();
+					insert.close();
+					System.out.println(String.format("[benchmark] %-60s %12.1f B/row", "table and index heap" + params, 
+							(double) (getUsedHeap() - heapBefore) / objectCount));
+
+					PreparedStatement exists = conn.prepareStatement("SELECT COUNT(*) FROM LAYOUT_BENCH WHERE " + 
+							UUIDLayout.getCondition("ID", layout));
+					BenchmarkStats stats = new BenchmarkStats("objExists" + params, objectCount * 2);
+					for (int i = 0; i < objectCount * 2; i++) {
+						UUID id = (i % 2 == 0) ? ids.get(i / 2) : UUID.randomUUID();
+						stats.start();
+						UUIDLayout.setId(exists, 1, id, layout);
+						exists.executeQuery().close();
+						stats.stop();
+					}
+					exists.close();
+					report(stats);
+
+					stmt.execute("DROP TABLE LAYOUT_BENCH");
+				}
+			}
+			stmt.close();
+		} finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * Checks that clearing a large database completes within
+	 * <code>modelversiondb.bench.clearmillis</code> milliseconds.
+	 */
+	public void testClear() throws Exception {
+		long maxMillis = getParams("modelversiondb.bench.clearmillis", 60000)[0];
+		for (int objectCount : getParams("modelversiondb.bench.clearobjects", 100000)) {
+			m_db.clear();
+
+			// one transaction per chunk of objects
+			int chunkSize = 10000;
+			for (int created = 0; created < objectCount; created += chunkSize) {
+				List<ObjectCreation> objects = new ArrayList<ObjectCreation>();
+				for (int i = created; i < Math.min(created + chunkSize, objectCount); i++)
+					objects.add(new ObjectCreation(UUID.randomUUID(), objTypeId, newStateMap(2, i), false));
+				BatchOperations.createObjects(m_db, objects);
+			}
+
+			long nanos = ClearTimer.clear(m_db);
+			System.out.println(String.format("[benchmark] %-60s %12.1f ms", 
+					"clear objects=" + objectCount, nanos / 1000000.0));
+			assertTrue("clear of " + objectCount + " objects took " + (nanos / 1000000) + " ms", 
+					nanos / 1000000 <= maxMillis);
+			assertTrue(m_db.getObjects().isEmpty());
+		}
+	}
+
+	/**
+	 * Commit latency of a transaction spanning several HSQLDB servers with
+	 * participants committed one after the other and in parallel.
+	 */
+	public void testTwoPhaseCommit() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		int commitCount = OBJECT_COUNTS[0];
+		for (int serverCount : getParams("modelversiondb.bench.participants", 1, 2, 4)) {
+			Server[] servers = new Server[serverCount];
+			List<JDBCParticipant> participants = new ArrayList<JDBCParticipant>();
+			ExecutorService executor = Executors.newFixedThreadPool(serverCount);
+			File logFile = File.createTempFile("tpc", ".log");
+			RecoveryLog log = new RecoveryLog(logFile);
+			try {
+				for (int i = 0; i < serverCount; i++) {
+					servers[i] = createHSQLServer("TPCBenchDB" + i, 9020 + i);
+					Connection conn = DriverManager.getConnection(getHSQLServerURL("TPCBenchDB" + i, 9020 + i), "sa", "");
+					Statement stmt = conn.createStatement();
+					stmt.execute("DROP TABLE TPC_BENCH IF EXISTS");
+					stmt.execute("CREATE TABLE TPC_BENCH (ID INTEGER, VAL VARCHAR(20))");
+					stmt.close();
+					participants.add(new JDBCParticipant("db" + i, conn));
+				}
+
+				TwoPhaseCommitCoordinator[] coordinators = new TwoPhaseCommitCoordinator[] {
+						new TwoPhaseCommitCoordinator(null, log), new TwoPhaseCommitCoordinator(executor, log) };
+				String[] names = new String[] { "sequential", "parallel" };
+				for (int c = 0; c < coordinators.length; c++) {
+					String params = " " + names[c] + " databases=" + serverCount;
+					BenchmarkStats prepareStats = new BenchmarkStats("2PC prepare" + params, commitCount);
+					BenchmarkStats logStats = new BenchmarkStats("2PC log" + params, commitCount);
+					BenchmarkStats commitStats = new BenchmarkStats("2PC commit" + params, commitCount);
+					BenchmarkStats totalStats = new BenchmarkStats("2PC total" + params, commitCount);
+					for (int i = 0; i < commitCount; i++) {
+						for (JDBCParticipant participant : participants) {
+							PreparedStatement insert = participant.getConnection().prepareStatement(
+									"INSERT INTO TPC_BENCH VALUES (?, ?)");
+							insert.setInt(1, i);
+							insert.setString(2, "value " + i);
+							insert.executeUpdate();
+							insert.close();
+						}
+
+						CommitResult result = coordinators[c].commit(TwoPhaseCommitCoordinator.newTransactionId(), 
+								participants);
+						prepareStats.add(result.getPrepareNanos());
+						logStats.add(result.getLogNanos());
+						commitStats.add(result.getCommitNanos());
+						totalStats.add(result.getTotalNanos());
+					}
+					report(prepareStats);
+					report(logStats);
+					report(commitStats);
+					report(totalStats);
+				}
+			} finally {
+				executor.shutdown();
+				log.close();
+				logFile.delete();
+				for (JDBCParticipant participant : participants)
+					participant.getConnection().close();
+				for (Server server : servers) {
+					if (server != null)
+						server.stop();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Threads creating, revising and linking their own objects through a
+	 * ConcurrentModelVersionDB with a single session, which serializes all
+	 * calls, and with one session per thread.
+	 */
+	public void testConcurrentWrites() throws Exception {
+		int[] threadCounts = getParams("modelversiondb.bench.threads", 1, 2, 4, 8, 16);
+		int maxThreadCount = 0;
+		for (int threadCount : threadCounts)
+			maxThreadCount = Math.max(maxThreadCount, threadCount);
+		ModelVersionDBService[] sessions = newSessions(maxThreadCount);
+
+		final int objectCount = OBJECT_COUNTS[0];
+		double baseThroughput = 0;
+		for (final int threadCount : threadCounts) {
+			ModelVersionDBService[] pooled = new ModelVersionDBService[threadCount];
+			System.arraycopy(sessions, 0, pooled, 0, pooled.length);
+			ConcurrentModelVersionDB[] dbs = new ConcurrentModelVersionDB[] {
+					new ConcurrentModelVersionDB(sessions[0]), new ConcurrentModelVersionDB(pooled) };
+			long[] nanos = new long[dbs.length];
+			ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+			try {
+				for (int d = 0; d < dbs.length; d++) {
+					m_db.clear();
+					final ModelVersionDBService db = dbs[d].getService();
+					List<Future<Object>> results = new ArrayList<Future<Object>>();
+					long start = System.nanoTime();
+					for (int t = 0; t < threadCount; t++) {
+						results.add(executor.submit(new Callable<Object>() {
+							public Object call() throws Exception {
+								UUID prevId = null;
+								int prevRev = 0;
+								for (int i = 0; i < objectCount / threadCount + 1; i++) {
+									UUID objId = UUID.randomUUID();
+									int rev = db.createObject(objId, objTypeId, null, false);
+									db.setObjectValue(objId, rev, "attr0", "value" + i);
+									int newRev = db.createNewObjectRevision(objId, rev);
+									db.setObjectValue(objId, newRev, "attr1", "value" + i);
+									if (prevId != null)
+										db.addLink(linkTypeId, prevId, prevRev, objId, newRev, null);
+									prevId = objId;
+									prevRev = newRev;
+								}
+								return null;
+							}
+						}));
+					}
+					for (Future<Object> result : results)
+						result.get();
+					nanos[d] = System.nanoTime() - start;
+				}
+			} finally {
+				executor.shutdown();
+			}
+
+			int opCount = threadCount * (objectCount / threadCount + 1) * 5 - threadCount;
+			double throughput = opCount * 1000000000.0 / nanos[1];
+			if (baseThroughput == 0)
+				baseThroughput = throughput;
+			reportSpeedup("concurrent writes threads=" + threadCount + " sessions=" + pooled.length,
+					nanos[0], nanos[1]);
+			System.out.println(String.format("[benchmark] %-60s %12.1f ops/s   scaling x%.2f   contended locks %d",
+					"concurrent writes threads=" + threadCount, throughput, throughput / baseThroughput,
+					dbs[1].getLocks().getContendedCount()));
+		}
+	}
+
+	/**
+	 * Threads incrementing a counter of objects, either a shared object or
+	 * their own object depending on the conflict rate, with each read and
+	 * update of an object serialized by StripedLocks and with
+	 * OptimisticUpdater retries. OptimisticUpdater still serializes the
+	 * stamp check, write and commit of an object in the JVM, but its reads
+	 * are shared and its conflicts are retried without holding a lock.
+	 */
+	public void testOptimisticUpdates() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		final int threadCount = 4;
+		final int updateCount = OBJECT_COUNTS[0];
+		final ModelVersionDBService db = new ConcurrentModelVersionDB(newSessions(threadCount)).getService();
+		final Map<String, Object> initialState = Collections.<String, Object>singletonMap("counter", 0);
+		for (final int conflictRate : getParams("modelversiondb.bench.conflicts", 0, 10, 50, 100)) {
+			final StripedLocks locks = new StripedLocks();
+			final OptimisticUpdater[] updaters = new OptimisticUpdater[threadCount];
+			final long[] retries = new long[threadCount];
+			long[] nanos = new long[2];
+			ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+			try {
+				TypeMetadataCache metadata = new TypeMetadataCache(db);
+				for (int t = 0; t < threadCount; t++)
+					updaters[t] = new OptimisticUpdater(db, DriverManager.getConnection(m_db.getConnectionURL(), "sa", ""), 
+							metadata);
+
+				for (int m = 0; m < nanos.length; m++) {
+					final boolean optimistic = (m == 1);
+					m_db.clear();
+					updaters[0].clear();
+					final UUID sharedId = UUID.randomUUID();
+					final int sharedRev = db.createObject(sharedId, objTypeId, initialState, false);
+					OptimisticUpdater.getObjectLocks().resetStatistics();
+
+					List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+					long start = System.nanoTime();
+					for (int t = 0; t < threadCount; t++) {
+						final int thread = t;
+						results.add(executor.submit(new Callable<Integer>() {
+							public Integer call() throws Exception {
+								Random random = new Random(thread);
+								UUID ownId = UUID.randomUUID();
+								int ownRev = db.createObject(ownId, objTypeId, initialState, false);
+								int sharedUpdates = 0;
+								for (int i = 0; i < updateCount / threadCount; i++) {
+									boolean shared = (random.nextInt(100) < conflictRate);
+									UUID objId = shared ? sharedId : ownId;
+									int rev = shared ? sharedRev : ownRev;
+									if (shared)
+										sharedUpdates++;
+
+									if (optimistic) {
+										while (true) {
+											StampedState state = updaters[thread].getObjectState(objId, rev);
+											int counter = (Integer) state.getState().get("counter");
+											Map<String, Object> newState = Collections.<String, Object>singletonMap("counter", counter + 1);
+											try {
+												updaters[thread].setObjectState(objId, rev, newState, state.getStamp());
+												break;
+											} catch (ConcurrentUpdateException e) {
+												retries[thread]++;
+											}
+										}
+									} else {
+										locks.lock(objId);
+										try {
+											int counter = (Integer) db.getObjectValue(objId, rev, "counter");
+											db.setObjectValue(objId, rev, "counter", counter + 1);
+										} finally {
+											locks.unlock(objId);
+										}
+									}
+								}
+								return sharedUpdates;
+							}
+						}));
+					}
+					int sharedUpdates = 0;
+					for (Future<Integer> result : results)
+						sharedUpdates += result.get();
+					nanos[m] = System.nanoTime() - start;
+
+					// no update has been lost
+					assertEquals(sharedUpdates, db.getObjectValue(sharedId, sharedRev, "counter"));
+				}
+			} finally {
+				executor.shutdown();
+				for (OptimisticUpdater updater : updaters) {
+					if (updater != null) {
+						updater.close();
+						updater.getConnection().close();
+					}
+				}
+			}
+
+			long retryCount = 0;
+			for (long threadRetries : retries)
+				retryCount += threadRetries;
+			reportSpeedup("locked -> optimistic updates threads=" + threadCount + " conflicts=" + conflictRate + "%",
+					nanos[0], nanos[1]);
+			System.out.println(String.format("[benchmark] %-60s %12d retries for %d updates",
+					"optimistic updates conflicts=" + conflictRate + "%", retryCount, updateCount / threadCount * threadCount));
+			System.out.println(String.format("[benchmark] %-60s %12d of %d stripe locks waited",
+					"optimistic serialized commits conflicts=" + conflictRate + "%", 
+					OptimisticUpdater.getObjectLocks().getContendedCount(), 
+					OptimisticUpdater.getObjectLocks().getLockCount()));
+		}
+	}
+
+	/**
+	 * Batches of independent reads issued one after the other and issued
+	 * concurrently through an AsyncModelVersionDB.
+	 */
+	public void testAsyncReads() throws Exception {
+		int batchCount = 20;
+		int[] sessionCounts = getParams("modelversiondb.bench.sessions", 1, 4, 8);
+		int maxSessionCount = 0;
+		for (int sessionCount : sessionCounts)
+			maxSessionCount = Math.max(maxSessionCount, sessionCount);
+		ModelVersionDBService[] sessions = newSessions(maxSessionCount);
+
+		for (int readCount : getParams("modelversiondb.bench.reads", 100)) {
+			m_db.clear();
+			Revision[] objRevs = createObjects(readCount, 5);
+
+			BenchmarkStats syncStats = new BenchmarkStats("sequential reads=" + readCount, batchCount);
+			for (int b = 0; b < batchCount; b++) {
+				syncStats.start();
+				for (Revision objRev : objRevs)
+					m_db.getObjectState(objRev.getId(), objRev.getRev());
+				syncStats.stop();
+			}
+			report(syncStats);
+
+			for (int sessionCount : sessionCounts) {
+				ModelVersionDBService[] pooled = new ModelVersionDBService[sessionCount];
+				System.arraycopy(sessions, 0, pooled, 0, pooled.length);
+				AsyncModelVersionDB async = new AsyncModelVersionDB(readCount, pooled);
+				BenchmarkStats asyncStats = new BenchmarkStats("concurrent reads=" + readCount + 
+						" sessions=" + pooled.length, batchCount);
+				try {
+					List<Future<Map<String, Object>>> states = new ArrayList<Future<Map<String, Object>>>();
+					for (int b = 0; b < batchCount; b++) {
+						states.clear();
+						asyncStats.start();
+						for (Revision objRev : objRevs)
+							states.add(async.getObjectState(objRev.getId(), objRev.getRev()));
+						for (Future<Map<String, Object>> state : states)
+							state.get();
+						asyncStats.stop();
+					}
+				} finally {
+					async.shutdown(10000);
+				}
+				report(asyncStats);
+				reportSpeedup("reads=" + readCount + " sessions=" + pooled.length, 
+						syncStats.getTotalNanos(), asyncStats.getTotalNanos());
+			}
+		}
+	}
+
+	public void testCreateObject() throws Exception {
+		for (int objectCount : OBJECT_COUNTS) {
+			for (int attrCount : ATTR_COUNTS) {
+				m_db.clear();
+				BenchmarkStats stats = new BenchmarkStats("createObject objects=" + objectCount +
+						" attrs=" + attrCount, objectCount);
+				for (int i = 0; i < objectCount; i++) {
+					Map<String, Object> stateMap = newStateMap(attrCount, i);
+					UUID objId = UUID.randomUUID();
+
+					stats.start();
+					m_db.createObject(objId, objTypeId, stateMap, false);
+					stats.stop();
+				}
+				report(stats);
+			}
+		}
+	}
+
+	public void testCreateObjectsBatch() throws Exception {
+		for (int objectCount : OBJECT_COUNTS) {
+			for (int attrCount : ATTR_COUNTS) {
+				List<ObjectCreation> objects = new ArrayList<ObjectCreation>();
+				for (int i = 0; i < objectCount; i++)
+					objects.add(new ObjectCreation(UUID.randomUUID(), objTypeId, newStateMap(attrCount, i), false));
+
+				m_db.clear();
+				long start = System.nanoTime();
+				for (ObjectCreation object : objects)
+					m_db.createObject(object.getId(), object.getTypeId(), object.getStateMap(), object.isType());
+				long loopNanos = System.nanoTime() - start;
+
+				m_db.clear();
+				start = System.nanoTime();
+				BatchOperations.createObjects(m_db, objects);
+				long batchNanos = System.nanoTime() - start;
+
+				reportSpeedup("createObjects objects=" + objectCount + " attrs=" + attrCount,
+						loopNanos, batchNanos);
+			}
+		}
+	}
+
+	/**
+	 * Transactions overwriting the attributes of a few objects many times,
+	 * with each write sent to the database and with a WriteBuffer.
+	 */
+	public void testWriteBuffer() throws Exception {
+		int objectCount = 10;
+		for (int writeCount : getParams("modelversiondb.bench.txwrites", 1000, 10000)) {
+			m_db.clear();
+			Revision[] objRevs = createObjects(objectCount, 5);
+
+			long start = System.nanoTime();
+			m_db.beginTransaction();
+			for (int i = 0; i < writeCount; i++) {
+				Revision objRev = objRevs[i % objectCount];
+				m_db.setObjectValue(objRev.getId(), objRev.getRev(), "attr" + (i % 5), "value " + i);
+			}
+			long commitStart = System.nanoTime();
+			m_db.commitTransaction();
+			long end = System.nanoTime();
+			long directNanos = end - start;
+			long directCommitNanos = end - commitStart;
+
+			WriteBuffer buffer = new WriteBuffer(m_db);
+			start = System.nanoTime();
+			buffer.beginTransaction();
+			for (int i = 0; i < writeCount; i++) {
+				Revision objRev = objRevs[i % objectCount];
+				buffer.setObjectValue(objRev.getId(), objRev.getRev(), "attr" + (i % 5), "value " + i);
+			}
+			commitStart = System.nanoTime();
+			buffer.commitTransaction();
+			end = System.nanoTime();
+
+			String params = " objects=" + objectCount + " writes=" + writeCount;
+			reportSpeedup("transaction" + params, directNanos, end - start);
+			System.out.println(String.format("[benchmark]   database writes %d -> %d, commit %.1f ms -> %.1f ms", 
+					writeCount, buffer.getFlushCallCount(), 
+					directCommitNanos / 1000000.0, (end - commitStart) / 1000000.0));
+		}
+	}
+
+	public void testSetObjectValue() throws Exception {
+		for (int objectCount : OBJECT_COUNTS) {
+			for (int attrCount : ATTR_COUNTS) {
+				m_db.clear();
+				Revision[] objRevs = createObjects(objectCount, attrCount);
+
+				BenchmarkStats stats = new BenchmarkStats("setObjectValue objects=" + objectCount +
+						" attrs=" + attrCount, objectCount * attrCount);
+				for (Revision objRev : objRevs) {
+					for (int i = 0; i < attrCount; i++) {
+						stats.start();
+						m_db.setObjectValue(objRev.getId(), objRev.getRev(), "attr" + i, "new value " + i);
+						stats.stop();
+					}
+				}
+				report(stats);
+			}
+		}
+	}
+
+	public void testGetObjectRevs() throws Exception {
+		for (int objectCount : OBJECT_COUNTS) {
+			for (int revDepth : REV_DEPTHS) {
+				m_db.clear();
+				Revision[] objRevs = createObjects(objectCount, 2);
+				for (Revision objRev : objRevs) {
+					for (int i = 1; i < revDepth; i++)
+						m_db.createNewObjectRevision(objRev.getId(), ModelVersionDBService.LAST);
+				}
+
+				BenchmarkStats attrStats = new BenchmarkStats("getObjectRevs(attr) objects=" + objectCount +
+						" revs=" + revDepth, objectCount);
+				BenchmarkStats mapStats = new BenchmarkStats("getObjectRevs(stateMap) objects=" + objectCount +
+						" revs=" + revDepth, objectCount);
+				for (int i = 0; i < objectCount; i++) {
+					Map<String, Object> stateMap = newStateMap(2, i);
+
+					attrStats.start();
+					m_db.getObjectRevs(objTypeId, "attr0", stateMap.get("attr0"), false);
+					attrStats.stop();
+
+					mapStats.start();
+					m_db.getObjectRevs(objTypeId, stateMap, true);
+					mapStats.stop();
+				}
+				report(attrStats);
+				report(mapStats);
+			}
+		}
+	}
+
+	/**
+	 * Compares the latency of the whole getObjectRevs result with the latency
+	 * of the first page and of each following page.
+	 */
+	public void testObjectRevPager() throws Exception {
+		int pageSize = getParams("modelversiondb.bench.pagesize", 50)[0];
+		Map<String, Object> allMap = new HashMap<String, Object>();
+		for (int objectCount : OBJECT_COUNTS) {
+			for (int revDepth : REV_DEPTHS) {
+				m_db.clear();
+				Revision[] objRevs = createObjects(objectCount, 2);
+				for (Revision objRev : objRevs) {
+					for (int i = 1; i < revDepth; i++)
+						m_db.createNewObjectRevision(objRev.getId(), ModelVersionDBService.LAST);
+				}
+				ObjectRevPager pager = new ObjectRevPager(m_db);
+				String params = " objects=" + objectCount + " revs=" + revDepth;
+
+				long start = System.nanoTime();
+				m_db.getObjectRevs(objTypeId, allMap, false);
+				long fullNanos = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				RevisionPage page = pager.getObjectRevs(objTypeId, allMap, false, pageSize, null);
+				long firstPageNanos = System.nanoTime() - start;
+				reportSpeedup("getObjectRevs first page size=" + pageSize + params, fullNanos, firstPageNanos);
+
+				BenchmarkStats pageStats = new BenchmarkStats("getObjectRevs page size=" + pageSize + params, 
+						objectCount * revDepth / pageSize + 1);
+				while (page.hasMore()) {
+					pageStats.start();
+					page = pager.getObjectRevs(objTypeId, allMap, false, pageSize, page.getNextToken());
+					pageStats.stop();
+				}
+				report(pageStats);
+			}
+		}
+	}
+
+	/**
+	 * Reports the bytes allocated per revision to read the revision numbers
+	 * of all the objects with one getObjectRevNbs per object, kept in a map
+	 * of arrays or copied into a RevisionNumberBuffer.
+	 */
+	public void testRevisionNumberAllocation() throws Exception {
+		System.out.println("[benchmark] allocation measured with " + 
+				(AllocationProbe.isThreadCounterSupported() ? "thread allocation counter" : "used heap"));
+		AllocationProbe probe = new AllocationProbe();
+		for (int objectCount : OBJECT_COUNTS) {
+			for (int revDepth : REV_DEPTHS) {
+				m_db.clear();
+				Revision[] objRevs = createObjects(objectCount, 2);
+				List<UUID> objIds = new ArrayList<UUID>();
+				for (Revision objRev : objRevs) {
+					objIds.add(objRev.getId());
+					for (int i = 1; i < revDepth; i++)
+						m_db.createNewObjectRevision(objRev.getId(), ModelVersionDBService.LAST);
+				}
+				String params = " objects=" + objectCount + " revs=" + revDepth;
+
+				probe.start();
+				Map<UUID, int[]> revNbs = new HashMap<UUID, int[]>();
+				for (UUID objId : objIds)
+					revNbs.put(objId, m_db.getObjectRevNbs(objId));
+				long mapBytes = probe.stop();
+
+				probe.start();
+				RevisionNumberBuffer buffer = BatchOperations.getObjectRevNbs(m_db, objIds);
+				long bufferBytes = probe.stop();
+
+				assertEquals(objectCount * revDepth, buffer.getRevisionCount());
+				System.out.println(String.format("[benchmark] %-60s %10.1f B/rev -> %10.1f B/rev",
+						"allocation map of arrays -> RevisionNumberBuffer" + params,
+						(double) mapBytes / buffer.getRevisionCount(), 
+						(double) bufferBytes / buffer.getRevisionCount()));
+			}
+		}
+	}
+
+	/**
+	 * Reads the last revision of objects referenced several times, with a
+	 * getLastObjectRevNb and a getObjectState per reference and with
+	 * getObjectStates, which only queries each object once.
+	 */
+	public void testGetObjectStates() throws Exception {
+		int refCount = getParams("modelversiondb.bench.staterefs", 4)[0];
+		for (int objectCount : getParams("modelversiondb.bench.stateobjects", 10, 100, 1000)) {
+			m_db.clear();
+			Revision[] objRevs = createObjects(objectCount, 5);
+			List<Revision> revs = new ArrayList<Revision>();
+			for (int i = 0; i < refCount; i++) {
+				for (Revision objRev : objRevs)
+					revs.add(new Revision(objRev.getId(), objTypeId, ModelVersionDBService.LAST));
+			}
+
+			long start = System.nanoTime();
+			for (Revision rev : revs)
+				m_db.getObjectState(rev.getId(), m_db.getLastObjectRevNb(rev.getId()));
+			long loopNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			Map<Revision, Map<String, Object>> states = BatchOperations.getObjectStates(m_db, revs);
+			long statesNanos = System.nanoTime() - start;
+
+			assertEquals(objectCount, states.size());
+			reportSpeedup("getObjectStates objects=" + objectCount + " refs=" + refCount, loopNanos, statesNanos);
+		}
+	}
+
+	public void testRevisionCache() throws Exception {
+		for (int objectCount : OBJECT_COUNTS) {
+			m_db.clear();
+			Revision[] objRevs = createObjects(objectCount, 5);
+			RevisionCache cache = new RevisionCache(m_db);
+			int readCount = objectCount * 10;
+
+			BenchmarkStats dbStats = new BenchmarkStats("getObjectValue database objects=" + objectCount, readCount);
+			BenchmarkStats cacheStats = new BenchmarkStats("getObjectValue cache objects=" + objectCount, readCount);
+			for (int i = 0; i < readCount; i++) {
+				Revision objRev = objRevs[i % objectCount];
+
+				dbStats.start();
+				m_db.getObjectValue(objRev.getId(), objRev.getRev(), "attr0");
+				dbStats.stop();
+
+				cacheStats.start();
+				cache.getObjectValue(objRev.getId(), objRev.getRev(), "attr0");
+				cacheStats.stop();
+
+				// one write every 100 reads
+				if (i % 100 == 99)
+					cache.setObjectValue(objRev.getId(), objRev.getRev(), "attr1", "new value " + i);
+			}
+			report(dbStats);
+			report(cacheStats);
+			System.out.println(String.format("[benchmark]   hit ratio %.2f", 
+					(double) cache.getHitCount() / (cache.getHitCount() + cache.getMissCount())));
+		}
+	}
+
+	/**
+	 * Writes a version specific attribute of a revision and reads the other
+	 * revision of the object through a RevisionCache, without metadata,
+	 * which makes no lookup but invalidates all the revisions of the object,
+	 * and with a TypeMetadataCache, which looks up the metadata once per
+	 * object and only invalidates the written revision. Reports the lookups
+	 * added and the state reloads saved.
+	 */
+	public void testTypeMetadataCache() throws Exception {
+		for (int objectCount : OBJECT_COUNTS) {
+			m_db.clear();
+			Revision[] objRevs = createObjects(objectCount, 2);
+			int[] otherRevs = new int[objectCount];
+			for (int i = 0; i < objectCount; i++)
+				otherRevs[i] = m_db.createNewObjectRevision(objRevs[i].getId(), objRevs[i].getRev());
+			TypeMetadataCache metadata = new TypeMetadataCache(m_db);
+			RevisionCache[] caches = new RevisionCache[] { 
+					new RevisionCache(m_db, RevisionCache.DEFAULT_MAX_SIZE, null),
+					new RevisionCache(m_db, RevisionCache.DEFAULT_MAX_SIZE, metadata) };
+			String[] names = new String[] { "without metadata", "with metadata cache" };
+			int writeCount = objectCount * 5;
+
+			long[] reloads = new long[caches.length];
+			for (int c = 0; c < caches.length; c++) {
+				BenchmarkStats stats = new BenchmarkStats("setObjectValue and sibling read " + names[c] + 
+						" objects=" + objectCount, writeCount);
+				for (int i = 0; i < writeCount; i++) {
+					int idx = i % objectCount;
+					Revision objRev = objRevs[idx];
+					stats.start();
+					caches[c].setObjectValue(objRev.getId(), objRev.getRev(), "attr0", "value " + i);
+					caches[c].getObjectState(objRev.getId(), otherRevs[idx]);
+					stats.stop();
+				}
+				report(stats);
+				reloads[c] = caches[c].getMissCount();
+			}
+			System.out.println(String.format("[benchmark]   metadata lookups added %d, state reloads %d -> %d " + 
+					"for %d writes", metadata.getQueryCount(), reloads[0], reloads[1], writeCount));
+		}
+	}
+
+	/**
+	 * Compares the codecs on the attribute maps of 
+	 * ModelVersionDBTestCase.testGetObjectRevsWithStateMap.
+	 */
+	public void testValueCodec() throws Exception {
+		int opCount = getParams("modelversiondb.bench.codecops", 10000)[0];
+		List<Map<String, Object>> stateMaps = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 100; i++) {
+			Map<String, Object> stateMap = new HashMap<String, Object>();
+			stateMap.put("attr1", "first_attribute_value" + i);
+			stateMap.put("attr2", null);
+			stateMap.put("attr3", new Integer(1234 + i));
+			stateMap.put("attr4", new Long(1234567890L + i));
+			stateMap.put("attr5", new Date(System.currentTimeMillis() + i));
+			stateMap.put("attr6", new Ser("ser" + i));
+			stateMaps.add(stateMap);
+		}
+
+		BinaryValueCodec registeredCodec = new BinaryValueCodec();
+		registeredCodec.register(1, Ser.class, new TypeCodec<Ser>() {
+			public void write(Ser value, DataOutput out) throws IOException {
+				out.writeUTF(value.getId());
+			}
+
+			public Ser read(DataInput in) throws IOException {
+				return new Ser(in.readUTF());
+			}
+		});
+		ValueCodec[] codecs = new ValueCodec[] { new SerializationValueCodec(), new BinaryValueCodec(), registeredCodec };
+		String[] names = new String[] { "serialization", "binary", "binary+registry" };
+
+		for (int c = 0; c < codecs.length; c++) {
+			ValueCodec codec = codecs[c];
+			BenchmarkStats encodeStats = new BenchmarkStats("encode " + names[c] + " maps=" + opCount, opCount);
+			BenchmarkStats decodeStats = new BenchmarkStats("decode " + names[c] + " maps=" + opCount, opCount);
+			long byteCount = 0;
+			for (int i = 0; i < opCount; i++) {
+				Map<String, Object> stateMap = stateMaps.get(i % stateMaps.size());
+				List<byte[]> encoded = new ArrayList<byte[]>(stateMap.size());
+
+				encodeStats.start();
+				for (Object value : stateMap.values())
+					encoded.add(codec.encode(value));
+				encodeStats.stop();
+
+				decodeStats.start();
+				for (byte[] bytes : encoded)
+					codec.decode(bytes);
+				decodeStats.stop();
+
+				for (byte[] bytes : encoded)
+					byteCount += bytes.length;
+			}
+			report(encodeStats);
+			report(decodeStats);
+			System.out.println(String.format("[benchmark]   %s: %.1f bytes per map", names[c], (double) byteCount / opCount));
+		}
+	}
+
+	public void testAttributeValueIndex() throws Exception {
+		int lookupCount = OBJECT_COUNTS[0];
+		for (int revCount : getParams("modelversiondb.bench.indexrevs", 1000, 10000)) {
+			m_db.clear();
+			AttributeValueIndex index = new AttributeValueIndex(m_db);
+			index.createIndex(objTypeId, "attr0");
+
+			// each object has 10 revisions
+			int objectCount = Math.max(revCount / 10, 1);
+			for (int i = 0; i < objectCount; i++) {
+				UUID objId = UUID.randomUUID();
+				index.createObject(objId, objTypeId, newStateMap(2, i), false);
+				for (int j = 1; j < 10; j++)
+					index.createNewObjectRevision(objId, ModelVersionDBService.LAST);
+			}
+
+			BenchmarkStats scanStats = new BenchmarkStats("getObjectRevs(attr) scan revisions=" + revCount, lookupCount);
+			BenchmarkStats indexStats = new BenchmarkStats("getObjectRevs(attr) index revisions=" + revCount, lookupCount);
+			for (int i = 0; i < lookupCount; i++) {
+				Object value = newStateMap(1, i % objectCount).get("attr0");
+
+				scanStats.start();
+				m_db.getObjectRevs(objTypeId, "attr0", value, false);
+				scanStats.stop();
+
+				indexStats.start();
+				index.getObjectRevs(objTypeId, "attr0", value, false);
+				indexStats.stop();
+			}
+			report(scanStats);
+			report(indexStats);
+		}
+	}
+
+	public void testStateMapQueryPlanner() throws Exception {
+		for (int objectCount : OBJECT_COUNTS) {
+			for (int attrCount : getParams("modelversiondb.bench.queryattrs", 2, 6, 8)) {
+				m_db.clear();
+				AttributeValueIndex index = new AttributeValueIndex(m_db);
+				for (int i = 0; i < attrCount; i++)
+					index.createIndex(objTypeId, "attr" + i);
+				StateMapQueryPlanner planner = new StateMapQueryPlanner(m_db, index);
+				for (int i = 0; i < objectCount; i++)
+					index.createObject(UUID.randomUUID(), objTypeId, newStateMap(attrCount, i), false);
+
+				BenchmarkStats dbStats = new BenchmarkStats("getObjectRevs(stateMap) database objects=" + objectCount + 
+						" attrs=" + attrCount, objectCount);
+				BenchmarkStats plannerStats = new BenchmarkStats("getObjectRevs(stateMap) planner objects=" + objectCount + 
+						" attrs=" + attrCount, objectCount);
+				for (int i = 0; i < objectCount; i++) {
+					Map<String, Object> stateMap = newStateMap(attrCount, i);
+
+					dbStats.start();
+					m_db.getObjectRevs(objTypeId, stateMap, false);
+					dbStats.stop();
+
+					plannerStats.start();
+					planner.getObjectRevs(objTypeId, stateMap, false);
+					plannerStats.stop();
+				}
+				report(dbStats);
+				report(plannerStats);
+				System.out.println("[benchmark]   last plan: " + planner.getLastPlan());
+			}
+		}
+	}
+
+	public void testCreateNewObjectRevision() throws Exception {
+		for (int attrCount : ATTR_COUNTS) {
+			for (int revDepth : REV_DEPTHS) {
+				m_db.clear();
+				int objectCount = OBJECT_COUNTS[0];
+				Revision[] objRevs = createObjects(objectCount, attrCount);
+
+				BenchmarkStats stats = new BenchmarkStats("createNewObjectRevision attrs=" + attrCount +
+						" revs=" + revDepth, objectCount * revDepth);
+				for (Revision objRev : objRevs) {
+					for (int i = 0; i < revDepth; i++) {
+						stats.start();
+						m_db.createNewObjectRevision(objRev.getId(), ModelVersionDBService.LAST);
+						stats.stop();
+					}
+				}
+				report(stats);
+			}
+		}
+	}
+
+	/**
+	 * Compares a store of full states with a delta store: latency of adding
+	 * a revision, of reading the last one and of setting the state of a
+	 * parent revision, and number of stored values. States are built in
+	 * memory so that both stores do the same work.
+	 */
+	public void testDeltaRevisions() throws Exception {
+		int attrCount = getParams("modelversiondb.bench.deltaattrs", 100)[0];
+		for (int revDepth : getParams("modelversiondb.bench.deltadepths", 10, 100, 1000)) {
+			String params = " attrs=" + attrCount + " depth=" + revDepth;
+			DeltaRevisionStore[] stores = new DeltaRevisionStore[] { new DeltaRevisionStore(1), 
+					new DeltaRevisionStore() };
+			String[] names = new String[] { "full store", "delta store" };
+			for (int s = 0; s < stores.length; s++) {
+				DeltaRevisionStore store = stores[s];
+				UUID objId = UUID.randomUUID();
+				Map<String, Object> state = newStateMap(attrCount, 0);
+				store.addRevision(objId, 0, -1, state);
+
+				// each revision changes one attribute
+				BenchmarkStats addStats = new BenchmarkStats("addRevision " + names[s] + params, revDepth);
+				for (int rev = 1; rev < revDepth; rev++) {
+					state = new HashMap<String, Object>(state);
+					state.put("attr" + (rev % attrCount), "changed " + rev);
+					addStats.start();
+					store.addRevision(objId, rev, rev - 1, state);
+					addStats.stop();
+				}
+				report(addStats);
+
+				BenchmarkStats readStats = new BenchmarkStats("getState " + names[s] + params, revDepth);
+				for (int i = 0; i < revDepth; i++) {
+					readStats.start();
+					store.getState(objId, revDepth - 1);
+					readStats.stop();
+				}
+				report(readStats);
+
+				BenchmarkStats setStats = new BenchmarkStats("setState parent " + names[s] + params, revDepth - 1);
+				for (int rev = 0; rev < revDepth - 1; rev++) {
+					Map<String, Object> parentState = store.getState(objId, rev);
+					parentState.put("attr0", "set " + rev);
+					setStats.start();
+					store.setState(objId, rev, parentState);
+					setStats.stop();
+				}
+				report(setStats);
+				System.out.println(String.format("[benchmark]   %s stored values: %d of %d", names[s], 
+						store.getStoredValueCount(), store.getFullValueCount()));
+			}
+		}
+	}
+
+	/**
+	 * Miss-heavy objExists workloads with and without the existence filter.
+	 */
+	public void testExistenceFilter() throws Exception {
+		for (int objectCount : OBJECT_COUNTS) {
+			m_db.clear();
+			Revision[] objRevs = createObjects(objectCount, 1);
+			ExistenceFilter filter = new ExistenceFilter(m_db, objectCount, ExistenceFilter.DEFAULT_FPP);
+			int probeCount = objectCount * 10;
+
+			for (int missPercent : new int[] { 50, 90, 99 }) {
+				String params = " objects=" + objectCount + " misses=" + missPercent + "%";
+				UUID[] probes = new UUID[probeCount];
+				for (int i = 0; i < probeCount; i++)
+					probes[i] = (i % 100 < missPercent) ? UUID.randomUUID() : objRevs[i % objectCount].getId();
+
+				BenchmarkStats dbStats = new BenchmarkStats("objExists database" + params, probeCount);
+				for (UUID objId : probes) {
+					dbStats.start();
+					m_db.objExists(objId);
+					dbStats.stop();
+				}
+
+				filter.resetStatistics();
+				BenchmarkStats filterStats = new BenchmarkStats("objExists filter" + params, probeCount);
+				for (UUID objId : probes) {
+					filterStats.start();
+					filter.objExists(objId);
+					filterStats.stop();
+				}
+				report(dbStats);
+				report(filterStats);
+				reportSpeedup("objExists" + params, dbStats.getTotalNanos(), filterStats.getTotalNanos());
+			}
+			System.out.println(String.format("[benchmark]   false positive rate %.4f (expected %.4f), memory %d bytes",
+					filter.getFalsePositiveRate(), filter.getExpectedFalsePositiveRate(), filter.getMemoryBytes()));
+		}
+	}
+
+	public void testAddLink() throws Exception {
+		for (int objectCount : OBJECT_COUNTS) {
+			m_db.clear();
+			Revision[] objRevs = createObjects(objectCount, 1);
+
+			BenchmarkStats stats = new BenchmarkStats("addLink objects=" + objectCount, objectCount);
+			for (int i = 0; i < objectCount; i++) {
+				Revision srcRev = objRevs[i];
+				Revision destRev = objRevs[(i + 1) % objectCount];
+
+				stats.start();
+				m_db.addLink(linkTypeId, srcRev.getId(), srcRev.getRev(), destRev.getId(), destRev.getRev(), null);
+				stats.stop();
+			}
+			report(stats);
+		}
+	}
+
+	public void testAdjacencyCache() throws Exception {
+		int readCount = getParams("modelversiondb.bench.adjacencyreads", 100)[0];
+		for (int fanOut : getParams("modelversiondb.bench.fanout", 1, 100, 10000)) {
+			m_db.clear();
+			Revision srcRev = createObjects(1, 1)[0];
+			Revision[] destRevs = createObjects(fanOut, 1);
+			List<LinkCreation> links = new ArrayList<LinkCreation>(fanOut);
+			for (Revision destRev : destRevs)
+				links.add(new LinkCreation(linkTypeId, srcRev.getId(), srcRev.getRev(), 
+						destRev.getId(), destRev.getRev(), null));
+			BatchOperations.addLinks(m_db, links);
+			AdjacencyCache cache = new AdjacencyCache(m_db);
+
+			BenchmarkStats dbStats = new BenchmarkStats("getOutgoingLinks+getLinkDestRev+getLinkNumber database fanout=" + 
+					fanOut, readCount);
+			BenchmarkStats cacheStats = new BenchmarkStats("getOutgoingLinks+getLinkDestRev+getLinkNumber cache fanout=" + 
+					fanOut, readCount);
+			for (int i = 0; i < readCount; i++) {
+				dbStats.start();
+				m_db.getOutgoingLinks(linkTypeId, srcRev.getId(), srcRev.getRev());
+				m_db.getLinkDestRev(linkTypeId, srcRev.getId(), srcRev.getRev());
+				m_db.getLinkNumber(linkTypeId, srcRev.getId(), srcRev.getRev());
+				dbStats.stop();
+
+				cacheStats.start();
+				cache.getOutgoingLinks(linkTypeId, srcRev.getId(), srcRev.getRev());
+				cache.getLinkDestRev(linkTypeId, srcRev.getId(), srcRev.getRev());
+				cache.getLinkNumber(linkTypeId, srcRev.getId(), srcRev.getRev());
+				cacheStats.stop();
+			}
+			report(dbStats);
+			report(cacheStats);
+			System.out.println(String.format("[benchmark]   hit ratio %.2f", cache.getHitRatio()));
+		}
+	}
+
+	/**
+	 * Warm incoming link lookups and deletions of objects referenced by
+	 * <code>fanIn</code> links must not depend on the total number of links.
+	 * Cold misses are measured by testIncomingLinkMiss.
+	 */
+	public void testIncomingLinks() throws Exception {
+		int fanIn = getParams("modelversiondb.bench.fanin", 100)[0];
+		int targetCount = 10;
+		for (int linkCount : getParams("modelversiondb.bench.graphlinks", 1000, 10000, 100000)) {
+			m_db.clear();
+
+			// background graph, each link has a distinct (source, destination) pair
+			int objectCount = Math.max((int) Math.ceil(Math.sqrt(linkCount)), fanIn);
+			Revision[] objRevs = createObjects(objectCount, 1);
+			List<LinkCreation> links = new ArrayList<LinkCreation>(linkCount);
+			for (int i = 0; i < linkCount; i++) {
+				Revision srcRev = objRevs[i % objectCount];
+				Revision destRev = objRevs[(i / objectCount) % objectCount];
+				links.add(new LinkCreation(linkTypeId, srcRev.getId(), srcRev.getRev(), 
+						destRev.getId(), destRev.getRev(), null));
+			}
+			BatchOperations.addLinks(m_db, links);
+
+			// heavily referenced targets
+			Revision[] targets = createObjects(targetCount, 1);
+			links.clear();
+			for (Revision target : targets) {
+				for (int i = 0; i < fanIn; i++)
+					links.add(new LinkCreation(linkTypeId, objRevs[i].getId(), objRevs[i].getRev(), 
+							target.getId(), target.getRev(), null));
+			}
+			BatchOperations.addLinks(m_db, links);
+
+			// scan of all sources
+			BenchmarkStats scanStats = new BenchmarkStats("incoming links scan fanin=" + fanIn + 
+					" links=" + linkCount, 1);
+			scanStats.start();
+			for (Revision objRev : objRevs)
+				m_db.getOutgoingLinks(objRev.getId(), objRev.getRev(), targets[0].getId());
+			scanStats.stop();
+			report(scanStats);
+
+			AdjacencyCache cache = new AdjacencyCache(m_db);
+			for (Revision target : targets)
+				cache.getIncomingLinks(linkTypeId, target.getId(), target.getRev());
+
+			BenchmarkStats warmStats = new BenchmarkStats("getIncomingLinks warm fanin=" + fanIn + 
+					" links=" + linkCount, targetCount);
+			BenchmarkStats deleteStats = new BenchmarkStats("deleteObject fanin=" + fanIn + 
+					" links=" + linkCount, targetCount);
+			for (Revision target : targets) {
+				warmStats.start();
+				cache.getIncomingLinks(linkTypeId, target.getId(), target.getRev());
+				warmStats.stop();
+			}
+			for (Revision target : targets) {
+				deleteStats.start();
+				cache.deleteObject(target.getId());
+				deleteStats.stop();
+			}
+			report(warmStats);
+			report(deleteStats);
+		}
+	}
+
+	/**
+	 * A miss on the incoming links of an object referenced by
+	 * <code>fanIn</code> links costs 1 + fanIn queries, so its latency
+	 * grows with the fan-in and not with the rest of the graph.
+	 */
+	public void testIncomingLinkMiss() throws Exception {
+		int targetCount = 10;
+		for (int fanIn : getParams("modelversiondb.bench.missfanin", 1, 10, 100, 1000)) {
+			m_db.clear();
+			Revision[] objRevs = createObjects(fanIn, 1);
+			Revision[] targets = createObjects(targetCount, 1);
+			List<LinkCreation> links = new ArrayList<LinkCreation>(fanIn * targetCount);
+			for (Revision target : targets) {
+				for (Revision objRev : objRevs)
+					links.add(new LinkCreation(linkTypeId, objRev.getId(), objRev.getRev(), 
+							target.getId(), target.getRev(), null));
+			}
+			BatchOperations.addLinks(m_db, links);
+
+			AdjacencyCache cache = new AdjacencyCache(m_db);
+			BenchmarkStats missStats = new BenchmarkStats("getIncomingLinks miss fanin=" + fanIn, 
+					targetCount);
+			for (Revision target : targets) {
+				missStats.start();
+				cache.getIncomingLinks(linkTypeId, target.getId(), target.getRev());
+				missStats.stop();
+			}
+			report(missStats);
+
+			long queriesPerMiss = cache.getQueryCount() / targetCount;
+			System.out.println("[benchmark]   " + queriesPerMiss + " queries per miss");
+			assertEquals(1 + fanIn, queriesPerMiss);
+		}
+	}
+
+	public void testGraphTraversal() throws Exception {
+		int maxDepth = getParams("modelversiondb.bench.traversaldepth", 3)[0];
+		int fanOut = 10;
+		for (int linkCount : getParams("modelversiondb.bench.traversallinks", 1000000)) {
+			m_db.clear();
+			int objectCount = Math.max(linkCount / fanOut, 100);
+			Revision[] objRevs = createObjects(objectCount, 1);
+
+			// one transaction per chunk of links
+			List<LinkCreation> links = new ArrayList<LinkCreation>();
+			for (int i = 0; i < objectCount; i++) {
+				for (int k = 0; k < fanOut; k++) {
+					Revision destRev = objRevs[(int) ((i * 31L + k * 97L + 1) % objectCount)];
+					links.add(new LinkCreation(linkTypeId, objRevs[i].getId(), objRevs[i].getRev(), 
+							destRev.getId(), destRev.getRev(), null));
+				}
+				if (links.size() >= 10000) {
+					BatchOperations.addLinks(m_db, links);
+					links.clear();
+				}
+			}
+			BatchOperations.addLinks(m_db, links);
+
+			List<UUID> linkTypes = Arrays.asList(linkTypeId);
+			GraphTraversal traversal = new GraphTraversal(m_db);
+			GraphTraversal cachedTraversal = new GraphTraversal(m_db, new AdjacencyCache(m_db, objectCount));
+			String[] names = new String[] { "database", "cache cold", "cache warm" };
+			for (int i = 0; i < names.length; i++) {
+				GraphTraversal current = (i == 0) ? traversal : cachedTraversal;
+				long start = System.nanoTime();
+				List<Revision> revs = current.getReachableRevs(objRevs[0].getId(), objRevs[0].getRev(), linkTypes, 
+						maxDepth, GraphTraversal.BREADTH_FIRST, false);
+				long nanos = System.nanoTime() - start;
+				System.out.println(String.format("[benchmark] %-60s %12.1f ms   %d reached   %d queries", 
+						"traversal " + names[i] + " links=" + linkCount + " depth=" + maxDepth, 
+						nanos / 1000000.0, revs.size(), current.getLastQueryCount()));
+			}
+		}
+	}
+
+	public void testAddLinksBatch() throws Exception {
+		for (int linkCount : getParams("modelversiondb.bench.links", 10000)) {
+			// each link has a distinct (source, destination) pair
+			int objectCount = (int) Math.ceil(Math.sqrt(linkCount));
+
+			m_db.clear();
+			Revision[] objRevs = createObjects(objectCount, 1);
+			long start = System.nanoTime();
+			for (int i = 0; i < linkCount; i++) {
+				Revision srcRev = objRevs[i % objectCount];
+				Revision destRev = objRevs[i / objectCount];
+				m_db.addLink(linkTypeId, srcRev.getId(), srcRev.getRev(), destRev.getId(), destRev.getRev(), null);
+			}
+			long loopNanos = System.nanoTime() - start;
+
+			m_db.clear();
+			objRevs = createObjects(objectCount, 1);
+			List<LinkCreation> links = new ArrayList<LinkCreation>(linkCount);
+			for (int i = 0; i < linkCount; i++) {
+				Revision srcRev = objRevs[i % objectCount];
+				Revision destRev = objRevs[i / objectCount];
+				links.add(new LinkCreation(linkTypeId, srcRev.getId(), srcRev.getRev(), 
+						destRev.getId(), destRev.getRev(), null));
+			}
+			start = System.nanoTime();
+			BatchOperations.addLinks(m_db, links);
+			long batchNanos = System.nanoTime() - start;
+
+			reportSpeedup("addLinks links=" + linkCount, loopNanos, batchNanos);
+		}
+	}
+
+	public void testGetOutgoingLinks() throws Exception {
+		for (int objectCount : OBJECT_COUNTS) {
+			m_db.clear();
+			Revision[] objRevs = createObjects(objectCount, 1);
+			for (int i = 0; i < objectCount; i++) {
+				Revision srcRev = objRevs[i];
+				Revision destRev = objRevs[(i + 1) % objectCount];
+				m_db.addLink(linkTypeId, srcRev.getId(), srcRev.getRev(), destRev.getId(), destRev.getRev(), null);
+			}
+
+			BenchmarkStats stats = new BenchmarkStats("getOutgoingLinks objects=" + objectCount, objectCount);
+			for (Revision objRev : objRevs) {
+				stats.start();
+				m_db.getOutgoingLinks(linkTypeId, objRev.getId(), objRev.getRev());
+				stats.stop();
+			}
+			report(stats);
+		}
+	}
+}
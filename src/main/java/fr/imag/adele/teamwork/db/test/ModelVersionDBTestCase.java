@@ -26,13 +26,38 @@ import org.hsqldb.Server;
 import org.osgi.framework.ServiceReference;
 import org.apache.felix.ipojo.junit4osgi.OSGiTestCase;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class ModelVersionDBTestCase extends OSGiTestCase {
 	
@@ -47,7 +72,7 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 			m_db = (ModelVersionDBService) context.getService(m_sr);
 			try {
 				m_db.setConnectionURL(_url, _login, _pwd);
-				m_db.clear();
+				ClearTimer.clear(m_db);
 			} catch (ModelVersionDBException e) {
 				e.printStackTrace();
 			} catch (DBConnectionException e) {
@@ -60,7 +85,7 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		if (m_db != null) {
 			try {
 				if (m_db.isConnected())
-					m_db.clear();
+					ClearTimer.clear(m_db);
 			} catch (ModelVersionDBException e) {
 				// ignore it
 				e.printStackTrace();
@@ -279,6 +304,368 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		server2.stop();
 	}
 	
+	public void testConnectionPool() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		String db1URL = getHSQLServerURL("PoolDB1", 9007);
+		String db2URL = getHSQLServerURL("PoolDB2", 9008);
+		
+		// invalid parameters
+		try {
+			new ConnectionPool(null, "sa", "");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			new ConnectionPool(db1URL, "sa", "", 2, 1, 0, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		ConnectionPoolManager manager = new ConnectionPoolManager();
+		try {
+			manager.setPoolSize(1, 2);
+			manager.setValidationQuery("CALL 1");
+			
+			/*
+			 * switching between databases reuses connections
+			 */
+			Connection conn1 = manager.getConnection(db1URL, "sa", "");
+			ConnectionPool pool1 = manager.getPool(db1URL, "sa");
+			assertNotNull(pool1);
+			assertEquals(1, pool1.getCreatedCount());
+			assertEquals(1, pool1.getActiveCount());
+			manager.releaseConnection(conn1);
+			assertEquals(1, pool1.getIdleCount());
+			
+			Connection conn2 = manager.getConnection(db2URL, "sa", "");
+			assertEquals(2, manager.getPoolNumber());
+			manager.releaseConnection(conn2);
+			
+			assertSame(conn1, manager.getConnection(db1URL, "sa", ""));
+			assertEquals(1, pool1.getCreatedCount());
+			assertEquals(1, pool1.getReusedCount());
+			manager.releaseConnection(conn1);
+			
+			// unknown connection
+			try {
+				manager.releaseConnection(conn1);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// PASSED
+			}
+			
+			// login is part of the pool key
+			assertNull(manager.getPool(db1URL, null));
+			
+			/*
+			 * maximum size
+			 */
+			conn1 = pool1.getConnection();
+			Connection conn3 = pool1.getConnection();
+			assertNotSame(conn1, conn3);
+			try {
+				pool1.getConnection(50);
+				fail();
+			} catch (SQLException e) {
+				// PASSED
+			}
+			pool1.releaseConnection(conn3);
+			assertSame(conn3, pool1.getConnection(50));
+			pool1.releaseConnection(conn3);
+			
+			/*
+			 * validation
+			 */
+			conn1.close();
+			pool1.releaseConnection(conn1);
+			assertEquals(1, pool1.getDiscardedCount());
+			assertEquals(1, pool1.getIdleCount());
+			
+			conn3 = pool1.getConnection();
+			conn3.close();
+			pool1.releaseConnection(conn3);
+			conn1 = pool1.getConnection();
+			assertFalse(conn1.isClosed());
+			Statement stmt = conn1.createStatement();
+			stmt.execute("CALL 1");
+			stmt.close();
+			pool1.releaseConnection(conn1);
+			
+			/*
+			 * idle eviction keeps the minimum size
+			 */
+			ConnectionPool pool = new ConnectionPool(db2URL, "sa", "", 1, 3, 1, null);
+			pool.fill();
+			assertEquals(1, pool.getIdleCount());
+			conn1 = pool.getConnection();
+			conn2 = pool.getConnection();
+			conn3 = pool.getConnection();
+			assertEquals(3, pool.getCreatedCount());
+			pool.releaseConnection(conn1);
+			pool.releaseConnection(conn2);
+			pool.releaseConnection(conn3);
+			Thread.sleep(10);
+			pool.evictIdle();
+			assertEquals(1, pool.getIdleCount());
+			assertEquals(0, pool.getActiveCount());
+			
+			pool.close();
+			assertEquals(0, pool.getIdleCount());
+			try {
+				pool.getConnection();
+				fail();
+			} catch (SQLException e) {
+				// PASSED
+			}
+		} finally {
+			// cleaning code
+			manager.close();
+		}
+	}
+	
+	public void testUUIDCursor() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		Connection conn = DriverManager.getConnection(getHSQLServerURL("CursorDB", 9007), "sa", "");
+		try {
+			Statement stmt = conn.createStatement();
+			stmt.execute("CREATE TABLE CURSOR_IDS (ID VARCHAR(36), BIN_ID BINARY(16))");
+			stmt.close();
+			
+			// invalid parameters
+			try {
+				new UUIDCursor(null, "SELECT ID FROM CURSOR_IDS");
+				fail();
+			} catch (IllegalArgumentException e) {
+				// PASSED
+			}
+			try {
+				new UUIDCursor(conn, "SELECT ID FROM CURSOR_IDS", 0);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// PASSED
+			}
+			
+			// no row
+			UUIDCursor cursor = new UUIDCursor(conn, "SELECT ID FROM CURSOR_IDS");
+			assertFalse(cursor.hasNext());
+			assertTrue(cursor.isClosed());
+			try {
+				cursor.next();
+				fail();
+			} catch (NoSuchElementException e) {
+				// PASSED
+			}
+			
+			Set<UUID> ids = new HashSet<UUID>();
+			PreparedStatement insert = conn.prepareStatement("INSERT INTO CURSOR_IDS VALUES (?, ?)");
+			for (int i = 0; i < 1000; i++) {
+				UUID id = UUID.randomUUID();
+				ids.add(id);
+				insert.setString(1, id.toString());
+				insert.setBytes(2, ByteBuffer.allocate(16).putLong(id.getMostSignificantBits())
+						.putLong(id.getLeastSignificantBits()).array());
+				insert.addBatch();
+			}
+			insert.executeBatch();
+			insert.close();
+			
+			// string and binary ids
+			for (String query : new String[] { "SELECT ID FROM CURSOR_IDS", "SELECT BIN_ID FROM CURSOR_IDS" }) {
+				cursor = new UUIDCursor(conn, query, 10);
+				Set<UUID> readIds = new HashSet<UUID>();
+				while (cursor.hasNext()) {
+					assertTrue(cursor.hasNext());
+					readIds.add(cursor.next());
+				}
+				assertEquals(ids, readIds);
+				assertEquals(1000, cursor.getRowCount());
+				assertTrue(cursor.isClosed());
+			}
+			
+			// early close
+			cursor = new UUIDCursor(conn, "SELECT ID FROM CURSOR_IDS", 10);
+			assertTrue(ids.contains(cursor.next()));
+			try {
+				cursor.remove();
+				fail();
+			} catch (UnsupportedOperationException e) {
+				// PASSED
+			}
+			cursor.close();
+			cursor.close();
+			assertFalse(cursor.hasNext());
+			
+			// not an id
+			cursor = new UUIDCursor(conn, "SELECT COUNT(*) FROM CURSOR_IDS");
+			try {
+				cursor.hasNext();
+				fail();
+			} catch (IllegalStateException e) {
+				assertTrue(cursor.isClosed());
+			}
+		} finally {
+			// cleaning code
+			conn.close();
+		}
+	}
+	
+	public void testUUIDLayout() throws Exception {
+		// binary form
+		UUID id = UUID.randomUUID();
+		byte[] bytes = UUIDs.toBytes(id);
+		assertEquals(UUIDs.BYTE_LENGTH, bytes.length);
+		assertEquals(id, UUIDs.fromBytes(bytes));
+		assertTrue(Arrays.equals(ByteBuffer.allocate(16).putLong(id.getMostSignificantBits())
+				.putLong(id.getLeastSignificantBits()).array(), bytes));
+		UUID minId = new UUID(0, 0);
+		UUID maxId = new UUID(-1L, -1L);
+		assertEquals(minId, UUIDs.fromBytes(UUIDs.toBytes(minId)));
+		assertEquals(maxId, UUIDs.fromBytes(UUIDs.toBytes(maxId)));
+		byte[] ids = new byte[UUIDs.BYTE_LENGTH * 2];
+		UUIDs.toBytes(minId, ids, 0);
+		UUIDs.toBytes(id, ids, UUIDs.BYTE_LENGTH);
+		assertEquals(id, UUIDs.fromBytes(ids, UUIDs.BYTE_LENGTH));
+		try {
+			UUIDs.fromBytes(new byte[15]);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			UUIDs.toBytes(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// column definitions
+		assertEquals(UUIDLayout.HSQLDB, UUIDLayout.getDatabase("jdbc:hsqldb:mem:LayoutDB"));
+		assertEquals(UUIDLayout.MYSQL, UUIDLayout.getDatabase("jdbc:mysql://localhost:3306/db"));
+		assertEquals(UUIDLayout.ORACLE, UUIDLayout.getDatabase("jdbc:oracle:thin:@//localhost:1521/db"));
+		try {
+			UUIDLayout.getDatabase("jdbc:unknown:db");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		assertEquals("ID VARCHAR(36)", 
+				UUIDLayout.getColumnDefinition("ID", UUIDLayout.STRING, UUIDLayout.MYSQL));
+		assertEquals("ID BINARY(16)", 
+				UUIDLayout.getColumnDefinition("ID", UUIDLayout.BINARY, UUIDLayout.HSQLDB));
+		assertEquals("ID RAW(16)", 
+				UUIDLayout.getColumnDefinition("ID", UUIDLayout.BINARY, UUIDLayout.ORACLE));
+		assertEquals("ID_MSB NUMBER(19), ID_LSB NUMBER(19)", 
+				UUIDLayout.getColumnDefinition("ID", UUIDLayout.LONG_PAIR, UUIDLayout.ORACLE));
+		assertEquals("ID_MSB = ? AND ID_LSB = ?", UUIDLayout.getCondition("ID", UUIDLayout.LONG_PAIR));
+		try {
+			UUIDLayout.getColumnNames("ID", 3);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// migration of existing tables
+		Class.forName("org.hsqldb.jdbcDriver");
+		Connection conn = DriverManager.getConnection(getHSQLServerURL("LayoutDB", 9007), "sa", "");
+		try {
+			Statement stmt = conn.createStatement();
+			for (int layout : new int[] { UUIDLayout.BINARY, UUIDLayout.LONG_PAIR }) {
+				String table = "LAYOUT_IDS" + layout;
+				stmt.execute("CREATE TABLE " + table + " (ID VARCHAR(36), REV INTEGER)");
+				stmt.execute("CREATE INDEX " + table + "_IDX ON " + table + " (ID)");
+				
+				List<UUID> tableIds = new ArrayList<UUID>();
+				PreparedStatement insert = conn.prepareStatement("INSERT INTO " + table + " VALUES (?, ?)");
+				for (int i = 0; i < 1200; i++) {
+					UUID rowId = UUID.randomUUID();
+					tableIds.add(rowId);
+					for (int rev = 1; rev <= 2; rev++) {
+						insert.setString(1, rowId.toString());
+						insert.setInt(2, rev);
+						insert.addBatch();
+					}
+				}
+				insert.setString(1, null);
+				insert.setInt(2, 1);
+				insert.addBatch();
+				insert.executeBatch();
+				insert.close();
+				
+				assertEquals(2400, UUIDLayout.migrate(conn, table, "ID", layout));
+				stmt.execute(UUIDLayout.getCreateIndex(table + "_IDX", table, "ID", layout));
+				
+				// same ids
+				String columns = UUIDLayout.getColumnNames("ID", layout)[0];
+				if (layout == UUIDLayout.LONG_PAIR)
+					columns += ", " + UUIDLayout.getColumnNames("ID", layout)[1];
+				ResultSet rs = stmt.executeQuery("SELECT " + columns + " FROM " + table + " WHERE REV = 2");
+				Set<UUID> readIds = new HashSet<UUID>();
+				while (rs.next())
+					readIds.add(UUIDLayout.getId(rs, 1, layout));
+				rs.close();
+				assertEquals(new HashSet<UUID>(tableIds), readIds);
+				
+				// lookup by id
+				PreparedStatement select = conn.prepareStatement("SELECT COUNT(*) FROM " + table + 
+						" WHERE " + UUIDLayout.getCondition("ID", layout));
+				for (UUID rowId : new UUID[] { tableIds.get(0), tableIds.get(1199), notExistObjId }) {
+					UUIDLayout.setId(select, 1, rowId, layout);
+					rs = select.executeQuery();
+					assertTrue(rs.next());
+					assertEquals(notExistObjId.equals(rowId) ? 0 : 2, rs.getInt(1));
+					rs.close();
+				}
+				select.close();
+				
+				// null ids
+				rs = stmt.executeQuery("SELECT " + columns + " FROM " + table + " WHERE REV = 1");
+				int nullCount = 0;
+				while (rs.next()) {
+					if (UUIDLayout.getId(rs, 1, layout) == null)
+						nullCount++;
+				}
+				rs.close();
+				assertEquals(1, nullCount);
+			}
+			
+			// nothing to do for string layout
+			assertEquals(0, UUIDLayout.migrate(conn, "LAYOUT_IDS1", "ID", UUIDLayout.STRING));
+			stmt.close();
+		} finally {
+			// cleaning code
+			Statement stmt = conn.createStatement();
+			stmt.execute("DROP TABLE LAYOUT_IDS1 IF EXISTS");
+			stmt.execute("DROP TABLE LAYOUT_IDS2 IF EXISTS");
+			stmt.close();
+			conn.close();
+		}
+	}
+	
+	public void testClear() throws ModelVersionDBException, TransactionException {
+		int obj1Rev = m_db.createObject(obj1Id, objType1Id, null, false);
+		int obj2Rev = m_db.createObject(obj2Id, objType2Id, null, false);
+		m_db.createNewObjectRevision(obj2Id, obj2Rev);
+		Revision linkRev = m_db.addLink(linkType1Id, obj1Id, obj1Rev, obj2Id, obj2Rev, null);
+		
+		int clearCount = ClearTimer.getClearCount();
+		long duration = ClearTimer.clear(m_db);
+		assertTrue(duration > 0);
+		assertEquals(clearCount + 1, ClearTimer.getClearCount());
+		assertTrue(ClearTimer.getMaxNanos() >= duration);
+		
+		assertFalse(m_db.objExists(obj1Id));
+		assertFalse(m_db.objExists(obj2Id));
+		assertFalse(m_db.linkExists(linkRev.getId()));
+		assertTrue(m_db.getObjects().isEmpty());
+		assertTrue(m_db.getLinks().isEmpty());
+		
+		// database can be used after clear
+		m_db.createObject(obj1Id, objType1Id, null, false);
+		assertTrue(m_db.objExists(obj1Id));
+	}
+	
 	public void testDistributedTransactions() throws ModelVersionDBException {
 		/*
 		 * create 2 HSQLDB servers
@@ -378,6 +765,446 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		server2.stop();
 	}
 	
+	public void testTwoPhaseCommit() throws Exception {
+		/*
+		 * create 4 HSQLDB servers
+		 */
+		int serverCount = 4;
+		Server[] servers = new Server[serverCount];
+		Connection[] conns = new Connection[serverCount];
+		ExecutorService executor = Executors.newFixedThreadPool(serverCount);
+		File logFile = File.createTempFile("tpc", ".log");
+		RecoveryLog log = new RecoveryLog(logFile);
+		try {
+			Class.forName("org.hsqldb.jdbcDriver");
+			List<JDBCParticipant> participants = new ArrayList<JDBCParticipant>();
+			for (int i = 0; i < serverCount; i++) {
+				servers[i] = createHSQLServer("TPCDB" + i, 9015 + i);
+				conns[i] = DriverManager.getConnection(getHSQLServerURL("TPCDB" + i, 9015 + i), "sa", "");
+				Statement stmt = conns[i].createStatement();
+				stmt.execute("DROP TABLE TPC_VALUES IF EXISTS");
+				stmt.execute("CREATE TABLE TPC_VALUES (ID INTEGER, VAL VARCHAR(20))");
+				stmt.close();
+				participants.add(new JDBCParticipant("db" + i, conns[i], "SELECT COUNT(*) FROM TPC_VALUES"));
+			}
+			TwoPhaseCommitCoordinator coordinator = new TwoPhaseCommitCoordinator(executor, log);
+			
+			// invalid parameters
+			try {
+				coordinator.commit(null, participants);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// PASSED
+			}
+			try {
+				coordinator.commit(TwoPhaseCommitCoordinator.newTransactionId(), 
+						Arrays.asList(participants.get(0), participants.get(0)));
+				fail();
+			} catch (IllegalArgumentException e) {
+				// PASSED
+			}
+			try {
+				new JDBCParticipant("db 0", conns[0]);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// PASSED
+			}
+			
+			// commit on all databases
+			insertValue(conns, 1, VAL1);
+			CommitResult result = coordinator.commit(TwoPhaseCommitCoordinator.newTransactionId(), participants);
+			assertTrue(result.isComplete());
+			assertTrue(result.getTotalNanos() >= result.getPrepareNanos() + result.getCommitNanos());
+			assertTrue(log.getInDoubtTransactions().isEmpty());
+			assertValueCount(conns, 1);
+			
+			// one participant fails to prepare
+			insertValue(conns, 2, VAL2);
+			List<JDBCParticipant> failingPrepare = new ArrayList<JDBCParticipant>(participants);
+			failingPrepare.set(2, new JDBCParticipant("db2", conns[2]) {
+				@Override
+				public void prepare() throws SQLException {
+					throw new SQLException("prepare failure");
+				}
+			});
+			try {
+				coordinator.commit(TwoPhaseCommitCoordinator.newTransactionId(), failingPrepare);
+				fail();
+			} catch (SQLException e) {
+				assertEquals("prepare failure", e.getCause().getMessage());
+			}
+			assertTrue(log.getInDoubtTransactions().isEmpty());
+			assertValueCount(conns, 1);
+			
+			// one participant fails to commit
+			insertValue(conns, 3, VAL3);
+			final boolean[] commitFailure = new boolean[] { true };
+			List<JDBCParticipant> failingCommit = new ArrayList<JDBCParticipant>(participants);
+			failingCommit.set(3, new JDBCParticipant("db3", conns[3]) {
+				@Override
+				public void commit() throws SQLException {
+					if (commitFailure[0])
+						throw new SQLException("commit failure");
+					super.commit();
+				}
+			});
+			String txId = TwoPhaseCommitCoordinator.newTransactionId();
+			result = coordinator.commit(txId, failingCommit);
+			assertFalse(result.isComplete());
+			assertEquals(Arrays.asList("db3"), result.getInDoubtParticipants());
+			Map<String, Set<String>> inDoubt = log.getInDoubtTransactions();
+			assertEquals(1, inDoubt.size());
+			assertEquals(Collections.singleton("db3"), inDoubt.get(txId));
+			
+			// in doubt transactions are read back from the log file
+			log.close();
+			log = new RecoveryLog(logFile);
+			assertEquals(inDoubt, log.getInDoubtTransactions());
+			coordinator = new TwoPhaseCommitCoordinator(executor, log);
+			
+			Map<String, JDBCParticipant> byName = new HashMap<String, JDBCParticipant>();
+			for (JDBCParticipant participant : failingCommit)
+				byName.put(participant.getName(), participant);
+			assertEquals(0, coordinator.recover(byName));
+			commitFailure[0] = false;
+			
+			// JDBC participants are not durably prepared: committed but not counted
+			List<String> unverified = new ArrayList<String>();
+			assertEquals(0, coordinator.recover(byName, unverified));
+			assertEquals(Arrays.asList(txId), unverified);
+			assertTrue(log.getInDoubtTransactions().isEmpty());
+			assertValueCount(conns, 2);
+			log.close();
+			log = new RecoveryLog(logFile);
+			assertTrue(log.getInDoubtTransactions().isEmpty());
+			
+			// rollback
+			insertValue(conns, 4, VAL1);
+			assertEquals(0, coordinator.rollback(participants));
+			assertValueCount(conns, 2);
+			
+			// sequential and parallel phases
+			TwoPhaseCommitCoordinator sequential = new TwoPhaseCommitCoordinator(null, log);
+			TwoPhaseCommitCoordinator parallel = new TwoPhaseCommitCoordinator(executor, log);
+			for (int i = 0; i < 20; i++) {
+				insertValue(conns, 10 + i, VAL2);
+				result = sequential.commit(TwoPhaseCommitCoordinator.newTransactionId(), participants);
+				assertTrue(result.isComplete());
+				
+				insertValue(conns, 100 + i, VAL3);
+				result = parallel.commit(TwoPhaseCommitCoordinator.newTransactionId(), participants);
+				assertTrue(result.isComplete());
+			}
+			assertValueCount(conns, 42);
+		} finally {
+			// cleaning code
+			executor.shutdown();
+			log.close();
+			logFile.delete();
+			for (int i = 0; i < serverCount; i++) {
+				if (conns[i] != null)
+					conns[i].close();
+				if (servers[i] != null)
+					servers[i].stop();
+			}
+		}
+	}
+	
+	public void testConcurrentModelVersionDB() throws Exception {
+		// invalid parameters
+		try {
+			new ConcurrentModelVersionDB();
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			new ConcurrentModelVersionDB(m_db, m_db);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			new StripedLocks(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// striped locks
+		final StripedLocks locks = new StripedLocks(5);
+		assertEquals(8, locks.getStripeCount());
+		assertEquals(locks.getStripe(obj1Id), locks.getStripe(new UUID(obj1Id.getMostSignificantBits(), 
+				obj1Id.getLeastSignificantBits())));
+		locks.lock(obj1Id, obj1Id, null);
+		assertTrue(locks.isHeldByCurrentThread(obj1Id));
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			assertFalse(executor.submit(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					return locks.tryLock(0, obj1Id);
+				}
+			}).get());
+			locks.unlock(obj1Id, obj1Id, null);
+			assertFalse(locks.isHeldByCurrentThread(obj1Id));
+			assertTrue(executor.submit(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					boolean locked = locks.tryLock(0, obj1Id);
+					if (locked)
+						locks.unlock(obj1Id);
+					return locked;
+				}
+			}).get());
+
+			// shared locks exclude exclusive ones only
+			locks.lockShared(obj1Id);
+			assertTrue(executor.submit(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					locks.lockShared(obj1Id);
+					locks.unlockShared(obj1Id);
+					return true;
+				}
+			}).get(10, TimeUnit.SECONDS));
+			assertFalse(executor.submit(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					return locks.tryLock(0, obj1Id);
+				}
+			}).get());
+			locks.unlockShared(obj1Id);
+			assertFalse(locks.getLock(obj1Id).isWriteLocked());
+			assertEquals(0, locks.getLock(obj1Id).getReadLockCount());
+			
+			/*
+			 * transactions are bound to the calling thread
+			 */
+			final ConcurrentModelVersionDB concurrent = new ConcurrentModelVersionDB(m_db);
+			final ModelVersionDBService db = concurrent.getService();
+			db.beginTransaction();
+			assertTrue(db.hasTransaction());
+			int obj1Rev1 = db.createObject(obj1Id, objType1Id, null, false);
+			assertTrue(executor.submit(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					return !db.hasTransaction() && concurrent.getLocks().getLock(obj1Id).isWriteLocked();
+				}
+			}).get());
+			try {
+				db.setConnectionURL(_url, _login, _pwd);
+				fail();
+			} catch (TransactionException e) {
+				// PASSED
+			}
+			
+			// the only session is used by the transaction
+			Future<Integer> obj2Creation = executor.submit(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					return db.createObject(obj2Id, objType1Id, null, false);
+				}
+			});
+			while (concurrent.getWaitCount() == 0)
+				Thread.sleep(10);
+			assertFalse(obj2Creation.isDone());
+			db.commitTransaction();
+			assertFalse(db.hasTransaction());
+			int obj2Rev1 = obj2Creation.get();
+			assertTrue(m_db.objExists(obj1Id, obj1Rev1));
+			assertTrue(m_db.objExists(obj2Id, obj2Rev1));
+			assertEquals(1, concurrent.getIdleSessionCount());
+			assertFalse(concurrent.getLocks().getLock(obj1Id).isWriteLocked());
+			
+			// rollback releases locks
+			db.beginTransaction();
+			db.createNewObjectRevision(obj1Id, obj1Rev1);
+			db.rollbackTransaction();
+			assertFalse(concurrent.getLocks().getLock(obj1Id).isWriteLocked());
+			assertEquals(1, m_db.getObjectRevNbs(obj1Id).length);
+			
+			/*
+			 * calls waiting for a locked id do not hold a session
+			 */
+			int threadCount = 4;
+			ModelVersionDBService[] sessions = new ModelVersionDBService[threadCount];
+			sessions[0] = m_db;
+			for (int i = 1; i < threadCount; i++)
+				sessions[i] = newSession();
+			final ConcurrentModelVersionDB parallel = new ConcurrentModelVersionDB(sessions);
+			final ModelVersionDBService parallelDb = parallel.getService();
+			parallelDb.beginTransaction();
+			parallelDb.createNewObjectRevision(obj1Id, ModelVersionDBService.LAST);
+			Callable<Integer> obj1Revision = new Callable<Integer>() {
+				public Integer call() throws Exception {
+					return parallelDb.createNewObjectRevision(obj1Id, ModelVersionDBService.LAST);
+				}
+			};
+			Future<Integer> waitingRevision = executor.submit(obj1Revision);
+			while (parallel.getLocks().getContendedCount() == 0)
+				Thread.sleep(10);
+			assertEquals(threadCount - 1, parallel.getIdleSessionCount());
+			parallelDb.commitTransaction();
+			assertTrue(m_db.objExists(obj1Id, waitingRevision.get()));
+			assertEquals(threadCount, parallel.getIdleSessionCount());
+			
+			// lock timeout outside of a transaction
+			parallel.setTimeout(50);
+			parallelDb.beginTransaction();
+			parallelDb.createNewObjectRevision(obj1Id, ModelVersionDBService.LAST);
+			try {
+				executor.submit(obj1Revision).get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof ModelVersionDBException);
+			}
+			parallelDb.rollbackTransaction();
+			parallel.setTimeout(ConcurrentModelVersionDB.DEFAULT_TIMEOUT);
+			assertEquals(0, parallel.getWaitCount());
+			
+			/*
+			 * threads creating, revising and linking distinct objects on
+			 * their own sessions
+			 */
+			final int objCount = 10;
+			List<Future<List<UUID>>> results = new ArrayList<Future<List<UUID>>>();
+			for (int i = 0; i < threadCount; i++) {
+				results.add(executor.submit(new Callable<List<UUID>>() {
+					public List<UUID> call() throws Exception {
+						List<UUID> objIds = new ArrayList<UUID>();
+						UUID prevId = null;
+						int prevRev = 0;
+						for (int j = 0; j < objCount; j++) {
+							UUID objId = UUID.randomUUID();
+							int rev = parallelDb.createObject(objId, objType1Id, null, false);
+							parallelDb.setObjectValue(objId, rev, ATTR1, VAL1);
+							int newRev = parallelDb.createNewObjectRevision(objId, rev);
+							parallelDb.setObjectValue(objId, newRev, ATTR2, VAL2);
+							if (prevId != null)
+								parallelDb.addLink(linkType1Id, prevId, prevRev, objId, newRev, null);
+							objIds.add(objId);
+							prevId = objId;
+							prevRev = newRev;
+						}
+						return objIds;
+					}
+				}));
+			}
+			for (Future<List<UUID>> result : results) {
+				List<UUID> objIds = result.get();
+				assertEquals(objCount, objIds.size());
+				for (int j = 0; j < objCount; j++) {
+					UUID objId = objIds.get(j);
+					int[] revs = m_db.getObjectRevNbs(objId);
+					assertEquals(2, revs.length);
+					assertEquals(VAL2, m_db.getObjectValue(objId, revs[1], ATTR2));
+					if (j > 0) {
+						UUID prevId = objIds.get(j - 1);
+						int[] prevRevs = m_db.getObjectRevNbs(prevId);
+						assertTrue(m_db.linkExists(linkType1Id, prevId, prevRevs[1], objId, revs[1]));
+					}
+				}
+			}
+			assertEquals(threadCount * objCount + 2, m_db.getObjects(objType1Id).size());
+			assertEquals(threadCount, parallel.getIdleSessionCount());
+		} finally {
+			// cleaning code
+			executor.shutdown();
+		}
+	}
+	
+	public void testAsyncModelVersionDB() throws Exception {
+		// invalid parameters
+		try {
+			new AsyncModelVersionDB();
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			new AsyncModelVersionDB(0, m_db);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			new AsyncModelVersionDB(m_db, m_db);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		final CountDownLatch released = new CountDownLatch(1);
+		ModelVersionDBService[] sessions = new ModelVersionDBService[] { m_db, newSession(), newSession(), newSession() };
+		for (int i = 0; i < sessions.length; i++)
+			sessions[i] = newBlockingService(sessions[i], "setObjectValue", obj3Id, released);
+		AsyncModelVersionDB async = new AsyncModelVersionDB(2, sessions);
+		try {
+			// requests about the same object are executed in order
+			Future<Integer> obj1Creation = async.createObject(obj1Id, objType1Id, null, false);
+			Future<Boolean> obj1Exists = async.objExists(obj1Id);
+			int obj1Rev1 = obj1Creation.get();
+			assertTrue(obj1Exists.get());
+			async.setObjectValue(obj1Id, obj1Rev1, ATTR1, VAL1);
+			Future<Object> obj1Value = async.getObjectValue(obj1Id, obj1Rev1, ATTR1);
+			Future<Map<String, Object>> obj1State = async.getObjectState(obj1Id, obj1Rev1);
+			assertEquals(VAL1, obj1Value.get());
+			assertEquals(m_db.getObjectState(obj1Id, obj1Rev1), obj1State.get());
+			assertTrue(async.objExists(obj1Id, obj1Rev1).get());
+			assertFalse(async.objExists(notExistObjId).get());
+			
+			int obj2Rev1 = async.createObject(obj2Id, objType1Id, null, false).get();
+			int obj2Rev2 = async.createNewObjectRevision(obj2Id, obj2Rev1).get();
+			Revision linkRev = async.addLink(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev2, null).get();
+			assertEquals(m_db.getOutgoingLinks(linkType1Id, obj1Id, obj1Rev1), 
+					async.getOutgoingLinks(linkType1Id, obj1Id, obj1Rev1).get());
+			assertEquals(Arrays.asList(linkRev), async.getOutgoingLinks(obj1Id, obj1Rev1, obj2Id).get());
+			assertEquals(m_db.getObjectRevs(objType1Id, ATTR1, VAL1, true), 
+					async.getObjectRevs(objType1Id, ATTR1, VAL1, true).get());
+			
+			// requests about several ids or a type wait for the requests issued before about each id
+			int obj3Rev1 = async.createObject(obj3Id, objType1Id, null, false).get();
+			Future<Object> obj3Write = async.setObjectValue(obj3Id, obj3Rev1, ATTR1, VAL3);
+			Future<Revision> obj3Link = async.addLink(linkType1Id, obj1Id, obj1Rev1, obj3Id, obj3Rev1, null);
+			Future<List<Revision>> obj3Revs = async.getObjectRevs(objType1Id, ATTR1, VAL3, true);
+			Thread.sleep(100);
+			assertFalse(obj3Link.isDone());
+			assertFalse(obj3Revs.isDone());
+			released.countDown();
+			obj3Write.get();
+			assertTrue(m_db.linkExists(obj3Link.get().getId()));
+			assertEquals(Arrays.asList(new Revision(obj3Id, objType1Id, obj3Rev1)), obj3Revs.get());
+			assertEquals(0, async.getPendingCount());
+			
+			// errors are thrown by Future.get
+			Future<Object> failure = async.setObjectValue(notExistObjId, 1, ATTR1, VAL1);
+			try {
+				failure.get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalArgumentException);
+			}
+			
+			/*
+			 * 100 independent reads issued together on several sessions
+			 */
+			int readCount = 100;
+			UUID[] objIds = new UUID[readCount];
+			int[] revs = new int[readCount];
+			for (int i = 0; i < readCount; i++) {
+				objIds[i] = UUID.randomUUID();
+				revs[i] = m_db.createObject(objIds[i], objType2Id, null, false);
+				m_db.setObjectValue(objIds[i], revs[i], ATTR1, "value " + i);
+			}
+			async.resetStatistics();
+			List<Future<Object>> values = new ArrayList<Future<Object>>();
+			for (int i = 0; i < readCount; i++)
+				values.add(async.getObjectValue(objIds[i], revs[i], ATTR1));
+			for (int i = 0; i < readCount; i++)
+				assertEquals("value " + i, values.get(i).get());
+			assertEquals(readCount, async.getRequestCount());
+			assertEquals(0, async.getPendingCount());
+		} finally {
+			// cleaning code
+			async.shutdown(10000);
+		}
+	}
+	
 	public void testObjExistsWithID() throws ModelVersionDBException {
 		
 		// null object id
@@ -772,7 +1599,7 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		}
 	}
 
-	public void testGetObjectRevsWithStateMap() throws ModelVersionDBException {
+	public void testValueCodec() throws IOException {
 		Map<String, Object> attrMap = new HashMap<String, Object>();
 		attrMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
 		attrMap.put(ATTR2, null);
@@ -780,30 +1607,151 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		attrMap.put(ATTR4, new Long(1234567890L));
 		attrMap.put(ATTR5, new java.util.Date(System.currentTimeMillis()));
 		attrMap.put(ATTR6, new Ser("ser1"));
-
-		// Null type id
+		
+		BinaryValueCodec codec = new BinaryValueCodec();
+		SerializationValueCodec serialization = new SerializationValueCodec();
+		
+		// built-in types and serialization fallback
+		for (Object value : attrMap.values()) {
+			byte[] bytes = codec.encode(value);
+			assertEquals(value, codec.decode(bytes));
+		}
+		Object[] values = new Object[] { "", "\u00e9\u4e2d", new Integer(-1), new Integer(Integer.MIN_VALUE), 
+				new Long(Long.MAX_VALUE), new Long(Long.MIN_VALUE), Boolean.TRUE, Boolean.FALSE, 
+				new Short((short) -3), new Byte((byte) 7), new Character('c'), new Float(1.5f), 
+				new Double(-2.25), UUID.randomUUID(), new java.sql.Timestamp(123456789L) };
+		for (Object value : values) {
+			Object decoded = codec.decode(codec.encode(value));
+			assertEquals(value, decoded);
+			assertEquals(value.getClass(), decoded.getClass());
+		}
+		byte[] array = new byte[] { 1, 2, 3 };
+		assertTrue(Arrays.equals(array, (byte[]) codec.decode(codec.encode(array))));
+		assertEquals(1, codec.encode(null).length);
+		
+		// state maps
+		assertEquals(attrMap, codec.decodeState(codec.encodeState(attrMap)));
+		assertTrue(codec.encodeState(attrMap).length < serialization.encode(attrMap).length);
+		assertTrue(codec.decodeState(codec.encodeState(new HashMap<String, Object>())).isEmpty());
+		
+		// not serializable
 		try {
-			m_db.getObjectRevs(null, attrMap, false);
+			codec.encode(new Object());
 			fail();
 		} catch (IllegalArgumentException e) {
 			// PASSED
-		} 
-
-		// No object in base
-		List<Revision> revs = m_db.getObjectRevs(objType1Id, attrMap, false);
-		assertNotNull(revs);
-		assertTrue(revs.isEmpty());
+		}
 		
-		revs = m_db.getObjectRevs(objType1Id, attrMap, true);
-		assertNotNull(revs);
-		assertTrue(revs.isEmpty());
-
 		/*
-		 * One object 
+		 * user types
 		 */
+		TypeCodec<Ser> serCodec = new TypeCodec<Ser>() {
+			public void write(Ser value, DataOutput out) throws IOException {
+				out.writeUTF(value.getId());
+			}
+			
+			public Ser read(DataInput in) throws IOException {
+				return new Ser(in.readUTF());
+			}
+		};
+		int serializedLength = codec.encode(new Ser("ser1")).length;
+		codec.register(1, Ser.class, serCodec);
+		assertTrue(codec.isRegistered(Ser.class));
+		assertEquals(new Ser("ser1"), codec.decode(codec.encode(new Ser("ser1"))));
+		assertTrue(codec.encode(new Ser("ser1")).length < serializedLength);
+		
+		// already registered
+		try {
+			codec.register(1, java.util.Locale.class, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			codec.register(2, Ser.class, serCodec);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
 		
-		// One object revision
-		// full state
+		// built-in type
+		try {
+			codec.register(3, String.class, new TypeCodec<String>() {
+				public void write(String value, DataOutput out) throws IOException {
+					out.writeUTF(value);
+				}
+				
+				public String read(DataInput in) throws IOException {
+					return in.readUTF();
+				}
+			});
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// unknown user type
+		byte[] bytes = codec.encode(new Ser("ser1"));
+		try {
+			new BinaryValueCodec().decode(bytes);
+			fail();
+		} catch (IOException e) {
+			// PASSED
+		}
+		
+		// invalid encodings
+		try {
+			codec.decode(new byte[] { 127 });
+			fail();
+		} catch (IOException e) {
+			// PASSED
+		}
+		try {
+			codec.decode(new byte[] { 0, 0 });
+			fail();
+		} catch (IOException e) {
+			// PASSED
+		}
+		try {
+			codec.decode(new byte[0]);
+			fail();
+		} catch (IOException e) {
+			// PASSED
+		}
+	}
+	
+	public void testGetObjectRevsWithStateMap() throws ModelVersionDBException {
+		Map<String, Object> attrMap = new HashMap<String, Object>();
+		attrMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
+		attrMap.put(ATTR2, null);
+		attrMap.put(ATTR3, new Integer(1234));
+		attrMap.put(ATTR4, new Long(1234567890L));
+		attrMap.put(ATTR5, new java.util.Date(System.currentTimeMillis()));
+		attrMap.put(ATTR6, new Ser("ser1"));
+
+		// Null type id
+		try {
+			m_db.getObjectRevs(null, attrMap, false);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		} 
+
+		// No object in base
+		List<Revision> revs = m_db.getObjectRevs(objType1Id, attrMap, false);
+		assertNotNull(revs);
+		assertTrue(revs.isEmpty());
+		
+		revs = m_db.getObjectRevs(objType1Id, attrMap, true);
+		assertNotNull(revs);
+		assertTrue(revs.isEmpty());
+
+		/*
+		 * One object 
+		 */
+		
+		// One object revision
+		// full state
 		int obj1Rev1 = m_db.createObject(obj1Id, objType1Id, attrMap, false);
 		
 		revs = m_db.getObjectRevs(objType1Id, attrMap, false);
@@ -913,6 +1861,270 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		}
 	}
 	
+	public void testStateMapQueryPlanner() throws ModelVersionDBException {
+		Map<String, Object> attrMap = new HashMap<String, Object>();
+		attrMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
+		attrMap.put(ATTR2, null);
+		attrMap.put(ATTR3, new Integer(1234));
+		attrMap.put(ATTR4, new Long(1234567890L));
+		attrMap.put(ATTR5, new java.util.Date(System.currentTimeMillis()));
+		attrMap.put(ATTR6, new Ser("ser1"));
+
+		AttributeValueIndex index = new AttributeValueIndex(m_db);
+		index.createIndex(objType1Id, ATTR1);
+		index.createIndex(objType1Id, ATTR3);
+		index.createIndex(objType1Id, ATTR6);
+		StateMapQueryPlanner planner = new StateMapQueryPlanner(m_db, index);
+
+		// Null type id
+		try {
+			planner.getObjectRevs(null, attrMap, false);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		} 
+
+		// No object in base
+		List<Revision> revs = planner.getObjectRevs(objType1Id, attrMap, false);
+		assertNotNull(revs);
+		assertTrue(revs.isEmpty());
+		assertEquals(0, planner.getLastPlan().getResultCount());
+
+		// One object revision
+		int obj1Rev1 = index.createObject(obj1Id, objType1Id, attrMap, false);
+		
+		revs = planner.getObjectRevs(objType1Id, attrMap, false);
+		List<Revision> expectRevs = new ArrayList<Revision>();
+		expectRevs.add(new Revision(obj1Id, objType1Id, obj1Rev1));
+		assertEquals(expectRevs, revs);
+		
+		// partial state
+		Map<String, Object> attrMap2 = new HashMap<String, Object>();
+		attrMap2.put(ATTR2, null);
+		attrMap2.put(ATTR4, new Long(1234567890L));
+		attrMap2.put(ATTR6, new Ser("ser1"));
+		assertPlannerMatch(planner, attrMap2);
+		assertEquals(ATTR6, planner.getLastPlan().getProbeAttribute());
+		
+		// bad object type
+		revs = planner.getObjectRevs(objType2Id, attrMap, false);
+		assertNotNull(revs);
+		assertTrue(revs.isEmpty());
+		
+		// 2 object revisions
+		int obj1Rev2 = index.createNewObjectRevision(obj1Id, obj1Rev1);
+		assertPlannerMatch(planner, attrMap);
+		assertPlannerMatch(planner, attrMap2);
+
+		// two objects
+		int obj2Rev1 = index.createObject(obj2Id, objType1Id, attrMap, false);
+		assertPlannerMatch(planner, attrMap);
+		
+		int obj2Rev2 = index.createNewObjectRevision(obj2Id, obj2Rev1);
+		assertPlannerMatch(planner, attrMap);
+		
+		index.setObjectValue(obj2Id, obj2Rev2, ATTR1, NEW_ATTR_VALUE);
+		assertPlannerMatch(planner, attrMap);
+		assertPlannerMatch(planner, attrMap2);
+
+		// retrieve only last revisions that match
+		revs = planner.getObjectRevs(objType1Id, attrMap, true);
+		expectRevs = new ArrayList<Revision>();
+		expectRevs.add(new Revision(obj1Id, objType1Id, obj1Rev2));
+		expectRevs.add(new Revision(obj2Id, objType1Id, obj2Rev1));
+		assertRevListMatch(expectRevs, revs);
+		
+		// most selective attribute is probed first
+		Map<String, Object> attrMap3 = new HashMap<String, Object>();
+		attrMap3.put(ATTR1, NEW_ATTR_VALUE);
+		attrMap3.put(ATTR3, new Integer(1234));
+		QueryPlan plan = planner.explain(objType1Id, attrMap3);
+		assertEquals(ATTR1, plan.getProbeAttribute());
+		assertEquals(new Integer(1), plan.getEstimates().get(ATTR1));
+		assertEquals(new Integer(4), plan.getEstimates().get(ATTR3));
+		assertPlannerMatch(planner, attrMap3);
+		assertEquals(1, planner.getLastPlan().getCandidateCount());
+
+		// no indexed attribute
+		attrMap2.remove(ATTR6);
+		plan = planner.explain(objType1Id, attrMap2);
+		assertNull(plan.getProbeAttribute());
+		assertEquals(new Integer(QueryPlan.UNKNOWN), plan.getEstimates().get(ATTR4));
+		assertPlannerMatch(planner, attrMap2);
+		
+		// unexisting attributes
+		Map<String, Object> attrMap4 = new HashMap<String, Object>();
+		attrMap4.putAll(attrMap);
+		attrMap4.put(ATTR7, UUID.randomUUID());
+
+		revs = planner.getObjectRevs(objType1Id, attrMap4, false);
+		assertNotNull(revs);
+		assertTrue(revs.isEmpty());
+
+		// invalid type of indexed attribute
+		try {
+			attrMap4.putAll(attrMap);
+			attrMap4.put(ATTR1, UUID.randomUUID());
+
+			planner.getObjectRevs(objType1Id, attrMap4, false);
+			fail();
+		} catch (ModelVersionDBException e) {
+			// test passed
+		}
+
+		// cleaning code
+		try {
+			m_db.deleteObject(obj1Id);
+			m_db.deleteObject(obj2Id);
+		} catch (Exception e) {
+			// ignore it
+		}
+	}
+	
+	public void testObjectRevPager() throws ModelVersionDBException {
+		Map<String, Object> attrMap = new HashMap<String, Object>();
+		attrMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
+		attrMap.put(ATTR3, new Integer(1234));
+
+		ObjectRevPager pager = new ObjectRevPager(m_db);
+
+		// Null type id
+		try {
+			pager.getObjectRevs(null, attrMap, false, 10, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		// invalid page size
+		try {
+			pager.getObjectRevs(objType1Id, attrMap, false, 0, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		// invalid token
+		try {
+			pager.getObjectRevs(objType1Id, attrMap, false, 10, "not a token");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		// No object in base
+		RevisionPage page = pager.getObjectRevs(objType1Id, attrMap, false, 10, null);
+		assertNotNull(page);
+		assertTrue(page.getRevisions().isEmpty());
+		assertFalse(page.hasMore());
+		assertNull(page.getNextToken());
+
+		// 3 objects with several revisions
+		int obj1Rev1 = m_db.createObject(obj1Id, objType1Id, attrMap, false);
+		int obj1Rev2 = m_db.createNewObjectRevision(obj1Id, obj1Rev1);
+		int obj1Rev3 = m_db.createNewObjectRevision(obj1Id, obj1Rev2);
+		int obj2Rev1 = m_db.createObject(obj2Id, objType1Id, attrMap, false);
+		int obj2Rev2 = m_db.createNewObjectRevision(obj2Id, obj2Rev1);
+		m_db.setObjectValue(obj2Id, obj2Rev2, ATTR1, NEW_ATTR_VALUE);
+		int obj3Rev1 = m_db.createObject(obj3Id, objType1Id, attrMap, false);
+		m_db.createObject(obj4Id, objType2Id, attrMap, false);
+
+		for (int pageSize : new int[] { 1, 2, 3, 100 }) {
+			assertPagesMatch(pager, attrMap, false, pageSize);
+			assertPagesMatch(pager, attrMap, true, pageSize);
+		}
+
+		// one object scanned per page
+		ObjectRevPager onePerPage = new ObjectRevPager(m_db, 1);
+		for (int pageSize : new int[] { 1, 2, 100 }) {
+			assertPagesMatch(onePerPage, attrMap, false, pageSize);
+			assertPagesMatch(onePerPage, attrMap, true, pageSize);
+		}
+		page = onePerPage.getObjectRevs(objType1Id, attrMap, false, 100, null);
+		assertTrue(page.getRevisions().size() < 4);
+		assertTrue(page.hasMore());
+		try {
+			new ObjectRevPager(m_db, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		// exact page size
+		page = pager.getObjectRevs(objType1Id, attrMap, false, 5, null);
+		assertEquals(5, page.getRevisions().size());
+		if (page.hasMore()) {
+			page = pager.getObjectRevs(objType1Id, attrMap, false, 5, page.getNextToken());
+			assertTrue(page.getRevisions().isEmpty());
+			assertFalse(page.hasMore());
+		}
+
+		// revisions of each object are ordered
+		List<Revision> revs = new ArrayList<Revision>();
+		String token = null;
+		do {
+			page = pager.getObjectRevs(objType1Id, null, false, 2, token);
+			assertTrue(page.getRevisions().size() <= 2);
+			revs.addAll(page.getRevisions());
+			token = page.getNextToken();
+		} while (token != null);
+		assertEquals(6, revs.size());
+		for (int i = 1; i < revs.size(); i++) {
+			Revision prev = revs.get(i - 1);
+			Revision rev = revs.get(i);
+			if (prev.getId().equals(rev.getId()))
+				assertTrue(prev.getRev() < rev.getRev());
+		}
+		List<Revision> expectRevs = new ArrayList<Revision>();
+		expectRevs.add(new Revision(obj1Id, objType1Id, obj1Rev1));
+		expectRevs.add(new Revision(obj1Id, objType1Id, obj1Rev2));
+		expectRevs.add(new Revision(obj1Id, objType1Id, obj1Rev3));
+		expectRevs.add(new Revision(obj2Id, objType1Id, obj2Rev1));
+		expectRevs.add(new Revision(obj2Id, objType1Id, obj2Rev2));
+		expectRevs.add(new Revision(obj3Id, objType1Id, obj3Rev1));
+		assertRevListMatch(expectRevs, revs);
+
+		// object of next page deleted between two pages
+		page = pager.getObjectRevs(objType1Id, attrMap, false, 1, null);
+		Revision first = page.getRevisions().get(0);
+		revs = new ArrayList<Revision>(page.getRevisions());
+		UUID deletedId = obj1Id.equals(first.getId()) ? obj2Id : obj1Id;
+		m_db.deleteObject(deletedId);
+		token = page.getNextToken();
+		while (token != null) {
+			page = pager.getObjectRevs(objType1Id, attrMap, false, 1, token);
+			revs.addAll(page.getRevisions());
+			token = page.getNextToken();
+		}
+		assertRevListMatch(m_db.getObjectRevs(objType1Id, attrMap, false), revs);
+
+		// token object deleted between two pages
+		page = pager.getObjectRevs(objType1Id, attrMap, false, 1, null);
+		first = page.getRevisions().get(0);
+		m_db.deleteObject(first.getId());
+		revs = new ArrayList<Revision>();
+		token = page.getNextToken();
+		while (token != null) {
+			page = pager.getObjectRevs(objType1Id, attrMap, false, 1, token);
+			revs.addAll(page.getRevisions());
+			token = page.getNextToken();
+		}
+		assertRevListMatch(m_db.getObjectRevs(objType1Id, attrMap, false), revs);
+
+		// cleaning code
+		try {
+			if (m_db.objExists(obj1Id))
+				m_db.deleteObject(obj1Id);
+			if (m_db.objExists(obj2Id))
+				m_db.deleteObject(obj2Id);
+			if (m_db.objExists(obj3Id))
+				m_db.deleteObject(obj3Id);
+			m_db.deleteObject(obj4Id);
+		} catch (Exception e) {
+			// ignore it
+		}
+	}
+	
 	public void testGetObjectRevsWithAttrVal() throws ModelVersionDBException {
 		Map<String, Object> attrMap = new HashMap<String, Object>();
 		attrMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
@@ -1126,10 +2338,297 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		}
 	}
 	
-	public void testGetObjectState() throws ModelVersionDBException {
-		// null object id
+	public void testAttributeValueIndex() throws ModelVersionDBException, TransactionException {
+		Map<String, Object> attrMap = new HashMap<String, Object>();
+		attrMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
+		attrMap.put(ATTR2, null);
+		attrMap.put(ATTR3, new Integer(1234));
+		attrMap.put(ATTR4, new Long(1234567890L));
+		attrMap.put(ATTR5, new java.util.Date(System.currentTimeMillis()));
+		attrMap.put(ATTR6, new Ser("ser1"));
+		
+		AttributeValueIndex index = new AttributeValueIndex(m_db);
+		
+		// Null type id
+		try {
+			index.createIndex(null, ATTR1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		} 
+		
+		// Null attribute name
+		try {
+			index.createIndex(objType1Id, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		} 
+		
+		// index created on existing revisions
+		int obj1Rev1 = index.createObject(obj1Id, objType1Id, attrMap, false);
+		for (String attr : attrMap.keySet())
+			index.createIndex(objType1Id, attr);
+		assertTrue(index.hasIndex(objType1Id, ATTR1));
+		assertFalse(index.hasIndex(objType2Id, ATTR1));
+		
+		List<Revision> expectRevs = new ArrayList<Revision>();
+		expectRevs.add(new Revision(obj1Id, objType1Id, obj1Rev1));
+		assertEquals(expectRevs, index.getObjectRevs(objType1Id, ATTR1, attrMap.get(ATTR1), false));
+		assertIndexMatch(index, attrMap);
+		
+		// bad object type
+		List<Revision> revs = index.getObjectRevs(objType2Id, ATTR1, attrMap.get(ATTR1), false);
+		assertNotNull(revs);
+		assertTrue(revs.isEmpty());
+		
+		// 2 object revisions
+		int obj1Rev2 = index.createNewObjectRevision(obj1Id, obj1Rev1);
+		expectRevs.add(new Revision(obj1Id, objType1Id, obj1Rev2));
+		assertEquals(expectRevs, index.getObjectRevs(objType1Id, ATTR1, attrMap.get(ATTR1), false));
+		assertIndexMatch(index, attrMap);
+
+		// two objects
+		int obj2Rev1 = index.createObject(obj2Id, objType1Id, attrMap, false);
+		assertIndexMatch(index, attrMap);
+		
+		int obj2Rev2 = index.createNewObjectRevision(obj2Id, obj2Rev1);
+		assertIndexMatch(index, attrMap);
+		
+		// version specific attribute
+		index.setObjectValue(obj2Id, obj2Rev2, ATTR1, NEW_ATTR_VALUE);
+		expectRevs = new ArrayList<Revision>();
+		expectRevs.add(new Revision(obj1Id, objType1Id, obj1Rev1));
+		expectRevs.add(new Revision(obj1Id, objType1Id, obj1Rev2));
+		expectRevs.add(new Revision(obj2Id, objType1Id, obj2Rev1));
+		assertRevListMatch(expectRevs, index.getObjectRevs(objType1Id, ATTR1, attrMap.get(ATTR1), false));
+		assertIndexMatch(index, attrMap);
+		
+		expectRevs = new ArrayList<Revision>();
+		expectRevs.add(new Revision(obj2Id, objType1Id, obj2Rev2));
+		assertRevListMatch(expectRevs, index.getObjectRevs(objType1Id, ATTR1, NEW_ATTR_VALUE, false));
+
+		// not version specific attribute
+		m_db.setObjectAttVersionSpecific(objType1Id, ATTR3, false);
+		index.setObjectValue(obj2Id, obj2Rev1, ATTR3, new Integer(5555));
+		expectRevs = new ArrayList<Revision>();
+		expectRevs.add(new Revision(obj2Id, objType1Id, obj2Rev1));
+		expectRevs.add(new Revision(obj2Id, objType1Id, obj2Rev2));
+		assertRevListMatch(expectRevs, index.getObjectRevs(objType1Id, ATTR3, new Integer(5555), false));
+		assertIndexMatch(index, attrMap);
+
+		// state map
+		Map<String, Object> newStateMap = new HashMap<String, Object>();
+		newStateMap.put(ATTR6, new Ser("ser2"));
+		index.setObjectState(obj1Id, obj1Rev2, newStateMap);
+		expectRevs = new ArrayList<Revision>();
+		expectRevs.add(new Revision(obj1Id, objType1Id, obj1Rev2));
+		assertRevListMatch(expectRevs, index.getObjectRevs(objType1Id, ATTR6, new Ser("ser2"), false));
+		assertIndexMatch(index, attrMap);
+		
+		// unexisting attributes
+		revs = index.getObjectRevs(objType1Id, ATTR7, UUID.randomUUID(), false);
+		assertNotNull(revs);
+		assertTrue(revs.isEmpty());
+
+		// invalid type of attribute
+		try {
+			index.getObjectRevs(objType1Id, ATTR1, UUID.randomUUID(), false);
+			fail();
+		} catch (ModelVersionDBException e) {
+			// test passed
+		}
+		
+		// LAST only modifies the last revision of version specific attributes
+		int obj4Rev1 = index.createObject(obj4Id, objType1Id, attrMap, false);
+		int obj4Rev2 = index.createNewObjectRevision(obj4Id, obj4Rev1);
+		index.setObjectValue(obj4Id, ModelVersionDBService.LAST, ATTR1, VAL3);
+		expectRevs = m_db.getObjectRevs(objType1Id, ATTR1, VAL3, false);
+		assertEquals(m_db.isObjectAttVersionSpecific(objType1Id, ATTR1) ? 1 : 2, expectRevs.size());
+		assertRevListMatch(expectRevs, index.getObjectRevs(objType1Id, ATTR1, VAL3, false));
+		Map<String, Object> lastStateMap = new HashMap<String, Object>();
+		lastStateMap.put(ATTR1, VAL2);
+		index.setObjectState(obj4Id, ModelVersionDBService.LAST, lastStateMap);
+		assertRevListMatch(m_db.getObjectRevs(objType1Id, ATTR1, VAL2, false), 
+				index.getObjectRevs(objType1Id, ATTR1, VAL2, false));
+		assertRevListMatch(m_db.getObjectRevs(objType1Id, ATTR1, VAL3, false), 
+				index.getObjectRevs(objType1Id, ATTR1, VAL3, false));
+		assertTrue(index.hasValue(objType1Id, ATTR1, obj4Id, obj4Rev2, VAL2));
+		index.deleteObject(obj4Id);
+		
+		// check transaction support
+		// rollback transaction
+		index.beginTransaction();
+		index.setObjectValue(obj1Id, obj1Rev1, ATTR1, NEW_NEW_ATTR_VALUE);
+		index.createObject(obj3Id, objType1Id, attrMap, false);
+		index.rollbackTransaction();
+		
+		revs = index.getObjectRevs(objType1Id, ATTR1, NEW_NEW_ATTR_VALUE, false);
+		assertTrue(revs.isEmpty());
+		assertIndexMatch(index, attrMap);
+		
+		// commit transaction
+		index.beginTransaction();
+		index.setObjectValue(obj1Id, obj1Rev1, ATTR1, NEW_NEW_ATTR_VALUE);
+		index.commitTransaction();
+		
+		expectRevs = new ArrayList<Revision>();
+		expectRevs.add(new Revision(obj1Id, objType1Id, obj1Rev1));
+		assertRevListMatch(expectRevs, index.getObjectRevs(objType1Id, ATTR1, NEW_NEW_ATTR_VALUE, false));
+		
+		// deleted object
+		index.deleteObject(obj1Id);
+		assertTrue(index.getObjectRevs(objType1Id, ATTR1, NEW_NEW_ATTR_VALUE, false).isEmpty());
+		assertIndexMatch(index, attrMap);
+
+		// cleaning code
+		try {
+			m_db.deleteObject(obj2Id);
+		} catch (Exception e) {
+			// ignore it
+		}
+	}
+	
+	public void testGetObjectState() throws ModelVersionDBException {
+		// null object id
+		try {
+			m_db.getObjectState(null, 1);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		// invalid revision id
+		try {
+			m_db.createObject(obj1Id, objType1Id, null, false);
+			m_db.getObjectState(obj1Id, -120);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+			m_db.deleteObject(obj1Id);
+		}
+
+		// Object does not exist
+		try {
+			m_db.getObjectState(obj1Id, 1);
+			
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		// Object with empty state
+		int obj1Rev1 = m_db.createObject(obj1Id, objType1Id, null, false);
+
+		// revision does not exist
+		try {
+			m_db.getObjectState(obj1Id, obj1Rev1 + 1);
+			
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		Map<String, Object> stateMap = m_db.getObjectState(obj1Id, obj1Rev1);
+
+		Map<String, Object> expectMap = new HashMap<String, Object>();
+		assertEquals(expectMap, stateMap);
+		
+		// ALL and ANY forbidden
+		try {
+			m_db.getObjectState(obj1Id, ModelVersionDBService.ANY);
+			
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		try {
+			m_db.getObjectState(obj1Id, ModelVersionDBService.ALL);
+			
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		// Object with one attribute
+		Map<String, Object> obj2StateMap = new HashMap<String, Object>();
+		obj2StateMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
+		int obj2Rev1 = m_db.createObject(obj2Id, objType2Id, obj2StateMap, true);
+
+		stateMap = m_db.getObjectState(obj2Id, obj2Rev1);
+		expectMap = obj2StateMap;
+		assertEquals(expectMap, stateMap);
+		
+		stateMap = m_db.getObjectState(obj2Id, ModelVersionDBService.LAST);
+		expectMap = obj2StateMap;
+		assertEquals(expectMap, stateMap);
+
+		// Object with two attributes
+		Map<String, Object> obj3StateMap = new HashMap<String, Object>();
+		obj3StateMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
+		obj3StateMap.put(ATTR2, new Integer(34));
+		obj3StateMap.put(ATTR3, notExistObjId);
+		int obj3Rev1 = m_db.createObject(obj3Id, objType2Id, obj3StateMap,
+				false);
+
+		stateMap = m_db.getObjectState(obj3Id, obj3Rev1);
+
+		expectMap = obj3StateMap;
+		assertEquals(expectMap, stateMap);
+
+		// update values
+		obj3StateMap = new HashMap<String, Object>();
+		obj3StateMap.put(ATTR2, new Integer(1234567));
+		int obj3Rev2 = m_db.createNewObjectRevision(obj3Id, obj3Rev1);
+		m_db.setObjectState(obj3Id, obj3Rev2, obj3StateMap);
+
+		stateMap = m_db.getObjectState(obj3Id, obj3Rev1);
+		
+		expectMap = new HashMap<String, Object>();
+		expectMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
+		expectMap.put(ATTR2, new Integer(34));
+		expectMap.put(ATTR3, notExistObjId);
+		assertEquals(expectMap, stateMap);
+		
+		stateMap = m_db.getObjectState(obj3Id, obj3Rev2);
+
+		expectMap = new HashMap<String, Object>();
+		expectMap.put(ATTR1, "first_attribute_value");
+		expectMap.put(ATTR2, new Integer(1234567));
+		expectMap.put(ATTR3, notExistObjId);
+		assertEquals(expectMap, stateMap);
+		
+		stateMap = m_db.getObjectState(obj3Id, ModelVersionDBService.LAST);
+		assertEquals(expectMap, stateMap);
+
+		// cleaning code
+		try {
+			m_db.deleteObject(obj1Id);
+			m_db.deleteObject(obj2Id);
+			m_db.deleteObject(obj3Id);
+		} catch (Exception e) {
+			// ignore it
+		}
+	}
+	
+	public void testGetObjectStates() throws ModelVersionDBException {
+		// null revision collection
 		try {
-			m_db.getObjectState(null, 1);
+			BatchOperations.getObjectStates(m_db, null);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		// null revision
+		List<Revision> revs = new ArrayList<Revision>();
+		revs.add(null);
+		try {
+			BatchOperations.getObjectStates(m_db, revs);
 
 			fail();
 		} catch (IllegalArgumentException e) {
@@ -1139,7 +2638,9 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		// invalid revision id
 		try {
 			m_db.createObject(obj1Id, objType1Id, null, false);
-			m_db.getObjectState(obj1Id, -120);
+			revs = new ArrayList<Revision>();
+			revs.add(new Revision(obj1Id, objType1Id, -120));
+			BatchOperations.getObjectStates(m_db, revs);
 
 			fail();
 		} catch (IllegalArgumentException e) {
@@ -1149,8 +2650,10 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 
 		// Object does not exist
 		try {
-			m_db.getObjectState(obj1Id, 1);
-			
+			revs = new ArrayList<Revision>();
+			revs.add(new Revision(obj1Id, objType1Id, 1));
+			BatchOperations.getObjectStates(m_db, revs);
+
 			fail();
 		} catch (IllegalArgumentException e) {
 			// PASSED
@@ -1161,30 +2664,31 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 
 		// revision does not exist
 		try {
-			m_db.getObjectState(obj1Id, obj1Rev1 + 1);
-			
+			revs = new ArrayList<Revision>();
+			revs.add(new Revision(obj1Id, objType1Id, obj1Rev1 + 1));
+			BatchOperations.getObjectStates(m_db, revs);
+
 			fail();
 		} catch (IllegalArgumentException e) {
 			// PASSED
 		}
 
-		Map<String, Object> stateMap = m_db.getObjectState(obj1Id, obj1Rev1);
-
-		Map<String, Object> expectMap = new HashMap<String, Object>();
-		assertEquals(expectMap, stateMap);
-		
 		// ALL and ANY forbidden
 		try {
-			m_db.getObjectState(obj1Id, ModelVersionDBService.ANY);
-			
+			revs = new ArrayList<Revision>();
+			revs.add(new Revision(obj1Id, objType1Id, ModelVersionDBService.ANY));
+			BatchOperations.getObjectStates(m_db, revs);
+
 			fail();
 		} catch (IllegalArgumentException e) {
 			// PASSED
 		}
 
 		try {
-			m_db.getObjectState(obj1Id, ModelVersionDBService.ALL);
-			
+			revs = new ArrayList<Revision>();
+			revs.add(new Revision(obj1Id, objType1Id, ModelVersionDBService.ALL));
+			BatchOperations.getObjectStates(m_db, revs);
+
 			fail();
 		} catch (IllegalArgumentException e) {
 			// PASSED
@@ -1195,51 +2699,47 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		obj2StateMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
 		int obj2Rev1 = m_db.createObject(obj2Id, objType2Id, obj2StateMap, true);
 
-		stateMap = m_db.getObjectState(obj2Id, obj2Rev1);
-		expectMap = obj2StateMap;
-		assertEquals(expectMap, stateMap);
-		
-		stateMap = m_db.getObjectState(obj2Id, ModelVersionDBService.LAST);
-		expectMap = obj2StateMap;
-		assertEquals(expectMap, stateMap);
-
-		// Object with two attributes
+		// Object with two revisions
 		Map<String, Object> obj3StateMap = new HashMap<String, Object>();
 		obj3StateMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
 		obj3StateMap.put(ATTR2, new Integer(34));
 		obj3StateMap.put(ATTR3, notExistObjId);
 		int obj3Rev1 = m_db.createObject(obj3Id, objType2Id, obj3StateMap,
 				false);
-
-		stateMap = m_db.getObjectState(obj3Id, obj3Rev1);
-
-		expectMap = obj3StateMap;
-		assertEquals(expectMap, stateMap);
-
-		// update values
-		obj3StateMap = new HashMap<String, Object>();
-		obj3StateMap.put(ATTR2, new Integer(1234567));
 		int obj3Rev2 = m_db.createNewObjectRevision(obj3Id, obj3Rev1);
-		m_db.setObjectState(obj3Id, obj3Rev2, obj3StateMap);
+		Map<String, Object> obj3NewStateMap = new HashMap<String, Object>();
+		obj3NewStateMap.put(ATTR2, new Integer(1234567));
+		m_db.setObjectState(obj3Id, obj3Rev2, obj3NewStateMap);
+
+		Revision obj1Rev = new Revision(obj1Id, objType1Id, obj1Rev1);
+		Revision obj2Rev = new Revision(obj2Id, objType2Id, obj2Rev1);
+		Revision obj2LastRev = new Revision(obj2Id, objType2Id, ModelVersionDBService.LAST);
+		Revision obj3Rev = new Revision(obj3Id, objType2Id, obj3Rev1);
+		Revision obj3LastRev = new Revision(obj3Id, objType2Id, ModelVersionDBService.LAST);
+		revs = new ArrayList<Revision>();
+		revs.add(obj1Rev);
+		revs.add(obj2Rev);
+		revs.add(obj2LastRev);
+		revs.add(obj3Rev);
+		revs.add(obj3LastRev);
+		Map<Revision, Map<String, Object>> states = BatchOperations.getObjectStates(m_db, revs);
+		assertEquals(revs.size(), states.size());
+		assertEquals(revs, new ArrayList<Revision>(states.keySet()));
+
+		assertEquals(new HashMap<String, Object>(), states.get(obj1Rev));
+		assertEquals(obj2StateMap, states.get(obj2Rev));
+		assertEquals(obj2StateMap, states.get(obj2LastRev));
+		assertEquals(obj3StateMap, states.get(obj3Rev));
 
-		stateMap = m_db.getObjectState(obj3Id, obj3Rev1);
-		
-		expectMap = new HashMap<String, Object>();
+		Map<String, Object> expectMap = new HashMap<String, Object>();
 		expectMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
-		expectMap.put(ATTR2, new Integer(34));
-		expectMap.put(ATTR3, notExistObjId);
-		assertEquals(expectMap, stateMap);
-		
-		stateMap = m_db.getObjectState(obj3Id, obj3Rev2);
-
-		expectMap = new HashMap<String, Object>();
-		expectMap.put(ATTR1, "first_attribute_value");
 		expectMap.put(ATTR2, new Integer(1234567));
 		expectMap.put(ATTR3, notExistObjId);
-		assertEquals(expectMap, stateMap);
-		
-		stateMap = m_db.getObjectState(obj3Id, ModelVersionDBService.LAST);
-		assertEquals(expectMap, stateMap);
+		assertEquals(expectMap, states.get(obj3LastRev));
+
+		// same results as getObjectState
+		for (Revision rev : revs)
+			assertEquals(m_db.getObjectState(rev.getId(), rev.getRev()), states.get(rev));
 
 		// cleaning code
 		try {
@@ -1251,6 +2751,119 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		}
 	}
 	
+	public void testRevisionCache() throws ModelVersionDBException, TransactionException {
+		// invalid cache size
+		try {
+			new RevisionCache(m_db, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		RevisionCache cache = new RevisionCache(m_db, 3);
+		
+		// null object id
+		try {
+			cache.getObjectState(null, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// Object does not exist
+		try {
+			cache.getObjectState(obj1Id, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		Map<String, Object> obj1StateMap = new HashMap<String, Object>();
+		obj1StateMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
+		obj1StateMap.put(ATTR2, new Integer(34));
+		int obj1Rev1 = m_db.createObject(obj1Id, objType1Id, obj1StateMap, false);
+		int obj1Rev2 = m_db.createNewObjectRevision(obj1Id, obj1Rev1);
+		
+		// read through
+		assertEquals(obj1StateMap, cache.getObjectState(obj1Id, obj1Rev1));
+		assertEquals(0, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(obj1StateMap, cache.getObjectState(obj1Id, obj1Rev1));
+		assertEquals(FIRST_ATTRIBUTE_VALUE, cache.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(obj1StateMap, cache.getObjectState(obj1Id, ModelVersionDBService.LAST));
+		
+		// immutable states
+		try {
+			cache.getObjectState(obj1Id, obj1Rev1).put(ATTR3, VAL1);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// PASSED
+		}
+		
+		// invalidation
+		cache.getObjectState(obj1Id, obj1Rev2);
+		cache.setObjectValue(obj1Id, obj1Rev2, ATTR1, NEW_ATTR_VALUE);
+		assertEquals(NEW_ATTR_VALUE, cache.getObjectValue(obj1Id, obj1Rev2, ATTR1));
+		assertEquals(FIRST_ATTRIBUTE_VALUE, cache.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+		
+		Map<String, Object> newStateMap = new HashMap<String, Object>();
+		newStateMap.put(ATTR2, new Integer(1234567));
+		cache.setObjectState(obj1Id, obj1Rev2, newStateMap);
+		assertEquals(m_db.getObjectState(obj1Id, obj1Rev2), cache.getObjectState(obj1Id, obj1Rev2));
+		assertEquals(new Integer(1234567), cache.getObjectValue(obj1Id, obj1Rev2, ATTR2));
+		
+		cache.setObjectAttVersionSpecific(objType1Id, ATTR1, false);
+		assertEquals(m_db.getObjectState(obj1Id, obj1Rev1), cache.getObjectState(obj1Id, obj1Rev1));
+		
+		// eviction
+		int obj2Rev1 = m_db.createObject(obj2Id, objType1Id, obj1StateMap, false);
+		int obj3Rev1 = m_db.createObject(obj3Id, objType1Id, obj1StateMap, false);
+		cache.getObjectState(obj1Id, obj1Rev1);
+		cache.getObjectState(obj1Id, obj1Rev2);
+		cache.getObjectState(obj2Id, obj2Rev1);
+		cache.getObjectState(obj3Id, obj3Rev1);
+		assertEquals(3, cache.size());
+		
+		// check transaction support
+		// rollback transaction
+		cache.resetStatistics();
+		cache.getObjectState(obj2Id, obj2Rev1);
+		cache.beginTransaction();
+		cache.setObjectValue(obj2Id, obj2Rev1, ATTR1, NEW_NEW_ATTR_VALUE);
+		assertEquals(NEW_NEW_ATTR_VALUE, cache.getObjectValue(obj2Id, obj2Rev1, ATTR1));
+		assertEquals(NEW_NEW_ATTR_VALUE, cache.getObjectValue(obj2Id, obj2Rev1, ATTR1));
+		assertEquals(2, cache.getMissCount());
+		cache.rollbackTransaction();
+		
+		assertEquals(FIRST_ATTRIBUTE_VALUE, cache.getObjectValue(obj2Id, obj2Rev1, ATTR1));
+		assertEquals(FIRST_ATTRIBUTE_VALUE, cache.getObjectValue(obj2Id, obj2Rev1, ATTR1));
+		assertEquals(2, cache.getHitCount());
+		assertEquals(3, cache.getMissCount());
+		
+		// commit transaction
+		cache.beginTransaction();
+		cache.setObjectValue(obj2Id, obj2Rev1, ATTR1, NEW_NEW_ATTR_VALUE);
+		cache.commitTransaction();
+		
+		assertEquals(NEW_NEW_ATTR_VALUE, cache.getObjectValue(obj2Id, obj2Rev1, ATTR1));
+		
+		// deleted object
+		cache.deleteObject(obj1Id);
+		try {
+			cache.getObjectState(obj1Id, obj1Rev1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// clear
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertFalse(m_db.objExists(obj2Id));
+	}
+	
 	public void testSetObjectState() throws ModelVersionDBException, TransactionException {
 		Map<String, Object> obj1StateMap = new HashMap<String, Object>();
 		obj1StateMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
@@ -1933,6 +3546,346 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		}
 	}
 	
+	public void testWriteBuffer() throws Exception {
+		Map<String, Integer> calls = new HashMap<String, Integer>();
+		WriteBuffer buffer = new WriteBuffer(newCountingService(m_db, calls));
+		int obj1Rev1 = m_db.createObject(obj1Id, objType1Id, null, false);
+		m_db.setObjectValue(obj1Id, obj1Rev1, ATTR1, FIRST_ATTRIBUTE_VALUE);
+		
+		// out of a transaction, values are written immediately
+		assertFalse(buffer.hasTransaction());
+		buffer.setObjectValue(obj1Id, obj1Rev1, ATTR2, VAL1);
+		assertEquals(VAL1, m_db.getObjectValue(obj1Id, obj1Rev1, ATTR2));
+		assertEquals(0, buffer.getPendingCount());
+		
+		// errors
+		buffer.beginTransaction();
+		try {
+			buffer.setObjectValue(null, obj1Rev1, ATTR1, VAL1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			buffer.setObjectValue(notExistObjId, 1, ATTR1, VAL1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			buffer.setObjectValue(obj1Id, obj1Rev1 + 1, ATTR1, VAL1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// repeated writes are coalesced
+		calls.clear();
+		for (int i = 0; i < 100; i++) {
+			buffer.setObjectValue(obj1Id, obj1Rev1, ATTR1, "value" + i);
+			buffer.setObjectValue(obj1Id, obj1Rev1, ATTR3, new Integer(i));
+		}
+		assertEquals(200, buffer.getWriteCount());
+		assertEquals(198, buffer.getCoalescedCount());
+		assertEquals(2, buffer.getPendingCount());
+		assertNull(calls.get("setObjectValue"));
+		
+		// read your writes
+		assertEquals("value99", buffer.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+		assertEquals(FIRST_ATTRIBUTE_VALUE, m_db.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+		Map<String, Object> state = buffer.getObjectState(obj1Id, obj1Rev1);
+		assertEquals("value99", state.get(ATTR1));
+		assertEquals(new Integer(99), state.get(ATTR3));
+		assertEquals(VAL1, state.get(ATTR2));
+		
+		// commit flushes one call per revision
+		calls.clear();
+		buffer.commitTransaction();
+		assertFalse(buffer.hasTransaction());
+		assertEquals(0, buffer.getPendingCount());
+		assertEquals(new Integer(1), calls.get("setObjectState"));
+		assertNull(calls.get("setObjectValue"));
+		assertEquals(1, buffer.getFlushCallCount());
+		assertEquals("value99", m_db.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+		assertEquals(new Integer(99), m_db.getObjectValue(obj1Id, obj1Rev1, ATTR3));
+		assertEquals(VAL1, m_db.getObjectValue(obj1Id, obj1Rev1, ATTR2));
+		
+		// rollback discards buffered values
+		buffer.beginTransaction();
+		buffer.setObjectValue(obj1Id, obj1Rev1, ATTR1, NEW_ATTR_VALUE);
+		assertEquals(NEW_ATTR_VALUE, buffer.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+		buffer.rollbackTransaction();
+		assertEquals(0, buffer.getPendingCount());
+		assertEquals("value99", buffer.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+		assertEquals("value99", m_db.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+		
+		// new revisions copy the buffered values
+		buffer.beginTransaction();
+		buffer.setObjectValue(obj1Id, obj1Rev1, ATTR1, NEW_ATTR_VALUE);
+		int obj1Rev2 = buffer.createNewObjectRevision(obj1Id, obj1Rev1);
+		assertEquals(0, buffer.getPendingCount());
+		assertEquals(NEW_ATTR_VALUE, buffer.getObjectValue(obj1Id, obj1Rev2, ATTR1));
+		
+		// attributes shared by all revisions
+		buffer.setObjectAttVersionSpecific(objType1Id, ATTR2, false);
+		buffer.setObjectValue(obj1Id, obj1Rev2, ATTR2, VAL2);
+		buffer.setObjectValue(obj1Id, obj1Rev1, ATTR2, VAL3);
+		buffer.setObjectValue(obj1Id, obj1Rev2, ATTR2, VAL1);
+		assertEquals(VAL1, buffer.getObjectValue(obj1Id, obj1Rev1, ATTR2));
+		assertEquals(VAL1, buffer.getObjectValue(obj1Id, obj1Rev2, ATTR2));
+		assertEquals(VAL1, buffer.getObjectState(obj1Id, obj1Rev1).get(ATTR2));
+		
+		// version specific attributes
+		buffer.setObjectValue(obj1Id, obj1Rev2, ATTR1, VAL2);
+		assertEquals(VAL2, buffer.getObjectValue(obj1Id, obj1Rev2, ATTR1));
+		assertEquals(NEW_ATTR_VALUE, buffer.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+		buffer.commitTransaction();
+		assertEquals(VAL2, m_db.getObjectValue(obj1Id, obj1Rev2, ATTR1));
+		assertEquals(NEW_ATTR_VALUE, m_db.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+		assertEquals(VAL1, m_db.getObjectValue(obj1Id, obj1Rev1, ATTR2));
+		
+		// invalid values are reported on commit
+		buffer.beginTransaction();
+		buffer.setObjectValue(obj1Id, obj1Rev1, ATTR1, new Integer(1234));
+		try {
+			buffer.commitTransaction();
+			fail();
+		} catch (ModelVersionDBException e) {
+			// PASSED
+		}
+		assertTrue(buffer.hasTransaction());
+		buffer.rollbackTransaction();
+		assertEquals(NEW_ATTR_VALUE, m_db.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+		
+		// deleted objects
+		buffer.beginTransaction();
+		buffer.setObjectValue(obj1Id, obj1Rev1, ATTR1, VAL3);
+		buffer.deleteObject(obj1Id);
+		assertEquals(0, buffer.getPendingCount());
+		buffer.commitTransaction();
+		assertFalse(m_db.objExists(obj1Id));
+		
+		// cleaning code
+		try {
+			if (m_db.objExists(obj1Id))
+				m_db.deleteObject(obj1Id);
+		} catch (Exception e) {
+			// ignore it
+		}
+	}
+	
+	public void testOptimisticUpdater() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		Connection conn1 = DriverManager.getConnection(getHSQLServerURL("StampDB", 9007), "sa", "");
+		Connection conn2 = DriverManager.getConnection(getHSQLServerURL("StampDB", 9007), "sa", "");
+		Connection conn3 = DriverManager.getConnection(getHSQLServerURL("StampDB", 9007), "sa", "");
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			// invalid parameters
+			try {
+				new OptimisticUpdater(null, conn1);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// PASSED
+			}
+			OptimisticUpdater client1 = new OptimisticUpdater(m_db, conn1);
+			final OptimisticUpdater client2 = new OptimisticUpdater(m_db, conn2);
+			client1.clear();
+			try {
+				client1.getStamp(null, 1);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// PASSED
+			}
+			try {
+				client1.getStamp(obj1Id, ModelVersionDBService.LAST);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// PASSED
+			}
+			
+			int obj1Rev1 = m_db.createObject(obj1Id, objType1Id, null, false);
+			m_db.setObjectValue(obj1Id, obj1Rev1, ATTR1, VAL1);
+			assertEquals(OptimisticUpdater.NO_STAMP, client1.getStamp(obj1Id, obj1Rev1));
+			
+			// the revision has not been updated since it was read
+			StampedState state1 = client1.getObjectState(obj1Id, obj1Rev1);
+			assertEquals(VAL1, state1.getState().get(ATTR1));
+			long stamp = client1.setObjectValue(obj1Id, obj1Rev1, ATTR2, VAL2, state1.getStamp());
+			assertEquals(state1.getStamp() + 1, stamp);
+			assertEquals(stamp, client2.getStamp(obj1Id, obj1Rev1));
+			assertEquals(VAL2, m_db.getObjectValue(obj1Id, obj1Rev1, ATTR2));
+			
+			// both clients read the same stamp, the second update fails
+			state1 = client1.getObjectState(obj1Id, obj1Rev1);
+			StampedState state2 = client2.getObjectState(obj1Id, obj1Rev1);
+			assertEquals(state1.getStamp(), state2.getStamp());
+			client1.setObjectValue(obj1Id, obj1Rev1, ATTR1, VAL2, state1.getStamp());
+			try {
+				client2.setObjectValue(obj1Id, obj1Rev1, ATTR1, VAL3, state2.getStamp());
+				fail();
+			} catch (ConcurrentUpdateException e) {
+				assertEquals(obj1Id, e.getObjectId());
+				assertEquals(obj1Rev1, e.getRevision());
+				assertEquals(state2.getStamp(), e.getExpectedStamp());
+				assertEquals(state2.getStamp() + 1, e.getActualStamp());
+			}
+			assertEquals(VAL2, m_db.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+			assertEquals(1, client2.getConflictCount());
+			
+			// retry with the new stamp
+			state2 = client2.getObjectState(obj1Id, obj1Rev1);
+			assertEquals(VAL2, state2.getState().get(ATTR1));
+			client2.setObjectValue(obj1Id, obj1Rev1, ATTR1, VAL3, state2.getStamp());
+			assertEquals(VAL3, m_db.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+			
+			// first update of a revision expects no stamp
+			int obj1Rev2 = m_db.createNewObjectRevision(obj1Id, obj1Rev1);
+			assertEquals(OptimisticUpdater.NO_STAMP, client1.getStamp(obj1Id, obj1Rev2));
+			assertEquals(1, client2.setObjectValue(obj1Id, obj1Rev2, ATTR3, VAL1, OptimisticUpdater.NO_STAMP));
+			try {
+				client1.setObjectValue(obj1Id, obj1Rev2, ATTR3, VAL2, OptimisticUpdater.NO_STAMP);
+				fail();
+			} catch (ConcurrentUpdateException e) {
+				assertEquals(1, e.getActualStamp());
+			}
+			assertEquals(VAL1, m_db.getObjectValue(obj1Id, obj1Rev2, ATTR3));
+			
+			// unchecked updates still change the stamp
+			long rev2Stamp = client1.getStamp(obj1Id, obj1Rev2);
+			assertEquals(rev2Stamp + 1, client1.setObjectValue(obj1Id, obj1Rev2, ATTR3, VAL2, OptimisticUpdater.ANY_STAMP));
+			try {
+				client2.setObjectValue(obj1Id, obj1Rev2, ATTR3, VAL3, rev2Stamp);
+				fail();
+			} catch (ConcurrentUpdateException e) {
+				// PASSED
+			}
+			
+			// a failed write does not change the stamp
+			stamp = client1.getStamp(obj1Id, obj1Rev1);
+			try {
+				client1.setObjectValue(obj1Id, obj1Rev1, ATTR1, new Long(1), stamp);
+				fail();
+			} catch (ConcurrentUpdateException e) {
+				fail();
+			} catch (ModelVersionDBException e) {
+				// PASSED
+			}
+			assertEquals(stamp, client2.getStamp(obj1Id, obj1Rev1));
+			try {
+				client1.setObjectValue(notExistObjId, 1, ATTR1, VAL1, OptimisticUpdater.NO_STAMP);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// PASSED
+			}
+			assertEquals(OptimisticUpdater.NO_STAMP, client2.getStamp(notExistObjId, 1));
+			
+			// attributes which are not version specific are shared by all revisions
+			m_db.setObjectAttVersionSpecific(objType1Id, ATTR5, false);
+			long rev1Stamp = client1.getStamp(obj1Id, obj1Rev1);
+			client2.setObjectValue(obj1Id, obj1Rev2, ATTR5, VAL1, client2.getStamp(obj1Id, obj1Rev2));
+			assertEquals(rev1Stamp + 1, client1.getStamp(obj1Id, obj1Rev1));
+			try {
+				client1.setObjectValue(obj1Id, obj1Rev1, ATTR5, VAL2, rev1Stamp);
+				fail();
+			} catch (ConcurrentUpdateException e) {
+				// PASSED
+			}
+			rev1Stamp = client1.getStamp(obj1Id, obj1Rev1);
+			client2.setObjectValue(obj1Id, obj1Rev2, ATTR3, VAL3, client2.getStamp(obj1Id, obj1Rev2));
+			assertEquals(rev1Stamp, client1.getStamp(obj1Id, obj1Rev1));
+			
+			/*
+			 * a client reading the revision while another one writes it
+			 * waits for the update
+			 */
+			final CountDownLatch writing = new CountDownLatch(1);
+			ModelVersionDBService blockingDB = (ModelVersionDBService) Proxy.newProxyInstance(
+					ModelVersionDBService.class.getClassLoader(), new Class<?>[] { ModelVersionDBService.class }, 
+					new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("setObjectState")) {
+						writing.countDown();
+						release.await();
+					}
+					try {
+						return method.invoke(m_db, args);
+					} catch (InvocationTargetException e) {
+						throw e.getTargetException();
+					}
+				}
+			});
+			final OptimisticUpdater writer = new OptimisticUpdater(blockingDB, conn3);
+			final int rev1 = obj1Rev1;
+			final StampedState read1 = client1.getObjectState(obj1Id, rev1);
+			Future<Long> update = executor.submit(new Callable<Long>() {
+				public Long call() throws Exception {
+					return writer.setObjectValue(obj1Id, rev1, ATTR1, VAL1, read1.getStamp());
+				}
+			});
+			writing.await();
+			Future<StampedState> read2 = executor.submit(new Callable<StampedState>() {
+				public StampedState call() throws Exception {
+					return client2.getObjectState(obj1Id, rev1);
+				}
+			});
+			while (!OptimisticUpdater.getObjectLocks().getLock(obj1Id).hasQueuedThreads())
+				Thread.sleep(10);
+			assertFalse(read2.isDone());
+			release.countDown();
+			long newStamp = update.get();
+			assertEquals(read1.getStamp() + 1, newStamp);
+			assertEquals(VAL1, read2.get().getState().get(ATTR1));
+			assertEquals(newStamp, read2.get().getStamp());
+			
+			// the stamp read before the update is rejected
+			try {
+				client1.setObjectValue(obj1Id, rev1, ATTR1, VAL2, read1.getStamp());
+				fail();
+			} catch (ConcurrentUpdateException e) {
+				assertEquals(newStamp, e.getActualStamp());
+			}
+			assertEquals(VAL1, m_db.getObjectValue(obj1Id, rev1, ATTR1));
+			
+			// clients reading the same revision do not wait for each other
+			final CountDownLatch readRelease = new CountDownLatch(1);
+			final OptimisticUpdater blockedReader = new OptimisticUpdater(
+					newBlockingService(m_db, "getObjectState", obj1Id, readRelease), conn3);
+			Future<StampedState> blockedRead = executor.submit(new Callable<StampedState>() {
+				public StampedState call() throws Exception {
+					return blockedReader.getObjectState(obj1Id, rev1);
+				}
+			});
+			try {
+				while (OptimisticUpdater.getObjectLocks().getLock(obj1Id).getReadLockCount() == 0)
+					Thread.sleep(10);
+				assertEquals(newStamp, client2.getObjectState(obj1Id, rev1).getStamp());
+				assertFalse(blockedRead.isDone());
+			} finally {
+				readRelease.countDown();
+			}
+			assertEquals(newStamp, blockedRead.get().getStamp());
+			blockedReader.close();
+			
+			// stamps of deleted objects
+			m_db.deleteObject(obj1Id);
+			client1.deleteStamps(obj1Id);
+			assertEquals(OptimisticUpdater.NO_STAMP, client2.getStamp(obj1Id, obj1Rev1));
+			
+			client1.close();
+			client2.close();
+			writer.close();
+		} finally {
+			// cleaning code
+			release.countDown();
+			executor.shutdown();
+			conn1.close();
+			conn2.close();
+			conn3.close();
+		}
+	}
+	
 	public void testGetObjectType() throws ModelVersionDBException {
 		// Null object id
 		try {
@@ -2042,31 +3995,138 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		int obj2Rev1 = m_db
 				.createObject(obj2Id, objType2Id, obj2StateMap, true);
 
-		stateMap = m_db.getObjectState(obj2Id, obj2Rev1);
-		assertEquals(obj2StateMap, stateMap);
+		stateMap = m_db.getObjectState(obj2Id, obj2Rev1);
+		assertEquals(obj2StateMap, stateMap);
+		assertEquals(objType2Id, m_db.getObjectType(obj2Id));
+		assertTrue(m_db.isType(obj2Id));
+		
+		// check transaction support
+		// rollback transaction
+		m_db.beginTransaction();
+		m_db.createObject(obj3Id, objType2Id, null, false);
+		m_db.rollbackTransaction();
+		
+		assertFalse(m_db.objExists(obj3Id));
+		
+		// commit transaction
+		m_db.beginTransaction();
+		m_db.createObject(obj3Id, objType2Id, null, false);
+		m_db.commitTransaction();
+		
+		assertTrue(m_db.objExists(obj3Id));
+
+		// cleaning code
+		try {
+			m_db.deleteObject(obj1Id);
+			m_db.deleteObject(obj2Id);
+			m_db.deleteObject(obj3Id);
+		} catch (Exception e) {
+			// ignore it
+		}
+	}
+	
+	public void testCreateObjects() throws ModelVersionDBException, TransactionException {
+		// Null object list
+		try {
+			BatchOperations.createObjects(m_db, null);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		// Empty object list
+		int[] revs = BatchOperations.createObjects(m_db, new ArrayList<ObjectCreation>());
+		assertEquals(0, revs.length);
+
+		// same semantics as createObject
+		Map<String, Object> obj2StateMap = new HashMap<String, Object>();
+		obj2StateMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
+		obj2StateMap.put(ATTR2, null);
+		obj2StateMap.put(ATTR3, new Integer(1234));
+		obj2StateMap.put(ATTR4, new Long(1234567890L));
+		obj2StateMap.put(ATTR5, new java.util.Date(System.currentTimeMillis()));
+		obj2StateMap.put(ATTR6, new Ser("ser1"));
+
+		List<ObjectCreation> objects = new ArrayList<ObjectCreation>();
+		objects.add(new ObjectCreation(obj1Id, objType1Id, null, false));
+		objects.add(new ObjectCreation(obj2Id, objType2Id, obj2StateMap, true));
+		objects.add(new ObjectCreation(obj3Id, objType1Id, new HashMap<String, Object>(), false));
+		revs = BatchOperations.createObjects(m_db, objects);
+		assertEquals(3, revs.length);
+		assertFalse(m_db.hasTransaction());
+
+		assertEquals(revs[0], m_db.getLastObjectRevNb(obj1Id));
+		assertTrue(m_db.getObjectState(obj1Id, revs[0]).isEmpty());
+		assertEquals(objType1Id, m_db.getObjectType(obj1Id));
+		assertFalse(m_db.isType(obj1Id));
+
+		assertEquals(revs[1], m_db.getLastObjectRevNb(obj2Id));
+		assertEquals(obj2StateMap, m_db.getObjectState(obj2Id, revs[1]));
 		assertEquals(objType2Id, m_db.getObjectType(obj2Id));
 		assertTrue(m_db.isType(obj2Id));
-		
+
+		assertEquals(revs[2], m_db.getLastObjectRevNb(obj3Id));
+		assertTrue(m_db.getObjectState(obj3Id, revs[2]).isEmpty());
+		assertEquals(objType1Id, m_db.getObjectType(obj3Id));
+
+		m_db.deleteObject(obj1Id);
+		m_db.deleteObject(obj2Id);
+		m_db.deleteObject(obj3Id);
+
+		// one invalid creation cancels the whole batch
+		objects = new ArrayList<ObjectCreation>();
+		objects.add(new ObjectCreation(obj1Id, objType1Id, null, false));
+		objects.add(new ObjectCreation(null, objType1Id, null, false));
+		try {
+			BatchOperations.createObjects(m_db, objects);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		assertFalse(m_db.hasTransaction());
+		assertFalse(m_db.objExists(obj1Id));
+
+		// null creations are rejected before any creation
+		objects = new ArrayList<ObjectCreation>();
+		objects.add(new ObjectCreation(obj1Id, objType1Id, null, false));
+		objects.add(null);
+		try {
+			BatchOperations.createObjects(m_db, objects);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		assertFalse(m_db.hasTransaction());
+		assertFalse(m_db.objExists(obj1Id));
+
 		// check transaction support
 		// rollback transaction
+		objects = new ArrayList<ObjectCreation>();
+		objects.add(new ObjectCreation(obj1Id, objType1Id, null, false));
+		objects.add(new ObjectCreation(obj2Id, objType1Id, null, false));
 		m_db.beginTransaction();
-		m_db.createObject(obj3Id, objType2Id, null, false);
+		BatchOperations.createObjects(m_db, objects);
+		assertTrue(m_db.hasTransaction());
 		m_db.rollbackTransaction();
-		
-		assertFalse(m_db.objExists(obj3Id));
-		
+
+		assertFalse(m_db.objExists(obj1Id));
+		assertFalse(m_db.objExists(obj2Id));
+
 		// commit transaction
 		m_db.beginTransaction();
-		m_db.createObject(obj3Id, objType2Id, null, false);
+		BatchOperations.createObjects(m_db, objects);
 		m_db.commitTransaction();
-		
-		assertTrue(m_db.objExists(obj3Id));
+
+		assertTrue(m_db.objExists(obj1Id));
+		assertTrue(m_db.objExists(obj2Id));
 
 		// cleaning code
 		try {
 			m_db.deleteObject(obj1Id);
 			m_db.deleteObject(obj2Id);
-			m_db.deleteObject(obj3Id);
 		} catch (Exception e) {
 			// ignore it
 		}
@@ -2211,6 +4271,193 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		}
 	}
 	
+	public void testTypeMetadataCache() throws Exception {
+		Map<String, Integer> calls = new HashMap<String, Integer>();
+		ModelVersionDBService countingDb = newCountingService(m_db, calls);
+		TypeMetadataCache metadata = new TypeMetadataCache(countingDb);
+		
+		// null ids
+		try {
+			metadata.isType(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			metadata.isObjectAttVersionSpecific(objType1Id, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// objects created through the cache are known without query
+		metadata.createObject(obj3Id, objType2Id, null, true);
+		int obj1Rev1 = metadata.createObject(obj1Id, objType1Id, null, false);
+		calls.clear();
+		metadata.resetStatistics();
+		assertTrue(metadata.isType(obj3Id));
+		assertFalse(metadata.isType(obj1Id));
+		assertEquals(objType1Id, metadata.getObjectType(obj1Id));
+		assertEquals(0, metadata.getQueryCount());
+		assertTrue(calls.isEmpty());
+		
+		// objects created directly are loaded once
+		int obj2Rev1 = m_db.createObject(obj2Id, objType1Id, null, false);
+		assertEquals(objType1Id, metadata.getObjectType(obj2Id));
+		assertEquals(objType1Id, metadata.getObjectType(obj2Id));
+		assertEquals(m_db.isType(obj2Id), metadata.isType(obj2Id));
+		assertEquals(m_db.isType(obj2Id), metadata.isType(obj2Id));
+		assertEquals(2, metadata.getQueryCount());
+		assertEquals(new Integer(1), calls.get("getObjectType"));
+		assertEquals(new Integer(1), calls.get("isType"));
+		
+		// version specific attributes
+		assertTrue(metadata.isObjectAttVersionSpecific(objType1Id, ATTR1));
+		metadata.setObjectAttVersionSpecific(objType1Id, ATTR1, false);
+		calls.clear();
+		assertFalse(metadata.isObjectAttVersionSpecific(objType1Id, ATTR1));
+		assertFalse(m_db.isObjectAttVersionSpecific(objType1Id, ATTR1));
+		metadata.setObjectAttVersionSpecific(objType1Id, ATTR1, true);
+		assertTrue(metadata.isObjectAttVersionSpecific(objType1Id, ATTR1));
+		assertNull(calls.get("isObjectAttVersionSpecific"));
+		
+		// link types and link flags
+		Revision linkRev = metadata.addLink(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1, null);
+		assertEquals(linkType1Id, metadata.getLinkType(linkRev.getId()));
+		assertNull(calls.get("getLinkType"));
+		assertNull(metadata.isLinkSrcVersionSpecific(linkType1Id));
+		metadata.setLinkSrcVersionSpecific(linkType1Id, true);
+		metadata.setLinkDestVersionSpecific(linkType1Id, false);
+		assertEquals(Boolean.TRUE, metadata.isLinkSrcVersionSpecific(linkType1Id));
+		assertEquals(Boolean.FALSE, metadata.isLinkDestVersionSpecific(linkType1Id));
+		metadata.deleteLink(linkRev.getId());
+		try {
+			metadata.getLinkType(linkRev.getId());
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// deleted objects are forgotten with their links only
+		Revision keptLink = metadata.addLink(linkType1Id, obj1Id, obj1Rev1, obj1Id, obj1Rev1, null);
+		Revision deletedLink = metadata.addLink(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1, null);
+		metadata.deleteObject(obj2Id);
+		try {
+			metadata.getObjectType(obj2Id);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		calls.clear();
+		assertEquals(linkType1Id, metadata.getLinkType(keptLink.getId()));
+		assertNull(calls.get("getLinkType"));
+		try {
+			metadata.getLinkType(deletedLink.getId());
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		assertEquals(new Integer(1), calls.get("getLinkType"));
+		
+		// without metadata, RevisionCache writes make no lookup
+		RevisionCache plainCache = new RevisionCache(countingDb, RevisionCache.DEFAULT_MAX_SIZE, null);
+		calls.clear();
+		for (int i = 0; i < 10; i++)
+			plainCache.setObjectValue(obj1Id, obj1Rev1, ATTR1, "value" + i);
+		assertEquals(10, getCallCount(calls));
+		assertEquals(new Integer(10), calls.get("setObjectValue"));
+		
+		// with metadata, they add two lookups, read once per type and attribute
+		RevisionCache cache = new RevisionCache(countingDb, RevisionCache.DEFAULT_MAX_SIZE, metadata);
+		metadata.invalidateAll();
+		calls.clear();
+		for (int i = 0; i < 10; i++)
+			cache.setObjectValue(obj1Id, obj1Rev1, ATTR1, "value" + i);
+		assertEquals(12, getCallCount(calls));
+		assertEquals(new Integer(10), calls.get("setObjectValue"));
+		assertEquals(new Integer(1), calls.get("getObjectType"));
+		assertEquals(new Integer(1), calls.get("isObjectAttVersionSpecific"));
+		
+		// version specific attributes only invalidate the modified revision
+		int obj1Rev2 = m_db.createNewObjectRevision(obj1Id, obj1Rev1);
+		cache.getObjectState(obj1Id, obj1Rev1);
+		cache.getObjectState(obj1Id, obj1Rev2);
+		assertEquals(2, cache.size());
+		cache.setObjectValue(obj1Id, obj1Rev2, ATTR1, NEW_ATTR_VALUE);
+		assertEquals(1, cache.size());
+		assertEquals("value9", cache.getObjectValue(obj1Id, obj1Rev1, ATTR1));
+		assertEquals(NEW_ATTR_VALUE, cache.getObjectValue(obj1Id, obj1Rev2, ATTR1));
+		cache.setObjectAttVersionSpecific(objType1Id, ATTR2, false);
+		assertEquals(0, cache.size());
+		assertFalse(metadata.isObjectAttVersionSpecific(objType1Id, ATTR2));
+		cache.getObjectState(obj1Id, obj1Rev1);
+		cache.getObjectState(obj1Id, obj1Rev2);
+		cache.setObjectValue(obj1Id, obj1Rev2, ATTR2, NEW_ATTR_VALUE);
+		assertEquals(0, cache.size());
+		assertEquals(NEW_ATTR_VALUE, cache.getObjectValue(obj1Id, obj1Rev1, ATTR2));
+		
+		// metadata per database
+		assertEquals(1, metadata.getConnectionNumber());
+		Server server = createHSQLServer("MetadataDB", 9014);
+		try {
+			metadata.setConnectionURL(getHSQLServerURL("MetadataDB", 9014), "sa", "");
+			assertEquals(2, metadata.getConnectionNumber());
+			metadata.clear();
+			calls.clear();
+			try {
+				metadata.getObjectType(obj1Id);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// PASSED
+			}
+			assertEquals(new Integer(1), calls.get("getObjectType"));
+		} finally {
+			metadata.setConnectionURL(_url, _login, _pwd);
+			server.stop();
+		}
+		calls.clear();
+		assertEquals(objType1Id, metadata.getObjectType(obj1Id));
+		assertNull(calls.get("getObjectType"));
+		
+		// clear
+		metadata.clear();
+		assertFalse(m_db.objExists(obj1Id));
+		try {
+			metadata.getObjectType(obj1Id);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		/*
+		 * check transaction support
+		 */
+		
+		// rollback transaction
+		metadata.beginTransaction();
+		metadata.createObject(obj1Id, objType1Id, null, false);
+		metadata.rollbackTransaction();
+		try {
+			metadata.getObjectType(obj1Id);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// commit transaction
+		metadata.beginTransaction();
+		metadata.createObject(obj1Id, objType1Id, null, false);
+		metadata.commitTransaction();
+		assertEquals(objType1Id, metadata.getObjectType(obj1Id));
+		
+		// cleaning code
+		try {
+			m_db.deleteObject(obj1Id);
+		} catch (Exception e) {
+			// ignore it
+		}
+	}
+	
 	public void testCreateNewObjectRevision() throws ModelVersionDBException, TransactionException {
 		Map<String, Object> attrMap = new HashMap<String, Object>();
 		attrMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
@@ -2358,6 +4605,133 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		}
 	}
 
+	public void testDeltaRevisionStore() throws ModelVersionDBException, TransactionException {
+		// invalid snapshot interval
+		try {
+			new DeltaRevisionStore(0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		DeltaRevisionStore store = new DeltaRevisionStore(3);
+		
+		// null object id
+		try {
+			store.addRevision(null, 1, -1, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// parent revision does not exist
+		try {
+			store.addRevision(obj1Id, 2, 1, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		Map<String, Object> attrMap = new HashMap<String, Object>();
+		attrMap.put(ATTR1, FIRST_ATTRIBUTE_VALUE);
+		attrMap.put(ATTR2, null);
+		attrMap.put(ATTR3, new Integer(1234));
+		attrMap.put(ATTR4, new Long(1234567890L));
+		attrMap.put(ATTR5, new java.util.Date(System.currentTimeMillis()));
+		attrMap.put(ATTR6, new Ser("ser1"));
+		
+		/*
+		 * revision chain built with the database, one attribute changes 
+		 * in each revision
+		 */
+		int obj1Rev1 = m_db.createObject(obj1Id, objType1Id, attrMap, false);
+		store.addRevision(obj1Id, obj1Rev1, -1, m_db.getObjectState(obj1Id, obj1Rev1));
+		List<Integer> revs = new ArrayList<Integer>();
+		revs.add(obj1Rev1);
+		for (int i = 0; i < 7; i++) {
+			int parentRev = revs.get(revs.size() - 1);
+			int rev = m_db.createNewObjectRevision(obj1Id, parentRev);
+			m_db.setObjectValue(obj1Id, rev, ATTR3, new Integer(i));
+			if (i == 3)
+				m_db.setObjectValue(obj1Id, rev, ATTR2, VAL1);
+			store.addRevision(obj1Id, rev, parentRev, m_db.getObjectState(obj1Id, rev));
+			revs.add(rev);
+		}
+		
+		// revision already exists
+		try {
+			store.addRevision(obj1Id, obj1Rev1, -1, attrMap);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		for (int rev : revs) {
+			assertTrue(store.contains(obj1Id, rev));
+			assertEquals(m_db.getObjectState(obj1Id, rev), store.getState(obj1Id, rev));
+			assertTrue(store.getReadDepth(obj1Id, rev) < store.getSnapshotInterval());
+		}
+		assertEquals(0, store.getReadDepth(obj1Id, obj1Rev1));
+		assertEquals(8, store.getRevisionCount());
+		assertTrue(store.getStoredValueCount() < store.getFullValueCount());
+		
+		// branch from the first revision
+		int branchRev = m_db.createNewObjectRevision(obj1Id, obj1Rev1);
+		store.addRevision(obj1Id, branchRev, obj1Rev1, m_db.getObjectState(obj1Id, branchRev));
+		assertEquals(attrMap, store.getState(obj1Id, branchRev));
+		assertEquals(1, store.getReadDepth(obj1Id, branchRev));
+		
+		// removed attributes
+		Map<String, Object> newStateMap = new HashMap<String, Object>(attrMap);
+		newStateMap.remove(ATTR1);
+		newStateMap.put(ATTR7, VAL2);
+		store.addRevision(obj1Id, 1000, branchRev, newStateMap);
+		assertEquals(newStateMap, store.getState(obj1Id, 1000));
+		assertEquals(attrMap, store.getState(obj1Id, branchRev));
+		
+		// returned states are copies
+		store.getState(obj1Id, 1000).put(ATTR8, VAL3);
+		assertFalse(store.getState(obj1Id, 1000).containsKey(ATTR8));
+		
+		/*
+		 * version specific values set on parent revisions do not change 
+		 * their children
+		 */
+		for (int rev : new int[] { revs.get(1), obj1Rev1 }) {
+			m_db.setObjectValue(obj1Id, rev, ATTR1, NEW_ATTR_VALUE);
+			store.setState(obj1Id, rev, m_db.getObjectState(obj1Id, rev));
+		}
+		for (int rev : revs) {
+			assertEquals(m_db.getObjectState(obj1Id, rev), store.getState(obj1Id, rev));
+			assertTrue(store.getReadDepth(obj1Id, rev) < store.getSnapshotInterval());
+		}
+		assertEquals(NEW_ATTR_VALUE, store.getState(obj1Id, obj1Rev1).get(ATTR1));
+		assertEquals(FIRST_ATTRIBUTE_VALUE, store.getState(obj1Id, revs.get(2)).get(ATTR1));
+		assertEquals(attrMap, store.getState(obj1Id, branchRev));
+		assertEquals(newStateMap, store.getState(obj1Id, 1000));
+		assertEquals(10, store.getRevisionCount());
+		
+		// unknown revision
+		try {
+			store.getState(obj1Id, 1001);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			store.setState(obj1Id, 1001, attrMap);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		store.removeObject(obj1Id);
+		assertFalse(store.contains(obj1Id, obj1Rev1));
+		assertEquals(0, store.getRevisionCount());
+		assertEquals(0, store.getStoredValueCount());
+		assertEquals(0, store.getFullValueCount());
+	}
+	
 	public void testGetLastObjectRevNb() throws ModelVersionDBException {
 		int obj1Rev1 = m_db.createObject(obj1Id, objType1Id, null, false);
 		
@@ -2434,6 +4808,123 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		}
 	}
 	
+	public void testRevisionNumberBuffer() throws ModelVersionDBException {
+		// null collection
+		try {
+			BatchOperations.getObjectRevNbs(m_db, null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		// unexisting object
+		try {
+			BatchOperations.getObjectRevNbs(m_db, Arrays.asList(notExistObjId));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		// empty collection
+		RevisionNumberBuffer buffer = BatchOperations.getObjectRevNbs(m_db, new ArrayList<UUID>());
+		assertEquals(0, buffer.getObjectCount());
+		assertEquals(0, buffer.getRevisionCount());
+		assertEquals(-1, buffer.indexOf(obj1Id));
+
+		int obj1Rev1 = m_db.createObject(obj1Id, objType1Id, null, false);
+		int obj1Rev2 = m_db.createNewObjectRevision(obj1Id, obj1Rev1);
+		int obj1Rev3 = m_db.createNewObjectRevision(obj1Id, obj1Rev2);
+		int obj2Rev1 = m_db.createObject(obj2Id, objType1Id, null, false);
+		int obj3Rev1 = m_db.createObject(obj3Id, objType2Id, null, false);
+		int obj3Rev2 = m_db.createNewObjectRevision(obj3Id, obj3Rev1);
+
+		// object revisions
+		List<UUID> objIds = Arrays.asList(obj1Id, obj2Id, obj3Id);
+		buffer = BatchOperations.getObjectRevNbs(m_db, objIds);
+		assertEquals(3, buffer.getObjectCount());
+		assertEquals(6, buffer.getRevisionCount());
+		for (int i = 0; i < objIds.size(); i++) {
+			UUID objId = objIds.get(i);
+			assertEquals(objId, buffer.getObjectId(i));
+			assertEquals(objId.getMostSignificantBits(), buffer.getMostSignificantBits(i));
+			assertEquals(objId.getLeastSignificantBits(), buffer.getLeastSignificantBits(i));
+			assertEquals(i, buffer.indexOf(objId));
+
+			int[] revs = new int[buffer.getRevCount(i)];
+			for (int j = 0; j < revs.length; j++) {
+				revs[j] = buffer.getRevNb(i, j);
+				assertEquals(revs[j], buffer.getRevNbs()[buffer.getOffset(i) + j]);
+			}
+			int[] expectRevs = m_db.getObjectRevNbs(objId);
+			assertContainsRevs(revs, expectRevs);
+		}
+		assertEquals(buffer.getRevisionCount(), buffer.getOffset(buffer.getObjectCount()));
+		assertContainsRevs(getRevNbs(buffer, 0), obj1Rev1, obj1Rev2, obj1Rev3);
+		assertContainsRevs(getRevNbs(buffer, 1), obj2Rev1);
+		assertContainsRevs(getRevNbs(buffer, 2), obj3Rev1, obj3Rev2);
+
+		// invalid indexes
+		try {
+			buffer.getRevNb(1, 1);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// PASSED
+		}
+		try {
+			buffer.getObjectId(3);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// PASSED
+		}
+
+		// buffer growth
+		buffer = new RevisionNumberBuffer(1, 1);
+		for (int i = 0; i < 100; i++)
+			buffer.add(objIds.get(i % 3), m_db.getObjectRevNbs(objIds.get(i % 3)));
+		assertEquals(100, buffer.getObjectCount());
+		assertEquals(33 * 6 + 3, buffer.getRevisionCount());
+		assertContainsRevs(getRevNbs(buffer, 99), obj1Rev1, obj1Rev2, obj1Rev3);
+		for (int i = 0; i < 100; i++)
+			assertEquals(objIds.get(i % 3), buffer.getObjectId(i));
+
+		// default capacity, several resizes
+		buffer = new RevisionNumberBuffer();
+		for (int i = 0; i < 100; i++)
+			buffer.add(objIds.get(i % 3), m_db.getObjectRevNbs(objIds.get(i % 3)));
+		assertEquals(100, buffer.getObjectCount());
+		assertEquals(33 * 6 + 3, buffer.getRevisionCount());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(objIds.get(i % 3), buffer.getObjectId(i));
+			assertContainsRevs(getRevNbs(buffer, i), m_db.getObjectRevNbs(objIds.get(i % 3)));
+		}
+
+		// link revisions
+		Revision link1 = m_db.addLink(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1, null);
+		Revision link2 = m_db.addLink(linkType1Id, obj1Id, obj1Rev2, obj3Id, obj3Rev1, null);
+		buffer = BatchOperations.getLinkRevNbs(m_db, Arrays.asList(link1.getId(), link2.getId()));
+		assertEquals(2, buffer.getObjectCount());
+		assertContainsRevs(getRevNbs(buffer, 0), m_db.getLinkRevNbs(link1.getId()));
+		assertContainsRevs(getRevNbs(buffer, 1), m_db.getLinkRevNbs(link2.getId()));
+
+		// packed object ids
+		long[] ids = BatchOperations.getObjectIds(m_db, objType1Id);
+		assertEquals(4, ids.length);
+		Set<UUID> packedIds = new HashSet<UUID>();
+		for (int i = 0; i < ids.length; i += 2)
+			packedIds.add(new UUID(ids[i], ids[i + 1]));
+		assertEquals(m_db.getObjects(objType1Id), packedIds);
+		assertEquals(0, BatchOperations.getObjectIds(m_db, notExistTypeId).length);
+
+		// cleaning code
+		try {
+			m_db.deleteObject(obj1Id);
+			m_db.deleteObject(obj2Id);
+			m_db.deleteObject(obj3Id);
+		} catch (Exception e) {
+			// ignore it
+		}
+	}
+	
 	public void testDeleteObject() throws ModelVersionDBException, TransactionException {
 		// null object id
 		try {
@@ -2574,23 +5065,220 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		assertTrue(m_db.linkExists(linkRev.getId(), linkRev.getRev()));
 		
 		try {
-			m_db.linkExists(obj1Id, ModelVersionDBService.ALL);
-			
+			m_db.linkExists(obj1Id, ModelVersionDBService.ALL);
+			
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		assertTrue(m_db.linkExists(linkRev.getId(), ModelVersionDBService.ANY));
+		
+		assertTrue(m_db.linkExists(linkRev.getId(), ModelVersionDBService.LAST));
+		
+		// Revision does not exist
+		assertFalse(m_db.linkExists(linkRev.getId(), linkRev.getRev() + 1));
+		
+		// cleaning code
+		try {
+			m_db.deleteLink(linkRev.getId());
+			m_db.deleteObject(obj1Id);
+		} catch (Exception e) {
+			// ignore it
+		}
+	}
+	
+	public void testExistenceFilter() throws Exception {
+		// invalid parameters
+		try {
+			new BloomFilter(0, 0.01);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			new BloomFilter(100, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// bloom filter
+		BloomFilter bloom = new BloomFilter(1000, 0.01);
+		List<UUID> addedIds = new ArrayList<UUID>();
+		for (int i = 0; i < 1000; i++) {
+			UUID id = UUID.randomUUID();
+			addedIds.add(id);
+			bloom.add(id);
+		}
+		for (UUID id : addedIds)
+			assertTrue(bloom.mightContain(id));
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (bloom.mightContain(UUID.randomUUID()))
+				falsePositives++;
+		}
+		assertTrue("False positive rate " + falsePositives / 10000.0, falsePositives < 300);
+		assertEquals(1000, bloom.getInsertedCount());
+		assertTrue(bloom.getExpectedFalsePositiveRate() < 0.02);
+		assertTrue(bloom.getMemoryBytes() * 8 >= bloom.getBitCount());
+		bloom.clear();
+		assertFalse(bloom.mightContain(addedIds.get(0)));
+		assertEquals(0, bloom.getInsertedCount());
+		
+		int obj1Rev = m_db.createObject(obj1Id, objType1Id, null, false);
+		ExistenceFilter filter = new ExistenceFilter(m_db, 4, 0.01);
+		
+		// null ids
+		try {
+			filter.objExists(null);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			filter.linkExists(null, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			filter.objExists(notExistObjId, ModelVersionDBService.ALL);
 			fail();
 		} catch (IllegalArgumentException e) {
 			// PASSED
 		}
 		
-		assertTrue(m_db.linkExists(linkRev.getId(), ModelVersionDBService.ANY));
+		// objects existing before the filter creation
+		assertTrue(filter.objExists(obj1Id));
+		assertTrue(filter.objExists(obj1Id, obj1Rev));
+		assertFalse(filter.objExists(obj1Id, obj1Rev + 1));
+		
+		// definite negatives
+		filter.resetStatistics();
+		assertFalse(filter.objExists(notExistObjId));
+		assertFalse(filter.objExists(notExistObjId, ModelVersionDBService.LAST));
+		assertFalse(filter.linkExists(notExistLinkId));
+		assertFalse(filter.linkExists(notExistLinkId, ModelVersionDBService.ANY));
+		assertEquals(4, filter.getNegativeCount() + filter.getProbeCount());
+		assertTrue(filter.getNegativeCount() > 0);
+		
+		// creations through the filter
+		int obj2Rev = filter.createObject(obj2Id, objType1Id, null, false);
+		Revision linkRev = filter.addLink(linkType1Id, obj1Id, obj1Rev, obj2Id, obj2Rev, null);
+		assertTrue(filter.objExists(obj2Id));
+		assertTrue(filter.linkExists(linkRev.getId()));
+		assertTrue(filter.linkExists(linkRev.getId(), linkRev.getRev()));
+		assertFalse(filter.linkExists(obj1Id));
+		
+		// deletions
+		m_db.deleteLink(linkRev.getId());
+		m_db.deleteObject(obj2Id);
+		assertFalse(filter.objExists(obj2Id));
+		assertFalse(filter.linkExists(linkRev.getId()));
+		
+		// rolled back creations
+		m_db.beginTransaction();
+		filter.createObject(obj3Id, objType1Id, null, false);
+		m_db.rollbackTransaction();
+		assertFalse(filter.objExists(obj3Id));
+		
+		// filter growth
+		int rebuildCount = filter.getRebuildCount();
+		long memory = filter.getMemoryBytes();
+		List<UUID> objIds = new ArrayList<UUID>();
+		for (int i = 0; i < 20; i++) {
+			UUID objId = UUID.randomUUID();
+			objIds.add(objId);
+			filter.createObject(objId, objType2Id, null, false);
+		}
+		assertTrue(filter.getRebuildCount() > rebuildCount);
+		assertTrue(filter.getMemoryBytes() > memory);
+		for (UUID objId : objIds)
+			assertTrue(filter.objExists(objId));
+		
+		// statistics
+		filter.resetStatistics();
+		for (int i = 0; i < 100; i++)
+			assertFalse(filter.objExists(UUID.randomUUID()));
+		assertEquals(100, filter.getNegativeCount() + filter.getFalsePositiveCount());
+		assertEquals(filter.getFalsePositiveCount() / 100.0, filter.getFalsePositiveRate(), 0.0001);
+		assertTrue(filter.getExpectedFalsePositiveRate() < 0.05);
+		
+		// revision probes cost one query and are not classified as false positives
+		filter.resetStatistics();
+		assertFalse(filter.objExists(obj1Id, obj1Rev + 1));
+		assertEquals(1, filter.getProbeCount());
+		assertEquals(1, filter.getRevisionProbeCount());
+		assertEquals(0, filter.getFalsePositiveCount());
+		for (int i = 0; i < 100; i++) {
+			assertFalse(filter.objExists(UUID.randomUUID(), 1));
+			assertFalse(filter.linkExists(UUID.randomUUID(), 1));
+		}
+		assertEquals(201, filter.getNegativeCount() + filter.getRevisionProbeCount());
+		assertEquals(0, filter.getFalsePositiveCount());
+		assertEquals(0, filter.getFalsePositiveRate(), 0.0001);
+		
+		// objects created while the filter is rebuilt
+		final CountDownLatch armed = new CountDownLatch(1);
+		final CountDownLatch loaded = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ModelVersionDBService rebuildDB = (ModelVersionDBService) Proxy.newProxyInstance(
+				ModelVersionDBService.class.getClassLoader(), new Class<?>[] { ModelVersionDBService.class }, 
+				new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				Object result;
+				try {
+					result = method.invoke(m_db, args);
+				} catch (InvocationTargetException e) {
+					throw e.getTargetException();
+				}
+				if (method.getName().equals("getObjects") && (armed.getCount() == 0)) {
+					loaded.countDown();
+					release.await();
+				}
+				return result;
+			}
+		});
+		final ExistenceFilter rebuiltFilter = new ExistenceFilter(rebuildDB, 4, 0.01);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			armed.countDown();
+			Future<?> rebuild = executor.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					rebuiltFilter.rebuild();
+					return null;
+				}
+			});
+			loaded.await();
+			rebuiltFilter.createObject(obj2Id, objType1Id, null, false);
+			assertTrue(rebuiltFilter.objExists(obj1Id));
+			assertTrue(rebuiltFilter.objExists(obj2Id));
+			release.countDown();
+			rebuild.get();
+			assertTrue(rebuiltFilter.objExists(obj1Id));
+			assertTrue(rebuiltFilter.objExists(obj2Id));
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+		m_db.deleteObject(obj2Id);
 		
-		assertTrue(m_db.linkExists(linkRev.getId(), ModelVersionDBService.LAST));
+		// clear
+		filter.clear();
+		assertFalse(filter.objExists(obj1Id));
+		assertFalse(m_db.objExists(obj1Id));
+		obj1Rev = m_db.createObject(obj1Id, objType1Id, null, false);
+		assertFalse(filter.objExists(obj1Id));
+		filter.rebuild();
+		assertTrue(filter.objExists(obj1Id));
 		
-		// Revision does not exist
-		assertFalse(m_db.linkExists(linkRev.getId(), linkRev.getRev() + 1));
+		// connection switch
+		filter.setConnectionURL(_url, _login, _pwd);
+		assertTrue(filter.objExists(obj1Id));
 		
 		// cleaning code
 		try {
-			m_db.deleteLink(linkRev.getId());
 			m_db.deleteObject(obj1Id);
 		} catch (Exception e) {
 			// ignore it
@@ -2742,6 +5430,119 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		  } 
 	}
 	
+	public void testAddLinks() throws ModelVersionDBException, TransactionException {
+		// Null link list
+		try {
+			BatchOperations.addLinks(m_db, null);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+
+		// Empty link list
+		List<Revision> revs = BatchOperations.addLinks(m_db, new ArrayList<LinkCreation>());
+		assertTrue(revs.isEmpty());
+
+		// same semantics as addLink
+		int obj1Rev1 = m_db.createObject(obj1Id, objType1Id, null, false);
+		int obj2Rev1 = m_db.createObject(obj2Id, objType2Id, null, true);
+		m_db.setLinkSrcVersionSpecific(linkType1Id, true);
+		m_db.setLinkDestVersionSpecific(linkType1Id, true);
+		Map<String, Object> linkStateMap = new HashMap<String, Object>();
+		linkStateMap.put(ATTR1, VAL1);
+		linkStateMap.put(ATTR2, new Integer(1234));
+
+		List<LinkCreation> links = new ArrayList<LinkCreation>();
+		links.add(new LinkCreation(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1, null));
+		links.add(new LinkCreation(linkType2Id, obj2Id, obj2Rev1, obj1Id, obj1Rev1, linkStateMap));
+		links.add(new LinkCreation(linkType1Id, obj1Id, obj1Rev1, obj1Id, obj1Rev1, null));
+		revs = BatchOperations.addLinks(m_db, links);
+		assertEquals(3, revs.size());
+		assertFalse(m_db.hasTransaction());
+
+		// revisions are returned in input order
+		for (int i = 0; i < links.size(); i++) {
+			LinkCreation link = links.get(i);
+			Revision rev = revs.get(i);
+			assertEquals(rev, m_db.getLinkRev(link.getTypeId(), link.getSrcId(), link.getSrcRev(), 
+					link.getDestId(), link.getDestRev()));
+			assertEquals(link.getTypeId(), m_db.getLinkType(rev.getId()));
+			assertTrue(m_db.linkExists(rev.getId(), rev.getRev()));
+		}
+		assertTrue(m_db.getLinkState(revs.get(0).getId(), revs.get(0).getRev()).isEmpty());
+		assertEquals(linkStateMap, m_db.getLinkState(revs.get(1).getId(), revs.get(1).getRev()));
+
+		for (Revision rev : revs)
+			m_db.deleteLink(rev.getId());
+
+		// one invalid link cancels the whole batch
+		links = new ArrayList<LinkCreation>();
+		links.add(new LinkCreation(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1, null));
+		links.add(new LinkCreation(null, obj1Id, obj1Rev1, obj2Id, obj2Rev1, null));
+		try {
+			BatchOperations.addLinks(m_db, links);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		assertFalse(m_db.hasTransaction());
+		assertFalse(m_db.linkExists(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1));
+
+		// null links are rejected before any addition
+		links = new ArrayList<LinkCreation>();
+		links.add(new LinkCreation(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1, null));
+		links.add(null);
+		try {
+			BatchOperations.addLinks(m_db, links);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		assertFalse(m_db.hasTransaction());
+		assertFalse(m_db.linkExists(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1));
+
+		links = new ArrayList<LinkCreation>();
+		links.add(new LinkCreation(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1, null));
+		links.add(null);
+		try {
+			BatchOperations.addLinks(m_db, links);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		assertFalse(m_db.linkExists(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1));
+
+		// check transaction support
+		// rollback transaction
+		links.remove(1);
+		m_db.beginTransaction();
+		BatchOperations.addLinks(m_db, links);
+		assertTrue(m_db.hasTransaction());
+		m_db.rollbackTransaction();
+
+		assertFalse(m_db.linkExists(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1));
+
+		// commit transaction
+		m_db.beginTransaction();
+		revs = BatchOperations.addLinks(m_db, links);
+		m_db.commitTransaction();
+
+		assertTrue(m_db.linkExists(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1));
+
+		// cleaning code
+		try {
+			m_db.deleteLink(revs.get(0).getId());
+			m_db.deleteObject(obj1Id);
+			m_db.deleteObject(obj2Id);
+		} catch (Exception e) {
+			// ignore it
+		}
+	}
+	
 	public void testGetLinksWithTypeId() throws ModelVersionDBException {
 		// null type id
 		try {
@@ -3020,6 +5821,345 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		throw new IllegalStateException("To Implement !!!");
 	}
 	
+	public void testAdjacencyCache() throws ModelVersionDBException, TransactionException {
+		// invalid cache size
+		try {
+			new AdjacencyCache(m_db, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		AdjacencyCache cache = new AdjacencyCache(m_db, 2);
+		
+		// null type id
+		try {
+			cache.getOutgoingLinks(null, obj1Id, ModelVersionDBService.LAST);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		int obj1Rev1 = m_db.createObject(obj1Id, objType1Id, null, false);
+		int obj2Rev1 = m_db.createObject(obj2Id, objType1Id, null, false);
+		int obj3Rev1 = m_db.createObject(obj3Id, objType2Id, null, false);
+		
+		// no link
+		assertTrue(cache.getOutgoingLinks(linkType1Id, obj1Id, obj1Rev1).isEmpty());
+		assertEquals(0, cache.getLinkNumber(linkType1Id, obj1Id, obj1Rev1));
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+		
+		// links added through the cache
+		Revision link1Rev = cache.addLink(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1, null);
+		Revision link2Rev = cache.addLink(linkType1Id, obj1Id, obj1Rev1, obj3Id, obj3Rev1, null);
+		assertEquals(0, cache.size());
+		checkAdjacency(cache, linkType1Id, obj1Id, obj1Rev1, 2);
+		assertEquals(2, cache.getMissCount());
+		checkAdjacency(cache, linkType1Id, obj1Id, obj1Rev1, 2);
+		assertEquals(2, cache.getMissCount());
+		assertTrue(cache.getHitRatio() > 0.5);
+		
+		// immutable lists
+		try {
+			cache.getLinkDestRev(linkType1Id, obj1Id, obj1Rev1).clear();
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// PASSED
+		}
+		
+		// other link type and LAST
+		checkAdjacency(cache, linkType2Id, obj1Id, obj1Rev1, 0);
+		assertEquals(m_db.getLinkNumber(linkType1Id, obj1Id, ModelVersionDBService.LAST),
+				cache.getLinkNumber(linkType1Id, obj1Id, ModelVersionDBService.LAST));
+		
+		// deleted link
+		cache.deleteLink(link1Rev.getId());
+		checkAdjacency(cache, linkType1Id, obj1Id, obj1Rev1, 1);
+		
+		// deleted destination
+		cache.deleteObject(obj3Id);
+		checkAdjacency(cache, linkType1Id, obj1Id, obj1Rev1, 0);
+		
+		// new source revision
+		link1Rev = cache.addLink(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1, null);
+		checkAdjacency(cache, linkType1Id, obj1Id, obj1Rev1, 1);
+		int obj1Rev2 = cache.createNewObjectRevision(obj1Id, obj1Rev1);
+		checkAdjacency(cache, linkType1Id, obj1Id, obj1Rev2, 
+				m_db.getLinkNumber(linkType1Id, obj1Id, obj1Rev2));
+		checkAdjacency(cache, linkType1Id, obj1Id, obj1Rev1, 1);
+		
+		// eviction
+		checkAdjacency(cache, linkType1Id, obj2Id, obj2Rev1, 0);
+		assertEquals(2, cache.size());
+		
+		// check transaction support
+		// rollback transaction
+		cache.beginTransaction();
+		link2Rev = cache.addLink(linkType1Id, obj2Id, obj2Rev1, obj1Id, obj1Rev1, null);
+		checkAdjacency(cache, linkType1Id, obj2Id, obj2Rev1, 1);
+		cache.rollbackTransaction();
+		
+		checkAdjacency(cache, linkType1Id, obj2Id, obj2Rev1, 0);
+		checkAdjacency(cache, linkType1Id, obj2Id, obj2Rev1, 0);
+		
+		// commit transaction
+		cache.beginTransaction();
+		link2Rev = cache.addLink(linkType1Id, obj2Id, obj2Rev1, obj1Id, obj1Rev1, null);
+		cache.commitTransaction();
+		
+		checkAdjacency(cache, linkType1Id, obj2Id, obj2Rev1, 1);
+		
+		// deleted source
+		cache.deleteObject(obj2Id);
+		checkAdjacency(cache, linkType1Id, obj1Id, obj1Rev1, 0);
+		
+		// clear
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertFalse(m_db.linkExists(link1Rev.getId()));
+	}
+	
+	public void testIncomingLinks() throws ModelVersionDBException, TransactionException {
+		AdjacencyCache cache = new AdjacencyCache(m_db);
+		
+		// null destination id
+		try {
+			cache.getIncomingLinks(linkType1Id, null, ModelVersionDBService.LAST);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		int obj1Rev1 = m_db.createObject(obj1Id, objType1Id, null, false);
+		int obj2Rev1 = m_db.createObject(obj2Id, objType1Id, null, false);
+		int obj3Rev1 = m_db.createObject(obj3Id, objType2Id, null, false);
+		m_db.setLinkSrcVersionSpecific(linkType1Id, true);
+		m_db.setLinkDestVersionSpecific(linkType1Id, true);
+		
+		// no link
+		assertTrue(cache.getIncomingLinks(linkType1Id, obj1Id, obj1Rev1).isEmpty());
+		assertTrue(cache.getLinkSrcRev(linkType1Id, obj1Id, obj1Rev1).isEmpty());
+		
+		// links added through the cache
+		Revision link1Rev = cache.addLink(linkType1Id, obj2Id, obj2Rev1, obj1Id, obj1Rev1, null);
+		Revision link2Rev = cache.addLink(linkType1Id, obj3Id, obj3Rev1, obj1Id, obj1Rev1, null);
+		Revision link3Rev = cache.addLink(linkType2Id, obj3Id, obj3Rev1, obj1Id, obj1Rev1, null);
+		cache.addLink(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1, null);
+		
+		List<Revision> expectRevs = new ArrayList<Revision>();
+		expectRevs.add(link1Rev);
+		expectRevs.add(link2Rev);
+		checkIncomingLinks(cache, linkType1Id, obj1Id, obj1Rev1, expectRevs);
+		long missCount = cache.getMissCount();
+		checkIncomingLinks(cache, linkType1Id, obj1Id, obj1Rev1, expectRevs);
+		assertEquals(missCount, cache.getMissCount());
+		
+		expectRevs = new ArrayList<Revision>();
+		expectRevs.add(link3Rev);
+		checkIncomingLinks(cache, linkType2Id, obj1Id, obj1Rev1, expectRevs);
+		
+		// immutable lists
+		try {
+			cache.getIncomingLinks(linkType1Id, obj1Id, obj1Rev1).clear();
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// PASSED
+		}
+		
+		// LAST
+		assertRevListMatch(cache.getIncomingLinks(linkType1Id, obj1Id, obj1Rev1),
+				cache.getIncomingLinks(linkType1Id, obj1Id, ModelVersionDBService.LAST));
+		
+		// deleted link
+		cache.deleteLink(link1Rev.getId());
+		expectRevs = new ArrayList<Revision>();
+		expectRevs.add(link2Rev);
+		checkIncomingLinks(cache, linkType1Id, obj1Id, obj1Rev1, expectRevs);
+		
+		// deleted source
+		cache.deleteObject(obj3Id);
+		checkIncomingLinks(cache, linkType1Id, obj1Id, obj1Rev1, new ArrayList<Revision>());
+		checkIncomingLinks(cache, linkType2Id, obj1Id, obj1Rev1, new ArrayList<Revision>());
+		
+		// new destination revision
+		int obj1Rev2 = cache.createNewObjectRevision(obj1Id, obj1Rev1);
+		link1Rev = cache.addLink(linkType1Id, obj2Id, obj2Rev1, obj1Id, obj1Rev2, null);
+		expectRevs = new ArrayList<Revision>();
+		expectRevs.add(link1Rev);
+		checkIncomingLinks(cache, linkType1Id, obj1Id, obj1Rev2, expectRevs);
+		checkIncomingLinks(cache, linkType1Id, obj1Id, obj1Rev1, new ArrayList<Revision>());
+		
+		// outgoing and incoming views are coherent
+		assertRevListMatch(cache.getOutgoingLinks(linkType1Id, obj2Id, obj2Rev1),
+				cache.getIncomingLinks(linkType1Id, obj1Id, obj1Rev2));
+		
+		// check transaction support
+		// rollback transaction
+		cache.beginTransaction();
+		cache.deleteLink(link1Rev.getId());
+		checkIncomingLinks(cache, linkType1Id, obj1Id, obj1Rev2, new ArrayList<Revision>());
+		cache.rollbackTransaction();
+		
+		checkIncomingLinks(cache, linkType1Id, obj1Id, obj1Rev2, expectRevs);
+		
+		// deleted destination
+		cache.deleteObject(obj1Id);
+		assertTrue(cache.getOutgoingLinks(linkType1Id, obj2Id, obj2Rev1).isEmpty());
+		
+		// cleaning code
+		try {
+			m_db.deleteObject(obj2Id);
+		} catch (Exception e) {
+			// ignore it
+		}
+	}
+	
+	public void testGraphTraversal() throws ModelVersionDBException {
+		GraphTraversal traversal = new GraphTraversal(m_db);
+		List<UUID> linkTypes = new ArrayList<UUID>();
+		linkTypes.add(linkType1Id);
+		
+		// null object id
+		try {
+			traversal.getReachableRevs(null, ModelVersionDBService.LAST, linkTypes, 
+					GraphTraversal.UNLIMITED_DEPTH, GraphTraversal.BREADTH_FIRST, false);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// object does not exist
+		try {
+			traversal.getReachableRevs(notExistObjId, 1, linkTypes, 
+					GraphTraversal.UNLIMITED_DEPTH, GraphTraversal.BREADTH_FIRST, false);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		int obj1Rev1 = m_db.createObject(obj1Id, objType1Id, null, false);
+		int obj2Rev1 = m_db.createObject(obj2Id, objType1Id, null, false);
+		int obj3Rev1 = m_db.createObject(obj3Id, objType1Id, null, false);
+		int obj4Rev1 = m_db.createObject(obj4Id, objType2Id, null, false);
+		
+		// no link type
+		try {
+			traversal.getReachableRevs(obj1Id, obj1Rev1, new ArrayList<UUID>(), 
+					GraphTraversal.UNLIMITED_DEPTH, GraphTraversal.BREADTH_FIRST, false);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// invalid depth and order
+		try {
+			traversal.getReachableRevs(obj1Id, obj1Rev1, linkTypes, -2, GraphTraversal.BREADTH_FIRST, false);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		try {
+			traversal.getReachableRevs(obj1Id, obj1Rev1, linkTypes, 1, 5, false);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// PASSED
+		}
+		
+		// no link
+		assertTrue(traversal.getReachableRevs(obj1Id, obj1Rev1, linkTypes, 
+				GraphTraversal.UNLIMITED_DEPTH, GraphTraversal.BREADTH_FIRST, false).isEmpty());
+		
+		/*
+		 * cycle obj1 -> obj2 -> obj3 -> obj1 with link type 1 
+		 * and obj2 -> obj4 with link type 2
+		 */
+		m_db.setLinkSrcVersionSpecific(linkType1Id, true);
+		m_db.setLinkDestVersionSpecific(linkType1Id, true);
+		m_db.setLinkSrcVersionSpecific(linkType2Id, true);
+		m_db.setLinkDestVersionSpecific(linkType2Id, true);
+		m_db.addLink(linkType1Id, obj1Id, obj1Rev1, obj2Id, obj2Rev1, null);
+		m_db.addLink(linkType1Id, obj2Id, obj2Rev1, obj3Id, obj3Rev1, null);
+		m_db.addLink(linkType1Id, obj3Id, obj3Rev1, obj1Id, obj1Rev1, null);
+		m_db.addLink(linkType2Id, obj2Id, obj2Rev1, obj4Id, obj4Rev1, null);
+		
+		List<Revision> expectRevs = new ArrayList<Revision>();
+		expectRevs.add(new Revision(obj2Id, objType1Id, obj2Rev1));
+		expectRevs.add(new Revision(obj3Id, objType1Id, obj3Rev1));
+		for (int order : new int[] { GraphTraversal.BREADTH_FIRST, GraphTraversal.DEPTH_FIRST }) {
+			List<Revision> revs = traversal.getReachableRevs(obj1Id, obj1Rev1, linkTypes, 
+					GraphTraversal.UNLIMITED_DEPTH, order, false);
+			assertRevListMatch(expectRevs, revs);
+			assertEquals(obj2Id, revs.get(0).getId());
+		}
+		
+		// several link types
+		linkTypes.add(linkType2Id);
+		expectRevs.add(new Revision(obj4Id, objType2Id, obj4Rev1));
+		assertRevListMatch(expectRevs, traversal.getReachableRevs(obj1Id, ModelVersionDBService.LAST, 
+				linkTypes, GraphTraversal.UNLIMITED_DEPTH, GraphTraversal.BREADTH_FIRST, false));
+		assertRevListMatch(expectRevs, traversal.getReachableRevs(obj1Id, obj1Rev1, 
+				linkTypes, GraphTraversal.UNLIMITED_DEPTH, GraphTraversal.DEPTH_FIRST, false));
+		
+		// maximum depth
+		assertTrue(traversal.getReachableRevs(obj1Id, obj1Rev1, linkTypes, 0, 
+				GraphTraversal.BREADTH_FIRST, false).isEmpty());
+		expectRevs = new ArrayList<Revision>();
+		expectRevs.add(new Revision(obj2Id, objType1Id, obj2Rev1));
+		assertRevListMatch(expectRevs, traversal.getReachableRevs(obj1Id, obj1Rev1, linkTypes, 1, 
+				GraphTraversal.DEPTH_FIRST, false));
+		
+		// links of both types within two links
+		m_db.addLink(linkType2Id, obj1Id, obj1Rev1, obj3Id, obj3Rev1, null);
+		expectRevs.add(new Revision(obj3Id, objType1Id, obj3Rev1));
+		expectRevs.add(new Revision(obj4Id, objType2Id, obj4Rev1));
+		assertRevListMatch(expectRevs, traversal.getReachableRevs(obj1Id, obj1Rev1, linkTypes, 2, 
+				GraphTraversal.DEPTH_FIRST, false));
+		
+		// last revisions
+		int obj4Rev2 = m_db.createNewObjectRevision(obj4Id, obj4Rev1);
+		List<Revision> revs = traversal.getReachableRevs(obj2Id, obj2Rev1, linkTypes, 1, 
+				GraphTraversal.BREADTH_FIRST, true);
+		expectRevs = new ArrayList<Revision>();
+		expectRevs.add(new Revision(obj3Id, objType1Id, obj3Rev1));
+		expectRevs.add(new Revision(obj4Id, objType2Id, obj4Rev2));
+		assertRevListMatch(expectRevs, revs);
+		
+		revs = traversal.getReachableRevs(obj2Id, obj2Rev1, linkTypes, 1, 
+				GraphTraversal.BREADTH_FIRST, false);
+		expectRevs = new ArrayList<Revision>();
+		expectRevs.add(new Revision(obj3Id, objType1Id, obj3Rev1));
+		expectRevs.add(new Revision(obj4Id, objType2Id, obj4Rev1));
+		assertRevListMatch(expectRevs, revs);
+		
+		// adjacency cache, a miss costs two queries
+		Map<String, Integer> calls = new HashMap<String, Integer>();
+		ModelVersionDBService countingDb = newCountingService(m_db, calls);
+		AdjacencyCache cache = new AdjacencyCache(countingDb);
+		GraphTraversal cachedTraversal = new GraphTraversal(countingDb, cache);
+		revs = traversal.getReachableRevs(obj1Id, obj1Rev1, linkTypes, 
+				GraphTraversal.UNLIMITED_DEPTH, GraphTraversal.BREADTH_FIRST, false);
+		assertRevListMatch(revs, cachedTraversal.getReachableRevs(obj1Id, obj1Rev1, linkTypes, 
+				GraphTraversal.UNLIMITED_DEPTH, GraphTraversal.BREADTH_FIRST, false));
+		assertEquals(getCallCount(calls), cachedTraversal.getLastQueryCount());
+		assertEquals(2 * traversal.getLastQueryCount() - 1, cachedTraversal.getLastQueryCount());
+		calls.clear();
+		assertRevListMatch(revs, cachedTraversal.getReachableRevs(obj1Id, obj1Rev1, linkTypes, 
+				GraphTraversal.UNLIMITED_DEPTH, GraphTraversal.BREADTH_FIRST, false));
+		assertEquals(1, cachedTraversal.getLastQueryCount());
+		assertEquals(1, getCallCount(calls));
+		
+		// cleaning code
+		try {
+			m_db.deleteObject(obj1Id);
+			m_db.deleteObject(obj2Id);
+			m_db.deleteObject(obj3Id);
+			m_db.deleteObject(obj4Id);
+		} catch (Exception e) {
+			// ignore it
+		}
+	}
+	
 	public void testGetLinkState() throws ModelVersionDBException {
 		// null link id
 		try {
@@ -3869,6 +7009,12 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 			assertContains("Miss revision " + expectRev, revs, expectRev);
 	}
 	
+	private static int[] getRevNbs(RevisionNumberBuffer buffer, int objIdx) {
+		int[] revs = new int[buffer.getRevCount(objIdx)];
+		System.arraycopy(buffer.getRevNbs(), buffer.getOffset(objIdx), revs, 0, revs.length);
+		return revs;
+	}
+	
 	private void checkLinkRevs(UUID linkType, UUID srcId, int srcRev,
 			CheckRevision... expectDestRevs) throws ModelVersionDBException {
 		assertEquals(expectDestRevs.length, m_db.getLinkNumber(linkType, srcId,
@@ -3890,6 +7036,69 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		}
 	}
 	
+	private void checkAdjacency(AdjacencyCache cache, UUID linkType, UUID srcId, int srcRev, 
+			int linkNb) throws ModelVersionDBException {
+		assertEquals(linkNb, cache.getLinkNumber(linkType, srcId, srcRev));
+		assertEquals(m_db.getLinkNumber(linkType, srcId, srcRev), 
+				cache.getLinkNumber(linkType, srcId, srcRev));
+		assertRevListMatch(m_db.getOutgoingLinks(linkType, srcId, srcRev),
+				cache.getOutgoingLinks(linkType, srcId, srcRev));
+		assertRevListMatch(m_db.getLinkDestRev(linkType, srcId, srcRev),
+				cache.getLinkDestRev(linkType, srcId, srcRev));
+	}
+	
+	private void checkIncomingLinks(AdjacencyCache cache, UUID linkType, UUID destId, int destRev, 
+			List<Revision> expectLinkRevs) throws ModelVersionDBException {
+		assertRevListMatch(expectLinkRevs, cache.getIncomingLinks(linkType, destId, destRev));
+		assertRevListMatch(m_db.getLinkSrcRev(linkType, destId, destRev),
+				cache.getLinkSrcRev(linkType, destId, destRev));
+	}
+	
+	private void assertIndexMatch(AttributeValueIndex index, Map<String, Object> attrMap) 
+			throws ModelVersionDBException {
+		for (Map.Entry<String, Object> entry : attrMap.entrySet()) {
+			String attr = entry.getKey();
+			Object value = entry.getValue();
+
+			assertRevListMatch(m_db.getObjectRevs(objType1Id, attr, value, false),
+					index.getObjectRevs(objType1Id, attr, value, false));
+			assertRevListMatch(m_db.getObjectRevs(objType1Id, attr, value, true),
+					index.getObjectRevs(objType1Id, attr, value, true));
+		}
+	}
+	
+	private void assertPlannerMatch(StateMapQueryPlanner planner, Map<String, Object> attrMap) 
+			throws ModelVersionDBException {
+		assertRevListMatch(m_db.getObjectRevs(objType1Id, attrMap, false),
+				planner.getObjectRevs(objType1Id, attrMap, false));
+		assertRevListMatch(m_db.getObjectRevs(objType1Id, attrMap, true),
+				planner.getObjectRevs(objType1Id, attrMap, true));
+	}
+	
+	private void assertPagesMatch(ObjectRevPager pager, Map<String, Object> attrMap, 
+			boolean lastOnly, int pageSize) throws ModelVersionDBException {
+		List<Revision> revs = new ArrayList<Revision>();
+		String token = null;
+		do {
+			RevisionPage page = pager.getObjectRevs(objType1Id, attrMap, lastOnly, pageSize, token);
+			assertTrue(page.getRevisions().size() <= pageSize);
+			revs.addAll(page.getRevisions());
+			token = page.getNextToken();
+		} while (token != null);
+		assertRevListMatch(m_db.getObjectRevs(objType1Id, attrMap, lastOnly), revs);
+	}
+	
+	/**
+	 * Returns a new instance of the service implementation connected to the
+	 * test database.
+	 */
+	private ModelVersionDBService newSession() throws Exception {
+		ModelVersionDBService session = m_db.getClass().newInstance();
+		session.setConnectionURL(_url, _login, _pwd);
+		
+		return session;
+	}
+	
 	private void checkFindRev(List<Revision> revs, UUID objId,
 			int objRev) {
 		if (revs == null)
@@ -3904,6 +7113,76 @@ public class ModelVersionDBTestCase extends OSGiTestCase {
 		fail("Revision " + objRev + " of object " + objId + " canot be found.");
 	}
 
+	/**
+	 * Returns a service delegating to <code>db</code> which counts the calls
+	 * of each method.
+	 */
+	private static ModelVersionDBService newCountingService(final ModelVersionDBService db, 
+			final Map<String, Integer> calls) {
+		return (ModelVersionDBService) Proxy.newProxyInstance(ModelVersionDBService.class.getClassLoader(), 
+				new Class<?>[] { ModelVersionDBService.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				synchronized (calls) {
+					Integer count = calls.get(method.getName());
+					calls.put(method.getName(), (count == null) ? 1 : count + 1);
+				}
+				try {
+					return method.invoke(db, args);
+				} catch (InvocationTargetException e) {
+					throw e.getTargetException();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns a service delegating to <code>db</code> whose calls of the
+	 * specified method about <code>objId</code> wait for <code>release</code>.
+	 */
+	private static ModelVersionDBService newBlockingService(final ModelVersionDBService db, 
+			final String methodName, final UUID objId, final CountDownLatch release) {
+		return (ModelVersionDBService) Proxy.newProxyInstance(ModelVersionDBService.class.getClassLoader(), 
+				new Class<?>[] { ModelVersionDBService.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals(methodName) && (args != null) && objId.equals(args[0]))
+					release.await();
+				try {
+					return method.invoke(db, args);
+				} catch (InvocationTargetException e) {
+					throw e.getTargetException();
+				}
+			}
+		});
+	}
+	
+	private static int getCallCount(Map<String, Integer> calls) {
+		int count = 0;
+		for (Integer methodCount : calls.values())
+			count += methodCount;
+		return count;
+	}
+	
+	private static void insertValue(Connection[] conns, int id, String value) throws SQLException {
+		for (Connection conn : conns) {
+			PreparedStatement stmt = conn.prepareStatement("INSERT INTO TPC_VALUES VALUES (?, ?)");
+			stmt.setInt(1, id);
+			stmt.setString(2, value);
+			stmt.executeUpdate();
+			stmt.close();
+		}
+	}
+	
+	private static void assertValueCount(Connection[] conns, int expectCount) throws SQLException {
+		for (Connection conn : conns) {
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM TPC_VALUES");
+			assertTrue(rs.next());
+			assertEquals(expectCount, rs.getInt(1));
+			rs.close();
+			stmt.close();
+		}
+	}
+	
 	private void assertRevListMatch(List<Revision> expectRevs,
 			List<Revision> revs) {
 		if (expectRevs == null) {
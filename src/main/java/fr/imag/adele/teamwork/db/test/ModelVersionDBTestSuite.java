@@ -41,6 +41,12 @@ public class ModelVersionDBTestSuite {
         hsqlTestSuite.addTestSuite(ModelVersionDBTestCase.class, "hsqldb:hsql", "localhost", 9002, "TestModelDB", "sa", "");
         ots.addTestSuite(hsqlTestSuite);
         
+        if (Boolean.getBoolean(ModelVersionDBBenchmark.BENCHMARK_PROPERTY)) {
+        	DBOSGiTestSuite benchTestSuite = new DBOSGiTestSuite("Benchmarks of ModelVersionDBService with HSQLDB", bc);
+        	benchTestSuite.addTestSuite(ModelVersionDBBenchmarkCase.class);
+        	ots.addTestSuite(benchTestSuite);
+        }
+        
         return ots;
     }
 }
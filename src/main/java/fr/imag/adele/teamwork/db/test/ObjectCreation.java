@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Parameters of one object creation in a batch.
+ * 
+ * @see BatchOperations#createObjects(fr.imag.adele.teamwork.db.ModelVersionDBService, java.util.List)
+ */
+public class ObjectCreation {
+
+	private UUID _id;
+	private UUID _typeId;
+	private Map<String, Object> _stateMap;
+	private boolean _isType;
+
+	public ObjectCreation(UUID id, UUID typeId, Map<String, Object> stateMap, boolean isType) {
+		_id = id;
+		_typeId = typeId;
+		_stateMap = stateMap;
+		_isType = isType;
+	}
+
+	public UUID getId() {
+		return _id;
+	}
+
+	public UUID getTypeId() {
+		return _typeId;
+	}
+
+	public Map<String, Object> getStateMap() {
+		return _stateMap;
+	}
+
+	public boolean isType() {
+		return _isType;
+	}
+}
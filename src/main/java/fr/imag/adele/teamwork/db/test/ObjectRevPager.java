@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Paged variant of ModelVersionDBService.getObjectRevs(UUID, Map, boolean).
+ * 
+ * Revisions are returned ordered by object id, then by revision number, so
+ * the revisions of each object keep the order of getObjectRevs. Pages use
+ * keyset pagination: the continuation token is the last returned
+ * (object id, revision), and the next page starts right after it.
+ * 
+ * The ids of the objects of the type are read and sorted by the first page
+ * and kept by the pager for the following pages, so objects created after
+ * the first page are not returned and deleted objects are skipped. A call
+ * scans at most <code>maxScannedObjects</code> objects and reads the state
+ * of each of their revisions: a page may then hold less than
+ * <code>pageSize</code> revisions, or none, while a token is returned. The
+ * cost of the following pages is bounded by the number of scanned objects
+ * and revisions, not by the size of the type; the first page also costs
+ * the read of all the ids of the type.
+ */
+public class ObjectRevPager {
+
+	public static final int DEFAULT_MAX_SCANNED_OBJECTS = 256;
+
+	private ModelVersionDBService m_db;
+	private int m_maxScanned;
+
+	/*
+	 * type id -> sorted ids of its objects read by the first page
+	 */
+	private Map<UUID, UUID[]> m_objIds = new HashMap<UUID, UUID[]>();
+
+	public ObjectRevPager(ModelVersionDBService db) {
+		this(db, DEFAULT_MAX_SCANNED_OBJECTS);
+	}
+
+	public ObjectRevPager(ModelVersionDBService db, int maxScannedObjects) {
+		if (maxScannedObjects <= 0)
+			throw new IllegalArgumentException("Maximum number of scanned objects must be positive.");
+
+		m_db = db;
+		m_maxScanned = maxScannedObjects;
+	}
+
+	/**
+	 * Returns at most <code>pageSize</code> revisions of objects of the
+	 * specified type whose state contains the specified attribute values.
+	 * 
+	 * @param token   null for the first page, else the token of the
+	 *                previous page
+	 * @param lastOnly if true, only the last matching revision of each object
+	 *                is returned
+	 */
+	public RevisionPage getObjectRevs(UUID typeId, Map<String, Object> stateMap, boolean lastOnly, 
+			int pageSize, String token) throws ModelVersionDBException {
+		if (typeId == null)
+			throw new IllegalArgumentException("Type id cannot be null.");
+		if (pageSize <= 0)
+			throw new IllegalArgumentException("Page size must be positive.");
+
+		RevisionKey after = (token == null) ? null : RevisionKey.parse(token);
+		UUID[] objIds = getObjectIds(typeId, (after == null));
+		int first = 0;
+		if (after != null) {
+			first = Arrays.binarySearch(objIds, after.getId());
+			if (first < 0)
+				first = -first - 1;
+		}
+
+		List<Revision> revisions = new ArrayList<Revision>(pageSize);
+		RevisionKey last = null;
+		boolean full = false;
+		for (int i = first; i < objIds.length; i++) {
+			if (full) {
+				// more revisions may follow
+				return new RevisionPage(revisions, last.toString());
+			}
+			if (i - first == m_maxScanned) {
+				// continue after all the revisions of the last scanned object
+				return new RevisionPage(revisions, new RevisionKey(objIds[i - 1], Integer.MAX_VALUE).toString());
+			}
+
+			UUID objId = objIds[i];
+			if (!m_db.objExists(objId))
+				continue;
+
+			int[] revNbs = m_db.getObjectRevNbs(objId);
+			Arrays.sort(revNbs);
+			List<Integer> matchingRevs = new ArrayList<Integer>();
+			for (int rev : revNbs) {
+				if ((stateMap == null) || StateMapQueryPlanner.matches(m_db.getObjectState(objId, rev), stateMap))
+					matchingRevs.add(rev);
+			}
+			if (lastOnly && (matchingRevs.size() > 1))
+				matchingRevs = matchingRevs.subList(matchingRevs.size() - 1, matchingRevs.size());
+
+			for (int rev : matchingRevs) {
+				if ((after != null) && objId.equals(after.getId()) && (rev <= after.getRev()))
+					continue;
+
+				if (revisions.size() == pageSize)
+					return new RevisionPage(revisions, last.toString());
+
+				revisions.add(new Revision(objId, typeId, rev));
+				last = new RevisionKey(objId, rev);
+			}
+			full = (revisions.size() == pageSize);
+		}
+
+		return new RevisionPage(revisions, null);
+	}
+
+	/*
+	 * Private methods
+	 */
+
+	private UUID[] getObjectIds(UUID typeId, boolean reload) throws ModelVersionDBException {
+		UUID[] objIds = m_objIds.get(typeId);
+		if (reload || (objIds == null)) {
+			objIds = m_db.getObjects(typeId).toArray(new UUID[0]);
+			Arrays.sort(objIds);
+			m_objIds.put(typeId, objIds);
+		}
+
+		return objIds;
+	}
+}
@@ -0,0 +1,495 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optimistic concurrency control of object revision updates.
+ *
+ * Each object revision has a stamp which is incremented by every update done
+ * through this class. A client reads the stamp with the state, then passes
+ * it back with its update: if the revision has been updated since, the
+ * update fails with a ConcurrentUpdateException instead of overwriting the
+ * other update, and the client can read the revision again and retry. No
+ * lock is held between the read and the update. An update of an attribute
+ * which is not version specific changes all revisions of the object, so it
+ * increments the stamps of all of them.
+ *
+ * Stamps are kept in the STAMP_TABLE table of the connection, normally a
+ * connection to the database of the service. The stamp is compared and
+ * incremented by a single UPDATE statement, which is committed after the
+ * revision has been written by the service.
+ *
+ * The stamp and the state are written on two connections, so reading the
+ * new stamp with the old state must be prevented by locks. In a JVM, the
+ * instances of this class share a read/write lock per object stripe. Reads
+ * of the stamp and the state hold it shared, so they do not wait for each
+ * other. Updates hold it exclusively only while the stamp is checked, the
+ * state is written and the stamp is committed: updates of the same object,
+ * or of objects of the same stripe, are serialized in a JVM and block the
+ * reads of these objects meanwhile. Between JVMs, the database must
+ * lock the updated stamp row until commit and only return committed rows,
+ * as MySQL InnoDB or Oracle do; HSQLDB 1.8 reads uncommitted rows and has no
+ * row locks, so with HSQLDB only the clients of the same JVM are protected.
+ *
+ * Updates of attributes which are not version specific read the type
+ * metadata of the object before locking it, from a TypeMetadataCache if
+ * one is given.
+ *
+ * A revision which has never been updated through this class has stamp
+ * NO_STAMP. Updates done directly with the service are not detected.
+ * Concurrent clients use one instance each since the connection cannot be
+ * shared by threads.
+ */
+public class OptimisticUpdater {
+
+	public static final String STAMP_TABLE = "MVDB_STAMPS";
+
+	/**
+	 * Stamp of revisions never updated through this class.
+	 */
+	public static final long NO_STAMP = 0;
+
+	/**
+	 * Expected stamp of updates which do not check the stamp.
+	 */
+	public static final long ANY_STAMP = -1;
+
+	/*
+	 * shared by the reads and exclusive for the updates of an object by
+	 * the instances of this JVM
+	 */
+	private static final StripedLocks OBJECT_LOCKS = new StripedLocks(256);
+
+	private ModelVersionDBService m_db;
+	private TypeMetadataCache m_metadata;
+	private Connection m_conn;
+
+	private PreparedStatement m_select;
+	private PreparedStatement m_insert;
+	private PreparedStatement m_update;
+	private PreparedStatement m_forceUpdate;
+
+	private AtomicLong m_updateCount = new AtomicLong();
+	private AtomicLong m_conflictCount = new AtomicLong();
+
+	public OptimisticUpdater(ModelVersionDBService db, Connection conn) throws SQLException {
+		this(db, conn, null);
+	}
+
+	/**
+	 * Creates the stamp table if it does not exist. The connection is
+	 * switched to manual commit.
+	 *
+	 * @param metadata cache of the type metadata of <code>db</code>, or
+	 *                 null to read it from the database on each update
+	 */
+	public OptimisticUpdater(ModelVersionDBService db, Connection conn, TypeMetadataCache metadata) 
+			throws SQLException {
+		if ((db == null) || (conn == null))
+			throw new IllegalArgumentException("Database service and connection cannot be null.");
+
+		m_db = db;
+		m_metadata = metadata;
+		m_conn = conn;
+		m_conn.setAutoCommit(false);
+
+		ResultSet tables = m_conn.getMetaData().getTables(null, null, STAMP_TABLE, null);
+		boolean exists;
+		try {
+			exists = tables.next();
+		} finally {
+			tables.close();
+		}
+		if (!exists) {
+			Statement stmt = m_conn.createStatement();
+			try {
+				stmt.execute("CREATE TABLE " + STAMP_TABLE + " (OBJ_ID VARCHAR(36) NOT NULL, " +
+						"REV INTEGER NOT NULL, STAMP BIGINT NOT NULL, PRIMARY KEY (OBJ_ID, REV))");
+			} finally {
+				stmt.close();
+			}
+			m_conn.commit();
+		}
+
+		m_select = m_conn.prepareStatement("SELECT STAMP FROM " + STAMP_TABLE + " WHERE OBJ_ID = ? AND REV = ?");
+		m_insert = m_conn.prepareStatement("INSERT INTO " + STAMP_TABLE + " (OBJ_ID, REV, STAMP) VALUES (?, ?, 1)");
+		m_update = m_conn.prepareStatement("UPDATE " + STAMP_TABLE +
+				" SET STAMP = STAMP + 1 WHERE OBJ_ID = ? AND REV = ? AND STAMP = ?");
+		m_forceUpdate = m_conn.prepareStatement("UPDATE " + STAMP_TABLE +
+				" SET STAMP = STAMP + 1 WHERE OBJ_ID = ? AND REV = ?");
+	}
+
+	public ModelVersionDBService getService() {
+		return m_db;
+	}
+
+	public Connection getConnection() {
+		return m_conn;
+	}
+
+	/**
+	 * Returns the lock of the objects shared by the instances of this class.
+	 */
+	static StripedLocks getObjectLocks() {
+		return OBJECT_LOCKS;
+	}
+
+	/**
+	 * Returns the current stamp of an object revision.
+	 */
+	public long getStamp(UUID objId, int rev) throws ModelVersionDBException {
+		checkRevision(objId, rev);
+		OBJECT_LOCKS.lockShared(objId);
+		try {
+			return readStamp(objId, rev);
+		} finally {
+			OBJECT_LOCKS.unlockShared(objId);
+		}
+	}
+
+	/**
+	 * Returns the state of an object revision with its stamp. The state is
+	 * not read while an update of the object is running.
+	 */
+	public StampedState getObjectState(UUID objId, int rev) throws ModelVersionDBException {
+		checkRevision(objId, rev);
+		OBJECT_LOCKS.lockShared(objId);
+		try {
+			long stamp = readStamp(objId, rev);
+			return new StampedState(m_db.getObjectState(objId, rev), stamp);
+		} finally {
+			OBJECT_LOCKS.unlockShared(objId);
+		}
+	}
+
+	/**
+	 * Sets the state of an object revision if its stamp is still
+	 * <code>expectedStamp</code>.
+	 *
+	 * @param expectedStamp stamp read with the state, or ANY_STAMP to
+	 *                      update the revision whatever its stamp is
+	 * @return the new stamp of the revision, ANY_STAMP if it cannot be
+	 *         read back after a failed commit has been retried
+	 * @throws ConcurrentUpdateException if the revision has been updated
+	 *                                   since its stamp was read
+	 */
+	public long setObjectState(UUID objId, int rev, Map<String, Object> stateMap, long expectedStamp)
+			throws ModelVersionDBException {
+		checkRevision(objId, rev);
+		if ((expectedStamp < NO_STAMP) && (expectedStamp != ANY_STAMP))
+			throw new IllegalArgumentException("Invalid stamp " + expectedStamp);
+
+		int[] sharingRevs = getSharingRevisions(objId, rev, stateMap);
+		OBJECT_LOCKS.lock(objId);
+		try {
+			synchronized (this) {
+				long stamp = update(objId, rev, stateMap, expectedStamp, sharingRevs);
+				m_updateCount.incrementAndGet();
+
+				return stamp;
+			}
+		} finally {
+			OBJECT_LOCKS.unlock(objId);
+		}
+	}
+
+	/**
+	 * Sets the value of an attribute of an object revision if its stamp is
+	 * still <code>expectedStamp</code>.
+	 *
+	 * @see #setObjectState(UUID, int, Map, long)
+	 */
+	public long setObjectValue(UUID objId, int rev, String attr, Object value, long expectedStamp)
+			throws ModelVersionDBException {
+		if (attr == null)
+			throw new IllegalArgumentException("Attribute name cannot be null.");
+
+		return setObjectState(objId, rev, Collections.singletonMap(attr, value), expectedStamp);
+	}
+
+	/**
+	 * Removes the stamps of the revisions of a deleted object.
+	 */
+	public synchronized void deleteStamps(UUID objId) throws ModelVersionDBException {
+		if (objId == null)
+			throw new IllegalArgumentException("Object id cannot be null.");
+
+		execute("DELETE FROM " + STAMP_TABLE + " WHERE OBJ_ID = '" + objId + "'");
+	}
+
+	/**
+	 * Removes all stamps.
+	 */
+	public synchronized void clear() throws ModelVersionDBException {
+		execute("DELETE FROM " + STAMP_TABLE);
+	}
+
+	/**
+	 * Closes the statements. The connection is not closed.
+	 */
+	public synchronized void close() throws SQLException {
+		m_select.close();
+		m_insert.close();
+		m_update.close();
+		m_forceUpdate.close();
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	public long getUpdateCount() {
+		return m_updateCount.get();
+	}
+
+	/**
+	 * Returns the number of updates which failed with a
+	 * ConcurrentUpdateException.
+	 */
+	public long getConflictCount() {
+		return m_conflictCount.get();
+	}
+
+	public void resetStatistics() {
+		m_updateCount.set(0);
+		m_conflictCount.set(0);
+	}
+
+	/*
+	 * Private methods
+	 */
+
+	private long update(UUID objId, int rev, Map<String, Object> stateMap, long expectedStamp, 
+			int[] sharingRevs) throws ModelVersionDBException {
+		long stamp = incrementStamp(objId, rev, expectedStamp);
+		boolean written = false;
+		try {
+			for (int sharingRev : sharingRevs)
+				forceIncrement(objId, sharingRev);
+			m_db.setObjectState(objId, rev, stateMap);
+			written = true;
+			m_conn.commit();
+
+			return stamp;
+		} catch (SQLException e) {
+			rollbackQuietly();
+			if (!written)
+				throw newException("Cannot update stamp of revision " + rev + " of object " + objId, e);
+
+			// the state has been written, its stamps must not be kept
+			try {
+				forceIncrement(objId, rev);
+				for (int sharingRev : sharingRevs)
+					forceIncrement(objId, sharingRev);
+				m_conn.commit();
+			} catch (SQLException retryError) {
+				rollbackQuietly();
+				throw newException("Revision " + rev + " of object " + objId + 
+						" has been written but its stamp cannot be updated", retryError);
+			}
+
+			return selectStampQuietly(objId, rev);
+		} finally {
+			if (!written)
+				rollbackQuietly();
+		}
+	}
+
+	/**
+	 * Returns the other revisions of the object which share an attribute of
+	 * the state map, that is all of them if an attribute is not version
+	 * specific. Fails with an IllegalArgumentException if the object does
+	 * not exist.
+	 */
+	private int[] getSharingRevisions(UUID objId, int rev, Map<String, Object> stateMap) 
+			throws ModelVersionDBException {
+		if ((stateMap == null) || stateMap.isEmpty())
+			return new int[0];
+
+		UUID typeId = (m_metadata == null) ? m_db.getObjectType(objId) : m_metadata.getObjectType(objId);
+		boolean shared = false;
+		for (String attr : stateMap.keySet()) {
+			if ((attr != null) && !isVersionSpecific(typeId, attr)) {
+				shared = true;
+				break;
+			}
+		}
+		if (!shared)
+			return new int[0];
+
+		int[] revs = m_db.getObjectRevNbs(objId);
+		int[] sharingRevs = new int[revs.length];
+		int count = 0;
+		for (int objRev : revs) {
+			if (objRev != rev)
+				sharingRevs[count++] = objRev;
+		}
+		int[] result = new int[count];
+		System.arraycopy(sharingRevs, 0, result, 0, count);
+
+		return result;
+	}
+
+	private boolean isVersionSpecific(UUID typeId, String attr) throws ModelVersionDBException {
+		if (m_metadata == null)
+			return m_db.isObjectAttVersionSpecific(typeId, attr);
+
+		return m_metadata.isObjectAttVersionSpecific(typeId, attr);
+	}
+
+	/**
+	 * Increments the stamp in the current transaction, whatever its value.
+	 */
+	private void forceIncrement(UUID objId, int rev) throws SQLException {
+		m_forceUpdate.setString(1, objId.toString());
+		m_forceUpdate.setInt(2, rev);
+		if (m_forceUpdate.executeUpdate() == 1)
+			return;
+
+		m_insert.setString(1, objId.toString());
+		m_insert.setInt(2, rev);
+		m_insert.executeUpdate();
+	}
+
+	/**
+	 * Increments the stamp in the current transaction and returns the new
+	 * stamp.
+	 */
+	private long incrementStamp(UUID objId, int rev, long expectedStamp) throws ModelVersionDBException {
+		try {
+			PreparedStatement update = (expectedStamp == ANY_STAMP) ? m_forceUpdate : m_update;
+			update.setString(1, objId.toString());
+			update.setInt(2, rev);
+			if (expectedStamp != ANY_STAMP)
+				update.setLong(3, expectedStamp);
+			if (update.executeUpdate() == 1)
+				return (expectedStamp == ANY_STAMP) ? selectStamp(objId, rev) : expectedStamp + 1;
+
+			if ((expectedStamp == NO_STAMP) || (expectedStamp == ANY_STAMP)) {
+				// first update of the revision
+				m_insert.setString(1, objId.toString());
+				m_insert.setInt(2, rev);
+				try {
+					m_insert.executeUpdate();
+
+					return 1;
+				} catch (SQLException e) {
+					// inserted by another client
+					if (expectedStamp == ANY_STAMP) {
+						m_conn.rollback();
+						return incrementStamp(objId, rev, expectedStamp);
+					}
+				}
+			}
+
+			long actualStamp = selectStamp(objId, rev);
+			m_conn.rollback();
+			m_conflictCount.incrementAndGet();
+			throw new ConcurrentUpdateException(objId, rev, expectedStamp, actualStamp);
+		} catch (SQLException e) {
+			rollbackQuietly();
+			throw newException("Cannot update stamp of revision " + rev + " of object " + objId, e);
+		}
+	}
+
+	private synchronized long readStamp(UUID objId, int rev) throws ModelVersionDBException {
+		try {
+			long stamp = selectStamp(objId, rev);
+			m_conn.commit();
+
+			return stamp;
+		} catch (SQLException e) {
+			throw newException("Cannot read stamp of revision " + rev + " of object " + objId, e);
+		}
+	}
+
+	private long selectStamp(UUID objId, int rev) throws SQLException {
+		m_select.setString(1, objId.toString());
+		m_select.setInt(2, rev);
+		ResultSet rs = m_select.executeQuery();
+		try {
+			return rs.next() ? rs.getLong(1) : NO_STAMP;
+		} finally {
+			rs.close();
+		}
+	}
+
+	private long selectStampQuietly(UUID objId, int rev) {
+		try {
+			long stamp = selectStamp(objId, rev);
+			m_conn.commit();
+
+			return stamp;
+		} catch (SQLException e) {
+			rollbackQuietly();
+			return ANY_STAMP;
+		}
+	}
+
+	private void execute(String sql) throws ModelVersionDBException {
+		try {
+			Statement stmt = m_conn.createStatement();
+			try {
+				stmt.executeUpdate(sql);
+			} finally {
+				stmt.close();
+			}
+			m_conn.commit();
+		} catch (SQLException e) {
+			rollbackQuietly();
+			throw newException("Cannot update table " + STAMP_TABLE, e);
+		}
+	}
+
+	private void rollbackQuietly() {
+		try {
+			m_conn.rollback();
+		} catch (SQLException e) {
+			// ignore it
+		}
+	}
+
+	private static void checkRevision(UUID objId, int rev) {
+		if (objId == null)
+			throw new IllegalArgumentException("Object id cannot be null.");
+		if (rev < 0)
+			throw new IllegalArgumentException("Stamps are only kept for revision numbers, not for " + rev);
+	}
+
+	private static ModelVersionDBException newException(String msg, SQLException cause) {
+		ModelVersionDBException e = new ModelVersionDBException(msg + ": " + cause.getMessage());
+		e.initCause(cause);
+
+		return e;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Execution plan of a state map query chosen by StateMapQueryPlanner.
+ * 
+ * The plan probes the index of the most selective attribute and verifies
+ * the other attributes on the candidate revisions only. When no attribute
+ * of the query is indexed, the query is delegated to the database.
+ */
+public class QueryPlan {
+
+	/**
+	 * Estimate of attributes which are not indexed.
+	 */
+	public static final int UNKNOWN = -1;
+
+	private UUID _typeId;
+	private String _probeAttribute;
+	private Map<String, Integer> _estimates = new LinkedHashMap<String, Integer>();
+	private int _candidateCount = UNKNOWN;
+	private int _resultCount = UNKNOWN;
+	private long _durationNanos;
+
+	public QueryPlan(UUID typeId) {
+		_typeId = typeId;
+	}
+
+	public UUID getTypeId() {
+		return _typeId;
+	}
+
+	/**
+	 * Returns the attribute whose index is probed or null if the query is
+	 * delegated to the database.
+	 */
+	public String getProbeAttribute() {
+		return _probeAttribute;
+	}
+
+	void setProbeAttribute(String attr) {
+		_probeAttribute = attr;
+	}
+
+	/**
+	 * Returns the estimated number of matching revisions per attribute of the
+	 * query, UNKNOWN for attributes which are not indexed.
+	 */
+	public Map<String, Integer> getEstimates() {
+		return _estimates;
+	}
+
+	void setEstimate(String attr, int estimate) {
+		_estimates.put(attr, estimate);
+	}
+
+	/**
+	 * Returns the number of revisions returned by the probe or UNKNOWN if
+	 * the plan has not been executed.
+	 */
+	public int getCandidateCount() {
+		return _candidateCount;
+	}
+
+	/**
+	 * Returns the number of matching revisions or UNKNOWN if the plan has
+	 * not been executed.
+	 */
+	public int getResultCount() {
+		return _resultCount;
+	}
+
+	public long getDurationNanos() {
+		return _durationNanos;
+	}
+
+	void setExecution(int candidateCount, int resultCount, long durationNanos) {
+		_candidateCount = candidateCount;
+		_resultCount = resultCount;
+		_durationNanos = durationNanos;
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer sb = new StringBuffer();
+		sb.append("type ").append(_typeId).append(": ");
+		if (_probeAttribute == null)
+			sb.append("database scan");
+		else
+			sb.append("index probe on ").append(_probeAttribute);
+		sb.append(", estimates ").append(_estimates);
+		if (_resultCount != UNKNOWN) {
+			sb.append(", ").append(_candidateCount).append(" candidates, ");
+			sb.append(_resultCount).append(" results in ");
+			sb.append(_durationNanos / 1000).append(" us");
+		}
+
+		return sb.toString();
+	}
+}
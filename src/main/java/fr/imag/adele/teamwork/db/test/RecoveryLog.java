@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Log of the commit decisions of a TwoPhaseCommitCoordinator.
+ * 
+ * A COMMIT record with the participant names is forced to disk before the
+ * first participant commits. A DONE record is written when a participant has
+ * committed and an END record when all have. A transaction with a COMMIT
+ * record and without END record is in doubt: some participants may not have
+ * committed. Rolled back transactions are not logged, a transaction without
+ * COMMIT record is presumed rolled back.
+ * 
+ * The file is read on creation and truncated if no transaction is in doubt.
+ */
+public class RecoveryLog {
+
+	private static final String COMMIT = "COMMIT";
+	private static final String DONE = "DONE";
+	private static final String END = "END";
+
+	private File _file;
+	private FileOutputStream _out;
+
+	/*
+	 * transaction id -> participants which have not committed yet
+	 */
+	private Map<String, Set<String>> _inDoubt = new LinkedHashMap<String, Set<String>>();
+
+	public RecoveryLog(File file) throws IOException {
+		if (file == null)
+			throw new IllegalArgumentException("Log file cannot be null.");
+
+		_file = file;
+		if (_file.exists())
+			read();
+		_out = new FileOutputStream(_file, !_inDoubt.isEmpty());
+	}
+
+	public File getFile() {
+		return _file;
+	}
+
+	/**
+	 * Records the commit decision and forces it to disk.
+	 */
+	public synchronized void logCommit(String txId, Collection<String> participants) throws IOException {
+		checkId(txId);
+		StringBuilder record = new StringBuilder(COMMIT).append(' ').append(txId);
+		Set<String> names = new HashSet<String>();
+		for (String name : participants) {
+			checkId(name);
+			record.append(' ').append(name);
+			names.add(name);
+		}
+		write(record.toString(), true);
+		_inDoubt.put(txId, names);
+	}
+
+	public synchronized void logDone(String txId, String participant) throws IOException {
+		write(DONE + ' ' + txId + ' ' + participant, false);
+		Set<String> names = _inDoubt.get(txId);
+		if (names != null)
+			names.remove(participant);
+	}
+
+	public synchronized void logEnd(String txId) throws IOException {
+		write(END + ' ' + txId, false);
+		_inDoubt.remove(txId);
+	}
+
+	/**
+	 * Returns the transactions in doubt with their participants which have
+	 * not committed.
+	 */
+	public synchronized Map<String, Set<String>> getInDoubtTransactions() {
+		Map<String, Set<String>> inDoubt = new LinkedHashMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> entry : _inDoubt.entrySet())
+			inDoubt.put(entry.getKey(), Collections.unmodifiableSet(new HashSet<String>(entry.getValue())));
+
+		return inDoubt;
+	}
+
+	public synchronized void close() throws IOException {
+		if (_out != null)
+			_out.close();
+		_out = null;
+	}
+
+	private void write(String record, boolean force) throws IOException {
+		if (_out == null)
+			throw new IOException("Recovery log " + _file + " is closed.");
+
+		_out.write((record + "\n").getBytes("US-ASCII"));
+		if (force)
+			_out.getFD().sync();
+	}
+
+	private void read() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(_file), "US-ASCII"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(" ");
+				if ((fields.length < 2) || (fields[1].length() == 0)) {
+					// truncated record
+					continue;
+				}
+
+				String txId = fields[1];
+				if (COMMIT.equals(fields[0])) {
+					Set<String> names = new HashSet<String>();
+					for (int i = 2; i < fields.length; i++)
+						names.add(fields[i]);
+					_inDoubt.put(txId, names);
+				} else if (DONE.equals(fields[0]) && (fields.length == 3)) {
+					Set<String> names = _inDoubt.get(txId);
+					if (names != null)
+						names.remove(fields[2]);
+				} else if (END.equals(fields[0])) {
+					_inDoubt.remove(txId);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static void checkId(String id) {
+		if ((id == null) || (id.length() == 0) || (id.indexOf(' ') >= 0) || (id.indexOf('\n') >= 0))
+			throw new IllegalArgumentException("Invalid transaction or participant id " + id);
+	}
+}
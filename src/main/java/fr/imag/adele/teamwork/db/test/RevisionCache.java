@@ -0,0 +1,351 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded read-through cache of object revision states.
+ * 
+ * States are cached by (object id, revision number) as immutable maps and
+ * the least recently used ones are evicted first. Modifications done through
+ * this class invalidate all the cached revisions of the modified object.
+ * When a TypeMetadataCache is given, setting a version specific attribute
+ * only invalidates the modified revision, and the metadata modifications
+ * are made through the metadata cache.
+ * 
+ * Objects modified in a transaction are not cached until the transaction
+ * is committed or rolled back, so that other threads never see uncommitted
+ * states from the cache and rolled back states are dropped. While the
+ * transaction runs, these objects are read from the database.
+ */
+public class RevisionCache {
+
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	private ModelVersionDBService m_db;
+	private TypeMetadataCache m_metadata;
+	private int m_maxSize;
+
+	private Map<RevisionKey, Map<String, Object>> m_states;
+
+	/*
+	 * object id -> cached revisions
+	 */
+	private Map<UUID, Set<Integer>> m_objectRevs = new HashMap<UUID, Set<Integer>>();
+
+	/*
+	 * objects modified by the running transaction
+	 */
+	private Set<UUID> m_txObjects;
+
+	/*
+	 * incremented on each modification so that states read concurrently
+	 * with a modification are not cached
+	 */
+	private long m_generation;
+
+	private AtomicLong m_hits = new AtomicLong();
+	private AtomicLong m_misses = new AtomicLong();
+
+	public RevisionCache(ModelVersionDBService db) {
+		this(db, DEFAULT_MAX_SIZE);
+	}
+
+	public RevisionCache(ModelVersionDBService db, int maxSize) {
+		this(db, maxSize, null);
+	}
+
+	public RevisionCache(ModelVersionDBService db, int maxSize, TypeMetadataCache metadata) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Cache size must be positive.");
+
+		m_db = db;
+		m_metadata = metadata;
+		m_maxSize = maxSize;
+		m_states = new LinkedHashMap<RevisionKey, Map<String, Object>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<RevisionKey, Map<String, Object>> eldest) {
+				if (size() <= m_maxSize)
+					return false;
+
+				forgetRev(eldest.getKey());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Same as ModelVersionDBService.getObjectState(UUID, int).
+	 * The returned map cannot be modified.
+	 */
+	public Map<String, Object> getObjectState(UUID objId, int rev) throws ModelVersionDBException {
+		if ((objId == null) || (rev < 0)) {
+			// LAST is resolved and errors are reported by the database
+			return m_db.getObjectState(objId, rev);
+		}
+
+		RevisionKey key = new RevisionKey(objId, rev);
+		long generation;
+		synchronized (this) {
+			Map<String, Object> state = m_states.get(key);
+			if (state != null) {
+				m_hits.incrementAndGet();
+				return state;
+			}
+			generation = m_generation;
+		}
+
+		m_misses.incrementAndGet();
+		Map<String, Object> state = Collections.unmodifiableMap(
+				new HashMap<String, Object>(m_db.getObjectState(objId, rev)));
+		synchronized (this) {
+			if ((generation == m_generation) && isCacheable(objId)) {
+				m_states.put(key, state);
+				Set<Integer> revs = m_objectRevs.get(objId);
+				if (revs == null) {
+					revs = new HashSet<Integer>();
+					m_objectRevs.put(objId, revs);
+				}
+				revs.add(rev);
+			}
+		}
+
+		return state;
+	}
+
+	/**
+	 * Same as ModelVersionDBService.getObjectValue(UUID, int, String).
+	 */
+	public Object getObjectValue(UUID objId, int rev, String attr) throws ModelVersionDBException {
+		if ((objId == null) || (rev < 0) || (attr == null))
+			return m_db.getObjectValue(objId, rev, attr);
+
+		Map<String, Object> state = getObjectState(objId, rev);
+		if (!state.containsKey(attr))
+			return m_db.getObjectValue(objId, rev, attr);
+
+		return state.get(attr);
+	}
+
+	/*
+	 * Modification methods
+	 */
+
+	public void setObjectValue(UUID objId, int rev, String attr, Object value) throws ModelVersionDBException {
+		modify(objId);
+		boolean revOnly = false;
+		try {
+			m_db.setObjectValue(objId, rev, attr, value);
+			revOnly = isVersionSpecific(objId, rev, attr);
+		} finally {
+			if (revOnly)
+				invalidate(objId, rev);
+			else
+				invalidate(objId);
+		}
+	}
+
+	public void setObjectState(UUID objId, int rev, Map<String, Object> stateMap) throws ModelVersionDBException {
+		modify(objId);
+		try {
+			m_db.setObjectState(objId, rev, stateMap);
+		} finally {
+			invalidate(objId);
+		}
+	}
+
+	public void deleteObject(UUID objId) throws ModelVersionDBException {
+		modify(objId);
+		try {
+			if (m_metadata != null)
+				m_metadata.deleteObject(objId);
+			else
+				m_db.deleteObject(objId);
+		} finally {
+			invalidate(objId);
+		}
+	}
+
+	/**
+	 * Making an attribute not version specific changes the value of all the
+	 * revisions of the type, so the whole cache is invalidated.
+	 */
+	public void setObjectAttVersionSpecific(UUID typeId, String attr, boolean versionSpecific) 
+			throws ModelVersionDBException {
+		synchronized (this) {
+			m_generation++;
+		}
+		try {
+			if (m_metadata != null)
+				m_metadata.setObjectAttVersionSpecific(typeId, attr, versionSpecific);
+			else
+				m_db.setObjectAttVersionSpecific(typeId, attr, versionSpecific);
+		} finally {
+			invalidateAll();
+		}
+	}
+
+	public void clear() throws ModelVersionDBException {
+		try {
+			if (m_metadata != null)
+				m_metadata.clear();
+			else
+				m_db.clear();
+		} finally {
+			invalidateAll();
+		}
+	}
+
+	/*
+	 * Transaction methods
+	 */
+
+	public void beginTransaction() throws ModelVersionDBException, TransactionException {
+		m_db.beginTransaction();
+		synchronized (this) {
+			m_txObjects = new HashSet<UUID>();
+		}
+	}
+
+	public void commitTransaction() throws ModelVersionDBException, TransactionException {
+		try {
+			m_db.commitTransaction();
+		} finally {
+			endTransaction();
+		}
+	}
+
+	public void rollbackTransaction() throws ModelVersionDBException, TransactionException {
+		try {
+			if (m_metadata != null)
+				m_metadata.rollbackTransaction();
+			else
+				m_db.rollbackTransaction();
+		} finally {
+			endTransaction();
+		}
+	}
+
+	private synchronized void endTransaction() {
+		if (m_txObjects != null) {
+			for (UUID objId : m_txObjects)
+				invalidate(objId);
+		}
+		m_txObjects = null;
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	public long getHitCount() {
+		return m_hits.get();
+	}
+
+	public long getMissCount() {
+		return m_misses.get();
+	}
+
+	public synchronized int size() {
+		return m_states.size();
+	}
+
+	public int getMaxSize() {
+		return m_maxSize;
+	}
+
+	public void resetStatistics() {
+		m_hits.set(0);
+		m_misses.set(0);
+	}
+
+	private synchronized void modify(UUID objId) {
+		m_generation++;
+		if (m_txObjects != null)
+			m_txObjects.add(objId);
+	}
+
+	private boolean isCacheable(UUID objId) {
+		return (m_txObjects == null) || !m_txObjects.contains(objId);
+	}
+
+	private synchronized void invalidate(UUID objId) {
+		m_generation++;
+		Set<Integer> revs = m_objectRevs.remove(objId);
+		if (revs == null)
+			return;
+
+		for (Integer rev : revs)
+			m_states.remove(new RevisionKey(objId, rev));
+	}
+
+	private synchronized void invalidate(UUID objId, int rev) {
+		m_generation++;
+		Set<Integer> revs = m_objectRevs.get(objId);
+		if ((revs == null) || !revs.remove(rev))
+			return;
+
+		m_states.remove(new RevisionKey(objId, rev));
+		if (revs.isEmpty())
+			m_objectRevs.remove(objId);
+	}
+
+	/**
+	 * Returns true if setting this attribute only modifies this revision.
+	 * If the metadata cannot be read, all the revisions are invalidated.
+	 */
+	private boolean isVersionSpecific(UUID objId, int rev, String attr) {
+		if ((m_metadata == null) || (rev < 0))
+			return false;
+
+		try {
+			return m_metadata.isObjectAttVersionSpecific(m_metadata.getObjectType(objId), attr);
+		} catch (ModelVersionDBException e) {
+			return false;
+		}
+	}
+
+	private synchronized void invalidateAll() {
+		m_generation++;
+		m_states.clear();
+		m_objectRevs.clear();
+	}
+
+	private void forgetRev(RevisionKey key) {
+		Set<Integer> revs = m_objectRevs.get(key.getId());
+		if (revs == null)
+			return;
+
+		revs.remove(key.getRev());
+		if (revs.isEmpty())
+			m_objectRevs.remove(key.getId());
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.util.UUID;
+
+/**
+ * Identifies an object or link revision. Unlike Revision, it does not hold
+ * the type and it can be used as a hash key.
+ */
+public class RevisionKey {
+
+	private UUID _id;
+	private int _rev;
+
+	public RevisionKey(UUID id, int rev) {
+		_id = id;
+		_rev = rev;
+	}
+
+	public UUID getId() {
+		return _id;
+	}
+
+	public int getRev() {
+		return _rev;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * _id.hashCode() + _rev;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof RevisionKey))
+			return false;
+
+		RevisionKey key = (RevisionKey) obj;
+
+		return (_rev == key._rev) && _id.equals(key._id);
+	}
+
+	/**
+	 * Returns the key represented by a string returned by toString.
+	 * 
+	 * @throws IllegalArgumentException if the string is not a revision key
+	 */
+	public static RevisionKey parse(String key) {
+		if (key == null)
+			throw new IllegalArgumentException("Revision key cannot be null.");
+
+		int idx = key.lastIndexOf(':');
+		if (idx < 0)
+			throw new IllegalArgumentException("Invalid revision key " + key);
+
+		try {
+			return new RevisionKey(UUID.fromString(key.substring(0, idx)), 
+					Integer.parseInt(key.substring(idx + 1)));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid revision key " + key);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return _id + ":" + _rev;
+	}
+}
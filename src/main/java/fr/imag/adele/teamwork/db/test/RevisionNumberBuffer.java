@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.util.UUID;
+
+/**
+ * Revision numbers of several objects stored in primitive arrays.
+ * 
+ * Object ids are stored as pairs of longs (most significant bits then least
+ * significant bits) and the revision numbers of all objects are stored in a
+ * single int array. The revision numbers of object <code>i</code> are the
+ * entries from <code>getOffset(i)</code> (inclusive) to
+ * <code>getOffset(i + 1)</code> (exclusive). Reading the buffer does not
+ * allocate anything, except getObjectId. Adding revision numbers copies
+ * them.
+ */
+public class RevisionNumberBuffer {
+
+	private long[] _ids;
+	private int[] _offsets;
+	private int[] _revNbs;
+	private int _objectCount;
+	private int _revCount;
+
+	public RevisionNumberBuffer() {
+		this(16, 64);
+	}
+
+	public RevisionNumberBuffer(int expectedObjects, int expectedRevs) {
+		_ids = new long[Math.max(expectedObjects, 1) * 2];
+		_offsets = new int[Math.max(expectedObjects, 1) + 1];
+		_revNbs = new int[Math.max(expectedRevs, 1)];
+	}
+
+	/**
+	 * Appends the revision numbers of an object.
+	 */
+	public void add(UUID objId, int[] revNbs) {
+		if (objId == null)
+			throw new IllegalArgumentException("Object id cannot be null.");
+		if (revNbs == null)
+			throw new IllegalArgumentException("Revision numbers cannot be null.");
+
+		if (_objectCount + 1 == _offsets.length) {
+			// two ids and one offset per object, plus the end offset
+			int capacity = _objectCount * 2;
+			long[] ids = new long[capacity * 2];
+			System.arraycopy(_ids, 0, ids, 0, _objectCount * 2);
+			_ids = ids;
+			int[] offsets = new int[capacity + 1];
+			System.arraycopy(_offsets, 0, offsets, 0, _objectCount + 1);
+			_offsets = offsets;
+		}
+		if (_revCount + revNbs.length > _revNbs.length) {
+			int[] newRevNbs = new int[Math.max(_revNbs.length * 2, _revCount + revNbs.length)];
+			System.arraycopy(_revNbs, 0, newRevNbs, 0, _revCount);
+			_revNbs = newRevNbs;
+		}
+
+		_ids[_objectCount * 2] = objId.getMostSignificantBits();
+		_ids[_objectCount * 2 + 1] = objId.getLeastSignificantBits();
+		System.arraycopy(revNbs, 0, _revNbs, _revCount, revNbs.length);
+		_revCount += revNbs.length;
+		_objectCount++;
+		_offsets[_objectCount] = _revCount;
+	}
+
+	public int getObjectCount() {
+		return _objectCount;
+	}
+
+	public int getRevisionCount() {
+		return _revCount;
+	}
+
+	public long getMostSignificantBits(int objIdx) {
+		checkObjectIndex(objIdx);
+		return _ids[objIdx * 2];
+	}
+
+	public long getLeastSignificantBits(int objIdx) {
+		checkObjectIndex(objIdx);
+		return _ids[objIdx * 2 + 1];
+	}
+
+	public UUID getObjectId(int objIdx) {
+		checkObjectIndex(objIdx);
+		return new UUID(_ids[objIdx * 2], _ids[objIdx * 2 + 1]);
+	}
+
+	/**
+	 * Returns the index of the first revision number of the specified object,
+	 * or getRevisionCount() if <code>objIdx</code> is getObjectCount().
+	 */
+	public int getOffset(int objIdx) {
+		if ((objIdx < 0) || (objIdx > _objectCount))
+			throw new IndexOutOfBoundsException("Object index " + objIdx);
+
+		return _offsets[objIdx];
+	}
+
+	public int getRevCount(int objIdx) {
+		checkObjectIndex(objIdx);
+		return _offsets[objIdx + 1] - _offsets[objIdx];
+	}
+
+	public int getRevNb(int objIdx, int revIdx) {
+		if ((revIdx < 0) || (revIdx >= getRevCount(objIdx)))
+			throw new IndexOutOfBoundsException("Revision index " + revIdx);
+
+		return _revNbs[_offsets[objIdx] + revIdx];
+	}
+
+	/**
+	 * Returns the index of the specified object, -1 if it is not in this
+	 * buffer.
+	 */
+	public int indexOf(UUID objId) {
+		long msb = objId.getMostSignificantBits();
+		long lsb = objId.getLeastSignificantBits();
+		for (int i = 0; i < _objectCount; i++) {
+			if ((_ids[i * 2] == msb) && (_ids[i * 2 + 1] == lsb))
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the backing array of revision numbers. Only the first
+	 * getRevisionCount() entries are meaningful.
+	 */
+	public int[] getRevNbs() {
+		return _revNbs;
+	}
+
+	/**
+	 * Returns the backing array of object ids. Only the first
+	 * 2 * getObjectCount() entries are meaningful.
+	 */
+	public long[] getIds() {
+		return _ids;
+	}
+
+	private void checkObjectIndex(int objIdx) {
+		if ((objIdx < 0) || (objIdx >= _objectCount))
+			throw new IndexOutOfBoundsException("Object index " + objIdx);
+	}
+}
@@ -30,6 +30,10 @@ public class Ser implements Serializable {
 		m_id = id;
 	}
 	
+	public String getId() {
+		return m_id;
+	}
+	
 	public boolean equals(Object o) {
 		if (o instanceof Ser) {
 			return ((Ser) o).m_id.equals(this.m_id);
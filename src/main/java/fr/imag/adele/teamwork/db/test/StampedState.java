@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.util.Map;
+
+/**
+ * State of an object revision with the stamp it had when it was read.
+ */
+public class StampedState {
+
+	private Map<String, Object> _state;
+	private long _stamp;
+
+	public StampedState(Map<String, Object> state, long stamp) {
+		_state = state;
+		_stamp = stamp;
+	}
+
+	public Map<String, Object> getState() {
+		return _state;
+	}
+
+	/**
+	 * Returns the stamp to pass to the next update of the revision.
+	 */
+	public long getStamp() {
+		return _stamp;
+	}
+
+	@Override
+	public String toString() {
+		return "#" + _stamp + " " + _state;
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Executes getObjectRevs(UUID, Map, boolean) queries using the attribute
+ * value indexes.
+ * 
+ * The most selective indexed attribute of the query, according to the
+ * value statistics of the indexes, is probed first. The other attributes
+ * are then only checked on the candidate revisions: in memory for indexed
+ * attributes, on the revision state for others.
+ */
+public class StateMapQueryPlanner {
+
+	private ModelVersionDBService m_db;
+	private AttributeValueIndex m_index;
+	private QueryPlan m_lastPlan;
+
+	public StateMapQueryPlanner(ModelVersionDBService db, AttributeValueIndex index) {
+		m_db = db;
+		m_index = index;
+	}
+
+	/**
+	 * Returns the plan that would be used to execute the specified query.
+	 */
+	public QueryPlan explain(UUID typeId, Map<String, Object> stateMap) {
+		if (typeId == null)
+			throw new IllegalArgumentException("Type id cannot be null.");
+
+		QueryPlan plan = new QueryPlan(typeId);
+		if (stateMap == null)
+			return plan;
+
+		int bestEstimate = Integer.MAX_VALUE;
+		boolean delegate = false;
+		for (Map.Entry<String, Object> entry : stateMap.entrySet()) {
+			String attr = entry.getKey();
+			int estimate = m_index.getRevisionCount(typeId, attr, entry.getValue());
+			if ((estimate == QueryPlan.UNKNOWN) && m_index.hasIndex(typeId, attr)) {
+				// value type does not match the attribute type
+				delegate = true;
+			}
+			plan.setEstimate(attr, estimate);
+
+			if ((estimate != QueryPlan.UNKNOWN) && (estimate < bestEstimate)) {
+				bestEstimate = estimate;
+				plan.setProbeAttribute(attr);
+			}
+		}
+		if (delegate)
+			plan.setProbeAttribute(null);
+
+		return plan;
+	}
+
+	/**
+	 * Returns the plan of the last executed query.
+	 */
+	public QueryPlan getLastPlan() {
+		return m_lastPlan;
+	}
+
+	/**
+	 * Same as ModelVersionDBService.getObjectRevs(UUID, Map, boolean).
+	 */
+	public List<Revision> getObjectRevs(UUID typeId, Map<String, Object> stateMap, 
+			boolean lastOnly) throws ModelVersionDBException {
+		long start = System.nanoTime();
+		QueryPlan plan = explain(typeId, stateMap);
+		m_lastPlan = plan;
+
+		String probeAttr = plan.getProbeAttribute();
+		if (probeAttr == null) {
+			List<Revision> revs = m_db.getObjectRevs(typeId, stateMap, lastOnly);
+			plan.setExecution(QueryPlan.UNKNOWN, revs.size(), System.nanoTime() - start);
+
+			return revs;
+		}
+
+		// attributes to check on the candidates
+		Map<String, Object> indexedAttrs = new HashMap<String, Object>();
+		Map<String, Object> otherAttrs = new HashMap<String, Object>();
+		for (Map.Entry<String, Object> entry : stateMap.entrySet()) {
+			String attr = entry.getKey();
+			if (attr.equals(probeAttr))
+				continue;
+
+			if (plan.getEstimates().get(attr) == QueryPlan.UNKNOWN)
+				otherAttrs.put(attr, entry.getValue());
+			else
+				indexedAttrs.put(attr, entry.getValue());
+		}
+
+		List<Revision> candidates = m_index.getObjectRevs(typeId, probeAttr, stateMap.get(probeAttr), false);
+
+		// candidates are sorted by revision number per object
+		Map<UUID, Revision> lastRevs = new LinkedHashMap<UUID, Revision>();
+		List<Revision> revs = new ArrayList<Revision>();
+		for (Revision candidate : candidates) {
+			if (!matches(typeId, candidate, indexedAttrs, otherAttrs))
+				continue;
+
+			if (lastOnly)
+				lastRevs.put(candidate.getId(), candidate);
+			else
+				revs.add(candidate);
+		}
+		if (lastOnly)
+			revs.addAll(lastRevs.values());
+
+		plan.setExecution(candidates.size(), revs.size(), System.nanoTime() - start);
+
+		return revs;
+	}
+
+	private boolean matches(UUID typeId, Revision candidate, Map<String, Object> indexedAttrs, 
+			Map<String, Object> otherAttrs) throws ModelVersionDBException {
+		UUID objId = candidate.getId();
+		int rev = candidate.getRev();
+		for (Map.Entry<String, Object> entry : indexedAttrs.entrySet()) {
+			if (!m_index.hasValue(typeId, entry.getKey(), objId, rev, entry.getValue()))
+				return false;
+		}
+
+		if (otherAttrs.isEmpty())
+			return true;
+
+		return matches(m_db.getObjectState(objId, rev), otherAttrs);
+	}
+
+	/**
+	 * Returns true if the specified state contains all the attribute values
+	 * of <code>stateMap</code>. A null value only matches an attribute
+	 * which is defined with a null value.
+	 */
+	public static boolean matches(Map<String, Object> state, Map<String, Object> stateMap) {
+		for (Map.Entry<String, Object> entry : stateMap.entrySet()) {
+			String attr = entry.getKey();
+			if (!state.containsKey(attr))
+				return false;
+
+			Object value = entry.getValue();
+			Object stateValue = state.get(attr);
+			if (value == null) {
+				if (stateValue != null)
+					return false;
+			} else if (!value.equals(stateValue))
+				return false;
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Fixed set of reentrant read/write locks shared by ids.
+ *
+ * Each id is mapped to one of the locks, so that threads working on
+ * different ids rarely wait for each other while the number of locks does
+ * not depend on the number of ids. Several ids are always locked in stripe
+ * order so that two threads locking the same ids cannot deadlock.
+ *
+ * lock and tryLock are exclusive. lockShared lets several readers hold a
+ * stripe together while no thread holds it exclusively. A thread holding a
+ * stripe exclusively may also lock it shared, but not the reverse.
+ */
+public class StripedLocks {
+
+	public static final int DEFAULT_STRIPE_COUNT = 64;
+
+	private ReentrantReadWriteLock[] _locks;
+	private int _mask;
+
+	private AtomicLong _lockCount = new AtomicLong();
+	private AtomicLong _contendedCount = new AtomicLong();
+
+	public StripedLocks() {
+		this(DEFAULT_STRIPE_COUNT);
+	}
+
+	/**
+	 * Creates <code>stripeCount</code> locks, rounded up to a power of two.
+	 */
+	public StripedLocks(int stripeCount) {
+		if (stripeCount <= 0)
+			throw new IllegalArgumentException("Stripe count must be positive.");
+
+		int size = 1;
+		while (size < stripeCount)
+			size <<= 1;
+		_locks = new ReentrantReadWriteLock[size];
+		for (int i = 0; i < size; i++)
+			_locks[i] = new ReentrantReadWriteLock();
+		_mask = size - 1;
+	}
+
+	public int getStripeCount() {
+		return _locks.length;
+	}
+
+	public int getStripe(UUID id) {
+		long hash = id.getMostSignificantBits() ^ id.getLeastSignificantBits();
+		hash ^= (hash >>> 33);
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= (hash >>> 33);
+
+		return (int) hash & _mask;
+	}
+
+	public ReentrantReadWriteLock getLock(UUID id) {
+		return _locks[getStripe(id)];
+	}
+
+	/**
+	 * Locks the stripes of the specified ids exclusively. Null ids are
+	 * ignored.
+	 */
+	public void lock(UUID... ids) {
+		for (int stripe : getStripes(ids))
+			lockStripe(_locks[stripe].writeLock());
+	}
+
+	/**
+	 * Locks the stripes of the specified ids shared with the other readers.
+	 * Null ids are ignored.
+	 */
+	public void lockShared(UUID... ids) {
+		for (int stripe : getStripes(ids))
+			lockStripe(_locks[stripe].readLock());
+	}
+
+	/**
+	 * Tries to lock the stripes of the specified ids within
+	 * <code>timeout</code> milliseconds. Either all stripes are locked or
+	 * none of them.
+	 *
+	 * @return false if a stripe is still held by another thread after the
+	 *         timeout
+	 */
+	public boolean tryLock(long timeout, UUID... ids) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		int[] stripes = getStripes(ids);
+		for (int i = 0; i < stripes.length; i++) {
+			Lock lock = _locks[stripes[i]].writeLock();
+			boolean locked = lock.tryLock();
+			if (!locked) {
+				_contendedCount.incrementAndGet();
+				try {
+					locked = lock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				} finally {
+					if (!locked)
+						unlockStripes(stripes, i);
+				}
+				if (!locked)
+					return false;
+			}
+			_lockCount.incrementAndGet();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Unlocks the stripes locked by lock or tryLock with the same ids.
+	 */
+	public void unlock(UUID... ids) {
+		int[] stripes = getStripes(ids);
+		unlockStripes(stripes, stripes.length);
+	}
+
+	/**
+	 * Unlocks the stripes locked by lockShared with the same ids.
+	 */
+	public void unlockShared(UUID... ids) {
+		int[] stripes = getStripes(ids);
+		for (int i = stripes.length - 1; i >= 0; i--)
+			_locks[stripes[i]].readLock().unlock();
+	}
+
+	/**
+	 * Returns true if the current thread holds the lock of the specified id
+	 * exclusively.
+	 */
+	public boolean isHeldByCurrentThread(UUID id) {
+		return getLock(id).isWriteLockedByCurrentThread();
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	/**
+	 * Returns the number of stripes locked.
+	 */
+	public long getLockCount() {
+		return _lockCount.get();
+	}
+
+	/**
+	 * Returns the number of stripes which were held by another thread when
+	 * they had to be locked.
+	 */
+	public long getContendedCount() {
+		return _contendedCount.get();
+	}
+
+	public void resetStatistics() {
+		_lockCount.set(0);
+		_contendedCount.set(0);
+	}
+
+	/*
+	 * Private methods
+	 */
+
+	private void lockStripe(Lock lock) {
+		if (!lock.tryLock()) {
+			_contendedCount.incrementAndGet();
+			lock.lock();
+		}
+		_lockCount.incrementAndGet();
+	}
+
+	private void unlockStripes(int[] stripes, int count) {
+		// reverse order of locking
+		for (int i = count - 1; i >= 0; i--)
+			_locks[stripes[i]].writeLock().unlock();
+	}
+
+	/**
+	 * Returns the distinct stripes of the ids in ascending order.
+	 */
+	private int[] getStripes(UUID... ids) {
+		int[] stripes = new int[ids.length];
+		int count = 0;
+		for (UUID id : ids) {
+			if (id != null)
+				stripes[count++] = getStripe(id);
+		}
+		Arrays.sort(stripes, 0, count);
+
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if ((distinct == 0) || (stripes[distinct - 1] != stripes[i]))
+				stripes[distinct++] = stripes[i];
+		}
+		if (distinct == stripes.length)
+			return stripes;
+
+		int[] result = new int[distinct];
+		System.arraycopy(stripes, 0, result, 0, distinct);
+
+		return result;
+	}
+}
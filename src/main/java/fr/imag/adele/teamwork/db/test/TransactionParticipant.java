@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.sql.SQLException;
+
+/**
+ * Resource taking part in a transaction coordinated by a
+ * TwoPhaseCommitCoordinator.
+ * 
+ * Names identify participants in the recovery log, they must be unique in a
+ * transaction and cannot contain spaces.
+ */
+public interface TransactionParticipant {
+
+	public String getName();
+
+	/**
+	 * Checks that the work of the transaction can be committed. Throwing an
+	 * exception votes for rollback.
+	 */
+	public void prepare() throws SQLException;
+
+	/**
+	 * Returns true if the work of a prepared transaction survives a crash
+	 * of the participant or of the coordinator, as an XA prepared
+	 * transaction does, so that recover can commit it.
+	 */
+	public boolean isPrepareDurable();
+
+	public void commit() throws SQLException;
+
+	public void rollback() throws SQLException;
+}
@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Commits a transaction spanning several databases with the two-phase
+ * commit protocol.
+ * 
+ * All participants are prepared, in parallel when an executor is given. If
+ * one of them fails to prepare, all are rolled back and an SQLException is
+ * thrown. Otherwise, the commit decision is forced to the recovery log and
+ * all participants are committed, in parallel when an executor is given.
+ * Participants which fail to commit are reported by the result and stay in
+ * doubt in the log until recover commits them.
+ * 
+ * The commit is only atomic if all participants prepare durably, see
+ * TransactionParticipant.isPrepareDurable. Otherwise it is best effort: a
+ * participant which loses its connection or its process after the commit
+ * decision loses its work, and the transaction is partially committed.
+ */
+public class TwoPhaseCommitCoordinator {
+
+	/*
+	 * Participant calls
+	 */
+	private static final int PREPARE = 0;
+	private static final int COMMIT = 1;
+	private static final int ROLLBACK = 2;
+
+	private ExecutorService m_executor;
+	private RecoveryLog m_log;
+
+	/**
+	 * @param executor executes the calls to the participants, null to call
+	 *                 them one after the other in the calling thread
+	 * @param log      log of the commit decisions, null to not log them
+	 */
+	public TwoPhaseCommitCoordinator(ExecutorService executor, RecoveryLog log) {
+		m_executor = executor;
+		m_log = log;
+	}
+
+	public static String newTransactionId() {
+		return UUID.randomUUID().toString();
+	}
+
+	/**
+	 * Prepares then commits all participants.
+	 * 
+	 * @throws SQLException if a participant failed to prepare, the
+	 *                      transaction has been rolled back
+	 */
+	public CommitResult commit(String txId, List<? extends TransactionParticipant> participants) 
+			throws SQLException {
+		checkParticipants(txId, participants);
+
+		// phase 1
+		long start = System.nanoTime();
+		List<Throwable> errors = run(participants, PREPARE);
+		long prepareNanos = System.nanoTime() - start;
+		for (int i = 0; i < errors.size(); i++) {
+			if (errors.get(i) != null) {
+				run(participants, ROLLBACK);
+				SQLException e = new SQLException("Transaction " + txId + " rolled back: " + 
+						participants.get(i).getName() + " failed to prepare.");
+				e.initCause(errors.get(i));
+				throw e;
+			}
+		}
+
+		// commit decision
+		start = System.nanoTime();
+		if (m_log != null) {
+			List<String> names = new ArrayList<String>();
+			for (TransactionParticipant participant : participants)
+				names.add(participant.getName());
+			try {
+				m_log.logCommit(txId, names);
+			} catch (IOException e) {
+				run(participants, ROLLBACK);
+				SQLException sqle = new SQLException("Transaction " + txId + 
+						" rolled back: commit decision cannot be logged.");
+				sqle.initCause(e);
+				throw sqle;
+			}
+		}
+		long logNanos = System.nanoTime() - start;
+
+		// phase 2
+		start = System.nanoTime();
+		errors = run(participants, COMMIT);
+		List<String> inDoubt = new ArrayList<String>();
+		for (int i = 0; i < errors.size(); i++) {
+			String name = participants.get(i).getName();
+			if (errors.get(i) != null)
+				inDoubt.add(name);
+			else
+				logDone(txId, name);
+		}
+		if (inDoubt.isEmpty())
+			logEnd(txId);
+		long commitNanos = System.nanoTime() - start;
+
+		return new CommitResult(txId, prepareNanos, logNanos, commitNanos, inDoubt);
+	}
+
+	/**
+	 * Rolls back all participants and returns the number of them which
+	 * failed to roll back.
+	 */
+	public int rollback(List<? extends TransactionParticipant> participants) {
+		int failures = 0;
+		for (Throwable error : run(participants, ROLLBACK)) {
+			if (error != null)
+				failures++;
+		}
+
+		return failures;
+	}
+
+	public int recover(Map<String, ? extends TransactionParticipant> participants) {
+		return recover(participants, null);
+	}
+
+	/**
+	 * Commits the in doubt participants of the logged transactions and
+	 * returns the number of transactions which have been recovered.
+	 * Participants are matched by name, participants of a transaction which
+	 * are not in the map or fail to commit stay in doubt.
+	 * 
+	 * A participant which does not prepare durably is committed on a best
+	 * effort basis: its work is lost if its connection has been lost since
+	 * the commit decision, and the commit cannot tell. Such transactions are
+	 * no longer in doubt in the log but are not counted as recovered; their
+	 * ids are added to <code>unverified</code> if it is not null.
+	 */
+	public int recover(Map<String, ? extends TransactionParticipant> participants, List<String> unverified) {
+		if (m_log == null)
+			return 0;
+
+		int recovered = 0;
+		for (Map.Entry<String, Set<String>> entry : m_log.getInDoubtTransactions().entrySet()) {
+			String txId = entry.getKey();
+			Set<String> pending = new HashSet<String>(entry.getValue());
+			boolean durable = true;
+			for (String name : entry.getValue()) {
+				TransactionParticipant participant = participants.get(name);
+				if (participant == null)
+					continue;
+
+				try {
+					participant.commit();
+					logDone(txId, name);
+					pending.remove(name);
+					if (!participant.isPrepareDurable())
+						durable = false;
+				} catch (SQLException e) {
+					// stays in doubt
+				}
+			}
+			if (pending.isEmpty()) {
+				logEnd(txId);
+				if (durable)
+					recovered++;
+				else if (unverified != null)
+					unverified.add(txId);
+			}
+		}
+
+		return recovered;
+	}
+
+	private void logDone(String txId, String name) {
+		if (m_log == null)
+			return;
+
+		try {
+			m_log.logDone(txId, name);
+		} catch (IOException e) {
+			// the participant is committed again by recover
+		}
+	}
+
+	private void logEnd(String txId) {
+		if (m_log == null)
+			return;
+
+		try {
+			m_log.logEnd(txId);
+		} catch (IOException e) {
+			// the transaction is ended again by recover
+		}
+	}
+
+	/**
+	 * Calls all participants and returns the error of each one, null if the
+	 * call succeeded.
+	 */
+	private List<Throwable> run(List<? extends TransactionParticipant> participants, int action) {
+		List<Throwable> errors = new ArrayList<Throwable>();
+		if ((m_executor == null) || (participants.size() == 1)) {
+			for (TransactionParticipant participant : participants)
+				errors.add(call(participant, action));
+
+			return errors;
+		}
+
+		List<Future<Throwable>> futures = new ArrayList<Future<Throwable>>();
+		for (final TransactionParticipant participant : participants) {
+			final int participantAction = action;
+			futures.add(m_executor.submit(new Callable<Throwable>() {
+				public Throwable call() {
+					return TwoPhaseCommitCoordinator.call(participant, participantAction);
+				}
+			}));
+		}
+		for (Future<Throwable> future : futures) {
+			try {
+				errors.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				errors.add(e);
+			} catch (ExecutionException e) {
+				errors.add(e.getCause());
+			}
+		}
+
+		return errors;
+	}
+
+	private static Throwable call(TransactionParticipant participant, int action) {
+		try {
+			switch (action) {
+			case PREPARE:
+				participant.prepare();
+				break;
+			case COMMIT:
+				participant.commit();
+				break;
+			default:
+				participant.rollback();
+			}
+			return null;
+		} catch (Throwable e) {
+			return e;
+		}
+	}
+
+	private static void checkParticipants(String txId, List<? extends TransactionParticipant> participants) {
+		if ((txId == null) || (participants == null))
+			throw new IllegalArgumentException("Transaction id and participants cannot be null.");
+
+		Set<String> names = new HashSet<String>();
+		for (TransactionParticipant participant : participants) {
+			if (!names.add(participant.getName()))
+				throw new IllegalArgumentException("Participant " + participant.getName() + 
+						" appears several times.");
+		}
+	}
+}
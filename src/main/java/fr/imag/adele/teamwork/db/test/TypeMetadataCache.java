@@ -0,0 +1,455 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the type metadata of a database: isType, getObjectType,
+ * getLinkType, isObjectAttVersionSpecific and the version specific flags of
+ * link sources and destinations.
+ * 
+ * Metadata is kept per connection URL and login, so that switching back to
+ * a database through setConnectionURL finds its metadata again. Values are
+ * loaded lazily. Objects and links created through this class are recorded
+ * without query. setObjectAttVersionSpecific, setLinkSrcVersionSpecific and
+ * setLinkDestVersionSpecific update the cache, deleteObject and deleteLink
+ * forget the metadata of the deleted id, clear and rollbackTransaction
+ * forget the metadata of the current database. Modifications must be made
+ * through this cache to keep it coherent.
+ * 
+ * The service has no getter for the link flags, so they are only known once
+ * set through this cache.
+ */
+public class TypeMetadataCache {
+
+	private ModelVersionDBService m_db;
+
+	/*
+	 * connection URL and login -> metadata
+	 */
+	private Map<String, Metadata> m_connections = new HashMap<String, Metadata>();
+	private Metadata m_current;
+
+	/*
+	 * incremented on each modification so that values read concurrently
+	 * with a modification are not cached
+	 */
+	private long m_generation;
+
+	private AtomicLong m_hits = new AtomicLong();
+	private AtomicLong m_queries = new AtomicLong();
+
+	public TypeMetadataCache(ModelVersionDBService db) throws ModelVersionDBException {
+		if (db == null)
+			throw new IllegalArgumentException("Database service cannot be null.");
+
+		m_db = db;
+		switchConnection();
+	}
+
+	/*
+	 * Metadata
+	 */
+
+	public boolean isType(UUID objId) throws ModelVersionDBException {
+		if (objId == null)
+			return m_db.isType(objId);
+
+		long generation;
+		synchronized (this) {
+			Boolean isType = m_current._isType.get(objId);
+			if (isType != null) {
+				m_hits.incrementAndGet();
+				return isType;
+			}
+			generation = m_generation;
+		}
+
+		m_queries.incrementAndGet();
+		boolean isType = m_db.isType(objId);
+		synchronized (this) {
+			if (generation == m_generation)
+				m_current._isType.put(objId, isType);
+		}
+
+		return isType;
+	}
+
+	public UUID getObjectType(UUID objId) throws ModelVersionDBException {
+		if (objId == null)
+			return m_db.getObjectType(objId);
+
+		long generation;
+		synchronized (this) {
+			UUID typeId = m_current._objectTypes.get(objId);
+			if (typeId != null) {
+				m_hits.incrementAndGet();
+				return typeId;
+			}
+			generation = m_generation;
+		}
+
+		m_queries.incrementAndGet();
+		UUID typeId = m_db.getObjectType(objId);
+		synchronized (this) {
+			if ((generation == m_generation) && (typeId != null))
+				m_current._objectTypes.put(objId, typeId);
+		}
+
+		return typeId;
+	}
+
+	public UUID getLinkType(UUID linkId) throws ModelVersionDBException {
+		if (linkId == null)
+			return m_db.getLinkType(linkId);
+
+		long generation;
+		synchronized (this) {
+			UUID typeId = m_current._linkTypes.get(linkId);
+			if (typeId != null) {
+				m_hits.incrementAndGet();
+				return typeId;
+			}
+			generation = m_generation;
+		}
+
+		m_queries.incrementAndGet();
+		UUID typeId = m_db.getLinkType(linkId);
+		synchronized (this) {
+			if ((generation == m_generation) && (typeId != null))
+				m_current._linkTypes.put(linkId, typeId);
+		}
+
+		return typeId;
+	}
+
+	public boolean isObjectAttVersionSpecific(UUID typeId, String attr) throws ModelVersionDBException {
+		if ((typeId == null) || (attr == null))
+			return m_db.isObjectAttVersionSpecific(typeId, attr);
+
+		long generation;
+		synchronized (this) {
+			Map<String, Boolean> attrs = m_current._versionSpecificAttrs.get(typeId);
+			Boolean versionSpecific = (attrs == null) ? null : attrs.get(attr);
+			if (versionSpecific != null) {
+				m_hits.incrementAndGet();
+				return versionSpecific;
+			}
+			generation = m_generation;
+		}
+
+		m_queries.incrementAndGet();
+		boolean versionSpecific = m_db.isObjectAttVersionSpecific(typeId, attr);
+		synchronized (this) {
+			if (generation == m_generation)
+				putVersionSpecific(typeId, attr, versionSpecific);
+		}
+
+		return versionSpecific;
+	}
+
+	/**
+	 * Returns whether the sources of the links of this type are version
+	 * specific, null if it has not been set through this cache.
+	 */
+	public synchronized Boolean isLinkSrcVersionSpecific(UUID linkTypeId) {
+		return m_current._linkSrcVersionSpecific.get(linkTypeId);
+	}
+
+	/**
+	 * Returns whether the destinations of the links of this type are version
+	 * specific, null if it has not been set through this cache.
+	 */
+	public synchronized Boolean isLinkDestVersionSpecific(UUID linkTypeId) {
+		return m_current._linkDestVersionSpecific.get(linkTypeId);
+	}
+
+	/*
+	 * Modification methods
+	 */
+
+	public int createObject(UUID objId, UUID typeId, Map<String, Object> stateMap, boolean isType) 
+			throws ModelVersionDBException {
+		modify();
+		int rev = m_db.createObject(objId, typeId, stateMap, isType);
+		synchronized (this) {
+			m_current._isType.put(objId, isType);
+			m_current._objectTypes.put(objId, typeId);
+		}
+
+		return rev;
+	}
+
+	public Revision addLink(UUID linkTypeId, UUID srcId, int srcRev, UUID destId, int destRev, 
+			Map<String, Object> stateMap) throws ModelVersionDBException {
+		Revision linkRev = m_db.addLink(linkTypeId, srcId, srcRev, destId, destRev, stateMap);
+		synchronized (this) {
+			m_current._linkTypes.put(linkRev.getId(), linkTypeId);
+			m_current._linkEnds.put(linkRev.getId(), new UUID[] { srcId, destId });
+		}
+
+		return linkRev;
+	}
+
+	public void setObjectAttVersionSpecific(UUID typeId, String attr, boolean versionSpecific) 
+			throws ModelVersionDBException {
+		modify();
+		synchronized (this) {
+			Map<String, Boolean> attrs = m_current._versionSpecificAttrs.get(typeId);
+			if (attrs != null)
+				attrs.remove(attr);
+		}
+		m_db.setObjectAttVersionSpecific(typeId, attr, versionSpecific);
+		synchronized (this) {
+			putVersionSpecific(typeId, attr, versionSpecific);
+		}
+	}
+
+	public void setLinkSrcVersionSpecific(UUID linkTypeId, boolean versionSpecific) 
+			throws ModelVersionDBException {
+		modify();
+		synchronized (this) {
+			m_current._linkSrcVersionSpecific.remove(linkTypeId);
+		}
+		m_db.setLinkSrcVersionSpecific(linkTypeId, versionSpecific);
+		synchronized (this) {
+			m_current._linkSrcVersionSpecific.put(linkTypeId, versionSpecific);
+		}
+	}
+
+	public void setLinkDestVersionSpecific(UUID linkTypeId, boolean versionSpecific) 
+			throws ModelVersionDBException {
+		modify();
+		synchronized (this) {
+			m_current._linkDestVersionSpecific.remove(linkTypeId);
+		}
+		m_db.setLinkDestVersionSpecific(linkTypeId, versionSpecific);
+		synchronized (this) {
+			m_current._linkDestVersionSpecific.put(linkTypeId, versionSpecific);
+		}
+	}
+
+	/**
+	 * Deleting a type also forgets the type of its instances and the flags of
+	 * its attributes. The links of the object are deleted with it, so the
+	 * types of the links created through this cache from or to the object are
+	 * forgotten, as well as the types of the links loaded by getLinkType whose
+	 * ends are not known.
+	 */
+	public void deleteObject(UUID objId) throws ModelVersionDBException {
+		modify();
+		try {
+			m_db.deleteObject(objId);
+		} finally {
+			synchronized (this) {
+				m_current.forget(objId);
+			}
+		}
+	}
+
+	public void deleteLink(UUID linkId) throws ModelVersionDBException {
+		modify();
+		try {
+			m_db.deleteLink(linkId);
+		} finally {
+			synchronized (this) {
+				m_current._linkTypes.remove(linkId);
+				m_current._linkEnds.remove(linkId);
+			}
+		}
+	}
+
+	public void clear() throws ModelVersionDBException {
+		modify();
+		try {
+			m_db.clear();
+		} finally {
+			synchronized (this) {
+				m_current.clear();
+			}
+		}
+	}
+
+	/*
+	 * Transaction methods
+	 */
+
+	public void beginTransaction() throws ModelVersionDBException, TransactionException {
+		m_db.beginTransaction();
+	}
+
+	public void commitTransaction() throws ModelVersionDBException, TransactionException {
+		m_db.commitTransaction();
+	}
+
+	/**
+	 * The metadata modified in the transaction is not tracked, so the
+	 * metadata of the current database is forgotten.
+	 */
+	public void rollbackTransaction() throws ModelVersionDBException, TransactionException {
+		modify();
+		try {
+			m_db.rollbackTransaction();
+		} finally {
+			synchronized (this) {
+				m_current.clear();
+			}
+		}
+	}
+
+	public void setConnectionURL(String url) throws ModelVersionDBException, DBConnectionException, 
+			TransactionException {
+		modify();
+		try {
+			m_db.setConnectionURL(url);
+		} finally {
+			switchConnection();
+		}
+	}
+
+	public void setConnectionURL(String url, String login, String password) 
+			throws ModelVersionDBException, DBConnectionException, TransactionException {
+		modify();
+		try {
+			m_db.setConnectionURL(url, login, password);
+		} finally {
+			switchConnection();
+		}
+	}
+
+	/**
+	 * Forgets the metadata of all databases.
+	 */
+	public synchronized void invalidateAll() {
+		m_generation++;
+		for (Metadata metadata : m_connections.values())
+			metadata.clear();
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	public long getHitCount() {
+		return m_hits.get();
+	}
+
+	/**
+	 * Returns the number of metadata queries sent to the database.
+	 */
+	public long getQueryCount() {
+		return m_queries.get();
+	}
+
+	/**
+	 * Returns the number of databases whose metadata is cached.
+	 */
+	public synchronized int getConnectionNumber() {
+		return m_connections.size();
+	}
+
+	public void resetStatistics() {
+		m_hits.set(0);
+		m_queries.set(0);
+	}
+
+	private synchronized void modify() {
+		m_generation++;
+	}
+
+	private void switchConnection() throws ModelVersionDBException {
+		String key = m_db.getConnectionURL() + "\n" + m_db.getLogin();
+		synchronized (this) {
+			m_generation++;
+			Metadata metadata = m_connections.get(key);
+			if (metadata == null) {
+				metadata = new Metadata();
+				m_connections.put(key, metadata);
+			}
+			m_current = metadata;
+		}
+	}
+
+	private void putVersionSpecific(UUID typeId, String attr, boolean versionSpecific) {
+		Map<String, Boolean> attrs = m_current._versionSpecificAttrs.get(typeId);
+		if (attrs == null) {
+			attrs = new HashMap<String, Boolean>();
+			m_current._versionSpecificAttrs.put(typeId, attrs);
+		}
+		attrs.put(attr, versionSpecific);
+	}
+
+	/**
+	 * Metadata of one database.
+	 */
+	private static class Metadata {
+
+		private Map<UUID, Boolean> _isType = new HashMap<UUID, Boolean>();
+		private Map<UUID, UUID> _objectTypes = new HashMap<UUID, UUID>();
+		private Map<UUID, UUID> _linkTypes = new HashMap<UUID, UUID>();
+
+		/*
+		 * link id -> source and destination ids of the links added through
+		 * the cache
+		 */
+		private Map<UUID, UUID[]> _linkEnds = new HashMap<UUID, UUID[]>();
+		private Map<UUID, Map<String, Boolean>> _versionSpecificAttrs = new HashMap<UUID, Map<String, Boolean>>();
+		private Map<UUID, Boolean> _linkSrcVersionSpecific = new HashMap<UUID, Boolean>();
+		private Map<UUID, Boolean> _linkDestVersionSpecific = new HashMap<UUID, Boolean>();
+
+		private void forget(UUID id) {
+			_isType.remove(id);
+			_objectTypes.remove(id);
+			_versionSpecificAttrs.remove(id);
+			_linkSrcVersionSpecific.remove(id);
+			_linkDestVersionSpecific.remove(id);
+			for (Iterator<Map.Entry<UUID, UUID>> it = _linkTypes.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<UUID, UUID> entry = it.next();
+				UUID[] ends = _linkEnds.get(entry.getKey());
+				if ((ends == null) || id.equals(ends[0]) || id.equals(ends[1]) || id.equals(entry.getValue())) {
+					it.remove();
+					_linkEnds.remove(entry.getKey());
+				}
+			}
+			for (Iterator<UUID> it = _objectTypes.values().iterator(); it.hasNext();) {
+				if (id.equals(it.next()))
+					it.remove();
+			}
+		}
+
+		private void clear() {
+			_isType.clear();
+			_objectTypes.clear();
+			_linkTypes.clear();
+			_linkEnds.clear();
+			_versionSpecificAttrs.clear();
+			_linkSrcVersionSpecific.clear();
+			_linkDestVersionSpecific.clear();
+		}
+	}
+}
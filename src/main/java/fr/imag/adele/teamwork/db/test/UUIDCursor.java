@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Streams the ids returned by a query instead of materializing them in a
+ * Set.
+ * 
+ * The first column of each row must contain an id as a string or as 16
+ * bytes. Rows are read with a forward only cursor. The fetch size tells the
+ * driver how many rows to transfer at once, so that the memory used does
+ * not depend on the number of rows when the driver supports it. The
+ * statement is closed when the last row has been read or when close is
+ * called. SQL errors are reported as IllegalStateException.
+ */
+public class UUIDCursor implements CloseableIterator<UUID> {
+
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+
+	private Statement m_stmt;
+	private ResultSet m_rs;
+
+	private UUID m_next;
+	private boolean m_closed;
+	private long m_rowCount;
+
+	public UUIDCursor(Connection conn, String query) throws SQLException {
+		this(conn, query, DEFAULT_FETCH_SIZE);
+	}
+
+	public UUIDCursor(Connection conn, String query, int fetchSize) throws SQLException {
+		if ((conn == null) || (query == null))
+			throw new IllegalArgumentException("Connection and query cannot be null.");
+		if (fetchSize <= 0)
+			throw new IllegalArgumentException("Fetch size must be positive.");
+
+		m_stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		try {
+			m_stmt.setFetchSize(fetchSize);
+			m_rs = m_stmt.executeQuery(query);
+			m_rs.setFetchSize(fetchSize);
+		} catch (SQLException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public boolean hasNext() {
+		if (m_next != null)
+			return true;
+		if (m_closed)
+			return false;
+
+		try {
+			if (!m_rs.next()) {
+				close();
+				return false;
+			}
+			m_next = toUUID(m_rs.getObject(1));
+			m_rowCount++;
+
+			return true;
+		} catch (SQLException e) {
+			close();
+			throw new IllegalStateException("Cannot read next id: " + e.getMessage(), e);
+		}
+	}
+
+	public UUID next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		UUID id = m_next;
+		m_next = null;
+
+		return id;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException("Ids cannot be removed through a cursor.");
+	}
+
+	public void close() {
+		if (m_closed)
+			return;
+
+		m_closed = true;
+		try {
+			if (m_rs != null)
+				m_rs.close();
+		} catch (SQLException e) {
+			// ignore it
+		}
+		try {
+			m_stmt.close();
+		} catch (SQLException e) {
+			// ignore it
+		}
+		m_rs = null;
+		m_stmt = null;
+	}
+
+	public boolean isClosed() {
+		return m_closed;
+	}
+
+	/**
+	 * Returns the number of rows read so far.
+	 */
+	public long getRowCount() {
+		return m_rowCount;
+	}
+
+	private static UUID toUUID(Object value) throws SQLException {
+		if (value instanceof String)
+			return UUID.fromString(((String) value).trim());
+
+		if ((value instanceof byte[]) && (((byte[]) value).length == UUIDs.BYTE_LENGTH))
+			return UUIDs.fromBytes((byte[]) value);
+
+		throw new SQLException("Column value " + value + " is not an id.");
+	}
+}
@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+/**
+ * Storage layouts of id columns.
+ * 
+ * An id can be stored as its 36 characters string (STRING), as 16 bytes
+ * (BINARY, see UUIDs) or as two BIGINT columns named
+ * <code>&lt;column&gt;_MSB</code> and <code>&lt;column&gt;_LSB</code>
+ * (LONG_PAIR). The binary layouts halve the size of the keys and of their
+ * indexes and compare ids without collation.
+ * 
+ * The SQL types depend on the database: HSQLDB, MySQL and Oracle are
+ * supported.
+ */
+public class UUIDLayout {
+
+	/*
+	 * Layouts
+	 */
+	public static final int STRING = 0;
+	public static final int BINARY = 1;
+	public static final int LONG_PAIR = 2;
+
+	/*
+	 * Databases
+	 */
+	public static final int HSQLDB = 0;
+	public static final int MYSQL = 1;
+	public static final int ORACLE = 2;
+
+	public static final String MSB_SUFFIX = "_MSB";
+	public static final String LSB_SUFFIX = "_LSB";
+
+	private static final String NEW_SUFFIX = "_NEW";
+	private static final int MIGRATION_BATCH_SIZE = 500;
+
+	private UUIDLayout() {
+		// static helper
+	}
+
+	/**
+	 * Returns the database of the specified JDBC URL.
+	 */
+	public static int getDatabase(String url) {
+		if (url == null)
+			throw new IllegalArgumentException("URL cannot be null.");
+
+		if (url.startsWith("jdbc:hsqldb:"))
+			return HSQLDB;
+		if (url.startsWith("jdbc:mysql:"))
+			return MYSQL;
+		if (url.startsWith("jdbc:oracle:"))
+			return ORACLE;
+
+		throw new IllegalArgumentException("Unsupported database " + url);
+	}
+
+	/**
+	 * Returns the names of the columns storing an id in the specified layout.
+	 */
+	public static String[] getColumnNames(String column, int layout) {
+		checkLayout(layout);
+		if (layout == LONG_PAIR)
+			return new String[] { column + MSB_SUFFIX, column + LSB_SUFFIX };
+
+		return new String[] { column };
+	}
+
+	/**
+	 * Returns the SQL types of the columns returned by getColumnNames.
+	 */
+	public static String[] getColumnTypes(int layout, int database) {
+		checkLayout(layout);
+		checkDatabase(database);
+
+		switch (layout) {
+		case STRING:
+			return new String[] { (database == ORACLE) ? "VARCHAR2(36)" : "VARCHAR(36)" };
+		case BINARY:
+			return new String[] { (database == ORACLE) ? "RAW(16)" : "BINARY(16)" };
+		default:
+			String type = (database == ORACLE) ? "NUMBER(19)" : "BIGINT";
+			return new String[] { type, type };
+		}
+	}
+
+	/**
+	 * Returns the column definitions of an id, to be used in a CREATE TABLE
+	 * statement.
+	 */
+	public static String getColumnDefinition(String column, int layout, int database) {
+		String[] names = getColumnNames(column, layout);
+		String[] types = getColumnTypes(layout, database);
+		StringBuilder definition = new StringBuilder();
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0)
+				definition.append(", ");
+			definition.append(names[i]).append(' ').append(types[i]);
+		}
+
+		return definition.toString();
+	}
+
+	/**
+	 * Returns the condition selecting an id, with one parameter per column.
+	 */
+	public static String getCondition(String column, int layout) {
+		String[] names = getColumnNames(column, layout);
+		StringBuilder condition = new StringBuilder();
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0)
+				condition.append(" AND ");
+			condition.append(names[i]).append(" = ?");
+		}
+
+		return condition.toString();
+	}
+
+	public static String getCreateIndex(String indexName, String table, String column, int layout) {
+		String[] names = getColumnNames(column, layout);
+		StringBuilder stmt = new StringBuilder("CREATE INDEX ").append(indexName)
+				.append(" ON ").append(table).append(" (");
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0)
+				stmt.append(", ");
+			stmt.append(names[i]);
+		}
+
+		return stmt.append(')').toString();
+	}
+
+	/**
+	 * Sets the parameters of an id starting at <code>paramIdx</code> and
+	 * returns the index of the next parameter.
+	 */
+	public static int setId(PreparedStatement stmt, int paramIdx, UUID id, int layout) 
+			throws SQLException {
+		checkLayout(layout);
+		switch (layout) {
+		case STRING:
+			stmt.setString(paramIdx, id.toString());
+			return paramIdx + 1;
+		case BINARY:
+			stmt.setBytes(paramIdx, UUIDs.toBytes(id));
+			return paramIdx + 1;
+		default:
+			stmt.setLong(paramIdx, id.getMostSignificantBits());
+			stmt.setLong(paramIdx + 1, id.getLeastSignificantBits());
+			return paramIdx + 2;
+		}
+	}
+
+	/**
+	 * Returns the id stored in the columns starting at
+	 * <code>columnIdx</code>, null if it is SQL NULL.
+	 */
+	public static UUID getId(ResultSet rs, int columnIdx, int layout) throws SQLException {
+		checkLayout(layout);
+		switch (layout) {
+		case STRING:
+			String str = rs.getString(columnIdx);
+			return (str == null) ? null : UUID.fromString(str.trim());
+		case BINARY:
+			byte[] bytes = rs.getBytes(columnIdx);
+			return (bytes == null) ? null : UUIDs.fromBytes(bytes);
+		default:
+			long msb = rs.getLong(columnIdx);
+			if (rs.wasNull())
+				return null;
+			return new UUID(msb, rs.getLong(columnIdx + 1));
+		}
+	}
+
+	/**
+	 * Converts an id column stored as strings to the specified layout and
+	 * returns the number of converted rows.
+	 * 
+	 * New columns are added and filled from the string column, which is then
+	 * dropped. With the BINARY layout, the new column takes the name of the
+	 * old one. Indexes and constraints on the old column are dropped with it,
+	 * the caller must create them again, see getCreateIndex. The statements
+	 * are executed in the current transaction of the connection, except DDL
+	 * statements that the database commits implicitly.
+	 */
+	public static int migrate(Connection conn, String table, String column, int layout) 
+			throws SQLException {
+		if ((conn == null) || (table == null) || (column == null))
+			throw new IllegalArgumentException("Connection, table and column cannot be null.");
+		checkLayout(layout);
+		if (layout == STRING)
+			return 0;
+
+		int database = getDatabase(conn.getMetaData().getURL());
+		String tmpColumn = (layout == BINARY) ? column + NEW_SUFFIX : column;
+		String[] newColumns = getColumnNames(tmpColumn, layout);
+		String[] types = getColumnTypes(layout, database);
+
+		Statement stmt = conn.createStatement();
+		try {
+			for (int i = 0; i < newColumns.length; i++)
+				stmt.execute("ALTER TABLE " + table + " ADD " + newColumns[i] + " " + types[i]);
+
+			int rowCount = 0;
+			StringBuilder update = new StringBuilder("UPDATE ").append(table).append(" SET ");
+			for (int i = 0; i < newColumns.length; i++) {
+				if (i > 0)
+					update.append(", ");
+				update.append(newColumns[i]).append(" = ?");
+			}
+			update.append(" WHERE ").append(column).append(" = ?");
+
+			PreparedStatement updateStmt = conn.prepareStatement(update.toString());
+			ResultSet rs = stmt.executeQuery("SELECT DISTINCT " + column + " FROM " + table + 
+					" WHERE " + column + " IS NOT NULL");
+			try {
+				int batchSize = 0;
+				while (rs.next()) {
+					String str = rs.getString(1);
+					int paramIdx = setId(updateStmt, 1, UUID.fromString(str.trim()), layout);
+					updateStmt.setString(paramIdx, str);
+					updateStmt.addBatch();
+					if (++batchSize == MIGRATION_BATCH_SIZE) {
+						rowCount += sum(updateStmt.executeBatch());
+						batchSize = 0;
+					}
+				}
+				if (batchSize != 0)
+					rowCount += sum(updateStmt.executeBatch());
+			} finally {
+				rs.close();
+				updateStmt.close();
+			}
+
+			stmt.execute("ALTER TABLE " + table + " DROP COLUMN " + column);
+			if (layout == BINARY)
+				stmt.execute(getRenameColumn(table, tmpColumn, column, types[0], database));
+
+			return rowCount;
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private static String getRenameColumn(String table, String column, String newName, 
+			String type, int database) {
+		switch (database) {
+		case HSQLDB:
+			return "ALTER TABLE " + table + " ALTER COLUMN " + column + " RENAME TO " + newName;
+		case MYSQL:
+			return "ALTER TABLE " + table + " CHANGE " + column + " " + newName + " " + type;
+		default:
+			return "ALTER TABLE " + table + " RENAME COLUMN " + column + " TO " + newName;
+		}
+	}
+
+	private static int sum(int[] updateCounts) {
+		int sum = 0;
+		for (int count : updateCounts) {
+			if (count > 0)
+				sum += count;
+		}
+
+		return sum;
+	}
+
+	private static void checkLayout(int layout) {
+		if ((layout < STRING) || (layout > LONG_PAIR))
+			throw new IllegalArgumentException("Unknown id layout " + layout);
+	}
+
+	private static void checkDatabase(int database) {
+		if ((database < HSQLDB) || (database > ORACLE))
+			throw new IllegalArgumentException("Unknown database " + database);
+	}
+}
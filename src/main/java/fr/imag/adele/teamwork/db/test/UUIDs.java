@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import java.util.UUID;
+
+/**
+ * Conversions of ids to and from their binary form.
+ * 
+ * The binary form of an id is 16 bytes: the most significant bits then the
+ * least significant bits, both big endian. Compared byte by byte as
+ * unsigned values, binary ids sort like their pairs of longs compared as
+ * unsigned, not like UUID.compareTo which compares signed longs.
+ */
+public class UUIDs {
+
+	public static final int BYTE_LENGTH = 16;
+
+	private UUIDs() {
+		// static helper
+	}
+
+	public static byte[] toBytes(UUID id) {
+		byte[] bytes = new byte[BYTE_LENGTH];
+		toBytes(id, bytes, 0);
+		return bytes;
+	}
+
+	/**
+	 * Writes the binary form of the id in <code>bytes</code> starting at
+	 * <code>offset</code>.
+	 */
+	public static void toBytes(UUID id, byte[] bytes, int offset) {
+		if (id == null)
+			throw new IllegalArgumentException("Id cannot be null.");
+
+		putLong(id.getMostSignificantBits(), bytes, offset);
+		putLong(id.getLeastSignificantBits(), bytes, offset + 8);
+	}
+
+	public static UUID fromBytes(byte[] bytes) {
+		if ((bytes == null) || (bytes.length != BYTE_LENGTH))
+			throw new IllegalArgumentException("An id must be 16 bytes long.");
+
+		return fromBytes(bytes, 0);
+	}
+
+	/**
+	 * Reads the id whose binary form starts at <code>offset</code>.
+	 */
+	public static UUID fromBytes(byte[] bytes, int offset) {
+		return new UUID(getLong(bytes, offset), getLong(bytes, offset + 8));
+	}
+
+	private static void putLong(long value, byte[] bytes, int offset) {
+		for (int i = 7; i >= 0; i--) {
+			bytes[offset + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	private static long getLong(byte[] bytes, int offset) {
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+			value = (value << 8) | (bytes[offset + i] & 0xFF);
+
+		return value;
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fr.imag.adele.teamwork.db.test;
+
+import fr.imag.adele.teamwork.db.*;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Defers the setObjectValue calls made in a transaction until the
+ * transaction is committed.
+ * 
+ * In a transaction started by beginTransaction, values are kept in memory
+ * by (object id, revision, attribute): writing an attribute several times
+ * only keeps the last value, and getObjectValue and getObjectState return
+ * the buffered values. On commitTransaction, the values of each revision are
+ * written with a single setObjectState call before the transaction is
+ * committed. On rollbackTransaction, they are discarded. Out of a
+ * transaction, calls go straight to the database.
+ * 
+ * Calls which read or copy states in the database, such as
+ * createNewObjectRevision, first flush the values of the object. Since an
+ * attribute which is not version specific is shared by all revisions,
+ * reading an attribute of a revision flushes the values buffered for the
+ * same attribute of the other revisions. Invalid values are reported by
+ * flush or commitTransaction instead of setObjectValue.
+ */
+public class WriteBuffer {
+
+	private static final int NO_REV = Integer.MIN_VALUE;
+
+	private ModelVersionDBService m_db;
+
+	/*
+	 * revision -> attribute -> value, in write order
+	 */
+	private Map<RevisionKey, Map<String, Object>> m_pending = new LinkedHashMap<RevisionKey, Map<String, Object>>();
+	private boolean m_inTransaction;
+
+	private long m_writeCount;
+	private long m_coalescedCount;
+	private long m_flushCallCount;
+
+	public WriteBuffer(ModelVersionDBService db) {
+		if (db == null)
+			throw new IllegalArgumentException("Database service cannot be null.");
+
+		m_db = db;
+	}
+
+	/*
+	 * Transaction methods
+	 */
+
+	public synchronized void beginTransaction() throws ModelVersionDBException, TransactionException {
+		m_db.beginTransaction();
+		m_inTransaction = true;
+	}
+
+	/**
+	 * Writes the buffered values then commits. If writing fails, the
+	 * transaction is still running and the values which have not been
+	 * written are still buffered.
+	 */
+	public synchronized void commitTransaction() throws ModelVersionDBException, TransactionException {
+		flush();
+		m_db.commitTransaction();
+		m_inTransaction = false;
+	}
+
+	public synchronized void rollbackTransaction() throws ModelVersionDBException, TransactionException {
+		m_pending.clear();
+		m_inTransaction = false;
+		m_db.rollbackTransaction();
+	}
+
+	public synchronized boolean hasTransaction() {
+		return m_inTransaction;
+	}
+
+	/*
+	 * Buffered methods
+	 */
+
+	public synchronized void setObjectValue(UUID objId, int rev, String attr, Object value) 
+			throws ModelVersionDBException {
+		if (!m_inTransaction || (objId == null) || (rev < 0) || (attr == null)) {
+			// LAST and ALL are resolved and errors are reported by the database
+			flush(objId);
+			m_db.setObjectValue(objId, rev, attr, value);
+			return;
+		}
+
+		// keeps the write order of attributes shared by all revisions
+		flush(objId, attr, rev);
+
+		RevisionKey key = new RevisionKey(objId, rev);
+		Map<String, Object> values = m_pending.get(key);
+		if (values == null) {
+			if (!m_db.objExists(objId, rev))
+				throw new IllegalArgumentException("Object " + objId + " has no revision " + rev);
+
+			values = new LinkedHashMap<String, Object>();
+			m_pending.put(key, values);
+		}
+		if (values.containsKey(attr))
+			m_coalescedCount++;
+		values.put(attr, value);
+		m_writeCount++;
+	}
+
+	public synchronized Object getObjectValue(UUID objId, int rev, String attr) throws ModelVersionDBException {
+		if ((objId != null) && (attr != null)) {
+			Map<String, Object> values = m_pending.get(new RevisionKey(objId, rev));
+			if ((values != null) && values.containsKey(attr))
+				return values.get(attr);
+
+			flush(objId, attr, NO_REV);
+		}
+
+		return m_db.getObjectValue(objId, rev, attr);
+	}
+
+	public synchronized Map<String, Object> getObjectState(UUID objId, int rev) throws ModelVersionDBException {
+		if (objId == null)
+			return m_db.getObjectState(objId, rev);
+
+		Map<String, Object> values = m_pending.get(new RevisionKey(objId, rev));
+		for (RevisionKey key : m_pending.keySet()) {
+			if (key.getId().equals(objId) && (key.getRev() != rev)) {
+				// values of attributes shared by all revisions may be buffered
+				flush(objId);
+				values = null;
+				break;
+			}
+		}
+
+		Map<String, Object> state = new HashMap<String, Object>(m_db.getObjectState(objId, rev));
+		if (values != null)
+			state.putAll(values);
+
+		return state;
+	}
+
+	/*
+	 * Methods flushing the buffered values first
+	 */
+
+	public synchronized void setObjectState(UUID objId, int rev, Map<String, Object> stateMap) 
+			throws ModelVersionDBException {
+		flush(objId);
+		m_db.setObjectState(objId, rev, stateMap);
+	}
+
+	public synchronized int createNewObjectRevision(UUID objId, int rev) throws ModelVersionDBException {
+		flush(objId);
+		return m_db.createNewObjectRevision(objId, rev);
+	}
+
+	public synchronized void setObjectAttVersionSpecific(UUID typeId, String attr, boolean versionSpecific) 
+			throws ModelVersionDBException {
+		flush();
+		m_db.setObjectAttVersionSpecific(typeId, attr, versionSpecific);
+	}
+
+	/**
+	 * Buffered values of the deleted object are discarded.
+	 */
+	public synchronized void deleteObject(UUID objId) throws ModelVersionDBException {
+		m_db.deleteObject(objId);
+		for (Iterator<RevisionKey> it = m_pending.keySet().iterator(); it.hasNext();) {
+			if (it.next().getId().equals(objId))
+				it.remove();
+		}
+	}
+
+	/**
+	 * Writes all buffered values to the database.
+	 */
+	public synchronized void flush() throws ModelVersionDBException {
+		for (Iterator<Map.Entry<RevisionKey, Map<String, Object>>> it = m_pending.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<RevisionKey, Map<String, Object>> entry = it.next();
+			write(entry.getKey(), entry.getValue());
+			it.remove();
+		}
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	/**
+	 * Returns the number of buffered setObjectValue calls.
+	 */
+	public synchronized long getWriteCount() {
+		return m_writeCount;
+	}
+
+	/**
+	 * Returns the number of buffered values overwritten before being
+	 * flushed.
+	 */
+	public synchronized long getCoalescedCount() {
+		return m_coalescedCount;
+	}
+
+	/**
+	 * Returns the number of database calls made to flush buffered values.
+	 */
+	public synchronized long getFlushCallCount() {
+		return m_flushCallCount;
+	}
+
+	/**
+	 * Returns the number of buffered values.
+	 */
+	public synchronized int getPendingCount() {
+		int count = 0;
+		for (Map<String, Object> values : m_pending.values())
+			count += values.size();
+
+		return count;
+	}
+
+	public synchronized void resetStatistics() {
+		m_writeCount = 0;
+		m_coalescedCount = 0;
+		m_flushCallCount = 0;
+	}
+
+	private void flush(UUID objId) throws ModelVersionDBException {
+		flush(objId, null, NO_REV);
+	}
+
+	/**
+	 * Writes the buffered values of an object, only those of the specified
+	 * attribute if it is not null, except those of revision
+	 * <code>exceptRev</code>.
+	 */
+	private void flush(UUID objId, String attr, int exceptRev) throws ModelVersionDBException {
+		if ((objId == null) || m_pending.isEmpty())
+			return;
+
+		for (Iterator<Map.Entry<RevisionKey, Map<String, Object>>> it = m_pending.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<RevisionKey, Map<String, Object>> entry = it.next();
+			if (!entry.getKey().getId().equals(objId) || (entry.getKey().getRev() == exceptRev))
+				continue;
+
+			Map<String, Object> values = entry.getValue();
+			if (attr == null) {
+				write(entry.getKey(), values);
+				it.remove();
+			} else if (values.containsKey(attr)) {
+				m_db.setObjectValue(objId, entry.getKey().getRev(), attr, values.get(attr));
+				m_flushCallCount++;
+				values.remove(attr);
+				if (values.isEmpty())
+					it.remove();
+			}
+		}
+	}
+
+	private void write(RevisionKey key, Map<String, Object> values) throws ModelVersionDBException {
+		m_db.setObjectState(key.getId(), key.getRev(), values);
+		m_flushCallCount++;
+	}
+}